@@ -0,0 +1,456 @@
+package burp;
+
+import burp.api.montoya.MontoyaApi;
+import burp.api.montoya.http.handler.HttpRequestToBeSent;
+import burp.api.montoya.http.handler.HttpResponseReceived;
+import burp.api.montoya.http.message.requests.HttpRequest;
+import burp.api.montoya.http.message.responses.HttpResponse;
+import burp.api.montoya.proxy.http.InterceptedRequest;
+import burp.api.montoya.proxy.http.InterceptedResponse;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * End-to-end load harness for the full handler chain
+ *
+ * Runs ProxyHandler and HttpHandler against MontoyaStub, in the order Burp
+ * calls them for proxied traffic, from N threads at a target rate:
+ *
+ *   client (encrypts) → ProxyHandler.handleRequestReceived → handleRequestToBeSent
+ *   → HttpHandler.handleHttpRequestToBeSent → AesJsonServer (decrypts, answers encrypted)
+ *   → HttpHandler.handleHttpResponseReceived → ProxyHandler.handleResponseReceived
+ *   → handleResponseToBeSent → client (decrypts and checks the echo)
+ *
+ * Reports sustained throughput, end-to-end and handler-only latency
+ * percentiles, and bytes allocated by the handler chain per message.
+ * Latency is measured from each message's scheduled send time, so a
+ * stalled chain is not hidden by the driver slowing down.
+ *
+ * Usage:
+ *   mvn package -Pharness
+ *   java -cp target/harness/destroy-aes-1.0.0.jar:montoya-api.jar burp.LoadHarness \
+ *        [--threads 8] [--rate 2000] [--duration 20] [--warmup 5] [--payload 256] [--mode CBC] [--lazy]
+ *        [--journal dir]
+ *
+ * A rate of 0 runs every thread flat out. --lazy turns off the eager proxy
+ * rewrite, which is the cost left when messages are only decrypted in the
+ * "Decrypted" editor tab. --journal records every transformed message in a
+ * TrafficJournal in that directory, to measure its cost on the handlers.
+ */
+public class LoadHarness {
+
+    private static final com.sun.management.ThreadMXBean THREADS =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    public static void main(String[] args) throws Exception {
+        int threads = 8;
+        int rate = 2000;
+        int durationSeconds = 20;
+        int warmupSeconds = 5;
+        int payloadSize = 256;
+        String mode = "CBC";
+        boolean eager = true;
+        String journalDirectory = null;
+
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--threads": threads = Integer.parseInt(args[++i]); break;
+                case "--rate": rate = Integer.parseInt(args[++i]); break;
+                case "--duration": durationSeconds = Integer.parseInt(args[++i]); break;
+                case "--warmup": warmupSeconds = Integer.parseInt(args[++i]); break;
+                case "--payload": payloadSize = Integer.parseInt(args[++i]); break;
+                case "--mode": mode = args[++i]; break;
+                case "--lazy": eager = false; break;
+                case "--journal": journalDirectory = args[++i]; break;
+                default:
+                    System.err.println("Unknown argument: " + args[i]);
+                    System.exit(1);
+            }
+        }
+
+        CryptoConfig config = new CryptoConfig();
+        config.setMode(mode);
+        config.setPadding("GCM".equals(mode) ? "NoPadding" : "PKCS5Padding");
+        config.setKeySize(256);
+        config.setKeyBase64(CryptoHelper.generateKey(256));
+        config.setIvBase64(CryptoHelper.generateIV(mode));
+        config.setEnabled(true);
+        config.setEagerProxyRewrite(eager);
+        if (journalDirectory != null) {
+            config.setJournalEnabled(true);
+            config.setJournalDirectory(journalDirectory);
+        }
+
+        MontoyaStub.install();
+        CountingLogging logging = new CountingLogging();
+        MontoyaApi api = MontoyaStub.api(logging);
+        TrafficJournal journal = new TrafficJournal(config, api.logging());
+        ProxyHandler proxyHandler = new ProxyHandler(config, api, journal);
+        HttpHandler httpHandler = new HttpHandler(config, api, journal);
+
+        AesJsonServer server = new AesJsonServer(config);
+        server.start();
+
+        System.out.println("Destroy AES load harness: " + config.getAlgorithm() + ", " + threads
+                + " threads, target " + (rate > 0 ? rate + " msg/s" : "unbounded") + ", payload " + payloadSize);
+
+        char[] filler = new char[payloadSize];
+        Arrays.fill(filler, 'x');
+        String pad = new String(filler);
+
+        long intervalNanos = rate > 0 ? 1_000_000_000L * threads / rate : 0;
+        long start = System.nanoTime();
+        long measureFrom = start + warmupSeconds * 1_000_000_000L;
+        long end = measureFrom + durationSeconds * 1_000_000_000L;
+
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        CountDownLatch done = new CountDownLatch(threads);
+        List<Driver> drivers = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            Driver driver = new Driver(t, config, proxyHandler, httpHandler, server.getPort(), pad,
+                    start + t * (intervalNanos / threads), intervalNanos, measureFrom, end);
+            drivers.add(driver);
+            pool.execute(() -> {
+                driver.run();
+                done.countDown();
+            });
+        }
+        done.await();
+        pool.shutdown();
+        server.stop();
+
+        report(drivers, measureFrom, logging);
+        journal.close();
+        if (journalDirectory != null) {
+            System.out.printf("journal:     %d records written, %d dropped%n", journal.getWritten(), journal.getDropped());
+        }
+    }
+
+    private static void report(List<Driver> drivers, long measureFrom, CountingLogging logging) {
+        int total = 0;
+        long failures = 0;
+        long lastCompletion = measureFrom;
+        for (Driver d : drivers) {
+            total += d.samples;
+            failures += d.failures;
+            lastCompletion = Math.max(lastCompletion, d.lastCompletion);
+        }
+        double seconds = Math.max(1, lastCompletion - measureFrom) / 1e9;
+        long[] latency = new long[total];
+        long[] handler = new long[total];
+        long[] alloc = new long[total];
+        int pos = 0;
+        for (Driver d : drivers) {
+            System.arraycopy(d.latency, 0, latency, pos, d.samples);
+            System.arraycopy(d.handler, 0, handler, pos, d.samples);
+            System.arraycopy(d.alloc, 0, alloc, pos, d.samples);
+            pos += d.samples;
+        }
+        Arrays.sort(latency);
+        Arrays.sort(handler);
+        long allocTotal = 0;
+        for (long a : alloc) {
+            allocTotal += a;
+        }
+
+        System.out.println("messages:    " + total + " ok, " + failures + " failed, "
+                + logging.errors.get() + " handler errors");
+        System.out.printf("throughput:  %.0f msg/s sustained over %.1fs%n", total / seconds, seconds);
+        System.out.printf("end-to-end:  p50=%.3fms p99=%.3fms p999=%.3fms max=%.3fms%n",
+                pct(latency, 0.50), pct(latency, 0.99), pct(latency, 0.999), pct(latency, 1.0));
+        System.out.printf("handlers:    p50=%.3fms p99=%.3fms p999=%.3fms max=%.3fms%n",
+                pct(handler, 0.50), pct(handler, 0.99), pct(handler, 0.999), pct(handler, 1.0));
+        System.out.printf("allocation:  %.1f KB/msg in the handler chain%n",
+                total == 0 ? 0 : allocTotal / 1024.0 / total);
+        if (logging.firstError != null) {
+            System.out.println("first error: " + logging.firstError);
+        }
+    }
+
+    private static double pct(long[] sorted, double p) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        int index = (int) Math.min(sorted.length - 1, Math.ceil(p * sorted.length) - 1);
+        return sorted[Math.max(0, index)] / 1e6;
+    }
+
+    /**
+     * One driver thread with its own keep-alive connection to the server
+     */
+    private static class Driver {
+        final int id;
+        final CryptoConfig config;
+        final ProxyHandler proxyHandler;
+        final HttpHandler httpHandler;
+        final int port;
+        final String pad;
+        final long firstSend;
+        final long intervalNanos;
+        final long measureFrom;
+        final long end;
+
+        long[] latency = new long[1 << 14];
+        long[] handler = new long[1 << 14];
+        long[] alloc = new long[1 << 14];
+        int samples;
+        long failures;
+        long lastCompletion;
+
+        Driver(int id, CryptoConfig config, ProxyHandler proxyHandler, HttpHandler httpHandler, int port,
+               String pad, long firstSend, long intervalNanos, long measureFrom, long end) {
+            this.id = id;
+            this.config = config;
+            this.proxyHandler = proxyHandler;
+            this.httpHandler = httpHandler;
+            this.port = port;
+            this.pad = pad;
+            this.firstSend = firstSend;
+            this.intervalNanos = intervalNanos;
+            this.measureFrom = measureFrom;
+            this.end = end;
+        }
+
+        void run() {
+            long threadId = Thread.currentThread().getId();
+            byte[] buffer = new byte[16 * 1024];
+
+            try (Socket socket = new Socket("127.0.0.1", port)) {
+                socket.setTcpNoDelay(true);
+                InputStream in = socket.getInputStream();
+                OutputStream out = socket.getOutputStream();
+
+                long scheduled = firstSend;
+                for (long seq = 0; ; seq++) {
+                    if (intervalNanos > 0) {
+                        scheduled += intervalNanos;
+                        long wait;
+                        while ((wait = scheduled - System.nanoTime()) > 0) {
+                            LockSupport.parkNanos(wait);
+                        }
+                    } else {
+                        scheduled = System.nanoTime();
+                    }
+                    if (scheduled >= end) {
+                        return;
+                    }
+
+                    // Lo que enviaría la aplicación: el campo ya cifrado
+                    String plain = "{\"user\":\"driver" + id + "\",\"seq\":" + seq + ",\"pad\":\"" + pad + "\"}";
+                    RawHttpMessage raw = new RawHttpMessage("POST /api/harness HTTP/1.1", new ArrayList<>(),
+                            ("{\"" + config.getRequestParameter() + "\":\""
+                                    + CryptoHelper.encrypt(plain, config) + "\"}").getBytes(StandardCharsets.UTF_8));
+                    raw.setHeader("Host", "127.0.0.1:" + port);
+                    raw.setHeader("Content-Type", "application/json");
+                    HttpRequest request = MontoyaStub.request("127.0.0.1", port, false, raw);
+
+                    long alloc0 = THREADS.getThreadAllocatedBytes(threadId);
+                    long h0 = System.nanoTime();
+                    request = proxyHandler.handleRequestReceived((InterceptedRequest) request).request();
+                    request = proxyHandler.handleRequestToBeSent((InterceptedRequest) request).request();
+                    request = httpHandler.handleHttpRequestToBeSent((HttpRequestToBeSent) request).request();
+                    long handlerNanos = System.nanoTime() - h0;
+                    long allocBytes = THREADS.getThreadAllocatedBytes(threadId) - alloc0;
+
+                    out.write(MontoyaStub.raw(request).toBytes());
+                    out.flush();
+                    RawHttpMessage rawResponse;
+                    int length = 0;
+                    while ((rawResponse = RawHttpMessage.tryParse(buffer, length, true, false, false)) == null) {
+                        if (length == buffer.length) {
+                            buffer = Arrays.copyOf(buffer, buffer.length * 2);
+                        }
+                        int n = in.read(buffer, length, buffer.length - length);
+                        if (n < 0) {
+                            throw new IOException("Server closed the connection");
+                        }
+                        length += n;
+                    }
+                    HttpResponse response = MontoyaStub.response(request, rawResponse);
+
+                    alloc0 = THREADS.getThreadAllocatedBytes(threadId);
+                    h0 = System.nanoTime();
+                    response = httpHandler.handleHttpResponseReceived((HttpResponseReceived) response).response();
+                    response = proxyHandler.handleResponseReceived((InterceptedResponse) response).response();
+                    response = proxyHandler.handleResponseToBeSent((InterceptedResponse) response).response();
+                    handlerNanos += System.nanoTime() - h0;
+                    allocBytes += THREADS.getThreadAllocatedBytes(threadId) - alloc0;
+                    long completion = System.nanoTime();
+                    long latencyNanos = completion - scheduled;
+
+                    boolean ok = verify(response, seq);
+                    if (scheduled >= measureFrom) {
+                        lastCompletion = completion;
+                        if (!ok) {
+                            failures++;
+                        } else {
+                            record(latencyNanos, handlerNanos, allocBytes);
+                        }
+                    }
+                }
+            } catch (Exception e) {
+                System.err.println("Driver " + id + " stopped: " + e);
+                failures++;
+            }
+        }
+
+        /**
+         * The client must get back its own message, encrypted again
+         */
+        private boolean verify(HttpResponse response, long seq) {
+            try {
+                JsonObject body = JsonParser.parseString(response.bodyToString()).getAsJsonObject();
+                String decrypted = CryptoHelper.decrypt(body.get(config.getResponseParameter()).getAsString(), config);
+                JsonObject echo = JsonParser.parseString(decrypted).getAsJsonObject().getAsJsonObject("echo");
+                return echo.get("user").getAsString().equals("driver" + id) && echo.get("seq").getAsLong() == seq;
+            } catch (Exception e) {
+                return false;
+            }
+        }
+
+        private void record(long latencyNanos, long handlerNanos, long allocBytes) {
+            if (samples == latency.length) {
+                latency = Arrays.copyOf(latency, samples * 2);
+                handler = Arrays.copyOf(handler, samples * 2);
+                alloc = Arrays.copyOf(alloc, samples * 2);
+            }
+            latency[samples] = latencyNanos;
+            handler[samples] = handlerNanos;
+            alloc[samples] = allocBytes;
+            samples++;
+        }
+    }
+
+    /**
+     * Local server speaking the configured AES-JSON protocol: decrypts the
+     * request field and answers {"ok":true,"echo":<plaintext>} encrypted in
+     * the response field
+     */
+    static class AesJsonServer {
+        private final CryptoConfig config;
+        private final ServerSocket server;
+        private final ExecutorService pool = Executors.newCachedThreadPool(r -> {
+            Thread t = new Thread(r, "aes-json-server");
+            t.setDaemon(true);
+            return t;
+        });
+
+        AesJsonServer(CryptoConfig config) throws IOException {
+            this.config = config;
+            this.server = new ServerSocket();
+            server.bind(new InetSocketAddress("127.0.0.1", 0), 1024);
+        }
+
+        int getPort() {
+            return server.getLocalPort();
+        }
+
+        void start() {
+            pool.execute(() -> {
+                while (!server.isClosed()) {
+                    try {
+                        Socket socket = server.accept();
+                        socket.setTcpNoDelay(true);
+                        pool.execute(() -> serve(socket));
+                    } catch (IOException e) {
+                        // Servidor cerrado
+                    }
+                }
+            });
+        }
+
+        private void serve(Socket socket) {
+            try (Socket s = socket) {
+                InputStream in = s.getInputStream();
+                OutputStream out = s.getOutputStream();
+                byte[] buffer = new byte[16 * 1024];
+                int length = 0;
+                while (true) {
+                    RawHttpMessage request = RawHttpMessage.tryParse(buffer, length, false, false, false);
+                    if (request == null) {
+                        if (length == buffer.length) {
+                            buffer = Arrays.copyOf(buffer, buffer.length * 2);
+                        }
+                        int n = in.read(buffer, length, buffer.length - length);
+                        if (n < 0) {
+                            return;
+                        }
+                        length += n;
+                        continue;
+                    }
+                    System.arraycopy(buffer, request.consumed, buffer, 0, length - request.consumed);
+                    length -= request.consumed;
+                    out.write(respond(request).toBytes());
+                    out.flush();
+                }
+            } catch (Exception e) {
+                // Conexión cerrada
+            }
+        }
+
+        private RawHttpMessage respond(RawHttpMessage request) {
+            String status = "HTTP/1.1 200 OK";
+            JsonObject body = new JsonObject();
+            try {
+                JsonObject json = JsonParser.parseString(new String(request.body, StandardCharsets.UTF_8))
+                        .getAsJsonObject();
+                String plain = CryptoHelper.decrypt(json.get(config.getRequestParameter()).getAsString(), config);
+                JsonElement parsed = JsonParser.parseString(plain);
+
+                JsonObject reply = new JsonObject();
+                reply.addProperty("ok", true);
+                reply.add("echo", parsed);
+                body.addProperty(config.getResponseParameter(), CryptoHelper.encrypt(reply.toString(), config));
+            } catch (Exception e) {
+                status = "HTTP/1.1 400 Bad Request";
+                body.addProperty("error", String.valueOf(e.getMessage()));
+            }
+            RawHttpMessage response = new RawHttpMessage(status, new ArrayList<>(),
+                    body.toString().getBytes(StandardCharsets.UTF_8));
+            response.setHeader("Content-Type", "application/json");
+            return response;
+        }
+
+        void stop() throws IOException {
+            server.close();
+            pool.shutdownNow();
+        }
+    }
+
+    /**
+     * Silent logging that counts handler errors
+     */
+    private static class CountingLogging extends ConsoleLogging {
+        final AtomicLong errors = new AtomicLong();
+        volatile String firstError;
+
+        CountingLogging() {
+            super(false);
+        }
+
+        @Override
+        public void logToError(String message) {
+            if (errors.getAndIncrement() == 0) {
+                firstError = message;
+            }
+        }
+    }
+}
@@ -0,0 +1,522 @@
+package burp;
+
+import burp.api.montoya.MontoyaApi;
+import burp.api.montoya.core.ByteArray;
+import burp.api.montoya.core.Registration;
+import burp.api.montoya.core.ToolSource;
+import burp.api.montoya.core.ToolType;
+import burp.api.montoya.http.HttpService;
+import burp.api.montoya.http.handler.HttpRequestToBeSent;
+import burp.api.montoya.http.handler.HttpResponseReceived;
+import burp.api.montoya.http.message.HttpHeader;
+import burp.api.montoya.http.message.params.HttpParameter;
+import burp.api.montoya.http.message.params.HttpParameterType;
+import burp.api.montoya.http.message.requests.HttpRequest;
+import burp.api.montoya.http.message.responses.HttpResponse;
+import burp.api.montoya.internal.MontoyaObjectFactory;
+import burp.api.montoya.internal.ObjectFactoryLocator;
+import burp.api.montoya.logging.Logging;
+import burp.api.montoya.proxy.http.InterceptedRequest;
+import burp.api.montoya.proxy.http.InterceptedResponse;
+import burp.api.montoya.proxy.websocket.InterceptedBinaryMessage;
+import burp.api.montoya.proxy.websocket.InterceptedTextMessage;
+import burp.api.montoya.proxy.websocket.ProxyMessageHandler;
+import burp.api.montoya.proxy.websocket.ProxyWebSocket;
+import burp.api.montoya.proxy.websocket.ProxyWebSocketCreation;
+import burp.api.montoya.websocket.BinaryMessage;
+import burp.api.montoya.websocket.Direction;
+import burp.api.montoya.websocket.TextMessage;
+
+import java.lang.reflect.Array;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * In-process stub of the Montoya interfaces the handlers use
+ *
+ * Lets ProxyHandler, HttpHandler and WebSocketHandler run outside Burp
+ * (LoadHarness, WebSocketBenchmark). Built on dynamic proxies so only the
+ * methods the handlers call need an implementation; anything else throws
+ * UnsupportedOperationException naming the method, so a handler starting to
+ * use a new API shows up immediately.
+ *
+ * Messages are backed by RawHttpMessage and are immutable: every with*()
+ * call returns a new message, as in Burp.
+ *
+ * install() replaces the global ObjectFactoryLocator.FACTORY, which would
+ * break the real API inside Burp: the stub is in src/harness and only the
+ * harness profile compiles it, never into the extension jar.
+ */
+final class MontoyaStub {
+
+    private static final AtomicInteger MESSAGE_IDS = new AtomicInteger();
+
+    private MontoyaStub() {
+    }
+
+    /**
+     * Installs the object factory behind the static Montoya factories
+     * (continueWith, ByteArray.byteArray, HttpHeader.httpHeader...)
+     */
+    static void install() {
+        ObjectFactoryLocator.FACTORY = proxy(MontoyaObjectFactory.class, MontoyaStub::factory);
+    }
+
+    /**
+     * MontoyaApi whose registration calls are no-ops and whose logging goes to the given sink
+     */
+    static MontoyaApi api(Logging logging) {
+        return proxy(MontoyaApi.class, (p, method, args) -> {
+            if (method.getName().equals("logging")) {
+                return logging;
+            }
+            return noop(method.getReturnType());
+        });
+    }
+
+    /**
+     * Request usable as InterceptedRequest and HttpRequestToBeSent
+     */
+    static HttpRequest request(String host, int port, boolean secure, RawHttpMessage raw) {
+        HttpService service = proxy(HttpService.class, (p, method, args) -> {
+            switch (method.getName()) {
+                case "host": return host;
+                case "port": return port;
+                case "secure": return secure;
+                case "ipAddress": return "127.0.0.1";
+                case "toString": return (secure ? "https://" : "http://") + host + ":" + port;
+                default: return unsupported(method);
+            }
+        });
+        return new StubMessage(raw, service, null, true, MESSAGE_IDS.incrementAndGet()).asRequest();
+    }
+
+    /**
+     * Response usable as InterceptedResponse and HttpResponseReceived
+     */
+    static HttpResponse response(HttpRequest initiatingRequest, RawHttpMessage raw) {
+        int messageId = Proxy.isProxyClass(initiatingRequest.getClass())
+                && Proxy.getInvocationHandler(initiatingRequest) instanceof StubMessage
+                ? ((StubMessage) Proxy.getInvocationHandler(initiatingRequest)).messageId
+                : MESSAGE_IDS.incrementAndGet();
+        return new StubMessage(raw, initiatingRequest.httpService(), initiatingRequest, false, messageId).asResponse();
+    }
+
+    /**
+     * Raw form of a stub message
+     */
+    static RawHttpMessage raw(Object message) {
+        if (Proxy.isProxyClass(message.getClass())
+                && Proxy.getInvocationHandler(message) instanceof StubMessage) {
+            return ((StubMessage) Proxy.getInvocationHandler(message)).raw;
+        }
+        throw new IllegalArgumentException("Not a stub message: " + message.getClass());
+    }
+
+    private static Object factory(Object p, Method method, Object[] args) {
+        String name = method.getName();
+        Class<?> type = method.getReturnType();
+
+        if (name.equals("byteArray") && args.length == 1 && args[0] instanceof byte[]) {
+            return byteArray((byte[]) args[0]);
+        }
+        if (name.equals("byteArray") && args.length == 1 && args[0] instanceof String) {
+            return byteArray(((String) args[0]).getBytes(StandardCharsets.ISO_8859_1));
+        }
+        if (name.equals("httpHeader") && args.length == 2) {
+            return header((String) args[0], (String) args[1]);
+        }
+        if (name.equals("cookieParameter") || name.equals("urlParameter")) {
+            return parameter((String) args[0], (String) args[1],
+                    name.equals("cookieParameter") ? HttpParameterType.COOKIE : HttpParameterType.URL);
+        }
+
+        // Acciones de los handlers: continueWith(mensaje) y variantes
+        if (args != null && args.length > 0
+                && (args[0] instanceof HttpRequest || args[0] instanceof HttpResponse)) {
+            Object message = args[0];
+            return proxy(type, (action, m, a) -> {
+                switch (m.getName()) {
+                    case "request":
+                    case "response":
+                        return message;
+                    case "toString":
+                        return type.getSimpleName() + "(" + message + ")";
+                    default:
+                        return null;
+                }
+            });
+        }
+
+        // Acciones de los handlers WebSocket: continueWith(payload o mensaje) y variantes
+        if (args != null && args.length == 1 && type.getPackageName().endsWith(".websocket")) {
+            Object payload = args[0] instanceof TextMessage ? ((TextMessage) args[0]).payload()
+                    : args[0] instanceof BinaryMessage ? ((BinaryMessage) args[0]).payload() : args[0];
+            return proxy(type, (action, m, a) -> {
+                switch (m.getName()) {
+                    case "payload":
+                        return payload;
+                    case "toString":
+                        return type.getSimpleName() + "(" + payload + ")";
+                    default:
+                        return null;
+                }
+            });
+        }
+
+        return unsupported(method);
+    }
+
+    /**
+     * Handshake of a proxied WebSocket; the message handler the extension
+     * registers is handed to the given consumer
+     */
+    static ProxyWebSocketCreation webSocketCreation(HttpRequest upgradeRequest,
+                                                    Consumer<ProxyMessageHandler> registered) {
+        ProxyWebSocket webSocket = proxy(ProxyWebSocket.class, (p, method, args) -> {
+            if (method.getName().equals("registerProxyMessageHandler")) {
+                registered.accept((ProxyMessageHandler) args[0]);
+                return proxy(Registration.class, (r, m, a) -> noop(m.getReturnType()));
+            }
+            return unsupported(method);
+        });
+        return proxy(ProxyWebSocketCreation.class, (p, method, args) -> {
+            switch (method.getName()) {
+                case "proxyWebSocket": return webSocket;
+                case "upgradeRequest": return upgradeRequest;
+                default: return unsupported(method);
+            }
+        });
+    }
+
+    static InterceptedTextMessage textMessage(String payload, Direction direction) {
+        return proxy(InterceptedTextMessage.class, (p, method, args) -> {
+            switch (method.getName()) {
+                case "payload": return payload;
+                case "direction": return direction;
+                case "annotations": return null;
+                case "toString": return payload;
+                default: return unsupported(method);
+            }
+        });
+    }
+
+    static InterceptedBinaryMessage binaryMessage(byte[] payload, Direction direction) {
+        ByteArray bytes = byteArray(payload);
+        return proxy(InterceptedBinaryMessage.class, (p, method, args) -> {
+            switch (method.getName()) {
+                case "payload": return bytes;
+                case "direction": return direction;
+                case "annotations": return null;
+                case "toString": return bytes.toString();
+                default: return unsupported(method);
+            }
+        });
+    }
+
+    static ByteArray byteArray(byte[] bytes) {
+        return proxy(ByteArray.class, (p, method, args) -> {
+            switch (method.getName()) {
+                case "getBytes": return bytes.clone();
+                case "length": return bytes.length;
+                case "getByte": return bytes[(Integer) args[0]];
+                case "toString": return new String(bytes, StandardCharsets.ISO_8859_1);
+                default: return unsupported(method);
+            }
+        });
+    }
+
+    static HttpHeader header(String name, String value) {
+        return proxy(HttpHeader.class, (p, method, args) -> {
+            switch (method.getName()) {
+                case "name": return name;
+                case "value": return value;
+                case "toString": return name + ": " + value;
+                default: return unsupported(method);
+            }
+        });
+    }
+
+    static HttpParameter parameter(String name, String value, HttpParameterType type) {
+        return proxy(HttpParameter.class, (p, method, args) -> {
+            switch (method.getName()) {
+                case "name": return name;
+                case "value": return value;
+                case "type": return type;
+                case "toString": return name + "=" + value;
+                default: return unsupported(method);
+            }
+        });
+    }
+
+    static ToolSource toolSource(ToolType type) {
+        return proxy(ToolSource.class, (p, method, args) -> {
+            switch (method.getName()) {
+                case "toolType": return type;
+                case "isFromTool": return Arrays.asList((ToolType[]) args[0]).contains(type);
+                case "toString": return type.toolName();
+                default: return unsupported(method);
+            }
+        });
+    }
+
+    /**
+     * Backing state of a stub request or response
+     */
+    private static class StubMessage implements InvocationHandler {
+        final RawHttpMessage raw;
+        final HttpService service;
+        final HttpRequest initiatingRequest;
+        final boolean isRequest;
+        // Como en Burp: las copias conservan el id y la response lleva el de su request
+        final int messageId;
+
+        StubMessage(RawHttpMessage raw, HttpService service, HttpRequest initiatingRequest, boolean isRequest,
+                    int messageId) {
+            this.raw = raw;
+            this.service = service;
+            this.initiatingRequest = initiatingRequest;
+            this.isRequest = isRequest;
+            this.messageId = messageId;
+        }
+
+        HttpRequest asRequest() {
+            return (HttpRequest) Proxy.newProxyInstance(MontoyaStub.class.getClassLoader(),
+                    new Class<?>[]{InterceptedRequest.class, HttpRequestToBeSent.class}, this);
+        }
+
+        HttpResponse asResponse() {
+            return (HttpResponse) Proxy.newProxyInstance(MontoyaStub.class.getClassLoader(),
+                    new Class<?>[]{InterceptedResponse.class, HttpResponseReceived.class}, this);
+        }
+
+        private Object with(RawHttpMessage copy) {
+            StubMessage message = new StubMessage(copy, service, initiatingRequest, isRequest, messageId);
+            return isRequest ? message.asRequest() : message.asResponse();
+        }
+
+        private RawHttpMessage copy() {
+            List<String[]> headers = new ArrayList<>(raw.headers.size());
+            for (String[] header : raw.headers) {
+                headers.add(header.clone());
+            }
+            return new RawHttpMessage(raw.startLine, headers, raw.body);
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) {
+            String name = method.getName();
+            int argc = args == null ? 0 : args.length;
+            String[] startLine = raw.startLine.split(" ", 3);
+
+            switch (name) {
+                case "bodyToString":
+                    return new String(raw.body, StandardCharsets.UTF_8);
+                case "body":
+                    return byteArray(raw.body);
+                case "bodyOffset":
+                    return raw.toBytes().length - raw.body.length;
+                case "toByteArray":
+                    return byteArray(raw.toBytes());
+                case "toString":
+                    return new String(raw.toBytes(), StandardCharsets.ISO_8859_1);
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "equals":
+                    return proxy == args[0];
+                case "withBody": {
+                    RawHttpMessage copy = copy();
+                    copy.body = args[0] instanceof String
+                            ? ((String) args[0]).getBytes(StandardCharsets.UTF_8)
+                            : ((ByteArray) args[0]).getBytes();
+                    return with(copy);
+                }
+                case "headers": {
+                    List<HttpHeader> headers = new ArrayList<>(raw.headers.size());
+                    for (String[] header : raw.headers) {
+                        headers.add(header(header[0], header[1]));
+                    }
+                    return headers;
+                }
+                case "headerValue":
+                    return raw.header((String) args[0]);
+                case "hasHeader":
+                    return argc == 1 && args[0] instanceof String && raw.header((String) args[0]) != null;
+                case "withHeader":
+                case "withUpdatedHeader":
+                case "withAddedHeader": {
+                    String headerName = argc == 2 ? (String) args[0] : ((HttpHeader) args[0]).name();
+                    String headerValue = argc == 2 ? (String) args[1] : ((HttpHeader) args[0]).value();
+                    RawHttpMessage copy = copy();
+                    if (name.equals("withAddedHeader")) {
+                        copy.headers.add(new String[]{headerName, headerValue});
+                    } else {
+                        copy.setHeader(headerName, headerValue);
+                    }
+                    return with(copy);
+                }
+                case "withRemovedHeader": {
+                    RawHttpMessage copy = copy();
+                    copy.removeHeader(args[0] instanceof String ? (String) args[0] : ((HttpHeader) args[0]).name());
+                    return with(copy);
+                }
+                case "parameterValue":
+                    return parameterValue(raw, (String) args[0], (HttpParameterType) args[1]);
+                case "cookieValue": {
+                    // Response: valor de la cookie en sus cabeceras Set-Cookie
+                    for (String[] header : raw.headers) {
+                        String value = header[0].equalsIgnoreCase("Set-Cookie")
+                                ? pairValue(header[1].split(";", 2)[0], (String) args[0]) : null;
+                        if (value != null) {
+                            return value;
+                        }
+                    }
+                    return null;
+                }
+                case "withUpdatedParameters": {
+                    List<?> parameters = args[0] instanceof List ? (List<?>) args[0] : Arrays.asList((Object[]) args[0]);
+                    RawHttpMessage copy = copy();
+                    for (Object parameter : parameters) {
+                        copy = updateParameter(copy, (HttpParameter) parameter);
+                    }
+                    return with(copy);
+                }
+                case "method":
+                    return startLine[0];
+                case "path":
+                    return startLine.length > 1 ? startLine[1] : "/";
+                case "pathWithoutQuery": {
+                    String path = startLine.length > 1 ? startLine[1] : "/";
+                    int query = path.indexOf('?');
+                    return query >= 0 ? path.substring(0, query) : path;
+                }
+                case "url":
+                    return service + (startLine.length > 1 ? startLine[1] : "/");
+                case "httpVersion":
+                    return isRequest ? startLine[startLine.length - 1] : startLine[0];
+                case "httpService":
+                    return service;
+                case "statusCode":
+                    return (short) raw.statusCode();
+                case "reasonPhrase":
+                    return startLine.length > 2 ? startLine[2] : "";
+                case "request":
+                case "initiatingRequest":
+                    return initiatingRequest;
+                case "messageId":
+                    return messageId;
+                case "isInScope":
+                    return true;
+                case "toolSource":
+                    return toolSource(ToolType.PROXY);
+                case "annotations":
+                    return null;
+                default:
+                    return unsupported(method);
+            }
+        }
+    }
+
+    /**
+     * Cookie o parámetro de la query tal cual aparece (sin decodificar), como Burp
+     */
+    private static String parameterValue(RawHttpMessage raw, String name, HttpParameterType type) {
+        String pairs = type == HttpParameterType.COOKIE ? raw.header("Cookie") : query(raw.startLine);
+        if (pairs == null) {
+            return null;
+        }
+        for (String pair : pairs.split(type == HttpParameterType.COOKIE ? ";" : "&")) {
+            String value = pairValue(pair, name);
+            if (value != null) {
+                return value;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Actualiza la cookie o el parámetro de la query, o lo añade si no está
+     */
+    private static RawHttpMessage updateParameter(RawHttpMessage message, HttpParameter parameter) {
+        boolean cookie = parameter.type() == HttpParameterType.COOKIE;
+        String pairs = cookie ? message.header("Cookie") : query(message.startLine);
+        String updated = replacePair(pairs, cookie ? ";" : "&", cookie ? "; " : "&",
+                parameter.name(), parameter.name() + "=" + parameter.value());
+        if (cookie) {
+            message.setHeader("Cookie", updated);
+            return message;
+        }
+        String[] startLine = message.startLine.split(" ", 3);
+        String path = startLine.length > 1 ? startLine[1] : "/";
+        int query = path.indexOf('?');
+        startLine[1] = (query >= 0 ? path.substring(0, query) : path) + "?" + updated;
+        return new RawHttpMessage(String.join(" ", startLine), message.headers, message.body);
+    }
+
+    private static String query(String startLine) {
+        String[] parts = startLine.split(" ", 3);
+        int query = parts.length > 1 ? parts[1].indexOf('?') : -1;
+        return query >= 0 ? parts[1].substring(query + 1) : null;
+    }
+
+    /**
+     * Valor de "name=value" (espacios alrededor ignorados) si el nombre coincide, o null
+     */
+    private static String pairValue(String pair, String name) {
+        int equals = pair.indexOf('=');
+        return equals >= 0 && pair.substring(0, equals).trim().equals(name)
+                ? pair.substring(equals + 1).trim() : null;
+    }
+
+    private static String replacePair(String pairs, String separator, String joiner, String name, String replacement) {
+        if (pairs == null || pairs.isEmpty()) {
+            return replacement;
+        }
+        List<String> result = new ArrayList<>();
+        boolean replaced = false;
+        for (String pair : pairs.split(separator)) {
+            if (!replaced && pairValue(pair, name) != null) {
+                result.add(replacement);
+                replaced = true;
+            } else {
+                result.add(pair.trim());
+            }
+        }
+        if (!replaced) {
+            result.add(replacement);
+        }
+        return String.join(joiner, result);
+    }
+
+    private static Object noop(Class<?> type) {
+        if (type == void.class) {
+            return null;
+        }
+        if (type.isPrimitive()) {
+            // El cero del tipo exacto (false, 0L, 0.0...): un Integer no vale para long o double
+            return Array.get(Array.newInstance(type, 1), 0);
+        }
+        if (type.isInterface()) {
+            // Registros y sub-APIs: aceptar todo sin hacer nada
+            return proxy(type, (p, method, args) -> noop(method.getReturnType()));
+        }
+        return null;
+    }
+
+    private static Object unsupported(Method method) {
+        throw new UnsupportedOperationException("MontoyaStub: " + method.getDeclaringClass().getSimpleName()
+                + "." + method.getName() + " not implemented");
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T proxy(Class<T> type, InvocationHandler handler) {
+        return (T) Proxy.newProxyInstance(MontoyaStub.class.getClassLoader(), new Class<?>[]{type}, handler);
+    }
+}
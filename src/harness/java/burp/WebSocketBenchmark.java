@@ -0,0 +1,238 @@
+package burp;
+
+import burp.api.montoya.MontoyaApi;
+import burp.api.montoya.http.message.requests.HttpRequest;
+import burp.api.montoya.proxy.websocket.ProxyMessageHandler;
+import burp.api.montoya.websocket.Direction;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Sustained frames/sec through WebSocketHandler
+ *
+ * Opens one stub WebSocket connection per thread and pushes frames through
+ * the handler in the order Burp calls it for proxied traffic:
+ *
+ *   client frame (encrypted) → handleTextMessageReceived (decrypts)
+ *   → handleTextMessageToBeSent (re-encrypts) → server
+ *
+ * and the same for server → client frames. Every forwarded frame is checked
+ * against the original ciphertext (CBC/ECB with a fixed IV are
+ * deterministic, so re-encryption must reproduce it byte for byte).
+ *
+ * For comparison it also times the per-message HTTP path
+ * (MessageTransformer: Gson tree + Cipher.getInstance per call) on the
+ * same payloads.
+ *
+ * Usage:
+ *   mvn package -Pharness
+ *   java -cp target/harness/destroy-aes-1.0.0.jar:montoya-api.jar burp.WebSocketBenchmark \
+ *        [--threads 4] [--payload 512] [--millis 3000] [--mode CBC] [--binary]
+ */
+public class WebSocketBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int threads = 4;
+        int payloadSize = 512;
+        long millis = 3000;
+        String mode = "CBC";
+        boolean binary = false;
+
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--threads": threads = Integer.parseInt(args[++i]); break;
+                case "--payload": payloadSize = Integer.parseInt(args[++i]); break;
+                case "--millis": millis = Long.parseLong(args[++i]); break;
+                case "--mode": mode = args[++i]; break;
+                case "--binary": binary = true; break;
+                default:
+                    System.err.println("Unknown argument: " + args[i]);
+                    System.exit(1);
+            }
+        }
+
+        CryptoConfig config = new CryptoConfig();
+        config.setMode(mode);
+        config.setPadding("GCM".equals(mode) ? "NoPadding" : "PKCS5Padding");
+        config.setKeySize(256);
+        config.setKeyBase64(CryptoHelper.generateKey(256));
+        config.setIvBase64(CryptoHelper.generateIV(mode));
+        config.setEnabled(true);
+        config.setDecryptRequests(true);
+        config.setDecryptResponses(true);
+        config.setAutoEncrypt(true);
+        config.setEagerProxyRewrite(true);
+
+        MontoyaStub.install();
+        MontoyaApi api = MontoyaStub.api(new ConsoleLogging(false));
+        WebSocketHandler handler = new WebSocketHandler(config, api);
+
+        String clientFrame = frame(config, config.getRequestParameter(), payloadSize, 1);
+        String serverFrame = frame(config, config.getResponseParameter(), payloadSize, 2);
+        byte[] clientBinary = CryptoHelper.encrypt(payload(payloadSize, 1).getBytes(StandardCharsets.UTF_8), config);
+        byte[] serverBinary = CryptoHelper.encrypt(payload(payloadSize, 2).getBytes(StandardCharsets.UTF_8), config);
+        // Only CBC/ECB with a fixed IV reproduce the same ciphertext on re-encryption
+        boolean deterministic = !"GCM".equals(mode);
+
+        System.out.println("WebSocket benchmark: " + config.getAlgorithm() + ", " + threads + " connection(s), "
+                + (binary ? "binary frames of " + clientBinary.length + " bytes"
+                : "text frames of " + clientFrame.length() + " chars") + ", " + millis + " ms");
+
+        // Baseline: the per-message HTTP path (Gson tree + new Cipher per call)
+        MessageTransformer transformer = new MessageTransformer(config, api.logging(), "[BENCH]");
+        double baseline = run(1, millis, connection -> {
+            String plain = transformer.decryptField(clientFrame, config.getRequestParameter(), "Request", false);
+            transformer.encryptField(plain, config.getRequestParameter(), "Request");
+            plain = transformer.decryptField(serverFrame, config.getResponseParameter(), "Response", false);
+            transformer.encryptField(plain, config.getResponseParameter(), "Response");
+        }, () -> null);
+
+        double single = run(1, millis, roundTrip(binary, deterministic, clientFrame, serverFrame,
+                clientBinary, serverBinary), () -> open(handler));
+        double parallel = threads > 1 ? run(threads, millis, roundTrip(binary, deterministic, clientFrame, serverFrame,
+                clientBinary, serverBinary), () -> open(handler)) : single;
+
+        System.out.println();
+        System.out.printf("%-34s %12s%n", "path", "frames/s");
+        if (!binary) {
+            System.out.printf("%-34s %12.0f%n", "MessageTransformer (per message)", baseline);
+        }
+        System.out.printf("%-34s %12.0f%n", "WebSocketHandler, 1 connection", single);
+        if (threads > 1) {
+            System.out.printf("%-34s %12.0f%n", "WebSocketHandler, " + threads + " connections", parallel);
+        }
+        System.out.println();
+        System.out.println("A frame is one direction: received (decrypt) + to be sent (re-encrypt).");
+    }
+
+    interface FrameLoop {
+        void run(ProxyMessageHandler connection) throws Exception;
+    }
+
+    interface ConnectionFactory {
+        ProxyMessageHandler open() throws Exception;
+    }
+
+    /**
+     * Handshake of one connection: returns the handler the extension registers
+     */
+    private static ProxyMessageHandler open(WebSocketHandler handler) {
+        HttpRequest upgrade = MontoyaStub.request("127.0.0.1", 8080, false,
+                new RawHttpMessage("GET /ws HTTP/1.1", new ArrayList<>(), new byte[0]));
+        AtomicReference<ProxyMessageHandler> registered = new AtomicReference<>();
+        handler.handleWebSocketCreation(MontoyaStub.webSocketCreation(upgrade, registered::set));
+        return registered.get();
+    }
+
+    /**
+     * One frame in each direction, checking it leaves as it arrived
+     */
+    private static FrameLoop roundTrip(boolean binary, boolean deterministic, String clientFrame, String serverFrame,
+                                       byte[] clientBinary, byte[] serverBinary) {
+        if (binary) {
+            return connection -> {
+                for (Object[] frame : new Object[][]{{clientBinary, Direction.CLIENT_TO_SERVER},
+                        {serverBinary, Direction.SERVER_TO_CLIENT}}) {
+                    Direction direction = (Direction) frame[1];
+                    byte[] plain = connection.handleBinaryMessageReceived(
+                            MontoyaStub.binaryMessage((byte[]) frame[0], direction)).payload().getBytes();
+                    byte[] forwarded = connection.handleBinaryMessageToBeSent(
+                            MontoyaStub.binaryMessage(plain, direction)).payload().getBytes();
+                    if (deterministic && !Arrays.equals(forwarded, (byte[]) frame[0])) {
+                        throw new IllegalStateException("Binary frame changed after round trip");
+                    }
+                }
+            };
+        }
+        return connection -> {
+            for (Object[] frame : new Object[][]{{clientFrame, Direction.CLIENT_TO_SERVER},
+                    {serverFrame, Direction.SERVER_TO_CLIENT}}) {
+                Direction direction = (Direction) frame[1];
+                String plain = connection.handleTextMessageReceived(
+                        MontoyaStub.textMessage((String) frame[0], direction)).payload();
+                if (plain.equals(frame[0])) {
+                    throw new IllegalStateException("Text frame was not decrypted: " + plain);
+                }
+                String forwarded = connection.handleTextMessageToBeSent(
+                        MontoyaStub.textMessage(plain, direction)).payload();
+                if (deterministic && !forwarded.equals(frame[0])) {
+                    throw new IllegalStateException("Text frame changed after round trip: " + forwarded);
+                }
+            }
+        };
+    }
+
+    /**
+     * Frames per second (two frames per iteration), after a warmup of the same length
+     */
+    private static double run(int threads, long millis, FrameLoop loop, ConnectionFactory factory) throws Exception {
+        List<Thread> workers = new ArrayList<>();
+        long[] frames = new long[threads];
+        Exception[] failure = new Exception[1];
+        long warmupEnd = System.nanoTime() + millis * 1_000_000L;
+        long end = warmupEnd + millis * 1_000_000L;
+
+        for (int t = 0; t < threads; t++) {
+            int index = t;
+            ProxyMessageHandler connection = factory.open();
+            Thread worker = new Thread(() -> {
+                try {
+                    while (System.nanoTime() < warmupEnd) {
+                        loop.run(connection);
+                    }
+                    long count = 0;
+                    while (System.nanoTime() < end) {
+                        loop.run(connection);
+                        count += 2;
+                    }
+                    frames[index] = count;
+                } catch (Exception e) {
+                    synchronized (failure) {
+                        failure[0] = e;
+                    }
+                }
+            }, "ws-bench-" + t);
+            workers.add(worker);
+            worker.start();
+        }
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        if (failure[0] != null) {
+            throw failure[0];
+        }
+        long total = 0;
+        for (long count : frames) {
+            total += count;
+        }
+        return total / (millis / 1000.0);
+    }
+
+    /**
+     * JSON frame with the encrypted field, as the client or server would send it
+     */
+    private static String frame(CryptoConfig config, String parameter, int size, int seed) throws Exception {
+        String encrypted = CodecChain.compile(CodecChain.DEFAULT).encrypt(payload(size, seed), config);
+        return "{\"type\":\"event\",\"seq\":" + seed + ",\"" + parameter + "\":\"" + encrypted + "\"}";
+    }
+
+    private static String payload(int size, int seed) {
+        Random random = new Random(seed);
+        StringBuilder sb = new StringBuilder(size + 64);
+        sb.append("{\"ticks\":[");
+        int id = 0;
+        while (sb.length() < size) {
+            if (id > 0) {
+                sb.append(',');
+            }
+            sb.append("{\"id\":").append(id++).append(",\"price\":").append(random.nextInt(100000))
+                    .append(",\"symbol\":\"S").append(random.nextInt(500)).append("\"}");
+        }
+        return sb.append("]}").toString();
+    }
+}
@@ -1,13 +1,20 @@
 package burp;
 
 import burp.api.montoya.MontoyaApi;
+import burp.api.montoya.http.message.HttpRequestResponse;
 import burp.api.montoya.ui.contextmenu.ContextMenuEvent;
 import burp.api.montoya.ui.contextmenu.ContextMenuItemsProvider;
+import burp.api.montoya.ui.contextmenu.MessageEditorHttpRequestResponse;
 
 import javax.swing.*;
+import javax.swing.table.DefaultTableModel;
 import java.awt.Component;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Entry point for Destroy AES extension
@@ -27,6 +34,7 @@ public class BurpExtension implements burp.api.montoya.BurpExtension {
     private CryptoConfig config;
     private ProxyHandler proxyHandler;
     private HttpHandler httpHandler;
+    private TrafficJournal journal;
     private ConfigPanel configPanel;
     
     @Override
@@ -48,22 +56,40 @@ public class BurpExtension implements burp.api.montoya.BurpExtension {
             config = new CryptoConfig();
             api.logging().logToOutput("✓ Configuration initialized");
             
+            // Traffic journal: background writer, records only while enabled in the panel
+            journal = new TrafficJournal(config, api.logging());
+            api.extension().registerUnloadingHandler(journal::close);
+            
             // Create configuration UI panel
-            configPanel = new ConfigPanel(config, api);
+            configPanel = new ConfigPanel(config, api, journal);
             api.userInterface().registerSuiteTab("Destroy AES", configPanel);
             api.logging().logToOutput("✓ Configuration panel registered");
             
             // Register PROXY handler (for decrypting in intercept)
-            proxyHandler = new ProxyHandler(config, api);
+            proxyHandler = new ProxyHandler(config, api, journal);
             api.proxy().registerRequestHandler(proxyHandler);
             api.proxy().registerResponseHandler(proxyHandler);
             api.logging().logToOutput("✓ Proxy Handler registered (decrypts in intercept)");
             
             // Register HTTP handler (for encrypting before sending)
-            httpHandler = new HttpHandler(config, api);
+            httpHandler = new HttpHandler(config, api, journal);
             api.http().registerHttpHandler(httpHandler);
             api.logging().logToOutput("✓ HTTP Handler registered (encrypts before sending)");
             
+            // Register WEBSOCKET handler (decrypts received frames, re-encrypts before forwarding)
+            api.proxy().registerWebSocketCreationHandler(new WebSocketHandler(config, api));
+            api.logging().logToOutput("✓ WebSocket Handler registered (text and binary frames)");
+            
+            // Register "Decrypted" editor tabs (lazy, on-demand decryption)
+            DecryptedEditorProvider editorProvider = new DecryptedEditorProvider(config, api);
+            api.userInterface().registerHttpRequestEditorProvider(editorProvider);
+            api.userInterface().registerHttpResponseEditorProvider(editorProvider);
+            api.logging().logToOutput("✓ Decrypted editor tabs registered");
+            
+            // IV/nonce reuse is reported as soon as it is seen, from whichever thread saw it
+            IvReuseDetector.setListener(reuse -> api.logging().logToError("[IV REUSE] " + reuse));
+            api.extension().registerUnloadingHandler(() -> IvReuseDetector.setListener(null));
+            
             // Register context menu for manual encrypt/decrypt
             api.userInterface().registerContextMenuItemsProvider(new MyContextMenuProvider(config, api));
             api.logging().logToOutput("✓ Context menu registered");
@@ -86,125 +112,262 @@ public class BurpExtension implements burp.api.montoya.BurpExtension {
     
     /**
      * Context menu provider
+     *
+     * Crypto never runs on the Swing event thread: every action hands its
+     * work to a small background pool and posts the result dialog back with
+     * SwingUtilities.invokeLater.
      */
     private static class MyContextMenuProvider implements ContextMenuItemsProvider {
         
         private final CryptoConfig config;
         private final MontoyaApi api;
+        private final ExecutorService executor;
         
         public MyContextMenuProvider(CryptoConfig config, MontoyaApi api) {
             this.config = config;
             this.api = api;
+            AtomicInteger threadCount = new AtomicInteger();
+            this.executor = Executors.newFixedThreadPool(Math.max(2, Runtime.getRuntime().availableProcessors()), r -> {
+                Thread thread = new Thread(r, "destroy-aes-context-" + threadCount.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
         }
         
         @Override
         public List<Component> provideMenuItems(ContextMenuEvent event) {
             List<Component> menuItems = new ArrayList<>();
             
-            // Only show in correct context
-            if (event.selectedRequestResponses().isEmpty()) {
+            // Only show in correct context: a message editor or selected messages
+            List<HttpRequestResponse> messages = selectedMessages(event);
+            if (messages.isEmpty()) {
                 return menuItems;
             }
             
-            // Option to decrypt selection
-            JMenuItem decryptItem = new JMenuItem("Decrypt with AES Master");
-            decryptItem.addActionListener(e -> decryptSelection(event));
-            menuItems.add(decryptItem);
+            // Selection actions need a text selection in an editor
+            if (event.messageEditorRequestResponse().isPresent()) {
+                // Option to decrypt selection
+                JMenuItem decryptItem = new JMenuItem("Decrypt with AES Master");
+                decryptItem.addActionListener(e -> decryptSelection(event));
+                menuItems.add(decryptItem);
+                
+                // Option to encrypt selection
+                JMenuItem encryptItem = new JMenuItem("Encrypt with AES Master");
+                encryptItem.addActionListener(e -> encryptSelection(event));
+                menuItems.add(encryptItem);
+                
+                // Padding oracle attack on a ciphertext selected in the request
+                MessageEditorHttpRequestResponse editor = event.messageEditorRequestResponse().get();
+                if (editor.selectionOffsets().isPresent()
+                        && editor.selectionContext() == MessageEditorHttpRequestResponse.SelectionContext.REQUEST) {
+                    JMenuItem oracleItem = new JMenuItem("Padding oracle attack on selection");
+                    oracleItem.addActionListener(e -> openPaddingOracle(editor));
+                    menuItems.add(oracleItem);
+                }
+            }
             
-            // Option to encrypt selection
-            JMenuItem encryptItem = new JMenuItem("Encrypt with AES Master");
-            encryptItem.addActionListener(e -> encryptSelection(event));
-            menuItems.add(encryptItem);
+            // Option to find and decrypt every ciphertext in the messages
+            JMenuItem scanItem = new JMenuItem(messages.size() == 1
+                    ? "Find and decrypt all ciphertexts"
+                    : "Find and decrypt all ciphertexts (" + messages.size() + " messages)");
+            scanItem.addActionListener(e -> findAndDecryptAll(messages));
+            menuItems.add(scanItem);
             
             return menuItems;
         }
         
+        /**
+         * Messages the menu was opened on: the editor's message, or the selected rows
+         */
+        private List<HttpRequestResponse> selectedMessages(ContextMenuEvent event) {
+            if (event.messageEditorRequestResponse().isPresent()) {
+                return List.of(event.messageEditorRequestResponse().get().requestResponse());
+            }
+            return event.selectedRequestResponses();
+        }
+        
         /**
          * Decrypts current selection
          */
         private void decryptSelection(ContextMenuEvent event) {
-            try {
-                if (!config.isValid()) {
-                    api.logging().logToError("Invalid configuration");
-                    JOptionPane.showMessageDialog(null,
-                        "Configuration is invalid. Please configure the extension first.",
-                        "Configuration Error",
-                        JOptionPane.ERROR_MESSAGE);
-                    return;
-                }
-                
-                // Get selected text from message component
-                String selectedText = getSelectedText(event);
-                
-                if (selectedText == null || selectedText.isEmpty()) {
-                    api.logging().logToError("No text selected");
-                    return;
-                }
-                
-                // Decrypt
-                String decrypted = CryptoHelper.decrypt(selectedText.trim(), config);
-                
-                // Show result in dialog
-                JOptionPane.showMessageDialog(null,
-                    "Decrypted text:\n\n" + decrypted,
-                    "Result",
-                    JOptionPane.INFORMATION_MESSAGE);
-                
-                api.logging().logToOutput("Text decrypted from context menu");
-                
-            } catch (Exception e) {
-                api.logging().logToError("Error decrypting: " + e.getMessage());
-                JOptionPane.showMessageDialog(null,
-                    "Error decrypting:\n\n" + e.getMessage(),
-                    "Decryption Error",
-                    JOptionPane.ERROR_MESSAGE);
+            if (!checkConfig()) {
+                return;
             }
+            
+            // Get selected text from message component
+            String selectedText = getSelectedText(event);
+            
+            if (selectedText == null || selectedText.isEmpty()) {
+                api.logging().logToError("No text selected");
+                return;
+            }
+            
+            executor.submit(() -> {
+                try {
+                    // Decrypt
+                    String decrypted = CryptoHelper.decrypt(selectedText.trim(), config);
+                    
+                    // Show result in dialog
+                    showMessage("Decrypted text:\n\n" + decrypted, "Result", JOptionPane.INFORMATION_MESSAGE);
+                    
+                    api.logging().logToOutput("Text decrypted from context menu");
+                    
+                } catch (Exception e) {
+                    api.logging().logToError("Error decrypting: " + e.getMessage());
+                    showMessage("Error decrypting:\n\n" + e.getMessage(), "Decryption Error", JOptionPane.ERROR_MESSAGE);
+                }
+            });
         }
         
         /**
          * Encrypts current selection
          */
         private void encryptSelection(ContextMenuEvent event) {
-            try {
-                if (!config.isValid()) {
-                    api.logging().logToError("Invalid configuration");
-                    JOptionPane.showMessageDialog(null,
-                        "Configuration is invalid. Please configure the extension first.",
-                        "Configuration Error",
-                        JOptionPane.ERROR_MESSAGE);
-                    return;
+            if (!checkConfig()) {
+                return;
+            }
+            
+            // Get selected text
+            String selectedText = getSelectedText(event);
+            
+            if (selectedText == null || selectedText.isEmpty()) {
+                api.logging().logToError("No text selected");
+                return;
+            }
+            
+            executor.submit(() -> {
+                try {
+                    // Encrypt
+                    String encrypted = CryptoHelper.encrypt(selectedText.trim(), config);
+                    
+                    // Show result in dialog
+                    showMessage("Encrypted text (Base64):\n\n" + encrypted, "Result", JOptionPane.INFORMATION_MESSAGE);
+                    
+                    api.logging().logToOutput("Text encrypted from context menu");
+                    
+                } catch (Exception e) {
+                    api.logging().logToError("Error encrypting: " + e.getMessage());
+                    showMessage("Error encrypting:\n\n" + e.getMessage(), "Encryption Error", JOptionPane.ERROR_MESSAGE);
                 }
-                
-                // Get selected text
-                String selectedText = getSelectedText(event);
-                
-                if (selectedText == null || selectedText.isEmpty()) {
-                    api.logging().logToError("No text selected");
-                    return;
+            });
+        }
+        
+        /**
+         * Opens the padding oracle window for the selected request ciphertext
+         */
+        private void openPaddingOracle(MessageEditorHttpRequestResponse editor) {
+            var offsets = editor.selectionOffsets().get();
+            new PaddingOracleDialog(api, config, executor, editor.requestResponse().request(),
+                    offsets.startIndexInclusive(), offsets.endIndexExclusive()).setVisible(true);
+        }
+        
+        /**
+         * Scans requests and responses of all messages for Base64/hex blobs
+         * and shows the ones that decrypt with the current configuration
+         */
+        private void findAndDecryptAll(List<HttpRequestResponse> messages) {
+            if (!checkConfig()) {
+                return;
+            }
+            
+            long start = System.nanoTime();
+            
+            CompletableFuture.supplyAsync(() -> {
+                List<CiphertextScanner.Target> targets = new ArrayList<>();
+                for (int i = 0; i < messages.size(); i++) {
+                    HttpRequestResponse message = messages.get(i);
+                    if (message.request() != null) {
+                        targets.add(new CiphertextScanner.Target(i + 1, "Request",
+                                message.request().toByteArray().getBytes(), message.request().bodyOffset()));
+                    }
+                    if (message.response() != null) {
+                        targets.add(new CiphertextScanner.Target(i + 1, "Response",
+                                message.response().toByteArray().getBytes(), message.response().bodyOffset()));
+                    }
                 }
-                
-                // Encrypt
-                String encrypted = CryptoHelper.encrypt(selectedText.trim(), config);
-                
-                // Show result in dialog
-                JOptionPane.showMessageDialog(null,
-                    "Encrypted text (Base64):\n\n" + encrypted,
-                    "Result",
-                    JOptionPane.INFORMATION_MESSAGE);
-                
-                api.logging().logToOutput("Text encrypted from context menu");
-                
-            } catch (Exception e) {
-                api.logging().logToError("Error encrypting: " + e.getMessage());
-                JOptionPane.showMessageDialog(null,
-                    "Error encrypting:\n\n" + e.getMessage(),
-                    "Encryption Error",
-                    JOptionPane.ERROR_MESSAGE);
+                return targets;
+            }, executor).thenCompose(targets -> CiphertextScanner.scan(targets, config, executor))
+                    .whenComplete((findings, error) -> {
+                        if (error != null) {
+                            api.logging().logToError("Error scanning for ciphertexts: " + error.getMessage());
+                            showMessage("Error scanning for ciphertexts:\n\n" + error.getMessage(),
+                                    "Scan Error", JOptionPane.ERROR_MESSAGE);
+                            return;
+                        }
+                        long elapsedMs = (System.nanoTime() - start) / 1_000_000;
+                        api.logging().logToOutput("Ciphertext scan: " + findings.size() + " found in "
+                                + messages.size() + " message(s), " + elapsedMs + " ms");
+                        SwingUtilities.invokeLater(() -> showFindings(findings, messages.size(), elapsedMs));
+                    });
+        }
+        
+        /**
+         * Non-modal results window: one row per decrypted blob, full
+         * plaintext of the selected row below the table
+         */
+        private void showFindings(List<CiphertextScanner.Finding> findings, int messageCount, long elapsedMs) {
+            String[] columns = {"Message", "Location", "Section", "Offset", "Encoding", "Ciphertext", "Plaintext"};
+            DefaultTableModel model = new DefaultTableModel(columns, 0) {
+                @Override
+                public boolean isCellEditable(int row, int column) {
+                    return false;
+                }
+            };
+            for (CiphertextScanner.Finding finding : findings) {
+                model.addRow(new Object[]{
+                    finding.messageIndex, finding.location, finding.section, finding.offset,
+                    finding.encoding, abbreviate(finding.text), abbreviate(finding.plaintext)
+                });
+            }
+            
+            JTable table = new JTable(model);
+            table.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
+            JTextArea detail = new JTextArea(6, 60);
+            detail.setEditable(false);
+            detail.setLineWrap(true);
+            table.getSelectionModel().addListSelectionListener(e -> {
+                int row = table.getSelectedRow();
+                detail.setText(row < 0 ? "" : findings.get(row).plaintext);
+                detail.setCaretPosition(0);
+            });
+            
+            JSplitPane split = new JSplitPane(JSplitPane.VERTICAL_SPLIT,
+                    new JScrollPane(table), new JScrollPane(detail));
+            split.setResizeWeight(0.7);
+            
+            JDialog dialog = new JDialog((java.awt.Frame) null, "Decrypted ciphertexts", false);
+            dialog.add(new JLabel(" " + findings.size() + " ciphertext(s) decrypted in " + messageCount
+                    + " message(s) - " + elapsedMs + " ms"), java.awt.BorderLayout.NORTH);
+            dialog.add(split, java.awt.BorderLayout.CENTER);
+            dialog.setSize(900, 500);
+            dialog.setLocationRelativeTo(null);
+            dialog.setVisible(true);
+        }
+        
+        private static String abbreviate(String text) {
+            String singleLine = text.replace('\n', ' ').replace('\r', ' ');
+            return singleLine.length() > 80 ? singleLine.substring(0, 77) + "..." : singleLine;
+        }
+        
+        private boolean checkConfig() {
+            if (config.isValid()) {
+                return true;
             }
+            api.logging().logToError("Invalid configuration");
+            JOptionPane.showMessageDialog(null,
+                "Configuration is invalid. Please configure the extension first.",
+                "Configuration Error",
+                JOptionPane.ERROR_MESSAGE);
+            return false;
+        }
+        
+        private static void showMessage(String message, String title, int type) {
+            SwingUtilities.invokeLater(() -> JOptionPane.showMessageDialog(null, message, title, type));
         }
         
         /**
-         * Gets selected text from context menu event
+         * Gets selected text from context menu event, from the request or
+         * the response depending on which editor the selection is in
          */
         private String getSelectedText(ContextMenuEvent event) {
             // Try to get text from selected message
@@ -212,7 +375,9 @@ public class BurpExtension implements burp.api.montoya.BurpExtension {
                 var editor = event.messageEditorRequestResponse().get();
                 if (editor.selectionOffsets().isPresent()) {
                     var offsets = editor.selectionOffsets().get();
-                    byte[] bytes = editor.requestResponse().request().toByteArray().getBytes();
+                    byte[] bytes = editor.selectionContext() == MessageEditorHttpRequestResponse.SelectionContext.RESPONSE
+                            ? editor.requestResponse().response().toByteArray().getBytes()
+                            : editor.requestResponse().request().toByteArray().getBytes();
                     
                     int start = offsets.startIndexInclusive();
                     int end = offsets.endIndexExclusive();
@@ -0,0 +1,256 @@
+package burp;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Finds every Base64/hex blob in a raw HTTP message and trial-decrypts it
+ *
+ * Scanning is a single pass over the bytes with no regex. Candidates whose
+ * decoded length cannot be a ciphertext for the configured mode are dropped
+ * before any crypto, and the remaining trial decryptions run in parallel on
+ * the given executor. Base64 with its '+', '/' and '=' URL-encoded (%2B,
+ * %2F, %3D), as in query strings and form bodies, is decoded first.
+ *
+ * Trial decryptions run under CryptoHelper.trial(): scanning history is not
+ * traffic, so it neither feeds IvReuseDetector nor reorders the key ring.
+ */
+public class CiphertextScanner {
+
+    private static final int MIN_BASE64_LENGTH = 16;
+    private static final int MIN_HEX_LENGTH = 32;
+    private static final int AES_BLOCK = 16;
+
+    /**
+     * A candidate blob and, once decrypted, its plaintext
+     */
+    public static class Finding {
+        public final int messageIndex;
+        public final String location;   // Request / Response
+        public final String section;    // Request line / Header / Body
+        public final int offset;
+        public final String encoding;   // Base64 / Base64url / Hex
+        public final String text;
+        final byte[] ciphertext;
+        public String plaintext;
+
+        Finding(int messageIndex, String location, String section, int offset,
+                String encoding, String text, byte[] ciphertext) {
+            this.messageIndex = messageIndex;
+            this.location = location;
+            this.section = section;
+            this.offset = offset;
+            this.encoding = encoding;
+            this.text = text;
+            this.ciphertext = ciphertext;
+        }
+    }
+
+    /**
+     * One raw message to scan
+     */
+    public static class Target {
+        final int messageIndex;
+        final String location;
+        final byte[] bytes;
+        final int bodyOffset;
+
+        public Target(int messageIndex, String location, byte[] bytes, int bodyOffset) {
+            this.messageIndex = messageIndex;
+            this.location = location;
+            this.bytes = bytes;
+            this.bodyOffset = bodyOffset;
+        }
+    }
+
+    /**
+     * Scans all targets and trial-decrypts every candidate on the executor
+     *
+     * @return the candidates that decrypted to text, in message/offset order
+     */
+    public static CompletableFuture<List<Finding>> scan(List<Target> targets, CryptoConfig config,
+                                                        ExecutorService executor) {
+        return CompletableFuture.supplyAsync(() -> {
+            List<Finding> candidates = new ArrayList<>();
+            for (Target target : targets) {
+                findCandidates(target, config, candidates);
+            }
+            return candidates;
+        }, executor).thenCompose(candidates -> {
+            List<CompletableFuture<Finding>> trials = new ArrayList<>(candidates.size());
+            for (Finding candidate : candidates) {
+                trials.add(CompletableFuture.supplyAsync(() -> tryDecrypt(candidate, config), executor));
+            }
+            return CompletableFuture.allOf(trials.toArray(new CompletableFuture<?>[0])).thenApply(v -> {
+                List<Finding> found = new ArrayList<>();
+                for (CompletableFuture<Finding> trial : trials) {
+                    Finding finding = trial.join();
+                    if (finding != null) {
+                        found.add(finding);
+                    }
+                }
+                return found;
+            });
+        });
+    }
+
+    /**
+     * Collects maximal runs of Base64/Base64url characters (with padding)
+     */
+    static void findCandidates(Target target, CryptoConfig config, List<Finding> out) {
+        byte[] bytes = target.bytes;
+        int firstLineEnd = indexOfLineEnd(bytes);
+        int i = 0;
+        while (i < bytes.length) {
+            if (!isBase64Char(bytes[i]) && !isEscaped(bytes, i, '2')) {
+                i++;
+                continue;
+            }
+            int start = i;
+            while (i < bytes.length && (isBase64Char(bytes[i]) || isEscaped(bytes, i, '2'))) {
+                i += bytes[i] == '%' ? 3 : 1;
+            }
+            while (i < bytes.length && (bytes[i] == '=' || isEscaped(bytes, i, '3'))) {
+                i += bytes[i] == '%' ? 3 : 1;
+            }
+
+            String section = start < firstLineEnd ? "Request line"
+                    : start < target.bodyOffset ? "Header" : "Body";
+            if ("Response".equals(target.location) && start < firstLineEnd) {
+                section = "Status line";
+            }
+
+            String text = new String(bytes, start, i - start, StandardCharsets.ISO_8859_1);
+            if (addCandidate(target, config, out, start, text, section) || text.indexOf('/') < 0) {
+                continue;
+            }
+
+            // '/' is also a path separator: try each path segment on its own
+            int segmentStart = 0;
+            for (int j = 0; j <= text.length(); j++) {
+                if (j == text.length() || text.charAt(j) == '/') {
+                    if (j > segmentStart) {
+                        addCandidate(target, config, out, start + segmentStart,
+                                text.substring(segmentStart, j), section);
+                    }
+                    segmentStart = j + 1;
+                }
+            }
+        }
+    }
+
+    private static boolean addCandidate(Target target, CryptoConfig config, List<Finding> out,
+                                        int offset, String raw, String section) {
+        String text = raw.indexOf('%') >= 0 ? TokenTransformer.percentDecode(raw) : raw;
+        boolean hexOnly = true;
+        boolean urlSafe = false;
+        boolean standard = false;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            hexOnly &= isHexChar((byte) c);
+            urlSafe |= c == '-' || c == '_';
+            standard |= c == '+' || c == '/';
+        }
+
+        // Mezcla de alfabetos: no es Base64 ni Base64url
+        if (standard && urlSafe) {
+            return false;
+        }
+
+        byte[] decoded = null;
+        String encoding = null;
+        if (hexOnly && text.length() >= MIN_HEX_LENGTH && text.length() % 2 == 0) {
+            decoded = HexBase64.fromHexStrict(text);
+            encoding = "Hex";
+        } else if (text.length() >= MIN_BASE64_LENGTH) {
+            // Most candidates are not Base64 at all: the table decoder rejects them without an exception
+            decoded = HexBase64.fromBase64Strict(text);
+            encoding = urlSafe ? "Base64url" : "Base64";
+        }
+
+        if (decoded == null || !isPlausibleCiphertext(decoded.length, config)) {
+            return false;
+        }
+        out.add(new Finding(target.messageIndex, target.location, section, offset, encoding, raw, decoded));
+        return true;
+    }
+
+    /**
+     * Cheap pre-filter before any crypto: block modes need whole blocks,
+     * GCM needs at least the tag; a per-message IV prefix comes on top
+     */
+    static boolean isPlausibleCiphertext(int length, CryptoConfig config) {
+        if (config.usesIvPrefix()) {
+            length -= config.getIvLength();
+        }
+        if ("GCM".equals(config.getMode())) {
+            return length >= AES_BLOCK;
+        }
+        return length >= AES_BLOCK && length % AES_BLOCK == 0;
+    }
+
+    /**
+     * Decrypts one candidate; wrong data usually fails on padding or the GCM
+     * tag, and the rest is filtered by requiring mostly printable text
+     */
+    @SuppressWarnings("try")
+    static Finding tryDecrypt(Finding candidate, CryptoConfig config) {
+        try (CryptoHelper.Trial trial = CryptoHelper.trial()) {
+            byte[] plain = CryptoHelper.decrypt(candidate.ciphertext, config);
+            String text = new String(plain, StandardCharsets.UTF_8);
+            if (!isMostlyPrintable(text)) {
+                return null;
+            }
+            candidate.plaintext = text;
+            return candidate;
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    static boolean isMostlyPrintable(String text) {
+        if (text.isEmpty()) {
+            return false;
+        }
+        int printable = 0;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c >= 0x20 && c != 0x7f && c != '\uFFFD' || c == '\n' || c == '\r' || c == '\t') {
+                printable++;
+            }
+        }
+        return printable * 10 >= text.length() * 9;
+    }
+
+    private static boolean isBase64Char(byte b) {
+        return (b >= 'A' && b <= 'Z') || (b >= 'a' && b <= 'z') || (b >= '0' && b <= '9')
+                || b == '+' || b == '/' || b == '-' || b == '_';
+    }
+
+    /**
+     * URL-encoded Base64 character at i: %2B or %2F (high '2'), or the %3D padding (high '3')
+     */
+    private static boolean isEscaped(byte[] bytes, int i, char high) {
+        if (bytes[i] != '%' || i + 2 >= bytes.length || bytes[i + 1] != high) {
+            return false;
+        }
+        int low = bytes[i + 2] | 0x20;
+        return high == '2' ? low == 'b' || low == 'f' : low == 'd';
+    }
+
+    private static boolean isHexChar(byte b) {
+        return (b >= '0' && b <= '9') || (b >= 'a' && b <= 'f') || (b >= 'A' && b <= 'F');
+    }
+
+    private static int indexOfLineEnd(byte[] bytes) {
+        for (int i = 0; i < bytes.length; i++) {
+            if (bytes[i] == '\n') {
+                return i;
+            }
+        }
+        return bytes.length;
+    }
+}
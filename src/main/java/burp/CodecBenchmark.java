@@ -0,0 +1,226 @@
+package burp;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Random;
+
+/**
+ * Per-stage throughput report for a CodecChain
+ *
+ * Encodes a JSON payload through the chain once to capture the input of every
+ * stage, then times each stage's decode and encode on its own, and finally
+ * the whole chain in both directions. Throughput is measured on each stage's
+ * input bytes.
+ *
+ * A second table compares the HexBase64 lookup-table codec with the JDK
+ * Base64 codec and with the String.format / regex helpers it replaced, on a
+ * random blob. Throughput is measured on the binary bytes. Base64 encoding
+ * has no HexBase64 row: it stays on the JDK encoder, which HotSpot compiles
+ * to SIMD code.
+ *
+ * Usage:
+ *   java -cp destroy-aes.jar:montoya-api.jar burp.CodecBenchmark \
+ *        [--chain "url > base64url > AES > gzip"] [--payload 4096] [--blob 4096] [--millis 1000] [--mode CBC]
+ */
+public class CodecBenchmark {
+
+    private static volatile int sink;
+
+    public static void main(String[] args) throws Exception {
+        String spec = "url > base64url > AES > gzip";
+        int payloadSize = 4096;
+        int blobSize = 4096;
+        long millis = 1000;
+        String mode = "CBC";
+
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--chain": spec = args[++i]; break;
+                case "--payload": payloadSize = Integer.parseInt(args[++i]); break;
+                case "--blob": blobSize = Integer.parseInt(args[++i]); break;
+                case "--millis": millis = Long.parseLong(args[++i]); break;
+                case "--mode": mode = args[++i]; break;
+                default:
+                    System.err.println("Unknown argument: " + args[i]);
+                    System.exit(1);
+            }
+        }
+
+        CryptoConfig config = new CryptoConfig();
+        config.setMode(mode);
+        config.setPadding("GCM".equals(mode) ? "NoPadding" : "PKCS5Padding");
+        config.setKeySize(256);
+        config.setKeyBase64(CryptoHelper.generateKey(256));
+        config.setIvBase64(CryptoHelper.generateIV(mode));
+
+        CodecChain chain = CodecChain.compile(spec);
+        CodecChain.Stage[] stages = chain.stages();
+        byte[] plaintext = payload(payloadSize);
+
+        // inputs[i] is the input of stage i when decrypting; inputs[n] is the plaintext
+        byte[][] inputs = new byte[stages.length + 1][];
+        inputs[stages.length] = plaintext;
+        for (int i = stages.length - 1; i >= 0; i--) {
+            inputs[i] = stages[i].encode(inputs[i + 1], config);
+        }
+
+        String roundTrip = chain.decrypt(chain.encrypt(new String(plaintext, StandardCharsets.UTF_8), config), config);
+        if (!roundTrip.equals(new String(plaintext, StandardCharsets.UTF_8))) {
+            throw new IllegalStateException("Chain round trip does not return the plaintext: " + chain);
+        }
+
+        System.out.println("Codec chain benchmark: " + chain + ", " + config.getAlgorithm()
+                + ", plaintext " + plaintext.length + " bytes");
+        System.out.println();
+        System.out.printf("%-12s %10s %12s %10s %12s %10s%n",
+                "stage", "in bytes", "decode MB/s", "us/op", "encode MB/s", "us/op");
+
+        for (int i = 0; i < stages.length; i++) {
+            CodecChain.Stage stage = stages[i];
+            byte[] encoded = inputs[i];
+            byte[] decoded = inputs[i + 1];
+            double decodeNs = measure(millis, () -> sink += stage.decode(encoded, config).length);
+            double encodeNs = measure(millis, () -> sink += stage.encode(decoded, config).length);
+            System.out.printf("%-12s %10d %12.1f %10.2f %12.1f %10.2f%n", stage.name(), encoded.length,
+                    mbPerSecond(encoded.length, decodeNs), decodeNs / 1000.0,
+                    mbPerSecond(decoded.length, encodeNs), encodeNs / 1000.0);
+        }
+
+        String encodedValue = new String(inputs[0], StandardCharsets.ISO_8859_1);
+        String plainValue = new String(plaintext, StandardCharsets.UTF_8);
+        double chainDecodeNs = measure(millis, () -> sink += chain.decrypt(encodedValue, config).length());
+        double chainEncodeNs = measure(millis, () -> sink += chain.encrypt(plainValue, config).length());
+        System.out.printf("%-12s %10d %12.1f %10.2f %12.1f %10.2f%n", "chain", inputs[0].length,
+                mbPerSecond(inputs[0].length, chainDecodeNs), chainDecodeNs / 1000.0,
+                mbPerSecond(plaintext.length, chainEncodeNs), chainEncodeNs / 1000.0);
+
+        System.out.println();
+        compareCodecs(blobSize, millis);
+    }
+
+    /**
+     * HexBase64 against the JDK codec and the old CryptoHelper helpers, on the same blob
+     */
+    private static void compareCodecs(int size, long millis) throws Exception {
+        byte[] blob = new byte[size];
+        new Random(7).nextBytes(blob);
+        String base64 = Base64.getEncoder().encodeToString(blob);
+        String hex = HexBase64.toHex(blob);
+        byte[] base64Bytes = base64.getBytes(StandardCharsets.ISO_8859_1);
+        byte[] hexBytes = hex.getBytes(StandardCharsets.ISO_8859_1);
+        // Caller-supplied buffers, reused across operations
+        byte[] decoded = new byte[HexBase64.maxDecodedBase64Length(base64Bytes.length)];
+        byte[] encoded = new byte[hexBytes.length];
+
+        if (!Arrays.equals(HexBase64.fromBase64(base64), blob) || !Arrays.equals(HexBase64.fromHex(hex), blob)
+                || !HexBase64.toBase64(blob).equals(base64) || !legacyBase64ToHex(base64).equals(hex)
+                || !legacyHexToBase64(hex).equals(base64)) {
+            throw new IllegalStateException("HexBase64 does not match the JDK codec");
+        }
+
+        System.out.println("Hex/Base64 codecs: " + size + "-byte blob");
+        System.out.println();
+        System.out.printf("%-34s %12s %10s%n", "operation", "MB/s", "us/op");
+        row("base64 decode, JDK", size, measure(millis,
+                () -> sink += Base64.getDecoder().decode(base64).length));
+        row("base64 decode, table (String)", size, measure(millis,
+                () -> sink += HexBase64.fromBase64(base64).length));
+        row("base64 decode, table (buffer)", size, measure(millis,
+                () -> sink += HexBase64.decodeBase64(base64Bytes, 0, base64Bytes.length, decoded, 0)));
+        row("base64 encode, JDK", size, measure(millis,
+                () -> sink += Base64.getEncoder().encodeToString(blob).length()));
+        row("hex decode, replaceAll + digit", size, measure(millis,
+                () -> sink += legacyHexToBase64(hex).length()));
+        row("hex decode, table (buffer)", size, measure(millis,
+                () -> sink += HexBase64.decodeHex(hexBytes, 0, hexBytes.length, decoded, 0)));
+        row("hex encode, String.format", size, measure(millis,
+                () -> sink += legacyBase64ToHex(base64).length()));
+        row("hex encode, table (buffer)", size, measure(millis,
+                () -> sink += HexBase64.encodeHex(blob, 0, blob.length, encoded, 0)));
+        row("hexToBase64, CryptoHelper", size, measure(millis,
+                () -> sink += CryptoHelper.hexToBase64(hex).length()));
+        row("base64ToHex, CryptoHelper", size, measure(millis,
+                () -> sink += CryptoHelper.base64ToHex(base64).length()));
+    }
+
+    private static void row(String name, int bytes, double nanosPerOp) {
+        System.out.printf("%-34s %12.1f %10.2f%n", name, mbPerSecond(bytes, nanosPerOp), nanosPerOp / 1000.0);
+    }
+
+    /**
+     * CryptoHelper.hexToBase64 before HexBase64, kept as the baseline
+     */
+    private static String legacyHexToBase64(String hex) {
+        hex = hex.replaceAll("\\s+", "").toLowerCase();
+        int len = hex.length();
+        byte[] data = new byte[len / 2];
+        for (int i = 0; i < len; i += 2) {
+            data[i / 2] = (byte) ((Character.digit(hex.charAt(i), 16) << 4)
+                    + Character.digit(hex.charAt(i + 1), 16));
+        }
+        return Base64.getEncoder().encodeToString(data);
+    }
+
+    /**
+     * CryptoHelper.base64ToHex before HexBase64, kept as the baseline
+     */
+    private static String legacyBase64ToHex(String base64) {
+        byte[] bytes = Base64.getDecoder().decode(base64);
+        StringBuilder sb = new StringBuilder();
+        for (byte b : bytes) {
+            sb.append(String.format("%02x", b));
+        }
+        return sb.toString();
+    }
+
+    interface Operation {
+        void run() throws Exception;
+    }
+
+    /**
+     * Average nanoseconds per operation, after a warmup of the same length
+     */
+    private static double measure(long millis, Operation operation) throws Exception {
+        long warmupEnd = System.nanoTime() + millis * 1_000_000L;
+        while (System.nanoTime() < warmupEnd) {
+            operation.run();
+        }
+
+        long ops = 0;
+        long start = System.nanoTime();
+        long end = start + millis * 1_000_000L;
+        long now;
+        do {
+            for (int i = 0; i < 16; i++) {
+                operation.run();
+            }
+            ops += 16;
+            now = System.nanoTime();
+        } while (now < end);
+        return (double) (now - start) / ops;
+    }
+
+    private static double mbPerSecond(int bytes, double nanosPerOp) {
+        return bytes / nanosPerOp * 1e9 / (1024 * 1024);
+    }
+
+    /**
+     * JSON with some repetition, so gzip has realistic work to do
+     */
+    private static byte[] payload(int size) {
+        Random random = new Random(42);
+        StringBuilder sb = new StringBuilder(size + 64);
+        sb.append("{\"items\":[");
+        int id = 0;
+        while (sb.length() < size) {
+            if (id > 0) {
+                sb.append(',');
+            }
+            sb.append("{\"id\":").append(id++).append(",\"name\":\"user").append(random.nextInt(1000))
+                    .append("\",\"score\":").append(random.nextInt(100000)).append('}');
+        }
+        sb.append("]}");
+        return sb.toString().getBytes(StandardCharsets.UTF_8);
+    }
+}
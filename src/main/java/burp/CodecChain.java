@@ -0,0 +1,392 @@
+package burp;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * CodecChain - Cadena de codecs alrededor del cifrado
+ *
+ * Se configura en el sentido del descifrado, por ejemplo
+ * "url > base64url > AES > gzip": primero se quita el URL-encoding, luego
+ * Base64url, se descifra y se descomprime. Para cifrar se recorre la misma
+ * cadena al revés con la operación inversa de cada etapa.
+ *
+ * La cadena se compila una vez por especificación a un array de etapas que
+ * se pasan byte[]; solo hay un String a la entrada y otro a la salida.
+ */
+public class CodecChain {
+
+    public static final String DEFAULT = "base64 > AES";
+
+    private static final Map<String, CodecChain> compiled = new ConcurrentHashMap<>();
+
+    /**
+     * Una etapa de la cadena: decode en sentido descifrado, encode al revés
+     */
+    interface Stage {
+        String name();
+
+        byte[] decode(byte[] in, CryptoConfig config) throws Exception;
+
+        byte[] encode(byte[] in, CryptoConfig config) throws Exception;
+    }
+
+    private final String spec;
+    private final Stage[] stages;
+    private final int cipherIndex;
+
+    private CodecChain(String spec, Stage[] stages, int cipherIndex) {
+        this.spec = spec;
+        this.stages = stages;
+        this.cipherIndex = cipherIndex;
+    }
+
+    /**
+     * Compila (o recupera ya compilada) la cadena de una especificación
+     */
+    public static CodecChain compile(String spec) throws Exception {
+        String key = spec == null || spec.trim().isEmpty() ? DEFAULT : spec;
+        CodecChain chain = compiled.get(key);
+        if (chain == null) {
+            chain = parse(key);
+            compiled.putIfAbsent(key, chain);
+        }
+        return chain;
+    }
+
+    private static CodecChain parse(String spec) throws Exception {
+        List<Stage> stages = new ArrayList<>();
+        int cipherIndex = -1;
+        for (String token : spec.split("[>,]")) {
+            String name = token.trim().toLowerCase(Locale.ROOT);
+            if (name.isEmpty()) {
+                continue;
+            }
+            Stage stage = stage(name);
+            if (stage == null) {
+                throw new Exception("Unknown codec: " + token.trim());
+            }
+            if (stage == AES) {
+                if (cipherIndex >= 0) {
+                    throw new Exception("Codec chain has more than one AES stage: " + spec);
+                }
+                cipherIndex = stages.size();
+            }
+            // utf8 es solo el final explícito de la cadena
+            if (stage != UTF8) {
+                stages.add(stage);
+            }
+        }
+        if (cipherIndex < 0) {
+            throw new Exception("Codec chain has no AES stage: " + spec);
+        }
+        return new CodecChain(spec, stages.toArray(new Stage[0]), cipherIndex);
+    }
+
+    private static Stage stage(String name) {
+        switch (name) {
+            case "url":
+            case "urldecode":
+                return URL;
+            case "base64":
+                return BASE64;
+            case "base64url":
+                return BASE64URL;
+            case "hex":
+                return HEX;
+            case "aes":
+                return AES;
+            case "gzip":
+            case "gunzip":
+                return GZIP;
+            case "utf8":
+            case "utf-8":
+                return UTF8;
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Descifra un valor: texto codificado → texto plano (UTF-8)
+     */
+    public String decrypt(String value, CryptoConfig config) throws Exception {
+        byte[] data = value.getBytes(StandardCharsets.ISO_8859_1);
+        // Evento JFR de las etapas previas al cifrado (las de después son del Decrypt)
+        TransformEvents.DecodeEvent event = new TransformEvents.DecodeEvent();
+        event.begin();
+        try {
+            for (int i = 0; i < cipherIndex; i++) {
+                data = stages[i].decode(data, config);
+            }
+        } catch (Exception e) {
+            TransformEvents.commit(event, null, value.length(), 1, TransformEvents.ERROR);
+            throw e;
+        }
+        TransformEvents.commit(event, null, value.length(), 1, TransformEvents.OK);
+        for (int i = cipherIndex; i < stages.length; i++) {
+            data = stages[i].decode(data, config);
+        }
+        return new String(data, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Cifra un valor recorriendo la cadena al revés
+     */
+    public String encrypt(String plaintext, CryptoConfig config) throws Exception {
+        byte[] data = plaintext.getBytes(StandardCharsets.UTF_8);
+        for (int i = stages.length - 1; i >= 0; i--) {
+            data = stages[i].encode(data, config);
+        }
+        return new String(data, StandardCharsets.ISO_8859_1);
+    }
+
+    /**
+     * Ciphertext de un valor: solo las etapas anteriores al cifrado (padding oracle)
+     */
+    public byte[] decodeCiphertext(String value, CryptoConfig config) throws Exception {
+        byte[] data = value.getBytes(StandardCharsets.ISO_8859_1);
+        for (int i = 0; i < cipherIndex; i++) {
+            data = stages[i].decode(data, config);
+        }
+        return data;
+    }
+
+    /**
+     * Valor de un ciphertext ya formado, con las etapas anteriores al cifrado
+     */
+    public String encodeCiphertext(byte[] ciphertext, CryptoConfig config) throws Exception {
+        byte[] data = ciphertext;
+        for (int i = cipherIndex - 1; i >= 0; i--) {
+            data = stages[i].encode(data, config);
+        }
+        return new String(data, StandardCharsets.ISO_8859_1);
+    }
+
+    /**
+     * Verifica si un valor parece cifrado con esta cadena: las etapas
+     * anteriores al cifrado lo decodifican y el resultado tiene tamaño de
+     * ciphertext. No descifra nada.
+     */
+    public boolean isLikelyEncrypted(String value, CryptoConfig config) {
+        if (value == null || value.length() < 16) {
+            return false;
+        }
+        try {
+            byte[] data = value.getBytes(StandardCharsets.ISO_8859_1);
+            for (int i = 0; i < cipherIndex; i++) {
+                data = stages[i].decode(data, config);
+            }
+            return CiphertextScanner.isPlausibleCiphertext(data.length, config);
+        } catch (Exception e) {
+            return false;
+        }
+    }
+
+    /**
+     * Copia de la cadena con otra etapa de cifrado en lugar de AES (cipher
+     * cacheado por conexión en WebSocketCipherContext). No se guarda en la caché.
+     */
+    CodecChain withCipher(Stage cipher) {
+        Stage[] copy = stages.clone();
+        copy[cipherIndex] = cipher;
+        return new CodecChain(spec, copy, cipherIndex);
+    }
+
+    /**
+     * Etapas compiladas, en sentido descifrado (para el benchmark)
+     */
+    Stage[] stages() {
+        return stages.clone();
+    }
+
+    @Override
+    public String toString() {
+        return spec;
+    }
+
+    // ---- Etapas ----
+
+    static final Stage URL = new Stage() {
+        @Override
+        public String name() {
+            return "url";
+        }
+
+        // Solo %XX: un '+' literal es parte del Base64, no un espacio
+        @Override
+        public byte[] decode(byte[] in, CryptoConfig config) throws Exception {
+            byte[] out = new byte[in.length];
+            int n = 0;
+            for (int i = 0; i < in.length; i++) {
+                if (in[i] == '%' && i + 2 < in.length) {
+                    int hi = Character.digit(in[i + 1], 16);
+                    int lo = Character.digit(in[i + 2], 16);
+                    if (hi >= 0 && lo >= 0) {
+                        out[n++] = (byte) ((hi << 4) | lo);
+                        i += 2;
+                        continue;
+                    }
+                }
+                out[n++] = in[i];
+            }
+            return n == out.length ? out : Arrays.copyOf(out, n);
+        }
+
+        @Override
+        public byte[] encode(byte[] in, CryptoConfig config) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream(in.length + in.length / 4);
+            for (byte b : in) {
+                if ((b >= 'A' && b <= 'Z') || (b >= 'a' && b <= 'z') || (b >= '0' && b <= '9')
+                        || b == '-' || b == '.' || b == '_' || b == '~') {
+                    out.write(b);
+                } else {
+                    out.write('%');
+                    out.write(HEX_DIGITS[(b >> 4) & 0xf]);
+                    out.write(HEX_DIGITS[b & 0xf]);
+                }
+            }
+            return out.toByteArray();
+        }
+    };
+
+    static final Stage BASE64 = new Stage() {
+        @Override
+        public String name() {
+            return "base64";
+        }
+
+        @Override
+        public byte[] decode(byte[] in, CryptoConfig config) throws Exception {
+            return decodeBase64(in, "Base64", false);
+        }
+
+        @Override
+        public byte[] encode(byte[] in, CryptoConfig config) {
+            return Base64.getEncoder().encode(in);
+        }
+    };
+
+    static final Stage BASE64URL = new Stage() {
+        @Override
+        public String name() {
+            return "base64url";
+        }
+
+        @Override
+        public byte[] decode(byte[] in, CryptoConfig config) throws Exception {
+            return decodeBase64(in, "Base64url", true);
+        }
+
+        // Sin padding, como JWT y la mayoría de clientes base64url
+        @Override
+        public byte[] encode(byte[] in, CryptoConfig config) {
+            return Base64.getUrlEncoder().withoutPadding().encode(in);
+        }
+    };
+
+    static final Stage HEX = new Stage() {
+        @Override
+        public String name() {
+            return "hex";
+        }
+
+        @Override
+        public byte[] decode(byte[] in, CryptoConfig config) throws Exception {
+            byte[] out = new byte[HexBase64.maxDecodedHexLength(in.length)];
+            int result = HexBase64.decodeHexStrict(in, 0, in.length, out, 0);
+            if (HexBase64.failed(result)) {
+                throw new Exception("Invalid hex at " + HexBase64.errorAt(result));
+            }
+            return HexBase64.trimmed(out, result);
+        }
+
+        @Override
+        public byte[] encode(byte[] in, CryptoConfig config) {
+            byte[] out = new byte[in.length * 2];
+            HexBase64.encodeHex(in, 0, in.length, out, 0);
+            return out;
+        }
+    };
+
+    static final Stage AES = new Stage() {
+        @Override
+        public String name() {
+            return "AES";
+        }
+
+        @Override
+        public byte[] decode(byte[] in, CryptoConfig config) throws Exception {
+            return CryptoHelper.decrypt(in, config);
+        }
+
+        @Override
+        public byte[] encode(byte[] in, CryptoConfig config) throws Exception {
+            return CryptoHelper.encrypt(in, config);
+        }
+    };
+
+    static final Stage GZIP = new Stage() {
+        @Override
+        public String name() {
+            return "gzip";
+        }
+
+        @Override
+        public byte[] decode(byte[] in, CryptoConfig config) throws Exception {
+            try (GZIPInputStream gzip = new GZIPInputStream(new ByteArrayInputStream(in))) {
+                return gzip.readAllBytes();
+            }
+        }
+
+        @Override
+        public byte[] encode(byte[] in, CryptoConfig config) throws Exception {
+            ByteArrayOutputStream out = new ByteArrayOutputStream(in.length / 2 + 32);
+            try (GZIPOutputStream gzip = new GZIPOutputStream(out)) {
+                gzip.write(in);
+            }
+            return out.toByteArray();
+        }
+    };
+
+    static final Stage UTF8 = new Stage() {
+        @Override
+        public String name() {
+            return "utf8";
+        }
+
+        @Override
+        public byte[] decode(byte[] in, CryptoConfig config) {
+            return in;
+        }
+
+        @Override
+        public byte[] encode(byte[] in, CryptoConfig config) {
+            return in;
+        }
+    };
+
+    /**
+     * Valores del tráfico: sin espacios y solo con el alfabeto de la etapa
+     */
+    private static byte[] decodeBase64(byte[] in, String name, boolean urlSafe) throws Exception {
+        byte[] out = new byte[HexBase64.maxDecodedBase64Length(in.length)];
+        int result = HexBase64.decodeBase64Strict(in, 0, in.length, out, 0, urlSafe);
+        if (HexBase64.failed(result)) {
+            throw new Exception("Invalid " + name + " at " + HexBase64.errorAt(result));
+        }
+        return HexBase64.trimmed(out, result);
+    }
+
+    private static final byte[] HEX_DIGITS = "0123456789abcdef".getBytes(StandardCharsets.US_ASCII);
+}
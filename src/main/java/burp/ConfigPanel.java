@@ -7,6 +7,13 @@ import javax.swing.*;
 import javax.swing.border.EmptyBorder;
 import javax.swing.border.TitledBorder;
 import java.awt.*;
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Date;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 /**
  * Configuration panel for the extension
@@ -15,12 +22,14 @@ public class ConfigPanel extends JPanel {
     
     private final CryptoConfig config;
     private final Logging logging;
+    private final TrafficJournal journal;
     
     // UI Components
     private JCheckBox enabledCheckbox;
     private JCheckBox decryptRequestsCheckbox;
     private JCheckBox decryptResponsesCheckbox;
     private JCheckBox autoEncryptCheckbox;
+    private JCheckBox eagerProxyRewriteCheckbox;
     
     private JComboBox<String> modeComboBox;
     private JComboBox<String> paddingComboBox;
@@ -29,8 +38,62 @@ public class ConfigPanel extends JPanel {
     
     private JTextField keyField;
     private JTextField ivField;
+    private JComboBox<String> ivPolicyComboBox;
+    private JComboBox<String> ivPlacementComboBox;
+    private JComboBox<String> kdfComboBox;
+    private JTextField passphraseField;
+    private JTextField kdfIterationsField;
+    private JComboBox<String> keyWrappingComboBox;
+    private JTextArea rsaPrivateKeyArea;
+    private JButton loadPrivateKeyButton;
+    private JComboBox<String> wrappedKeyLocationComboBox;
+    private JTextField wrappedKeyNameField;
+    private JCheckBox keyLearningCheckbox;
+    private JComboBox<String> learnKeyLocationComboBox;
+    private JTextField learnKeyNameField;
+    private JTextField learnIvNameField;
+    private JComboBox<String> sessionIdSourceComboBox;
+    private JTextField sessionIdNameField;
+    private JTextField learnSessionFieldField;
+    private JTextField learnedKeyTtlField;
+    private JLabel learnedKeysLabel;
+    private JCheckBox signingEnabledCheckbox;
+    private JComboBox<String> signingAlgorithmComboBox;
+    private JTextField signingKeyField;
+    private JTextField signingInputField;
+    private JComboBox<String> signatureLocationComboBox;
+    private JTextField signatureNameField;
+    private JTextField signatureTimestampField;
+    private JComboBox<String> signatureEncodingComboBox;
+    
     private JTextField requestParamField;
     private JTextField responseParamField;
+    private JComboBox<String> requestLocationComboBox;
+    private JComboBox<String> responseLocationComboBox;
+    private JTextField requestCodecsField;
+    private JTextField responseCodecsField;
+    
+    private JTextArea keyRingArea;
+    private JLabel keyRingStatusLabel;
+    
+    private JTextArea plaintextRulesArea;
+    private JLabel plaintextRulesStatusLabel;
+    
+    private JCheckBox journalEnabledCheckbox;
+    private JTextField journalDirectoryField;
+    private JLabel journalStatusLabel;
+    private JButton journalScanButton;
+    private JButton journalExportJsonButton;
+    private JButton journalExportHarButton;
+    
+    private JCheckBox ecbAnalysisCheckbox;
+    private JTextField ecbMaxBlocksField;
+    private JLabel ecbStatusLabel;
+    
+    private JCheckBox ivReuseDetectionCheckbox;
+    private JTextField ivReuseMemoryField;
+    private JCheckBox ivReuseBloomCheckbox;
+    private JLabel ivReuseStatusLabel;
     
     private JButton generateKeyButton;
     private JButton generateIvButton;
@@ -39,9 +102,26 @@ public class ConfigPanel extends JPanel {
     
     private JLabel statusLabel;
     
-    public ConfigPanel(CryptoConfig config, MontoyaApi api) {
+    // Self-test results: current and previous run, side by side
+    private JLabel selfTestStatusLabel;
+    private JTextArea lastRunArea;
+    private JTextArea previousRunArea;
+    private final ExecutorService selfTestExecutor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "destroy-aes-selftest");
+        thread.setDaemon(true);
+        return thread;
+    });
+    // Journal scans and exports can take a while on large journals
+    private final ExecutorService journalExecutor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "destroy-aes-journal-reader");
+        thread.setDaemon(true);
+        return thread;
+    });
+    
+    public ConfigPanel(CryptoConfig config, MontoyaApi api, TrafficJournal journal) {
         this.config = config;
         this.logging = api.logging();
+        this.journal = journal;
         
         setLayout(new BorderLayout(5, 5));
         setBorder(new EmptyBorder(10, 10, 10, 10));
@@ -57,14 +137,33 @@ public class ConfigPanel extends JPanel {
         mainPanel.add(Box.createVerticalStrut(5));
         mainPanel.add(createKeysPanel());
         mainPanel.add(Box.createVerticalStrut(5));
+        mainPanel.add(createKeyRingPanel());
+        mainPanel.add(Box.createVerticalStrut(5));
+        mainPanel.add(createLearningPanel());
+        mainPanel.add(Box.createVerticalStrut(5));
         mainPanel.add(createParametersPanel());
         mainPanel.add(Box.createVerticalStrut(5));
+        mainPanel.add(createSigningPanel());
+        mainPanel.add(Box.createVerticalStrut(5));
+        mainPanel.add(createPlaintextRulesPanel());
+        mainPanel.add(Box.createVerticalStrut(5));
+        mainPanel.add(createJournalPanel());
+        mainPanel.add(Box.createVerticalStrut(5));
+        mainPanel.add(createEcbPanel());
+        mainPanel.add(Box.createVerticalStrut(5));
+        mainPanel.add(createIvReusePanel());
+        mainPanel.add(Box.createVerticalStrut(5));
         mainPanel.add(createActionsPanel());
+        mainPanel.add(Box.createVerticalStrut(5));
+        mainPanel.add(createSelfTestPanel());
         
         JScrollPane scrollPane = new JScrollPane(mainPanel);
         scrollPane.setBorder(null);
         add(scrollPane, BorderLayout.CENTER);
         
+        // Statistics of the traffic analyses are cheap to copy; refresh them while they run
+        new Timer(2000, e -> refreshAnalysisStatus()).start();
+        
         // Load current values
         loadConfigToUI();
     }
@@ -132,7 +231,7 @@ public class ConfigPanel extends JPanel {
         gbc.gridx = 0; gbc.gridy = 3; gbc.weightx = 0;
         panel.add(new JLabel("Data Format:"), gbc);
         gbc.gridx = 1; gbc.weightx = 1.0;
-        dataFormatComboBox = new JComboBox<>(new String[]{"JSON", "RAW", "FORM"});
+        dataFormatComboBox = new JComboBox<>(new String[]{"JSON", "XML", "MULTIPART", "RAW", "FORM"});
         panel.add(dataFormatComboBox, gbc);
         
         // Options
@@ -148,6 +247,11 @@ public class ConfigPanel extends JPanel {
         autoEncryptCheckbox = new JCheckBox("Auto-encrypt on modify", config.isAutoEncrypt());
         panel.add(autoEncryptCheckbox, gbc);
         
+        gbc.gridy = 7;
+        eagerProxyRewriteCheckbox = new JCheckBox("Rewrite proxied messages (off: decrypt only in the \"Decrypted\" tab)",
+                config.isEagerProxyRewrite());
+        panel.add(eagerProxyRewriteCheckbox, gbc);
+        
         return panel;
     }
     
@@ -188,6 +292,105 @@ public class ConfigPanel extends JPanel {
         generateIvButton.addActionListener(e -> generateIv());
         panel.add(generateIvButton, gbc);
         
+        // Per-message IV on re-encryption, see NonceGenerator
+        gbc.gridx = 0; gbc.gridy = 2; gbc.weightx = 0;
+        panel.add(new JLabel("IV Policy:"), gbc);
+        
+        gbc.gridx = 1; gbc.weightx = 1.0; gbc.fill = GridBagConstraints.HORIZONTAL;
+        ivPolicyComboBox = new JComboBox<>(new String[]{
+            NonceGenerator.STATIC, NonceGenerator.RANDOM, NonceGenerator.COUNTER, NonceGenerator.ECHO
+        });
+        panel.add(ivPolicyComboBox, gbc);
+        
+        gbc.gridx = 0; gbc.gridy = 3; gbc.weightx = 0;
+        panel.add(new JLabel("IV Placement:"), gbc);
+        
+        gbc.gridx = 1; gbc.weightx = 1.0; gbc.fill = GridBagConstraints.HORIZONTAL;
+        ivPlacementComboBox = new JComboBox<>(new String[]{
+            NonceGenerator.PLACEMENT_NONE, NonceGenerator.PLACEMENT_PREFIX
+        });
+        panel.add(ivPlacementComboBox, gbc);
+        
+        // Key derivation (passphrase + "Salted__" header, CryptoJS/OpenSSL style)
+        gbc.gridx = 0; gbc.gridy = 4; gbc.weightx = 0;
+        panel.add(new JLabel("Key Derivation:"), gbc);
+        
+        gbc.gridx = 1; gbc.weightx = 1.0; gbc.fill = GridBagConstraints.HORIZONTAL;
+        kdfComboBox = new JComboBox<>(new String[]{
+            KeyDerivation.NONE, KeyDerivation.EVP_MD5, KeyDerivation.EVP_SHA256,
+            KeyDerivation.PBKDF2_SHA1, KeyDerivation.PBKDF2_SHA256
+        });
+        kdfComboBox.addActionListener(e -> onKeyDerivationChanged());
+        panel.add(kdfComboBox, gbc);
+        
+        // Passphrase
+        gbc.gridx = 0; gbc.gridy = 5; gbc.weightx = 0;
+        panel.add(new JLabel("Passphrase:"), gbc);
+        
+        gbc.gridx = 1; gbc.weightx = 1.0; gbc.fill = GridBagConstraints.HORIZONTAL;
+        passphraseField = new JTextField(25);
+        panel.add(passphraseField, gbc);
+        
+        // Iterations
+        gbc.gridx = 0; gbc.gridy = 6; gbc.weightx = 0;
+        panel.add(new JLabel("Iterations:"), gbc);
+        
+        gbc.gridx = 1; gbc.weightx = 1.0; gbc.fill = GridBagConstraints.HORIZONTAL;
+        kdfIterationsField = new JTextField(8);
+        panel.add(kdfIterationsField, gbc);
+        
+        // RSA-wrapped per-request session keys, see SessionKeys
+        gbc.gridx = 0; gbc.gridy = 7; gbc.weightx = 0;
+        panel.add(new JLabel("Key Wrapping:"), gbc);
+        
+        gbc.gridx = 1; gbc.weightx = 1.0; gbc.fill = GridBagConstraints.HORIZONTAL;
+        keyWrappingComboBox = new JComboBox<>(new String[]{
+            SessionKeys.NONE, SessionKeys.RSA_PKCS1, SessionKeys.RSA_OAEP_SHA1, SessionKeys.RSA_OAEP_SHA256
+        });
+        keyWrappingComboBox.addActionListener(e -> updateKeyFields());
+        panel.add(keyWrappingComboBox, gbc);
+        
+        gbc.gridx = 0; gbc.gridy = 8; gbc.weightx = 0; gbc.anchor = GridBagConstraints.NORTHWEST;
+        panel.add(new JLabel("RSA Private Key (PEM):"), gbc);
+        
+        gbc.gridx = 1; gbc.weightx = 1.0; gbc.fill = GridBagConstraints.HORIZONTAL;
+        rsaPrivateKeyArea = new JTextArea(4, 25);
+        rsaPrivateKeyArea.setFont(new Font(Font.MONOSPACED, Font.PLAIN, 11));
+        panel.add(new JScrollPane(rsaPrivateKeyArea), gbc);
+        
+        gbc.gridx = 2; gbc.weightx = 0; gbc.fill = GridBagConstraints.NONE;
+        loadPrivateKeyButton = new JButton("Load...");
+        loadPrivateKeyButton.addActionListener(e -> loadPrivateKey());
+        panel.add(loadPrivateKeyButton, gbc);
+        gbc.anchor = GridBagConstraints.WEST;
+        
+        gbc.gridx = 0; gbc.gridy = 9; gbc.weightx = 0;
+        panel.add(new JLabel("Wrapped Key In:"), gbc);
+        
+        gbc.gridx = 1; gbc.weightx = 1.0; gbc.fill = GridBagConstraints.HORIZONTAL;
+        wrappedKeyLocationComboBox = new JComboBox<>(new String[]{
+            SessionKeys.LOCATION_HEADER, SessionKeys.LOCATION_FIELD
+        });
+        panel.add(wrappedKeyLocationComboBox, gbc);
+        
+        gbc.gridx = 0; gbc.gridy = 10; gbc.weightx = 0;
+        panel.add(new JLabel("Wrapped Key Name:"), gbc);
+        
+        gbc.gridx = 1; gbc.weightx = 1.0; gbc.fill = GridBagConstraints.HORIZONTAL;
+        wrappedKeyNameField = new JTextField(25);
+        panel.add(wrappedKeyNameField, gbc);
+        
+        // Info
+        gbc.gridx = 0; gbc.gridy = 11; gbc.gridwidth = 3;
+        JLabel infoLabel = new JLabel("<html><i>With key derivation, key and IV come from the passphrase and the "
+                + "\"Salted__\" header of each message (EVP_BytesToKey uses 1 iteration by default). "
+                + "A per-message IV policy needs the IV placed in front of the ciphertext. "
+                + "With key wrapping, each request carries its AES key RSA-encrypted in a header or JSON field; "
+                + "its response uses the same key</i></html>");
+        infoLabel.setFont(new Font("Arial", Font.PLAIN, 10));
+        infoLabel.setForeground(Color.GRAY);
+        panel.add(infoLabel, gbc);
+        
         return panel;
     }
     
@@ -208,6 +411,12 @@ public class ConfigPanel extends JPanel {
         gbc.gridx = 1; gbc.weightx = 1.0; gbc.fill = GridBagConstraints.HORIZONTAL;
         requestParamField = new JTextField(15);
         panel.add(requestParamField, gbc);
+        // Where the parameter lives; anything but BODY leaves the body untouched
+        gbc.gridx = 2; gbc.weightx = 0;
+        requestLocationComboBox = new JComboBox<>(new String[]{
+            TokenTransformer.BODY, TokenTransformer.HEADER, TokenTransformer.COOKIE, TokenTransformer.QUERY
+        });
+        panel.add(requestLocationComboBox, gbc);
         
         // Response parameter
         gbc.gridx = 0; gbc.gridy = 1; gbc.weightx = 0;
@@ -215,10 +424,117 @@ public class ConfigPanel extends JPanel {
         gbc.gridx = 1; gbc.weightx = 1.0;
         responseParamField = new JTextField(15);
         panel.add(responseParamField, gbc);
+        gbc.gridx = 2; gbc.weightx = 0;
+        responseLocationComboBox = new JComboBox<>(new String[]{
+            TokenTransformer.BODY, TokenTransformer.HEADER, TokenTransformer.COOKIE
+        });
+        panel.add(responseLocationComboBox, gbc);
+        
+        // Codec chains
+        gbc.gridx = 0; gbc.gridy = 2; gbc.weightx = 0;
+        panel.add(new JLabel("Request Codec Chain:"), gbc);
+        gbc.gridx = 1; gbc.weightx = 1.0;
+        requestCodecsField = new JTextField(15);
+        panel.add(requestCodecsField, gbc);
+        
+        gbc.gridx = 0; gbc.gridy = 3; gbc.weightx = 0;
+        panel.add(new JLabel("Response Codec Chain:"), gbc);
+        gbc.gridx = 1; gbc.weightx = 1.0;
+        responseCodecsField = new JTextField(15);
+        panel.add(responseCodecsField, gbc);
+        
+        // Info
+        gbc.gridx = 0; gbc.gridy = 4; gbc.gridwidth = 3; gbc.weightx = 1.0; gbc.fill = GridBagConstraints.HORIZONTAL;
+        JLabel infoLabel = new JLabel("<html><i>JSON field name containing encrypted data, or the header, cookie or "
+                + "query parameter holding it. Codec chains are written "
+                + "in decryption order, e.g. url &gt; base64url &gt; AES &gt; gzip "
+                + "(codecs: url, base64, base64url, hex, AES, gzip, utf8)</i></html>");
+        infoLabel.setFont(new Font("Arial", Font.PLAIN, 10));
+        infoLabel.setForeground(Color.GRAY);
+        panel.add(infoLabel, gbc);
+        
+        return panel;
+    }
+    
+    /**
+     * Session key learning panel: where login responses carry the key and how sessions are identified
+     */
+    private JPanel createLearningPanel() {
+        JPanel panel = new JPanel(new GridBagLayout());
+        panel.setBorder(new TitledBorder("Session Key Learning"));
+        GridBagConstraints gbc = new GridBagConstraints();
+        gbc.insets = new Insets(3, 5, 3, 5);
+        gbc.anchor = GridBagConstraints.WEST;
+        gbc.fill = GridBagConstraints.HORIZONTAL;
+        
+        gbc.gridx = 0; gbc.gridy = 0; gbc.gridwidth = 2; gbc.weightx = 1.0;
+        keyLearningCheckbox = new JCheckBox("Learn per-session keys from login/handshake responses",
+                config.isKeyLearning());
+        panel.add(keyLearningCheckbox, gbc);
+        gbc.gridwidth = 1;
+        
+        // Where the response carries the key
+        gbc.gridx = 0; gbc.gridy = 1; gbc.weightx = 0;
+        panel.add(new JLabel("Key In:"), gbc);
+        gbc.gridx = 1; gbc.weightx = 1.0;
+        learnKeyLocationComboBox = new JComboBox<>(new String[]{SessionKeys.LOCATION_FIELD, SessionKeys.LOCATION_HEADER});
+        panel.add(learnKeyLocationComboBox, gbc);
+        
+        gbc.gridx = 0; gbc.gridy = 2; gbc.weightx = 0;
+        panel.add(new JLabel("Key Name:"), gbc);
+        gbc.gridx = 1; gbc.weightx = 1.0;
+        learnKeyNameField = new JTextField(15);
+        panel.add(learnKeyNameField, gbc);
+        
+        gbc.gridx = 0; gbc.gridy = 3; gbc.weightx = 0;
+        panel.add(new JLabel("IV Name:"), gbc);
+        gbc.gridx = 1; gbc.weightx = 1.0;
+        learnIvNameField = new JTextField(15);
+        panel.add(learnIvNameField, gbc);
+        
+        // How later requests name their session
+        gbc.gridx = 0; gbc.gridy = 4; gbc.weightx = 0;
+        panel.add(new JLabel("Session Id In:"), gbc);
+        gbc.gridx = 1; gbc.weightx = 1.0;
+        sessionIdSourceComboBox = new JComboBox<>(new String[]{LearnedKeys.SOURCE_COOKIE, LearnedKeys.SOURCE_HEADER});
+        panel.add(sessionIdSourceComboBox, gbc);
+        
+        gbc.gridx = 0; gbc.gridy = 5; gbc.weightx = 0;
+        panel.add(new JLabel("Session Id Name:"), gbc);
+        gbc.gridx = 1; gbc.weightx = 1.0;
+        sessionIdNameField = new JTextField(15);
+        panel.add(sessionIdNameField, gbc);
+        
+        gbc.gridx = 0; gbc.gridy = 6; gbc.weightx = 0;
+        panel.add(new JLabel("Issued Token Field:"), gbc);
+        gbc.gridx = 1; gbc.weightx = 1.0;
+        learnSessionFieldField = new JTextField(15);
+        panel.add(learnSessionFieldField, gbc);
+        
+        gbc.gridx = 0; gbc.gridy = 7; gbc.weightx = 0;
+        panel.add(new JLabel("Idle TTL (s):"), gbc);
+        gbc.gridx = 1; gbc.weightx = 1.0;
+        learnedKeyTtlField = new JTextField(8);
+        panel.add(learnedKeyTtlField, gbc);
+        
+        JPanel buttons = new JPanel(new FlowLayout(FlowLayout.LEFT, 5, 0));
+        JButton forgetButton = new JButton("Forget Learned Keys");
+        forgetButton.addActionListener(e -> {
+            LearnedKeys.clear();
+            updateLearnedKeysLabel();
+        });
+        buttons.add(forgetButton);
+        learnedKeysLabel = new JLabel(" ");
+        learnedKeysLabel.setFont(new Font("Arial", Font.PLAIN, 11));
+        buttons.add(learnedKeysLabel);
+        gbc.gridx = 0; gbc.gridy = 8; gbc.gridwidth = 2;
+        panel.add(buttons, gbc);
         
         // Info
-        gbc.gridx = 0; gbc.gridy = 2; gbc.gridwidth = 2; gbc.weightx = 1.0; gbc.fill = GridBagConstraints.HORIZONTAL;
-        JLabel infoLabel = new JLabel("<html><i>JSON field name containing encrypted data</i></html>");
+        gbc.gridy = 9;
+        JLabel infoLabel = new JLabel("<html><i>Key and IV may be hex or Base64. The session id comes from the "
+                + "issued token field, else the Set-Cookie/header the response sets, else the request's own. "
+                + "Requests without a learned session use the static key, if any</i></html>");
         infoLabel.setFont(new Font("Arial", Font.PLAIN, 10));
         infoLabel.setForeground(Color.GRAY);
         panel.add(infoLabel, gbc);
@@ -226,6 +542,487 @@ public class ConfigPanel extends JPanel {
         return panel;
     }
     
+    private void updateLearnedKeysLabel() {
+        learnedKeysLabel.setText(LearnedKeys.size() + " learned session(s)");
+    }
+    
+    /**
+     * Request signing panel (HMAC after encryption)
+     */
+    private JPanel createSigningPanel() {
+        JPanel panel = new JPanel(new GridBagLayout());
+        panel.setBorder(new TitledBorder("Signing"));
+        GridBagConstraints gbc = new GridBagConstraints();
+        gbc.insets = new Insets(3, 5, 3, 5);
+        gbc.anchor = GridBagConstraints.WEST;
+        gbc.fill = GridBagConstraints.HORIZONTAL;
+        
+        gbc.gridx = 0; gbc.gridy = 0; gbc.gridwidth = 2; gbc.weightx = 1.0;
+        signingEnabledCheckbox = new JCheckBox("Sign requests after encryption (and verify responses)",
+                config.isSigningEnabled());
+        panel.add(signingEnabledCheckbox, gbc);
+        gbc.gridwidth = 1;
+        
+        // Algorithm
+        gbc.gridx = 0; gbc.gridy = 1; gbc.weightx = 0;
+        panel.add(new JLabel("Algorithm:"), gbc);
+        gbc.gridx = 1; gbc.weightx = 1.0;
+        signingAlgorithmComboBox = new JComboBox<>(new String[]{"HmacSHA256", "HmacSHA1", "HmacSHA512"});
+        panel.add(signingAlgorithmComboBox, gbc);
+        
+        // Key
+        gbc.gridx = 0; gbc.gridy = 2; gbc.weightx = 0;
+        panel.add(new JLabel("HMAC Key:"), gbc);
+        gbc.gridx = 1; gbc.weightx = 1.0;
+        signingKeyField = new JTextField(25);
+        panel.add(signingKeyField, gbc);
+        
+        // Canonical input
+        gbc.gridx = 0; gbc.gridy = 3; gbc.weightx = 0;
+        panel.add(new JLabel("Signed Input:"), gbc);
+        gbc.gridx = 1; gbc.weightx = 1.0;
+        signingInputField = new JTextField(25);
+        panel.add(signingInputField, gbc);
+        
+        // Location
+        gbc.gridx = 0; gbc.gridy = 4; gbc.weightx = 0;
+        panel.add(new JLabel("Location:"), gbc);
+        gbc.gridx = 1; gbc.weightx = 1.0;
+        signatureLocationComboBox = new JComboBox<>(new String[]{MessageSigner.LOCATION_FIELD, MessageSigner.LOCATION_HEADER});
+        panel.add(signatureLocationComboBox, gbc);
+        
+        // Signature field/header name
+        gbc.gridx = 0; gbc.gridy = 5; gbc.weightx = 0;
+        panel.add(new JLabel("Signature Name:"), gbc);
+        gbc.gridx = 1; gbc.weightx = 1.0;
+        signatureNameField = new JTextField(15);
+        panel.add(signatureNameField, gbc);
+        
+        // Timestamp field/header name
+        gbc.gridx = 0; gbc.gridy = 6; gbc.weightx = 0;
+        panel.add(new JLabel("Timestamp Name:"), gbc);
+        gbc.gridx = 1; gbc.weightx = 1.0;
+        signatureTimestampField = new JTextField(15);
+        panel.add(signatureTimestampField, gbc);
+        
+        // Encoding
+        gbc.gridx = 0; gbc.gridy = 7; gbc.weightx = 0;
+        panel.add(new JLabel("Encoding:"), gbc);
+        gbc.gridx = 1; gbc.weightx = 1.0;
+        signatureEncodingComboBox = new JComboBox<>(new String[]{"HEX", "BASE64"});
+        panel.add(signatureEncodingComboBox, gbc);
+        
+        // Info
+        gbc.gridx = 0; gbc.gridy = 8; gbc.gridwidth = 2;
+        JLabel infoLabel = new JLabel("<html><i>Placeholders: {ciphertext} {body} {timestamp} {path} {method}, "
+                + "\\n for newline. Leave Timestamp Name empty to send no timestamp</i></html>");
+        infoLabel.setFont(new Font("Arial", Font.PLAIN, 10));
+        infoLabel.setForeground(Color.GRAY);
+        panel.add(infoLabel, gbc);
+        
+        return panel;
+    }
+    
+    /**
+     * Fallback keys tried after the configured one, most recently successful first
+     */
+    private JPanel createKeyRingPanel() {
+        JPanel panel = new JPanel(new GridBagLayout());
+        panel.setBorder(new TitledBorder("Fallback Key Ring"));
+        GridBagConstraints gbc = new GridBagConstraints();
+        gbc.insets = new Insets(3, 5, 3, 5);
+        gbc.anchor = GridBagConstraints.WEST;
+        gbc.fill = GridBagConstraints.HORIZONTAL;
+        
+        gbc.gridx = 0; gbc.gridy = 0; gbc.weightx = 1.0;
+        keyRingArea = new JTextArea(4, 40);
+        keyRingArea.setFont(new Font(Font.MONOSPACED, Font.PLAIN, 11));
+        panel.add(new JScrollPane(keyRingArea), gbc);
+        
+        JPanel buttons = new JPanel(new FlowLayout(FlowLayout.LEFT, 5, 0));
+        JButton showButton = new JButton("Show Ring");
+        showButton.addActionListener(e -> showKeyRing());
+        buttons.add(showButton);
+        JButton resetButton = new JButton("Reset Order");
+        resetButton.addActionListener(e -> {
+            KeyRing.reset();
+            updateKeyRingStatus();
+        });
+        buttons.add(resetButton);
+        gbc.gridy = 1;
+        panel.add(buttons, gbc);
+        
+        gbc.gridy = 2;
+        keyRingStatusLabel = new JLabel(" ");
+        keyRingStatusLabel.setFont(new Font("Arial", Font.PLAIN, 11));
+        panel.add(keyRingStatusLabel, gbc);
+        
+        gbc.gridy = 3;
+        JLabel infoLabel = new JLabel("<html><i>One fallback key per line: &lt;key base64&gt; [&lt;iv base64&gt;] "
+                + "(without IV, the configured one). Decryption tries the key last used for the host, then the "
+                + "others by most recent success; encryption uses the host's key. Not used with key derivation "
+                + "or per-message keys. # starts a comment</i></html>");
+        infoLabel.setFont(new Font("Arial", Font.PLAIN, 10));
+        infoLabel.setForeground(Color.GRAY);
+        panel.add(infoLabel, gbc);
+        
+        return panel;
+    }
+    
+    private void updateKeyRingStatus() {
+        if (!config.usesKeyRing()) {
+            keyRingStatusLabel.setText("No fallback keys");
+            return;
+        }
+        long messages = KeyRing.getMessages();
+        keyRingStatusLabel.setText(String.format("%d key(s), %,d message(s) decrypted, %.2f attempts per message",
+                KeyRing.size(config), messages,
+                messages > 0 ? (double) KeyRing.getAttempts() / messages : 0.0));
+    }
+    
+    /**
+     * Non-modal window with the ring in its current order and the key of every host
+     */
+    private void showKeyRing() {
+        String[] columns = {"Order", "Key", "Fingerprint", "Decrypted", "Failed attempts"};
+        javax.swing.table.DefaultTableModel model = new javax.swing.table.DefaultTableModel(columns, 0);
+        KeyRing.size(config);  // builds the ring if no message has used it yet
+        int position = 1;
+        for (KeyRing.Entry entry : KeyRing.order()) {
+            model.addRow(new Object[]{position++, entry.label, entry.fingerprint, entry.getSuccesses(),
+                    entry.getFailures()});
+        }
+        StringBuilder hosts = new StringBuilder();
+        KeyRing.stickyHosts().forEach((host, label) -> hosts.append(host).append(" -> ").append(label).append('\n'));
+        JTextArea hostsArea = new JTextArea(hosts.length() > 0 ? hosts.toString() : "No host has used the ring yet");
+        hostsArea.setEditable(false);
+        hostsArea.setFont(new Font(Font.MONOSPACED, Font.PLAIN, 11));
+        
+        JDialog dialog = new JDialog((Frame) null, "Fallback key ring", false);
+        dialog.add(new JLabel(" " + model.getRowCount() + " key(s) in the order they are tried"), BorderLayout.NORTH);
+        JSplitPane split = new JSplitPane(JSplitPane.VERTICAL_SPLIT, new JScrollPane(new JTable(model)),
+                new JScrollPane(hostsArea));
+        split.setResizeWeight(0.6);
+        dialog.add(split, BorderLayout.CENTER);
+        dialog.setSize(700, 400);
+        dialog.setLocationRelativeTo(this);
+        dialog.setVisible(true);
+    }
+    
+    /**
+     * Match/replace rules applied to the plaintext before re-encryption
+     */
+    private JPanel createPlaintextRulesPanel() {
+        JPanel panel = new JPanel(new GridBagLayout());
+        panel.setBorder(new TitledBorder("Plaintext Rules"));
+        GridBagConstraints gbc = new GridBagConstraints();
+        gbc.insets = new Insets(3, 5, 3, 5);
+        gbc.anchor = GridBagConstraints.WEST;
+        gbc.fill = GridBagConstraints.HORIZONTAL;
+        
+        gbc.gridx = 0; gbc.gridy = 0; gbc.weightx = 1.0;
+        plaintextRulesArea = new JTextArea(5, 40);
+        plaintextRulesArea.setFont(new Font(Font.MONOSPACED, Font.PLAIN, 11));
+        panel.add(new JScrollPane(plaintextRulesArea), gbc);
+        
+        JPanel buttons = new JPanel(new FlowLayout(FlowLayout.LEFT, 5, 0));
+        JButton hitsButton = new JButton("Show Hits");
+        hitsButton.addActionListener(e -> showRuleHits());
+        buttons.add(hitsButton);
+        JButton resetButton = new JButton("Reset Hits");
+        resetButton.addActionListener(e -> {
+            currentRules().resetHits();
+            updatePlaintextRulesStatus();
+        });
+        buttons.add(resetButton);
+        gbc.gridy = 1;
+        panel.add(buttons, gbc);
+        
+        gbc.gridy = 2;
+        plaintextRulesStatusLabel = new JLabel(" ");
+        plaintextRulesStatusLabel.setFont(new Font("Arial", Font.PLAIN, 11));
+        panel.add(plaintextRulesStatusLabel, gbc);
+        
+        gbc.gridy = 3;
+        JLabel infoLabel = new JLabel("<html><i>One rule per line: &lt;request|response|both&gt; literal|regex "
+                + "&lt;pattern&gt; =&gt; &lt;replacement&gt;, or set &lt;$.json.path&gt; =&gt; &lt;JSON value&gt;, "
+                + "or remove &lt;$.json.path&gt;. Applied before re-encryption: requests to the server, "
+                + "responses to the client. # starts a comment</i></html>");
+        infoLabel.setFont(new Font("Arial", Font.PLAIN, 10));
+        infoLabel.setForeground(Color.GRAY);
+        panel.add(infoLabel, gbc);
+        
+        return panel;
+    }
+    
+    /**
+     * Rules of the saved configuration; none if they do not compile
+     */
+    private PlaintextRules currentRules() {
+        try {
+            return PlaintextRules.compile(config.getPlaintextRules());
+        } catch (Exception e) {
+            return PlaintextRules.NONE;
+        }
+    }
+    
+    private void updatePlaintextRulesStatus() {
+        PlaintextRules rules = currentRules();
+        plaintextRulesStatusLabel.setText(rules.isEmpty() ? "No rules"
+                : String.format("%d rule(s), %,d hit(s)", rules.rules().size(), rules.totalHits()));
+    }
+    
+    /**
+     * Non-modal window with the hit counter of every rule
+     */
+    private void showRuleHits() {
+        String[] columns = {"Line", "Direction", "Type", "Pattern", "Replacement", "Hits"};
+        javax.swing.table.DefaultTableModel model = new javax.swing.table.DefaultTableModel(columns, 0);
+        for (PlaintextRules.Rule rule : currentRules().rules()) {
+            model.addRow(new Object[]{rule.line, rule.scope, rule.type, rule.pattern, rule.replacement, rule.getHits()});
+        }
+        
+        JDialog dialog = new JDialog((Frame) null, "Plaintext rule hits", false);
+        dialog.add(new JLabel(" " + model.getRowCount() + " rule(s); hits count replacements or JSON nodes changed"),
+                BorderLayout.NORTH);
+        dialog.add(new JScrollPane(new JTable(model)), BorderLayout.CENTER);
+        dialog.setSize(800, 350);
+        dialog.setLocationRelativeTo(this);
+        dialog.setVisible(true);
+    }
+    
+    /**
+     * Traffic journal panel: recording switch, location and reader actions
+     */
+    private JPanel createJournalPanel() {
+        JPanel panel = new JPanel(new GridBagLayout());
+        panel.setBorder(new TitledBorder("Traffic Journal"));
+        GridBagConstraints gbc = new GridBagConstraints();
+        gbc.insets = new Insets(3, 5, 3, 5);
+        gbc.anchor = GridBagConstraints.WEST;
+        gbc.fill = GridBagConstraints.HORIZONTAL;
+        
+        gbc.gridx = 0; gbc.gridy = 0; gbc.gridwidth = 2; gbc.weightx = 1.0;
+        journalEnabledCheckbox = new JCheckBox("Record transformed messages (original and transformed)",
+                config.isJournalEnabled());
+        panel.add(journalEnabledCheckbox, gbc);
+        gbc.gridwidth = 1;
+        
+        // Directory
+        gbc.gridx = 0; gbc.gridy = 1; gbc.weightx = 0;
+        panel.add(new JLabel("Directory:"), gbc);
+        gbc.gridx = 1; gbc.weightx = 1.0;
+        journalDirectoryField = new JTextField(25);
+        panel.add(journalDirectoryField, gbc);
+        
+        // Reader actions
+        JPanel buttons = new JPanel(new FlowLayout(FlowLayout.LEFT, 5, 0));
+        journalScanButton = new JButton("Scan");
+        journalScanButton.addActionListener(e -> scanJournal());
+        buttons.add(journalScanButton);
+        journalExportJsonButton = new JButton("Export JSON...");
+        journalExportJsonButton.addActionListener(e -> exportJournal(false));
+        buttons.add(journalExportJsonButton);
+        journalExportHarButton = new JButton("Export HAR...");
+        journalExportHarButton.addActionListener(e -> exportJournal(true));
+        buttons.add(journalExportHarButton);
+        gbc.gridx = 0; gbc.gridy = 2; gbc.gridwidth = 2;
+        panel.add(buttons, gbc);
+        
+        gbc.gridy = 3;
+        journalStatusLabel = new JLabel(" ");
+        journalStatusLabel.setFont(new Font("Arial", Font.PLAIN, 11));
+        panel.add(journalStatusLabel, gbc);
+        
+        return panel;
+    }
+    
+    /**
+     * ECB block analysis panel: switch, memory bound and live statistics
+     */
+    private JPanel createEcbPanel() {
+        JPanel panel = new JPanel(new GridBagLayout());
+        panel.setBorder(new TitledBorder("ECB Block Analysis"));
+        GridBagConstraints gbc = new GridBagConstraints();
+        gbc.insets = new Insets(3, 5, 3, 5);
+        gbc.anchor = GridBagConstraints.WEST;
+        gbc.fill = GridBagConstraints.HORIZONTAL;
+        
+        gbc.gridx = 0; gbc.gridy = 0; gbc.gridwidth = 2; gbc.weightx = 1.0;
+        ecbAnalysisCheckbox = new JCheckBox("Look for repeated ciphertext blocks in decrypted traffic",
+                config.isEcbAnalysis());
+        panel.add(ecbAnalysisCheckbox, gbc);
+        gbc.gridwidth = 1;
+        
+        gbc.gridx = 0; gbc.gridy = 1; gbc.weightx = 0;
+        panel.add(new JLabel("Max Tracked Blocks:"), gbc);
+        gbc.gridx = 1; gbc.weightx = 1.0;
+        ecbMaxBlocksField = new JTextField(10);
+        panel.add(ecbMaxBlocksField, gbc);
+        
+        JPanel buttons = new JPanel(new FlowLayout(FlowLayout.LEFT, 5, 0));
+        JButton resultsButton = new JButton("Show Results");
+        resultsButton.addActionListener(e -> showEcbResults());
+        buttons.add(resultsButton);
+        JButton resetButton = new JButton("Reset");
+        resetButton.addActionListener(e -> {
+            EcbAnalyzer.reset();
+            updateEcbStatus();
+        });
+        buttons.add(resetButton);
+        gbc.gridx = 0; gbc.gridy = 2; gbc.gridwidth = 2;
+        panel.add(buttons, gbc);
+        
+        gbc.gridy = 3;
+        ecbStatusLabel = new JLabel(" ");
+        ecbStatusLabel.setFont(new Font("Arial", Font.PLAIN, 11));
+        panel.add(ecbStatusLabel, gbc);
+        
+        return panel;
+    }
+    
+    private void refreshAnalysisStatus() {
+        if (!isShowing()) {
+            return;
+        }
+        if (config.isEcbAnalysis()) {
+            updateEcbStatus();
+        }
+        if (config.isIvReuseDetection()) {
+            updateIvReuseStatus();
+        }
+        updatePlaintextRulesStatus();
+        updateKeyRingStatus();
+    }
+    
+    private void updateEcbStatus() {
+        EcbAnalyzer.Snapshot stats = EcbAnalyzer.snapshot();
+        ecbStatusLabel.setText(String.format("%,d messages, %,d blocks; %,d messages with repeated blocks, "
+                        + "%d endpoint(s) flagged; %,d blocks tracked in %,d KB, %d table reset(s), %,d dropped",
+                stats.messages, stats.blocks, stats.flaggedMessages, stats.flaggedEndpoints(),
+                stats.trackedBlocks, stats.tableBytes / 1024, stats.tableResets, stats.dropped));
+    }
+    
+    /**
+     * Non-modal window with per-endpoint statistics and the latest flagged messages
+     */
+    private void showEcbResults() {
+        EcbAnalyzer.Snapshot stats = EcbAnalyzer.snapshot();
+        
+        String[] endpointColumns = {"Endpoint", "Direction", "Messages", "Blocks", "Flagged Messages",
+                "Repeated In Message", "Repeated Across Messages"};
+        javax.swing.table.DefaultTableModel endpointModel = new javax.swing.table.DefaultTableModel(endpointColumns, 0);
+        for (EcbAnalyzer.EndpointStats endpoint : stats.endpoints) {
+            endpointModel.addRow(new Object[]{endpoint.endpoint, endpoint.direction, endpoint.messages,
+                    endpoint.blocks, endpoint.flaggedMessages, endpoint.repeatedBlocks, endpoint.crossMessageBlocks});
+        }
+        
+        String[] flaggedColumns = {"Message Id", "Endpoint", "Direction", "Blocks",
+                "Repeated In Message", "Repeated Across Messages"};
+        javax.swing.table.DefaultTableModel flaggedModel = new javax.swing.table.DefaultTableModel(flaggedColumns, 0);
+        for (EcbAnalyzer.FlaggedMessage message : stats.flagged) {
+            flaggedModel.addRow(new Object[]{message.messageId, message.endpoint, message.direction,
+                    message.blocks, message.repeatedBlocks, message.crossMessageBlocks});
+        }
+        
+        JSplitPane split = new JSplitPane(JSplitPane.VERTICAL_SPLIT,
+                new JScrollPane(new JTable(endpointModel)), new JScrollPane(new JTable(flaggedModel)));
+        split.setResizeWeight(0.5);
+        
+        JDialog dialog = new JDialog((Frame) null, "ECB block analysis", false);
+        dialog.add(new JLabel(" " + stats.flaggedEndpoints() + " of " + stats.endpoints.size()
+                + " endpoint(s) with repeated blocks; latest flagged messages below"), BorderLayout.NORTH);
+        dialog.add(split, BorderLayout.CENTER);
+        dialog.setSize(900, 500);
+        dialog.setLocationRelativeTo(this);
+        dialog.setVisible(true);
+    }
+    
+    /**
+     * IV/nonce reuse panel: switch, memory budget, Bloom front and reused pairs
+     */
+    private JPanel createIvReusePanel() {
+        JPanel panel = new JPanel(new GridBagLayout());
+        panel.setBorder(new TitledBorder("IV / Nonce Reuse"));
+        GridBagConstraints gbc = new GridBagConstraints();
+        gbc.insets = new Insets(3, 5, 3, 5);
+        gbc.anchor = GridBagConstraints.WEST;
+        gbc.fill = GridBagConstraints.HORIZONTAL;
+        
+        gbc.gridx = 0; gbc.gridy = 0; gbc.gridwidth = 2; gbc.weightx = 1.0;
+        ivReuseDetectionCheckbox = new JCheckBox("Detect IV/nonce reuse under the same key (both directions)",
+                config.isIvReuseDetection());
+        panel.add(ivReuseDetectionCheckbox, gbc);
+        gbc.gridwidth = 1;
+        
+        gbc.gridx = 0; gbc.gridy = 1; gbc.weightx = 0;
+        panel.add(new JLabel("Memory Budget (MB):"), gbc);
+        gbc.gridx = 1; gbc.weightx = 1.0;
+        ivReuseMemoryField = new JTextField(6);
+        panel.add(ivReuseMemoryField, gbc);
+        
+        gbc.gridx = 0; gbc.gridy = 2; gbc.gridwidth = 2;
+        ivReuseBloomCheckbox = new JCheckBox("Bloom filter front for very high volume (older reuse reported as probable)",
+                config.isIvReuseBloom());
+        panel.add(ivReuseBloomCheckbox, gbc);
+        
+        JPanel buttons = new JPanel(new FlowLayout(FlowLayout.LEFT, 5, 0));
+        JButton reusedButton = new JButton("Show Reused Pairs");
+        reusedButton.addActionListener(e -> showReusedPairs());
+        buttons.add(reusedButton);
+        JButton resetButton = new JButton("Reset");
+        resetButton.addActionListener(e -> {
+            IvReuseDetector.reset();
+            updateIvReuseStatus();
+        });
+        buttons.add(resetButton);
+        gbc.gridy = 3;
+        panel.add(buttons, gbc);
+        
+        gbc.gridy = 4;
+        ivReuseStatusLabel = new JLabel(" ");
+        ivReuseStatusLabel.setFont(new Font("Arial", Font.PLAIN, 11));
+        panel.add(ivReuseStatusLabel, gbc);
+        
+        gbc.gridy = 5;
+        JLabel infoLabel = new JLabel("<html><i>The same key and IV with a different plaintext is reuse; the same "
+                + "message seen again (Repeater, the Decrypted tab) is not. A static IV reuses on every message</i></html>");
+        infoLabel.setFont(new Font("Arial", Font.PLAIN, 10));
+        infoLabel.setForeground(Color.GRAY);
+        panel.add(infoLabel, gbc);
+        
+        return panel;
+    }
+    
+    private void updateIvReuseStatus() {
+        ivReuseStatusLabel.setText(String.format("%,d operations, %,d reuses (%,d probable) in %d pair(s); "
+                        + "%,d pairs tracked in %,d KB, %d reset(s)",
+                IvReuseDetector.getObserved(), IvReuseDetector.getReuses() + IvReuseDetector.getProbableReuses(),
+                IvReuseDetector.getProbableReuses(), IvReuseDetector.reported().size(),
+                IvReuseDetector.getTrackedPairs(), IvReuseDetector.getMemoryBytes() / 1024, IvReuseDetector.getResets()));
+    }
+    
+    /**
+     * Non-modal window listing the reused (key, IV) pairs, most repeated first
+     */
+    private void showReusedPairs() {
+        String[] columns = {"Key", "IV / Nonce", "Mode", "Reuses", "Kind", "First Seen", "Last Seen", "Last Operation"};
+        javax.swing.table.DefaultTableModel model = new javax.swing.table.DefaultTableModel(columns, 0);
+        for (IvReuseDetector.Reuse reuse : IvReuseDetector.reported()) {
+            model.addRow(new Object[]{reuse.keyFingerprint, reuse.iv, reuse.mode, reuse.getCount(),
+                    reuse.probable ? "probable" : "exact", new Date(reuse.firstSeen), new Date(reuse.getLastSeen()),
+                    reuse.getLastOperation()});
+        }
+        
+        JDialog dialog = new JDialog((Frame) null, "IV / nonce reuse", false);
+        dialog.add(new JLabel(" " + model.getRowCount() + " reused (key, IV) pair(s); key = first 4 bytes of its SHA-256"),
+                BorderLayout.NORTH);
+        dialog.add(new JScrollPane(new JTable(model)), BorderLayout.CENTER);
+        dialog.setSize(900, 400);
+        dialog.setLocationRelativeTo(this);
+        dialog.setVisible(true);
+    }
+    
     /**
      * Actions panel
      */
@@ -243,6 +1040,41 @@ public class ConfigPanel extends JPanel {
         return panel;
     }
     
+    /**
+     * Self-test results panel (filled by the Test button)
+     */
+    private JPanel createSelfTestPanel() {
+        JPanel panel = new JPanel(new BorderLayout(5, 5));
+        panel.setBorder(new TitledBorder("Self-Test"));
+        
+        selfTestStatusLabel = new JLabel("Press \"Test Configuration\" to check correctness and measure throughput");
+        selfTestStatusLabel.setFont(new Font("Arial", Font.PLAIN, 11));
+        panel.add(selfTestStatusLabel, BorderLayout.NORTH);
+        
+        JPanel runs = new JPanel(new GridLayout(1, 2, 5, 5));
+        lastRunArea = createResultArea();
+        previousRunArea = createResultArea();
+        runs.add(wrapResultArea("Last run", lastRunArea));
+        runs.add(wrapResultArea("Previous run", previousRunArea));
+        panel.add(runs, BorderLayout.CENTER);
+        
+        return panel;
+    }
+    
+    private JTextArea createResultArea() {
+        JTextArea area = new JTextArea(9, 40);
+        area.setEditable(false);
+        area.setFont(new Font(Font.MONOSPACED, Font.PLAIN, 11));
+        return area;
+    }
+    
+    private JPanel wrapResultArea(String title, JTextArea area) {
+        JPanel panel = new JPanel(new BorderLayout());
+        panel.add(new JLabel(title), BorderLayout.NORTH);
+        panel.add(new JScrollPane(area), BorderLayout.CENTER);
+        return panel;
+    }
+    
     /**
      * Loads current configuration to UI
      */
@@ -251,6 +1083,7 @@ public class ConfigPanel extends JPanel {
         decryptRequestsCheckbox.setSelected(config.isDecryptRequests());
         decryptResponsesCheckbox.setSelected(config.isDecryptResponses());
         autoEncryptCheckbox.setSelected(config.isAutoEncrypt());
+        eagerProxyRewriteCheckbox.setSelected(config.isEagerProxyRewrite());
         
         modeComboBox.setSelectedItem(config.getMode());
         paddingComboBox.setSelectedItem(config.getPadding());
@@ -259,8 +1092,51 @@ public class ConfigPanel extends JPanel {
         
         keyField.setText(config.getKeyBase64());
         ivField.setText(config.getIvBase64());
+        ivPolicyComboBox.setSelectedItem(config.getIvPolicy());
+        ivPlacementComboBox.setSelectedItem(config.getIvPlacement());
+        kdfComboBox.setSelectedItem(config.getKeyDerivation());
+        passphraseField.setText(config.getPassphrase());
+        kdfIterationsField.setText(String.valueOf(config.getKdfIterations()));
+        keyWrappingComboBox.setSelectedItem(config.getKeyWrapping());
+        rsaPrivateKeyArea.setText(config.getRsaPrivateKey());
+        wrappedKeyLocationComboBox.setSelectedItem(config.getWrappedKeyLocation());
+        wrappedKeyNameField.setText(config.getWrappedKeyName());
+        keyLearningCheckbox.setSelected(config.isKeyLearning());
+        learnKeyLocationComboBox.setSelectedItem(config.getLearnKeyLocation());
+        learnKeyNameField.setText(config.getLearnKeyName());
+        learnIvNameField.setText(config.getLearnIvName());
+        sessionIdSourceComboBox.setSelectedItem(config.getSessionIdSource());
+        sessionIdNameField.setText(config.getSessionIdName());
+        learnSessionFieldField.setText(config.getLearnSessionField());
+        learnedKeyTtlField.setText(String.valueOf(config.getLearnedKeyTtl()));
+        updateLearnedKeysLabel();
+        signingEnabledCheckbox.setSelected(config.isSigningEnabled());
+        signingAlgorithmComboBox.setSelectedItem(config.getSigningAlgorithm());
+        signingKeyField.setText(config.getSigningKey());
+        signingInputField.setText(config.getSigningInput());
+        signatureLocationComboBox.setSelectedItem(config.getSignatureLocation());
+        signatureNameField.setText(config.getSignatureName());
+        signatureTimestampField.setText(config.getSignatureTimestampName());
+        signatureEncodingComboBox.setSelectedItem(config.getSignatureEncoding());
         requestParamField.setText(config.getRequestParameter());
         responseParamField.setText(config.getResponseParameter());
+        requestLocationComboBox.setSelectedItem(config.getRequestLocation());
+        responseLocationComboBox.setSelectedItem(config.getResponseLocation());
+        requestCodecsField.setText(config.getRequestCodecs());
+        responseCodecsField.setText(config.getResponseCodecs());
+        keyRingArea.setText(config.getKeyRing());
+        updateKeyRingStatus();
+        plaintextRulesArea.setText(config.getPlaintextRules());
+        updatePlaintextRulesStatus();
+        journalEnabledCheckbox.setSelected(config.isJournalEnabled());
+        journalDirectoryField.setText(config.getJournalDirectory());
+        ecbAnalysisCheckbox.setSelected(config.isEcbAnalysis());
+        ecbMaxBlocksField.setText(String.valueOf(config.getEcbMaxBlocks()));
+        updateEcbStatus();
+        ivReuseDetectionCheckbox.setSelected(config.isIvReuseDetection());
+        ivReuseMemoryField.setText(String.valueOf(config.getIvReuseMemoryMb()));
+        ivReuseBloomCheckbox.setSelected(config.isIvReuseBloom());
+        updateIvReuseStatus();
         
         onModeChanged();
     }
@@ -274,6 +1150,7 @@ public class ConfigPanel extends JPanel {
             config.setDecryptRequests(decryptRequestsCheckbox.isSelected());
             config.setDecryptResponses(decryptResponsesCheckbox.isSelected());
             config.setAutoEncrypt(autoEncryptCheckbox.isSelected());
+            config.setEagerProxyRewrite(eagerProxyRewriteCheckbox.isSelected());
             
             config.setMode((String) modeComboBox.getSelectedItem());
             config.setPadding((String) paddingComboBox.getSelectedItem());
@@ -282,8 +1159,52 @@ public class ConfigPanel extends JPanel {
             
             config.setKeyBase64(keyField.getText().trim());
             config.setIvBase64(ivField.getText().trim());
+            config.setIvPolicy((String) ivPolicyComboBox.getSelectedItem());
+            config.setIvPlacement((String) ivPlacementComboBox.getSelectedItem());
+            config.setKeyDerivation((String) kdfComboBox.getSelectedItem());
+            config.setPassphrase(passphraseField.getText());
+            config.setKdfIterations(Integer.parseInt(kdfIterationsField.getText().trim()));
+            config.setKeyWrapping((String) keyWrappingComboBox.getSelectedItem());
+            config.setRsaPrivateKey(rsaPrivateKeyArea.getText().trim());
+            config.setWrappedKeyLocation((String) wrappedKeyLocationComboBox.getSelectedItem());
+            config.setWrappedKeyName(wrappedKeyNameField.getText().trim());
+            config.setKeyLearning(keyLearningCheckbox.isSelected());
+            config.setLearnKeyLocation((String) learnKeyLocationComboBox.getSelectedItem());
+            config.setLearnKeyName(learnKeyNameField.getText().trim());
+            config.setLearnIvName(learnIvNameField.getText().trim());
+            config.setSessionIdSource((String) sessionIdSourceComboBox.getSelectedItem());
+            config.setSessionIdName(sessionIdNameField.getText().trim());
+            config.setLearnSessionField(learnSessionFieldField.getText().trim());
+            config.setLearnedKeyTtl(Integer.parseInt(learnedKeyTtlField.getText().trim()));
+            config.setSigningEnabled(signingEnabledCheckbox.isSelected());
+            config.setSigningAlgorithm((String) signingAlgorithmComboBox.getSelectedItem());
+            config.setSigningKey(signingKeyField.getText());
+            config.setSigningInput(signingInputField.getText());
+            config.setSignatureLocation((String) signatureLocationComboBox.getSelectedItem());
+            config.setSignatureName(signatureNameField.getText().trim());
+            config.setSignatureTimestampName(signatureTimestampField.getText().trim());
+            config.setSignatureEncoding((String) signatureEncodingComboBox.getSelectedItem());
             config.setRequestParameter(requestParamField.getText().trim());
             config.setResponseParameter(responseParamField.getText().trim());
+            config.setRequestLocation((String) requestLocationComboBox.getSelectedItem());
+            config.setResponseLocation((String) responseLocationComboBox.getSelectedItem());
+            config.setRequestCodecs(requestCodecsField.getText().trim());
+            config.setResponseCodecs(responseCodecsField.getText().trim());
+            // Same for a fallback key of the wrong size
+            config.setKeyRing(keyRingArea.getText());
+            if (config.usesKeyRing()) {
+                KeyRing.validate(config);
+            }
+            // A broken rule is reported with its line instead of being saved
+            PlaintextRules.compile(plaintextRulesArea.getText());
+            config.setPlaintextRules(plaintextRulesArea.getText());
+            config.setJournalEnabled(journalEnabledCheckbox.isSelected());
+            config.setJournalDirectory(journalDirectoryField.getText().trim());
+            config.setEcbAnalysis(ecbAnalysisCheckbox.isSelected());
+            config.setEcbMaxBlocks(Integer.parseInt(ecbMaxBlocksField.getText().trim()));
+            config.setIvReuseDetection(ivReuseDetectionCheckbox.isSelected());
+            config.setIvReuseMemoryMb(Integer.parseInt(ivReuseMemoryField.getText().trim()));
+            config.setIvReuseBloom(ivReuseBloomCheckbox.isSelected());
             
             updateStatus();
             
@@ -323,20 +1244,136 @@ public class ConfigPanel extends JPanel {
             return;
         }
         
-        boolean success = CryptoHelper.testConfiguration(config);
+        // Runs in the background: correctness over several sizes, then throughput
+        testConfigButton.setEnabled(false);
+        selfTestStatusLabel.setText("Running...");
+        selfTestExecutor.submit(() -> {
+            SelfTest.Result result = null;
+            try {
+                result = SelfTest.run(config,
+                        step -> SwingUtilities.invokeLater(() -> selfTestStatusLabel.setText(step)));
+            } catch (RuntimeException e) {
+                logging.logToError("Configuration test aborted: " + e);
+            } finally {
+                SelfTest.Result finished = result;
+                SwingUtilities.invokeLater(() -> {
+                    if (finished != null) {
+                        showSelfTestResult(finished);
+                    } else {
+                        testConfigButton.setEnabled(true);
+                        selfTestStatusLabel.setText("❌ Test aborted: see the error log");
+                    }
+                });
+            }
+        });
+    }
+    
+    /**
+     * Shows a finished self-test; the previous result moves to the right
+     */
+    private void showSelfTestResult(SelfTest.Result result) {
+        previousRunArea.setText(lastRunArea.getText());
+        previousRunArea.setCaretPosition(0);
+        lastRunArea.setText(result.toString());
+        lastRunArea.setCaretPosition(0);
+        testConfigButton.setEnabled(true);
         
-        if (success) {
-            JOptionPane.showMessageDialog(this,
-                    "✅ Test successful!\n\nConfiguration works correctly.",
-                    "Success",
-                    JOptionPane.INFORMATION_MESSAGE);
-            logging.logToOutput("Configuration test passed");
+        if (result.correct) {
+            selfTestStatusLabel.setText("✅ Test successful: configuration works correctly");
+            logging.logToOutput("Configuration test passed\n" + result);
         } else {
-            JOptionPane.showMessageDialog(this,
-                    "❌ Test failed.\n\nVerify key, IV and algorithm.",
-                    "Error",
-                    JOptionPane.ERROR_MESSAGE);
-            logging.logToError("Configuration test failed");
+            selfTestStatusLabel.setText("❌ Test failed: verify key, IV and algorithm");
+            logging.logToError("Configuration test failed\n" + result);
+        }
+    }
+    
+    /**
+     * Reads the whole journal in the background and reports record count and read speed
+     */
+    private void scanJournal() {
+        JournalReader reader = new JournalReader(journal.getDirectory());
+        runJournalTask("Scanning...", () -> {
+            long[] bytes = {0};
+            long[] range = {Long.MAX_VALUE, Long.MIN_VALUE};
+            long start = System.nanoTime();
+            long records = reader.scan(record -> {
+                bytes[0] += record.ciphertextLength() + record.plaintextLength();
+                range[0] = Math.min(range[0], record.timestamp);
+                range[1] = Math.max(range[1], record.timestamp);
+                return true;
+            });
+            double seconds = Math.max(1e-9, (System.nanoTime() - start) / 1e9);
+            String span = records > 0
+                    ? ", " + new Date(range[0]) + " → " + new Date(range[1]) : "";
+            return String.format("%,d records%s, read at %,.0f records/s (%.1f MB/s). Session: %,d written, %,d dropped",
+                    records, span, records / seconds, bytes[0] / seconds / (1024 * 1024),
+                    journal.getWritten(), journal.getDropped());
+        });
+    }
+    
+    /**
+     * Exports the journal to a file chosen by the user, in the background
+     */
+    private void exportJournal(boolean har) {
+        JFileChooser chooser = new JFileChooser();
+        chooser.setSelectedFile(new File(har ? "destroy-aes.har" : "destroy-aes-journal.json"));
+        if (chooser.showSaveDialog(this) != JFileChooser.APPROVE_OPTION) {
+            return;
+        }
+        Path output = chooser.getSelectedFile().toPath();
+        JournalReader reader = new JournalReader(journal.getDirectory());
+        runJournalTask("Exporting...", () -> {
+            long exported = har ? reader.exportHar(output) : reader.exportJson(output);
+            String message = String.format("Exported %,d %s to %s", exported, har ? "entries" : "records", output);
+            logging.logToOutput(message);
+            return message;
+        });
+    }
+    
+    private interface JournalTask {
+        String run() throws Exception;
+    }
+    
+    private void runJournalTask(String progress, JournalTask task) {
+        setJournalButtonsEnabled(false);
+        journalStatusLabel.setText(progress);
+        journalExecutor.submit(() -> {
+            String message;
+            try {
+                message = task.run();
+            } catch (Exception e) {
+                message = "❌ " + e.getMessage();
+                logging.logToError("Journal error: " + e.getMessage());
+            }
+            String result = message;
+            SwingUtilities.invokeLater(() -> {
+                journalStatusLabel.setText(result);
+                setJournalButtonsEnabled(true);
+            });
+        });
+    }
+    
+    private void setJournalButtonsEnabled(boolean enabled) {
+        journalScanButton.setEnabled(enabled);
+        journalExportJsonButton.setEnabled(enabled);
+        journalExportHarButton.setEnabled(enabled);
+    }
+    
+    /**
+     * Reads a PEM private key file into the key area
+     */
+    private void loadPrivateKey() {
+        JFileChooser chooser = new JFileChooser();
+        if (chooser.showOpenDialog(this) != JFileChooser.APPROVE_OPTION) {
+            return;
+        }
+        try {
+            String pem = new String(Files.readAllBytes(chooser.getSelectedFile().toPath()), StandardCharsets.US_ASCII);
+            SessionKeys.parsePrivateKey(pem);
+            rsaPrivateKeyArea.setText(pem.trim());
+            rsaPrivateKeyArea.setCaretPosition(0);
+        } catch (Exception e) {
+            JOptionPane.showMessageDialog(this, "❌ " + e.getMessage(), "Invalid Private Key", JOptionPane.ERROR_MESSAGE);
         }
     }
     
@@ -374,10 +1411,47 @@ public class ConfigPanel extends JPanel {
             paddingComboBox.setEnabled(true);
         }
         
-        // ECB doesn't use IV
-        boolean requiresIv = !"ECB".equals(mode);
+        updateKeyFields();
+    }
+    
+    /**
+     * Triggered when key derivation changes
+     */
+    private void onKeyDerivationChanged() {
+        String kdf = (String) kdfComboBox.getSelectedItem();
+        
+        // Common defaults: CryptoJS/OpenSSL use 1 EVP iteration, "openssl enc -pbkdf2" uses 10000
+        if (kdf != null && kdf.startsWith("PBKDF2") && "1".equals(kdfIterationsField.getText().trim())) {
+            kdfIterationsField.setText("10000");
+        }
+        
+        updateKeyFields();
+    }
+    
+    /**
+     * Enables the raw key/IV fields or the passphrase fields
+     */
+    private void updateKeyFields() {
+        String mode = (String) modeComboBox.getSelectedItem();
+        boolean derived = !KeyDerivation.NONE.equals(kdfComboBox.getSelectedItem());
+        boolean wrapped = !derived && !SessionKeys.NONE.equals(keyWrappingComboBox.getSelectedItem());
+        
+        keyField.setEnabled(!derived && !wrapped);
+        generateKeyButton.setEnabled(!derived && !wrapped);
+        passphraseField.setEnabled(derived);
+        kdfIterationsField.setEnabled(derived);
+        keyWrappingComboBox.setEnabled(!derived);
+        rsaPrivateKeyArea.setEnabled(wrapped);
+        loadPrivateKeyButton.setEnabled(wrapped);
+        wrappedKeyLocationComboBox.setEnabled(wrapped);
+        wrappedKeyNameField.setEnabled(wrapped);
+        
+        // ECB doesn't use IV, and derived profiles take it from the passphrase
+        boolean requiresIv = !"ECB".equals(mode) && !derived;
         ivField.setEnabled(requiresIv);
         generateIvButton.setEnabled(requiresIv);
+        ivPolicyComboBox.setEnabled(requiresIv);
+        ivPlacementComboBox.setEnabled(requiresIv);
         
         if (!requiresIv) {
             ivField.setBackground(Color.LIGHT_GRAY);
@@ -0,0 +1,75 @@
+package burp;
+
+import burp.api.montoya.logging.Logging;
+
+import java.io.PrintStream;
+
+/**
+ * Logging implementation for running outside Burp (StandaloneProxy, benchmarks)
+ *
+ * Output messages are dropped unless verbose is set, since the handlers log
+ * every transformed message and that would dominate a load test.
+ */
+public class ConsoleLogging implements Logging {
+
+    private final boolean verbose;
+
+    public ConsoleLogging(boolean verbose) {
+        this.verbose = verbose;
+    }
+
+    @Override
+    @SuppressWarnings("deprecation")
+    public PrintStream output() {
+        return System.out;
+    }
+
+    @Override
+    @SuppressWarnings("deprecation")
+    public PrintStream error() {
+        return System.err;
+    }
+
+    @Override
+    public void logToOutput(String message) {
+        if (verbose) {
+            System.out.println(message);
+        }
+    }
+
+    @Override
+    public void logToError(String message) {
+        System.err.println(message);
+    }
+
+    @Override
+    public void logToError(String message, Throwable cause) {
+        System.err.println(message);
+        cause.printStackTrace();
+    }
+
+    @Override
+    public void logToError(Throwable cause) {
+        cause.printStackTrace();
+    }
+
+    @Override
+    public void raiseDebugEvent(String message) {
+        logToOutput(message);
+    }
+
+    @Override
+    public void raiseInfoEvent(String message) {
+        logToOutput(message);
+    }
+
+    @Override
+    public void raiseErrorEvent(String message) {
+        logToError(message);
+    }
+
+    @Override
+    public void raiseCriticalEvent(String message) {
+        logToError(message);
+    }
+}
@@ -0,0 +1,250 @@
+package burp;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Locale;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * ContentCodec - Content-Encoding HTTP (gzip / deflate) en streaming
+ *
+ * Abre el cuerpo comprimido como InputStream y el cuerpo de salida como
+ * OutputStream que recomprime, para que MessageTransformer lea y escriba el
+ * JSON sin tener nunca el cuerpo descomprimido entero como String.
+ *
+ * Inflater y Deflater reservan memoria nativa y son caros de crear: se
+ * reutilizan desde un pool. El formato gzip (cabecera, CRC32 y tamaño) se
+ * escribe y se lee aquí, sobre deflate sin envoltorio.
+ *
+ * "br" (Brotli) se detecta pero no está soportado: el JDK no trae decoder.
+ */
+public class ContentCodec {
+
+    private static final int POOL_SIZE = 32;
+    private static final int BUFFER_SIZE = 8192;
+
+    private static final Queue<Inflater> rawInflaters = new ConcurrentLinkedQueue<>();
+    private static final Queue<Inflater> zlibInflaters = new ConcurrentLinkedQueue<>();
+    private static final Queue<Deflater> rawDeflaters = new ConcurrentLinkedQueue<>();
+    private static final Queue<Deflater> zlibDeflaters = new ConcurrentLinkedQueue<>();
+
+    private static final int GZIP_MAGIC = 0x8b1f;
+    private static final int FHCRC = 2;
+    private static final int FEXTRA = 4;
+    private static final int FNAME = 8;
+    private static final int FCOMMENT = 16;
+
+    /**
+     * Content-Encoding con compresión (null o "identity" no lo son)
+     */
+    public static boolean isCompressed(String contentEncoding) {
+        if (contentEncoding == null) {
+            return false;
+        }
+        String encoding = contentEncoding.trim().toLowerCase(Locale.ROOT);
+        return !encoding.isEmpty() && !"identity".equals(encoding);
+    }
+
+    /**
+     * Content-Encoding que se puede descomprimir y recomprimir
+     */
+    public static boolean isSupported(String contentEncoding) {
+        String encoding = normalize(contentEncoding);
+        return "gzip".equals(encoding) || "deflate".equals(encoding);
+    }
+
+    /**
+     * Stream descomprimido del cuerpo; al cerrarlo el Inflater vuelve al pool
+     */
+    public static InputStream decodingStream(byte[] body, String contentEncoding) throws IOException {
+        String encoding = normalize(contentEncoding);
+        if ("gzip".equals(encoding)) {
+            int offset = gzipHeaderLength(body);
+            return new PooledInflaterStream(new ByteArrayInputStream(body, offset, body.length - offset),
+                    borrow(rawInflaters, true), rawInflaters);
+        }
+        if ("deflate".equals(encoding)) {
+            // "deflate" en HTTP es zlib, pero hay servidores que mandan deflate sin envoltorio
+            boolean zlib = body.length >= 2 && (body[0] & 0x0f) == 8
+                    && ((body[0] & 0xff) << 8 | (body[1] & 0xff)) % 31 == 0;
+            Queue<Inflater> pool = zlib ? zlibInflaters : rawInflaters;
+            return new PooledInflaterStream(new ByteArrayInputStream(body), borrow(pool, !zlib), pool);
+        }
+        throw new IOException("Unsupported Content-Encoding: " + contentEncoding);
+    }
+
+    /**
+     * Stream que comprime hacia out; close() escribe el final (y el trailer
+     * gzip) y devuelve el Deflater al pool, sin cerrar out
+     */
+    public static OutputStream encodingStream(OutputStream out, String contentEncoding) throws IOException {
+        String encoding = normalize(contentEncoding);
+        if ("gzip".equals(encoding)) {
+            writeGzipHeader(out);
+            return new PooledDeflaterStream(out, borrowDeflater(rawDeflaters, true), rawDeflaters, true);
+        }
+        if ("deflate".equals(encoding)) {
+            return new PooledDeflaterStream(out, borrowDeflater(zlibDeflaters, false), zlibDeflaters, false);
+        }
+        throw new IOException("Unsupported Content-Encoding: " + contentEncoding);
+    }
+
+    /**
+     * Descomprime un cuerpo completo (para vistas de solo lectura)
+     */
+    public static byte[] decode(byte[] body, String contentEncoding) throws IOException {
+        try (InputStream in = decodingStream(body, contentEncoding)) {
+            return in.readAllBytes();
+        }
+    }
+
+    /**
+     * Recomprime un cuerpo completo
+     */
+    public static byte[] encode(byte[] body, String contentEncoding) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(body.length / 2 + 32);
+        try (OutputStream encoder = encodingStream(out, contentEncoding)) {
+            encoder.write(body);
+        }
+        return out.toByteArray();
+    }
+
+    private static String normalize(String contentEncoding) {
+        if (contentEncoding == null) {
+            return "";
+        }
+        String encoding = contentEncoding.trim().toLowerCase(Locale.ROOT);
+        return "x-gzip".equals(encoding) ? "gzip" : encoding;
+    }
+
+    private static Inflater borrow(Queue<Inflater> pool, boolean nowrap) {
+        Inflater inflater = pool.poll();
+        return inflater != null ? inflater : new Inflater(nowrap);
+    }
+
+    private static Deflater borrowDeflater(Queue<Deflater> pool, boolean nowrap) {
+        Deflater deflater = pool.poll();
+        return deflater != null ? deflater : new Deflater(Deflater.DEFAULT_COMPRESSION, nowrap);
+    }
+
+    private static <T> void release(Queue<T> pool, T item, Runnable reset, Runnable end) {
+        // size() de ConcurrentLinkedQueue es O(n), pero el pool es pequeño
+        if (pool.size() < POOL_SIZE) {
+            reset.run();
+            pool.offer(item);
+        } else {
+            end.run();
+        }
+    }
+
+    /**
+     * Longitud de la cabecera gzip (RFC 1952), con sus campos opcionales
+     */
+    private static int gzipHeaderLength(byte[] body) throws IOException {
+        if (body.length < 10 || ((body[1] & 0xff) << 8 | (body[0] & 0xff)) != GZIP_MAGIC || body[2] != 8) {
+            throw new IOException("Not in gzip format");
+        }
+        int flags = body[3] & 0xff;
+        int pos = 10;
+        if ((flags & FEXTRA) != 0) {
+            pos += 2 + ((body[pos] & 0xff) | (body[pos + 1] & 0xff) << 8);
+        }
+        if ((flags & FNAME) != 0) {
+            while (body[pos++] != 0) {
+                // nombre de fichero terminado en 0
+            }
+        }
+        if ((flags & FCOMMENT) != 0) {
+            while (body[pos++] != 0) {
+                // comentario terminado en 0
+            }
+        }
+        if ((flags & FHCRC) != 0) {
+            pos += 2;
+        }
+        return pos;
+    }
+
+    private static void writeGzipHeader(OutputStream out) throws IOException {
+        out.write(new byte[]{(byte) 0x1f, (byte) 0x8b, 8, 0, 0, 0, 0, 0, 0, (byte) 0xff});
+    }
+
+    /**
+     * InflaterInputStream que devuelve su Inflater al pool al cerrarse
+     */
+    private static class PooledInflaterStream extends InflaterInputStream {
+        private final Queue<Inflater> pool;
+        private boolean closed;
+
+        PooledInflaterStream(InputStream in, Inflater inflater, Queue<Inflater> pool) {
+            super(in, inflater, BUFFER_SIZE);
+            this.pool = pool;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (!closed) {
+                closed = true;
+                super.close();
+                release(pool, inf, inf::reset, inf::end);
+            }
+        }
+    }
+
+    /**
+     * DeflaterOutputStream que añade el trailer gzip y devuelve su Deflater al pool
+     */
+    private static class PooledDeflaterStream extends DeflaterOutputStream {
+        private final Queue<Deflater> pool;
+        private final boolean gzip;
+        private final CRC32 crc = new CRC32();
+        private final OutputStream target;
+        private boolean closed;
+
+        PooledDeflaterStream(OutputStream out, Deflater deflater, Queue<Deflater> pool, boolean gzip) {
+            super(out, deflater, BUFFER_SIZE);
+            this.target = out;
+            this.pool = pool;
+            this.gzip = gzip;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            super.write(b, off, len);
+            if (gzip) {
+                crc.update(b, off, len);
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            finish();
+            if (gzip) {
+                writeInt((int) crc.getValue());
+                writeInt((int) def.getBytesRead());
+            }
+            target.flush();
+            release(pool, def, def::reset, def::end);
+        }
+
+        private void writeInt(int value) throws IOException {
+            target.write(value & 0xff);
+            target.write((value >> 8) & 0xff);
+            target.write((value >> 16) & 0xff);
+            target.write((value >> 24) & 0xff);
+        }
+    }
+}
@@ -1,6 +1,7 @@
 package burp;
 
-import java.util.Base64;
+import java.io.File;
+import java.util.Properties;
 
 /**
  * Clase para almacenar la configuración de cifrado/descifrado
@@ -16,19 +17,82 @@ public class CryptoConfig {
     private String keyBase64 = "";
     private String ivBase64 = "";
     
+    // IV por mensaje al cifrar, ver NonceGenerator
+    private String ivPolicy = NonceGenerator.STATIC;              // STATIC, RANDOM, COUNTER, ECHO
+    private String ivPlacement = NonceGenerator.PLACEMENT_NONE;   // NONE, PREFIX (IV || cifrado)
+    
+    // Derivación desde passphrase (cabecera "Salted__"), ver KeyDerivation
+    private String keyDerivation = KeyDerivation.NONE;  // NONE, EVP_MD5, EVP_SHA256, PBKDF2_SHA1, PBKDF2_SHA256
+    private String passphrase = "";
+    private int kdfIterations = 1;                      // EVP_BytesToKey usa 1 (OpenSSL/CryptoJS)
+    
+    // Clave AES por mensaje envuelta con RSA, ver SessionKeys
+    private String keyWrapping = SessionKeys.NONE;                   // NONE, RSA_PKCS1, RSA_OAEP_SHA1, RSA_OAEP_SHA256
+    private String rsaPrivateKey = "";                               // PEM PKCS#8 o PKCS#1
+    private String wrappedKeyLocation = SessionKeys.LOCATION_HEADER; // HEADER, FIELD (JSON hermano)
+    private String wrappedKeyName = "X-Session-Key";
+    
+    // Claves aprendidas de las responses de login/handshake, ver LearnedKeys
+    private boolean keyLearning = false;
+    private String learnKeyLocation = SessionKeys.LOCATION_FIELD;   // HEADER, FIELD (JSON de la response)
+    private String learnKeyName = "key";
+    private String learnIvName = "";                                // vacío: IV configurado
+    private String sessionIdSource = LearnedKeys.SOURCE_COOKIE;     // COOKIE, HEADER ("Bearer " se ignora)
+    private String sessionIdName = "session";
+    private String learnSessionField = "";                          // campo JSON con el token emitido en el login
+    private int learnedKeyTtl = 3600;                               // segundos sin uso
+    
+    // Claves de respaldo "clave [iv]" en Base64, una por línea, ver KeyRing
+    private String keyRing = "";
+    
     // Configuración de parámetros
     private String requestParameter = "data";
     private String responseParameter = "data";
     
+    // Dónde va el parámetro, ver TokenTransformer
+    private String requestLocation = TokenTransformer.BODY;   // BODY, HEADER, COOKIE, QUERY
+    private String responseLocation = TokenTransformer.BODY;  // BODY, HEADER, COOKIE (Set-Cookie)
+    
+    // Cadena de codecs en sentido descifrado, ver CodecChain
+    private String requestCodecs = CodecChain.DEFAULT;
+    private String responseCodecs = CodecChain.DEFAULT;
+    
+    // Reglas de match/replace sobre el texto plano antes de cifrar (ver PlaintextRules)
+    private String plaintextRules = "";
+    
     // Flags
     private boolean enabled = false;
     private boolean decryptRequests = true;
     private boolean decryptResponses = true;
     private boolean autoEncrypt = true;
+    private boolean eagerProxyRewrite = true;  // false: solo descifrar en la pestaña "Decrypted"
+    
+    // Firma HMAC después del cifrado, ver MessageSigner
+    private boolean signingEnabled = false;
+    private String signingAlgorithm = "HmacSHA256";
+    private String signingKey = "";
+    private String signingInput = "{ciphertext}";     // {ciphertext} {body} {timestamp} {path} {method}
+    private String signatureLocation = "FIELD";       // FIELD (JSON hermano), HEADER
+    private String signatureName = "sign";
+    private String signatureTimestampName = "";       // vacío: sin timestamp
+    private String signatureEncoding = "HEX";         // HEX, BASE64
     
     // Formato de datos
     private String dataFormat = "JSON";  // JSON, RAW, FORM
     
+    // Diario de mensajes transformados, ver TrafficJournal
+    private boolean journalEnabled = false;
+    private String journalDirectory = System.getProperty("user.home") + File.separator + "destroy-aes-journal";
+    
+    // Bloques cifrados repetidos en el tráfico, ver EcbAnalyzer
+    private boolean ecbAnalysis = false;
+    private int ecbMaxBlocks = 262144;   // bloques distintos en memoria (16 bytes de tabla por hueco)
+    
+    // Pares (clave, IV) repetidos, ver IvReuseDetector
+    private boolean ivReuseDetection = false;
+    private int ivReuseMemoryMb = 16;
+    private boolean ivReuseBloom = false;  // tabla exacta pequeña + filtro de Bloom con el resto
+    
     public CryptoConfig() {
     }
     
@@ -69,7 +133,11 @@ public class CryptoConfig {
         if (keyBase64 == null || keyBase64.isEmpty()) {
             throw new Exception("Key not configured");
         }
-        return Base64.getDecoder().decode(keyBase64);
+        byte[] key = HexBase64.fromBase64(keyBase64);
+        if (key == null) {
+            throw new Exception("Key is not valid Base64");
+        }
+        return key;
     }
     
     public String getIvBase64() {
@@ -87,7 +155,215 @@ public class CryptoConfig {
         if (ivBase64 == null || ivBase64.isEmpty()) {
             throw new Exception("IV not configured for " + mode + " mode");
         }
-        return Base64.getDecoder().decode(ivBase64);
+        byte[] iv = HexBase64.fromBase64(ivBase64);
+        if (iv == null) {
+            throw new Exception("IV is not valid Base64");
+        }
+        return iv;
+    }
+    
+    public String getIvPolicy() {
+        return ivPolicy;
+    }
+    
+    public void setIvPolicy(String ivPolicy) {
+        this.ivPolicy = ivPolicy;
+    }
+    
+    public String getIvPlacement() {
+        return ivPlacement;
+    }
+    
+    public void setIvPlacement(String ivPlacement) {
+        this.ivPlacement = ivPlacement;
+    }
+    
+    /**
+     * El IV viaja delante del cifrado: se lee de cada mensaje al descifrar
+     * y se elige según ivPolicy al cifrar. Con derivación el IV sale del salt
+     */
+    public boolean usesIvPrefix() {
+        return NonceGenerator.PLACEMENT_PREFIX.equals(ivPlacement) && requiresIv() && !usesKeyDerivation();
+    }
+    
+    /**
+     * Longitud del IV por mensaje: 16 en CBC; en GCM la del IV configurado, o 12
+     */
+    public int getIvLength() {
+        if ("GCM".equals(mode)) {
+            try {
+                byte[] iv = getIv();
+                return iv.length == 16 ? 16 : 12;
+            } catch (Exception e) {
+                return 12;
+            }
+        }
+        return 16;
+    }
+    
+    public String getKeyDerivation() {
+        return keyDerivation;
+    }
+    
+    public void setKeyDerivation(String keyDerivation) {
+        this.keyDerivation = keyDerivation;
+    }
+    
+    public String getPassphrase() {
+        return passphrase;
+    }
+    
+    public void setPassphrase(String passphrase) {
+        this.passphrase = passphrase;
+    }
+    
+    public int getKdfIterations() {
+        return kdfIterations;
+    }
+    
+    public void setKdfIterations(int kdfIterations) {
+        this.kdfIterations = kdfIterations;
+    }
+    
+    /**
+     * Clave e IV se derivan por mensaje en lugar de usar los configurados
+     */
+    public boolean usesKeyDerivation() {
+        return keyDerivation != null && !KeyDerivation.NONE.equals(keyDerivation);
+    }
+    
+    public String getKeyWrapping() {
+        return keyWrapping;
+    }
+    
+    public void setKeyWrapping(String keyWrapping) {
+        this.keyWrapping = keyWrapping;
+    }
+    
+    public String getRsaPrivateKey() {
+        return rsaPrivateKey;
+    }
+    
+    public void setRsaPrivateKey(String rsaPrivateKey) {
+        this.rsaPrivateKey = rsaPrivateKey;
+    }
+    
+    public String getWrappedKeyLocation() {
+        return wrappedKeyLocation;
+    }
+    
+    public void setWrappedKeyLocation(String wrappedKeyLocation) {
+        this.wrappedKeyLocation = wrappedKeyLocation;
+    }
+    
+    public String getWrappedKeyName() {
+        return wrappedKeyName;
+    }
+    
+    public void setWrappedKeyName(String wrappedKeyName) {
+        this.wrappedKeyName = wrappedKeyName;
+    }
+    
+    /**
+     * La clave AES llega envuelta en cada request en lugar de usar la configurada
+     * (la derivación desde passphrase tiene prioridad)
+     */
+    public boolean usesKeyWrapping() {
+        return keyWrapping != null && !SessionKeys.NONE.equals(keyWrapping) && !usesKeyDerivation();
+    }
+    
+    public boolean isKeyLearning() {
+        return keyLearning;
+    }
+    
+    public void setKeyLearning(boolean keyLearning) {
+        this.keyLearning = keyLearning;
+    }
+    
+    public String getLearnKeyLocation() {
+        return learnKeyLocation;
+    }
+    
+    public void setLearnKeyLocation(String learnKeyLocation) {
+        this.learnKeyLocation = learnKeyLocation;
+    }
+    
+    public String getLearnKeyName() {
+        return learnKeyName;
+    }
+    
+    public void setLearnKeyName(String learnKeyName) {
+        this.learnKeyName = learnKeyName;
+    }
+    
+    public String getLearnIvName() {
+        return learnIvName;
+    }
+    
+    public void setLearnIvName(String learnIvName) {
+        this.learnIvName = learnIvName;
+    }
+    
+    public String getSessionIdSource() {
+        return sessionIdSource;
+    }
+    
+    public void setSessionIdSource(String sessionIdSource) {
+        this.sessionIdSource = sessionIdSource;
+    }
+    
+    public String getSessionIdName() {
+        return sessionIdName;
+    }
+    
+    public void setSessionIdName(String sessionIdName) {
+        this.sessionIdName = sessionIdName;
+    }
+    
+    public String getLearnSessionField() {
+        return learnSessionField;
+    }
+    
+    public void setLearnSessionField(String learnSessionField) {
+        this.learnSessionField = learnSessionField;
+    }
+    
+    public int getLearnedKeyTtl() {
+        return learnedKeyTtl;
+    }
+    
+    public void setLearnedKeyTtl(int learnedKeyTtl) {
+        this.learnedKeyTtl = learnedKeyTtl;
+    }
+    
+    /**
+     * La clave de cada request sale de su sesión, aprendida de una response anterior
+     * (la derivación y la envoltura RSA tienen prioridad)
+     */
+    public boolean usesKeyLearning() {
+        return keyLearning && !usesKeyDerivation() && !usesKeyWrapping();
+    }
+    
+    /**
+     * La clave AES es por mensaje (envuelta o aprendida), ver SessionKeys
+     */
+    public boolean usesSessionKeys() {
+        return usesKeyWrapping() || usesKeyLearning();
+    }
+    
+    public String getKeyRing() {
+        return keyRing;
+    }
+    
+    public void setKeyRing(String keyRing) {
+        this.keyRing = keyRing;
+    }
+    
+    /**
+     * Hay claves de respaldo y la clave es fija (sin derivación ni claves por mensaje)
+     */
+    public boolean usesKeyRing() {
+        return keyRing != null && !keyRing.trim().isEmpty() && !usesKeyDerivation() && !usesSessionKeys();
     }
     
     public String getRequestParameter() {
@@ -106,6 +382,46 @@ public class CryptoConfig {
         this.responseParameter = responseParameter;
     }
     
+    public String getRequestLocation() {
+        return requestLocation;
+    }
+    
+    public void setRequestLocation(String requestLocation) {
+        this.requestLocation = requestLocation;
+    }
+    
+    public String getResponseLocation() {
+        return responseLocation;
+    }
+    
+    public void setResponseLocation(String responseLocation) {
+        this.responseLocation = responseLocation;
+    }
+    
+    public String getRequestCodecs() {
+        return requestCodecs;
+    }
+    
+    public void setRequestCodecs(String requestCodecs) {
+        this.requestCodecs = requestCodecs;
+    }
+    
+    public String getResponseCodecs() {
+        return responseCodecs;
+    }
+    
+    public void setResponseCodecs(String responseCodecs) {
+        this.responseCodecs = responseCodecs;
+    }
+    
+    public String getPlaintextRules() {
+        return plaintextRules;
+    }
+    
+    public void setPlaintextRules(String plaintextRules) {
+        this.plaintextRules = plaintextRules;
+    }
+    
     public boolean isEnabled() {
         return enabled;
     }
@@ -138,6 +454,78 @@ public class CryptoConfig {
         this.autoEncrypt = autoEncrypt;
     }
     
+    public boolean isEagerProxyRewrite() {
+        return eagerProxyRewrite;
+    }
+    
+    public void setEagerProxyRewrite(boolean eagerProxyRewrite) {
+        this.eagerProxyRewrite = eagerProxyRewrite;
+    }
+    
+    public boolean isSigningEnabled() {
+        return signingEnabled;
+    }
+    
+    public void setSigningEnabled(boolean signingEnabled) {
+        this.signingEnabled = signingEnabled;
+    }
+    
+    public String getSigningAlgorithm() {
+        return signingAlgorithm;
+    }
+    
+    public void setSigningAlgorithm(String signingAlgorithm) {
+        this.signingAlgorithm = signingAlgorithm;
+    }
+    
+    public String getSigningKey() {
+        return signingKey;
+    }
+    
+    public void setSigningKey(String signingKey) {
+        this.signingKey = signingKey;
+    }
+    
+    public String getSigningInput() {
+        return signingInput;
+    }
+    
+    public void setSigningInput(String signingInput) {
+        this.signingInput = signingInput;
+    }
+    
+    public String getSignatureLocation() {
+        return signatureLocation;
+    }
+    
+    public void setSignatureLocation(String signatureLocation) {
+        this.signatureLocation = signatureLocation;
+    }
+    
+    public String getSignatureName() {
+        return signatureName;
+    }
+    
+    public void setSignatureName(String signatureName) {
+        this.signatureName = signatureName;
+    }
+    
+    public String getSignatureTimestampName() {
+        return signatureTimestampName;
+    }
+    
+    public void setSignatureTimestampName(String signatureTimestampName) {
+        this.signatureTimestampName = signatureTimestampName;
+    }
+    
+    public String getSignatureEncoding() {
+        return signatureEncoding;
+    }
+    
+    public void setSignatureEncoding(String signatureEncoding) {
+        this.signatureEncoding = signatureEncoding;
+    }
+    
     public String getDataFormat() {
         return dataFormat;
     }
@@ -146,6 +534,113 @@ public class CryptoConfig {
         this.dataFormat = dataFormat;
     }
     
+    public boolean isJournalEnabled() {
+        return journalEnabled;
+    }
+    
+    public void setJournalEnabled(boolean journalEnabled) {
+        this.journalEnabled = journalEnabled;
+    }
+    
+    public String getJournalDirectory() {
+        return journalDirectory;
+    }
+    
+    public void setJournalDirectory(String journalDirectory) {
+        this.journalDirectory = journalDirectory;
+    }
+    
+    public boolean isEcbAnalysis() {
+        return ecbAnalysis;
+    }
+    
+    public void setEcbAnalysis(boolean ecbAnalysis) {
+        this.ecbAnalysis = ecbAnalysis;
+    }
+    
+    public int getEcbMaxBlocks() {
+        return ecbMaxBlocks;
+    }
+    
+    public void setEcbMaxBlocks(int ecbMaxBlocks) {
+        this.ecbMaxBlocks = ecbMaxBlocks;
+    }
+    
+    public boolean isIvReuseDetection() {
+        return ivReuseDetection;
+    }
+    
+    public void setIvReuseDetection(boolean ivReuseDetection) {
+        this.ivReuseDetection = ivReuseDetection;
+    }
+    
+    public int getIvReuseMemoryMb() {
+        return ivReuseMemoryMb;
+    }
+    
+    public void setIvReuseMemoryMb(int ivReuseMemoryMb) {
+        this.ivReuseMemoryMb = ivReuseMemoryMb;
+    }
+    
+    public boolean isIvReuseBloom() {
+        return ivReuseBloom;
+    }
+    
+    public void setIvReuseBloom(boolean ivReuseBloom) {
+        this.ivReuseBloom = ivReuseBloom;
+    }
+    
+    /**
+     * Carga la configuración desde un archivo de propiedades (modo standalone)
+     * Las claves ausentes conservan el valor por defecto
+     */
+    public void loadFromProperties(Properties props) {
+        mode = props.getProperty("mode", mode);
+        padding = props.getProperty("padding", padding);
+        keySize = Integer.parseInt(props.getProperty("keySize", String.valueOf(keySize)));
+        keyBase64 = props.getProperty("key", keyBase64).trim();
+        ivBase64 = props.getProperty("iv", ivBase64).trim();
+        ivPolicy = props.getProperty("ivPolicy", ivPolicy);
+        ivPlacement = props.getProperty("ivPlacement", ivPlacement);
+        keyDerivation = props.getProperty("keyDerivation", keyDerivation);
+        passphrase = props.getProperty("passphrase", passphrase);
+        kdfIterations = Integer.parseInt(props.getProperty("kdfIterations", String.valueOf(kdfIterations)));
+        keyWrapping = props.getProperty("keyWrapping", keyWrapping);
+        rsaPrivateKey = props.getProperty("rsaPrivateKey", rsaPrivateKey);
+        wrappedKeyLocation = props.getProperty("wrappedKeyLocation", wrappedKeyLocation);
+        wrappedKeyName = props.getProperty("wrappedKeyName", wrappedKeyName);
+        keyLearning = Boolean.parseBoolean(props.getProperty("keyLearning", String.valueOf(keyLearning)));
+        learnKeyLocation = props.getProperty("learnKeyLocation", learnKeyLocation);
+        learnKeyName = props.getProperty("learnKeyName", learnKeyName);
+        learnIvName = props.getProperty("learnIvName", learnIvName);
+        sessionIdSource = props.getProperty("sessionIdSource", sessionIdSource);
+        sessionIdName = props.getProperty("sessionIdName", sessionIdName);
+        learnSessionField = props.getProperty("learnSessionField", learnSessionField);
+        learnedKeyTtl = Integer.parseInt(props.getProperty("learnedKeyTtl", String.valueOf(learnedKeyTtl)));
+        keyRing = props.getProperty("keyRing", keyRing);
+        requestParameter = props.getProperty("requestParameter", requestParameter);
+        responseParameter = props.getProperty("responseParameter", responseParameter);
+        requestLocation = props.getProperty("requestLocation", requestLocation);
+        responseLocation = props.getProperty("responseLocation", responseLocation);
+        requestCodecs = props.getProperty("requestCodecs", requestCodecs);
+        responseCodecs = props.getProperty("responseCodecs", responseCodecs);
+        plaintextRules = props.getProperty("plaintextRules", plaintextRules);
+        dataFormat = props.getProperty("dataFormat", dataFormat);
+        enabled = Boolean.parseBoolean(props.getProperty("enabled", "true"));
+        decryptRequests = Boolean.parseBoolean(props.getProperty("decryptRequests", String.valueOf(decryptRequests)));
+        decryptResponses = Boolean.parseBoolean(props.getProperty("decryptResponses", String.valueOf(decryptResponses)));
+        autoEncrypt = Boolean.parseBoolean(props.getProperty("autoEncrypt", String.valueOf(autoEncrypt)));
+        eagerProxyRewrite = Boolean.parseBoolean(props.getProperty("eagerProxyRewrite", String.valueOf(eagerProxyRewrite)));
+        signingEnabled = Boolean.parseBoolean(props.getProperty("signingEnabled", String.valueOf(signingEnabled)));
+        signingAlgorithm = props.getProperty("signingAlgorithm", signingAlgorithm);
+        signingKey = props.getProperty("signingKey", signingKey);
+        signingInput = props.getProperty("signingInput", signingInput);
+        signatureLocation = props.getProperty("signatureLocation", signatureLocation);
+        signatureName = props.getProperty("signatureName", signatureName);
+        signatureTimestampName = props.getProperty("signatureTimestampName", signatureTimestampName);
+        signatureEncoding = props.getProperty("signatureEncoding", signatureEncoding);
+    }
+    
     /**
      * Verifica si el modo actual requiere IV
      */
@@ -168,19 +663,53 @@ public class CryptoConfig {
      */
     public boolean isValid() {
         try {
-            // Verificar que la clave esté configurada
-            if (keyBase64 == null || keyBase64.isEmpty()) {
-                return false;
+            // Las cadenas de codecs deben compilar
+            CodecChain.compile(requestCodecs);
+            CodecChain.compile(responseCodecs);
+            PlaintextRules.compile(plaintextRules);
+            
+            // Con derivación solo hace falta la passphrase
+            if (usesKeyDerivation()) {
+                return passphrase != null && !passphrase.isEmpty() && kdfIterations > 0;
             }
             
-            // Verificar el tamaño de la clave
-            byte[] key = getKey();
-            if (key.length * 8 != keySize) {
+            if (usesKeyWrapping()) {
+                // La clave AES llega en cada mensaje: basta con poder leer la privada
+                SessionKeys.privateKey(this);
+                if (wrappedKeyName == null || wrappedKeyName.isEmpty()) {
+                    return false;
+                }
+            } else if (usesKeyLearning()) {
+                // La clave llega en una response; la configurada (opcional) cubre el tráfico previo
+                if (learnKeyName == null || learnKeyName.isEmpty()
+                        || sessionIdName == null || sessionIdName.isEmpty() || learnedKeyTtl <= 0) {
+                    return false;
+                }
+                if (keyBase64 != null && !keyBase64.isEmpty() && getKey().length * 8 != keySize) {
+                    return false;
+                }
+            } else {
+                // Verificar que la clave esté configurada
+                if (keyBase64 == null || keyBase64.isEmpty()) {
+                    return false;
+                }
+                
+                // Verificar el tamaño de la clave
+                byte[] key = getKey();
+                if (key.length * 8 != keySize) {
+                    return false;
+                }
+            }
+            
+            // Una política distinta de STATIC necesita el IV en el mensaje
+            boolean perMessageIv = !NonceGenerator.STATIC.equals(ivPolicy);
+            if (perMessageIv && requiresIv() && !usesIvPrefix()) {
                 return false;
             }
             
-            // Verificar IV si es necesario
-            if (requiresIv()) {
+            // Verificar IV si es necesario (con IV por mensaje o aprendido el configurado no se usa)
+            boolean learnedIv = usesKeyLearning() && learnIvName != null && !learnIvName.isEmpty();
+            if (requiresIv() && !(perMessageIv && usesIvPrefix()) && !learnedIv) {
                 if (ivBase64 == null || ivBase64.isEmpty()) {
                     return false;
                 }
@@ -196,6 +725,11 @@ public class CryptoConfig {
                 }
             }
             
+            // Las líneas del anillo deben ser claves del tamaño configurado
+            if (usesKeyRing()) {
+                KeyRing.validate(this);
+            }
+            
             return true;
         } catch (Exception e) {
             return false;
@@ -207,6 +741,9 @@ public class CryptoConfig {
         return "CryptoConfig{" +
                 "algorithm='" + getAlgorithm() + '\'' +
                 ", keySize=" + keySize +
+                ", keyDerivation=" + keyDerivation +
+                ", keyWrapping=" + keyWrapping +
+                ", keyLearning=" + keyLearning +
                 ", enabled=" + enabled +
                 ", decryptRequests=" + decryptRequests +
                 ", decryptResponses=" + decryptResponses +
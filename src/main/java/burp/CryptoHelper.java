@@ -5,8 +5,7 @@ import javax.crypto.spec.GCMParameterSpec;
 import javax.crypto.spec.IvParameterSpec;
 import javax.crypto.spec.SecretKeySpec;
 import java.nio.charset.StandardCharsets;
-import java.security.SecureRandom;
-import java.util.Base64;
+import java.util.Arrays;
 
 /**
  * Helper class para operaciones de cifrado/descifrado AES
@@ -15,38 +14,129 @@ public class CryptoHelper {
     
     private static final int GCM_TAG_LENGTH = 128; // 128 bits para GCM authentication tag
     
+    // Hilo haciendo operaciones de prueba (escáner, autotest), ver trial()
+    private static final ThreadLocal<Boolean> trial = new ThreadLocal<>();
+    
+    /**
+     * Cierra el modo de prueba abierto con trial(), restaurando el anterior
+     */
+    public static final class Trial implements AutoCloseable {
+        private final boolean previous;
+        
+        private Trial(boolean previous) {
+            this.previous = previous;
+        }
+        
+        @Override
+        public void close() {
+            if (previous) {
+                trial.set(Boolean.TRUE);
+            } else {
+                trial.remove();
+            }
+        }
+    }
+    
+    /**
+     * Marca el hilo como de prueba: lo que cifre o descifre no es tráfico
+     * real, así que no llega a IvReuseDetector, no guarda IVs para ECHO ni
+     * cambia el orden o los contadores de KeyRing
+     */
+    public static Trial trial() {
+        boolean previous = isTrial();
+        trial.set(Boolean.TRUE);
+        return new Trial(previous);
+    }
+    
+    static boolean isTrial() {
+        return trial.get() != null;
+    }
+    
     /**
      * Descifra datos usando la configuración proporcionada
      */
     public static String decrypt(String encryptedBase64, CryptoConfig config) throws Exception {
-        byte[] encryptedData = Base64.getDecoder().decode(encryptedBase64);
+        byte[] encryptedData = HexBase64.fromBase64Strict(encryptedBase64);
+        if (encryptedData == null) {
+            throw new Exception("Ciphertext is not valid Base64");
+        }
         byte[] decryptedBytes = decrypt(encryptedData, config);
         return new String(decryptedBytes, StandardCharsets.UTF_8);
     }
     
     /**
      * Descifra bytes usando la configuración proporcionada
+     * Con derivación de clave, el mensaje empieza por "Salted__" + salt
+     * Con ivPlacement PREFIX, por el IV del mensaje
+     * Con claves por mensaje (envueltas o aprendidas), la fijada por SessionKeys
+     * Con keyRing, la primera clave del anillo que lo descifra (ver KeyRing)
+     * Con ecbAnalysis, sus bloques van al mensaje en curso de EcbAnalyzer
+     * Con ivReuseDetection, el par (clave, IV) se registra en IvReuseDetector
      */
     public static byte[] decrypt(byte[] encryptedData, CryptoConfig config) throws Exception {
-        Cipher cipher = Cipher.getInstance(config.getAlgorithm());
-        SecretKeySpec keySpec = new SecretKeySpec(config.getKey(), "AES");
+        EcbAnalyzer.observe(encryptedData, config);
+        TransformEvents.DecryptEvent event = new TransformEvents.DecryptEvent();
+        event.begin();
+        try {
+            byte[] decrypted = decryptBytes(encryptedData, config);
+            TransformEvents.commit(event, null, encryptedData.length, 1, TransformEvents.OK);
+            return decrypted;
+        } catch (Exception e) {
+            TransformEvents.commit(event, null, encryptedData.length, 1, TransformEvents.ERROR);
+            throw e;
+        }
+    }
+
+    private static byte[] decryptBytes(byte[] encryptedData, CryptoConfig config) throws Exception {
+        if (config.usesKeyDerivation()) {
+            KeyDerivation.DerivedKey derived = KeyDerivation.forCiphertext(encryptedData, config);
+            Cipher cipher = initCipher(Cipher.DECRYPT_MODE, config, derived.key, derived.iv);
+            byte[] decrypted = cipher.doFinal(encryptedData, KeyDerivation.HEADER_LENGTH,
+                    encryptedData.length - KeyDerivation.HEADER_LENGTH);
+            IvReuseDetector.observe(config, derived.key, derived.iv, decrypted, IvReuseDetector.DECRYPT);
+            return decrypted;
+        }
         
-        if ("ECB".equals(config.getMode())) {
-            // ECB no usa IV
-            cipher.init(Cipher.DECRYPT_MODE, keySpec);
-        } else if ("CBC".equals(config.getMode())) {
-            // CBC usa IV
-            IvParameterSpec ivSpec = new IvParameterSpec(config.getIv());
-            cipher.init(Cipher.DECRYPT_MODE, keySpec, ivSpec);
-        } else if ("GCM".equals(config.getMode())) {
-            // GCM usa IV (nonce) y authentication tag
-            GCMParameterSpec gcmSpec = new GCMParameterSpec(GCM_TAG_LENGTH, config.getIv());
-            cipher.init(Cipher.DECRYPT_MODE, keySpec, gcmSpec);
-        } else {
-            throw new Exception("Unsupported mode: " + config.getMode());
+        if (config.usesIvPrefix()) {
+            // IV || cifrado: el IV de cada mensaje viaja delante
+            int ivLength = config.getIvLength();
+            if (encryptedData.length <= ivLength) {
+                throw new Exception("Ciphertext shorter than its " + ivLength + "-byte IV prefix");
+            }
+            byte[] iv = Arrays.copyOf(encryptedData, ivLength);
+            byte[] key;
+            byte[] decrypted;
+            if (config.usesKeyRing()) {
+                KeyRing.Decrypted ring = KeyRing.decrypt(config, (ringKey, ringIv) ->
+                        initCipher(Cipher.DECRYPT_MODE, config, ringKey, iv)
+                                .doFinal(encryptedData, ivLength, encryptedData.length - ivLength));
+                key = ring.key;
+                decrypted = ring.plaintext;
+            } else {
+                key = SessionKeys.key(config);
+                Cipher cipher = initCipher(Cipher.DECRYPT_MODE, config, key, iv);
+                decrypted = cipher.doFinal(encryptedData, ivLength, encryptedData.length - ivLength);
+            }
+            IvReuseDetector.observe(config, key, iv, decrypted, IvReuseDetector.DECRYPT);
+            if (NonceGenerator.ECHO.equals(config.getIvPolicy()) && !isTrial()) {
+                NonceGenerator.rememberIv(decrypted, iv);
+            }
+            return decrypted;
+        }
+        
+        if (config.usesKeyRing()) {
+            KeyRing.Decrypted ring = KeyRing.decrypt(config, (ringKey, ringIv) ->
+                    initCipher(Cipher.DECRYPT_MODE, config, ringKey, ringIv).doFinal(encryptedData));
+            IvReuseDetector.observe(config, ring.key, ring.iv, ring.plaintext, IvReuseDetector.DECRYPT);
+            return ring.plaintext;
         }
         
-        return cipher.doFinal(encryptedData);
+        byte[] key = SessionKeys.key(config);
+        byte[] iv = SessionKeys.iv(config);
+        Cipher cipher = initCipher(Cipher.DECRYPT_MODE, config, key, iv);
+        byte[] decrypted = cipher.doFinal(encryptedData);
+        IvReuseDetector.observe(config, key, iv, decrypted, IvReuseDetector.DECRYPT);
+        return decrypted;
     }
     
     /**
@@ -55,41 +145,91 @@ public class CryptoHelper {
     public static String encrypt(String plaintext, CryptoConfig config) throws Exception {
         byte[] plaintextBytes = plaintext.getBytes(StandardCharsets.UTF_8);
         byte[] encryptedBytes = encrypt(plaintextBytes, config);
-        return Base64.getEncoder().encodeToString(encryptedBytes);
+        return HexBase64.toBase64(encryptedBytes);
     }
     
     /**
      * Cifra bytes usando la configuración proporcionada
+     * Con derivación de clave, antepone "Salted__" + salt como OpenSSL
+     * Con ivPlacement PREFIX, antepone el IV elegido por NonceGenerator
+     * Con claves por mensaje (envueltas o aprendidas), la fijada por SessionKeys
+     * Con keyRing, la clave del host del mensaje o la de éxito más reciente
+     * Con ivReuseDetection, el par (clave, IV) se registra en IvReuseDetector
      */
     public static byte[] encrypt(byte[] plaintextBytes, CryptoConfig config) throws Exception {
+        TransformEvents.EncryptEvent event = new TransformEvents.EncryptEvent();
+        event.begin();
+        try {
+            byte[] encrypted = encryptBytes(plaintextBytes, config);
+            TransformEvents.commit(event, null, plaintextBytes.length, 1, TransformEvents.OK);
+            return encrypted;
+        } catch (Exception e) {
+            TransformEvents.commit(event, null, plaintextBytes.length, 1, TransformEvents.ERROR);
+            throw e;
+        }
+    }
+
+    private static byte[] encryptBytes(byte[] plaintextBytes, CryptoConfig config) throws Exception {
+        if (config.usesKeyDerivation()) {
+            KeyDerivation.DerivedKey derived = KeyDerivation.forEncryption(config);
+            Cipher cipher = initCipher(Cipher.ENCRYPT_MODE, config, derived.key, derived.iv);
+            IvReuseDetector.observe(config, derived.key, derived.iv, plaintextBytes, IvReuseDetector.ENCRYPT);
+            byte[] out = new byte[KeyDerivation.HEADER_LENGTH + cipher.getOutputSize(plaintextBytes.length)];
+            System.arraycopy(KeyDerivation.SALTED_MAGIC, 0, out, 0, KeyDerivation.SALTED_MAGIC.length);
+            System.arraycopy(derived.salt, 0, out, KeyDerivation.SALTED_MAGIC.length, KeyDerivation.SALT_LENGTH);
+            int written = cipher.doFinal(plaintextBytes, 0, plaintextBytes.length, out, KeyDerivation.HEADER_LENGTH);
+            return written + KeyDerivation.HEADER_LENGTH == out.length
+                    ? out : Arrays.copyOf(out, KeyDerivation.HEADER_LENGTH + written);
+        }
+        
+        KeyRing.Entry ring = config.usesKeyRing() ? KeyRing.forEncryption(config) : null;
+        byte[] key = ring != null ? ring.key : SessionKeys.key(config);
+        if (config.usesIvPrefix()) {
+            byte[] iv = NonceGenerator.nextIv(config, key, plaintextBytes);
+            Cipher cipher = initCipher(Cipher.ENCRYPT_MODE, config, key, iv);
+            IvReuseDetector.observe(config, key, iv, plaintextBytes, IvReuseDetector.ENCRYPT);
+            byte[] out = new byte[iv.length + cipher.getOutputSize(plaintextBytes.length)];
+            System.arraycopy(iv, 0, out, 0, iv.length);
+            int written = cipher.doFinal(plaintextBytes, 0, plaintextBytes.length, out, iv.length);
+            return written + iv.length == out.length ? out : Arrays.copyOf(out, iv.length + written);
+        }
+        
+        byte[] iv = ring != null ? ring.iv : SessionKeys.iv(config);
+        Cipher cipher = initCipher(Cipher.ENCRYPT_MODE, config, key, iv);
+        IvReuseDetector.observe(config, key, iv, plaintextBytes, IvReuseDetector.ENCRYPT);
+        return cipher.doFinal(plaintextBytes);
+    }
+    
+    /**
+     * Inicializa el cipher según el modo, con la clave/IV dados
+     */
+    static Cipher initCipher(int opmode, CryptoConfig config, byte[] key, byte[] iv) throws Exception {
         Cipher cipher = Cipher.getInstance(config.getAlgorithm());
-        SecretKeySpec keySpec = new SecretKeySpec(config.getKey(), "AES");
+        SecretKeySpec keySpec = new SecretKeySpec(key, "AES");
         
         if ("ECB".equals(config.getMode())) {
             // ECB no usa IV
-            cipher.init(Cipher.ENCRYPT_MODE, keySpec);
+            cipher.init(opmode, keySpec);
         } else if ("CBC".equals(config.getMode())) {
             // CBC usa IV
-            IvParameterSpec ivSpec = new IvParameterSpec(config.getIv());
-            cipher.init(Cipher.ENCRYPT_MODE, keySpec, ivSpec);
+            IvParameterSpec ivSpec = new IvParameterSpec(iv);
+            cipher.init(opmode, keySpec, ivSpec);
         } else if ("GCM".equals(config.getMode())) {
             // GCM usa IV (nonce) y authentication tag
-            GCMParameterSpec gcmSpec = new GCMParameterSpec(GCM_TAG_LENGTH, config.getIv());
-            cipher.init(Cipher.ENCRYPT_MODE, keySpec, gcmSpec);
+            GCMParameterSpec gcmSpec = new GCMParameterSpec(GCM_TAG_LENGTH, iv);
+            cipher.init(opmode, keySpec, gcmSpec);
         } else {
             throw new Exception("Unsupported mode: " + config.getMode());
         }
         
-        return cipher.doFinal(plaintextBytes);
+        return cipher;
     }
     
     /**
      * Genera una clave AES aleatoria del tamaño especificado
      */
     public static String generateKey(int keySize) {
-        byte[] key = new byte[keySize / 8];
-        new SecureRandom().nextBytes(key);
-        return Base64.getEncoder().encodeToString(key);
+        return HexBase64.toBase64(NonceGenerator.randomBytes(keySize / 8));
     }
     
     /**
@@ -97,79 +237,54 @@ public class CryptoHelper {
      */
     public static String generateIV(String mode) {
         int ivSize = "GCM".equals(mode) ? 12 : 16;
-        byte[] iv = new byte[ivSize];
-        new SecureRandom().nextBytes(iv);
-        return Base64.getEncoder().encodeToString(iv);
+        return HexBase64.toBase64(NonceGenerator.randomBytes(ivSize));
     }
     
     /**
      * Valida que la clave tenga el tamaño correcto
      */
     public static boolean isValidKeySize(String keyBase64, int expectedSize) {
-        try {
-            byte[] key = Base64.getDecoder().decode(keyBase64);
-            return key.length * 8 == expectedSize;
-        } catch (Exception e) {
-            return false;
-        }
+        byte[] key = keyBase64 != null ? HexBase64.fromBase64(keyBase64) : null;
+        return key != null && key.length * 8 == expectedSize;
     }
     
     /**
      * Valida que el IV tenga el tamaño correcto según el modo
      */
     public static boolean isValidIvSize(String ivBase64, String mode) {
-        try {
-            byte[] iv = Base64.getDecoder().decode(ivBase64);
-            if ("GCM".equals(mode)) {
-                // GCM puede usar 12 o 16 bytes
-                return iv.length == 12 || iv.length == 16;
-            } else if ("CBC".equals(mode)) {
-                // CBC siempre usa 16 bytes
-                return iv.length == 16;
-            }
-            return true;
-        } catch (Exception e) {
+        byte[] iv = ivBase64 != null ? HexBase64.fromBase64(ivBase64) : null;
+        if (iv == null) {
             return false;
         }
+        if ("GCM".equals(mode)) {
+            // GCM puede usar 12 o 16 bytes
+            return iv.length == 12 || iv.length == 16;
+        } else if ("CBC".equals(mode)) {
+            // CBC siempre usa 16 bytes
+            return iv.length == 16;
+        }
+        return true;
     }
     
     /**
-     * Convierte hex string a Base64
+     * Convierte hex string a Base64 (admite espacios y mayúsculas)
      */
     public static String hexToBase64(String hex) {
-        hex = hex.replaceAll("\\s+", "").toLowerCase();
-        int len = hex.length();
-        byte[] data = new byte[len / 2];
-        for (int i = 0; i < len; i += 2) {
-            data[i / 2] = (byte) ((Character.digit(hex.charAt(i), 16) << 4)
-                    + Character.digit(hex.charAt(i + 1), 16));
+        byte[] data = HexBase64.fromHex(hex);
+        if (data == null) {
+            throw new IllegalArgumentException("Invalid hex");
         }
-        return Base64.getEncoder().encodeToString(data);
+        return HexBase64.toBase64(data);
     }
     
     /**
      * Convierte Base64 a hex string
      */
     public static String base64ToHex(String base64) {
-        byte[] bytes = Base64.getDecoder().decode(base64);
-        StringBuilder sb = new StringBuilder();
-        for (byte b : bytes) {
-            sb.append(String.format("%02x", b));
-        }
-        return sb.toString();
-    }
-    
-    /**
-     * Prueba de cifrado/descifrado para verificar configuración
-     */
-    public static boolean testConfiguration(CryptoConfig config) {
-        try {
-            String testData = "Test123!@#";
-            String encrypted = encrypt(testData, config);
-            String decrypted = decrypt(encrypted, config);
-            return testData.equals(decrypted);
-        } catch (Exception e) {
-            return false;
+        byte[] bytes = HexBase64.fromBase64(base64);
+        if (bytes == null) {
+            throw new IllegalArgumentException("Invalid Base64");
         }
+        return HexBase64.toHex(bytes);
     }
 }
@@ -0,0 +1,486 @@
+package burp;
+
+import burp.api.montoya.MontoyaApi;
+import burp.api.montoya.core.ByteArray;
+import burp.api.montoya.http.message.HttpRequestResponse;
+import burp.api.montoya.http.message.requests.HttpRequest;
+import burp.api.montoya.http.message.responses.HttpResponse;
+import burp.api.montoya.ui.Selection;
+import burp.api.montoya.ui.editor.EditorOptions;
+import burp.api.montoya.ui.editor.RawEditor;
+import burp.api.montoya.ui.editor.extension.EditorCreationContext;
+import burp.api.montoya.ui.editor.extension.EditorMode;
+import burp.api.montoya.ui.editor.extension.ExtensionProvidedHttpRequestEditor;
+import burp.api.montoya.ui.editor.extension.ExtensionProvidedHttpResponseEditor;
+import burp.api.montoya.ui.editor.extension.HttpRequestEditorProvider;
+import burp.api.montoya.ui.editor.extension.HttpResponseEditorProvider;
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonParser;
+
+import javax.swing.*;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
+import java.awt.BorderLayout;
+import java.awt.Color;
+import java.awt.Component;
+import java.awt.Font;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * "Decrypted" request/response editor tabs
+ *
+ * Decrypts a message only when Burp shows it, instead of rewriting every
+ * proxied message in ProxyHandler. Rendered views are cached per message
+ * body, so switching back and forth between messages does not decrypt again.
+ * The field is looked up in the configured data format: JSON bodies are
+ * pretty-printed, XML and multipart bodies are shown as they are, with the
+ * value decrypted in place. HEADER, COOKIE and QUERY targets show the
+ * decrypted token instead of the body, through TokenTransformer.
+ *
+ * In editable contexts (Repeater, Intercept) the request tab is a live
+ * editor: edits are re-encrypted on a background thread after a short pause
+ * in typing, and the ciphertext or the error (e.g. broken JSON or XML) is shown next
+ * to the plaintext. The precomputed body is what Burp sends, so
+ * HttpHandler has nothing left to do for it.
+ */
+public class DecryptedEditorProvider implements HttpRequestEditorProvider, HttpResponseEditorProvider {
+
+    private static final String CAPTION = "Decrypted";
+    private static final int CACHE_SIZE = 512;
+    private static final int DEBOUNCE_MS = 300;
+
+    private final CryptoConfig config;
+    private final MontoyaApi api;
+    private final MessageTransformer transformer;
+    private final TokenTransformer tokens;
+    private final Gson prettyGson = new GsonBuilder().setPrettyPrinting().create();
+    private final ExecutorService reencryptExecutor = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "destroy-aes-reencrypt");
+        t.setDaemon(true);
+        return t;
+    });
+
+    // LRU cache: configuration + body → rendered view
+    private final Map<String, String> viewCache = Collections.synchronizedMap(
+            new LinkedHashMap<String, String>(CACHE_SIZE, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+                    return size() > CACHE_SIZE;
+                }
+            });
+
+    public DecryptedEditorProvider(CryptoConfig config, MontoyaApi api) {
+        this.config = config;
+        this.api = api;
+        this.transformer = new MessageTransformer(config, api.logging(), "[EDITOR]");
+        this.tokens = new TokenTransformer(config, api.logging(), "[EDITOR]");
+    }
+
+    @Override
+    public ExtensionProvidedHttpRequestEditor provideHttpRequestEditor(EditorCreationContext creationContext) {
+        if (creationContext.editorMode() == EditorMode.READ_ONLY) {
+            return new RequestEditor();
+        }
+        return new LiveRequestEditor();
+    }
+
+    @Override
+    public ExtensionProvidedHttpResponseEditor provideHttpResponseEditor(EditorCreationContext creationContext) {
+        return new ResponseEditor();
+    }
+
+    /**
+     * Cheap check used by isEnabledFor: no parsing, no crypto
+     */
+    private boolean hasField(String body, String paramName) {
+        return config.isEnabled() && transformer.mayContainField(body, paramName);
+    }
+
+    private boolean hasRequestTarget(HttpRequest request) {
+        if (request == null) {
+            return false;
+        }
+        return tokens.handlesRequests()
+                ? config.isEnabled() && tokens.requestToken(request) != null
+                : hasField(request.bodyToString(), config.getRequestParameter());
+    }
+
+    private boolean hasResponseTarget(HttpResponse response) {
+        if (response == null) {
+            return false;
+        }
+        return tokens.handlesResponses()
+                ? config.isEnabled() && tokens.responseToken(response) != null
+                : hasField(bodyText(response), config.getResponseParameter());
+    }
+
+    private boolean isJson() {
+        return "JSON".equals(config.getDataFormat());
+    }
+
+    /**
+     * Response body as text, decompressed when it has a gzip/deflate Content-Encoding
+     */
+    private String bodyText(HttpResponse response) {
+        String contentEncoding = response.headerValue("Content-Encoding");
+        if (ContentCodec.isSupported(contentEncoding)) {
+            try {
+                return new String(ContentCodec.decode(response.body().getBytes(), contentEncoding),
+                        StandardCharsets.UTF_8);
+            } catch (Exception e) {
+                return response.bodyToString();
+            }
+        }
+        return response.bodyToString();
+    }
+
+    /**
+     * Decrypted view of a body, from the cache when this body was already rendered
+     *
+     * @param request the request carrying the wrapped session key (the initiating one for responses)
+     */
+    @SuppressWarnings("try")
+    private String render(String body, String paramName, String label, HttpRequest request) {
+        try (SessionKeys.Scope keys = SessionKeys.scope(config, request);
+             KeyRing.Scope ring = KeyRing.scope(config, request)) {
+            return render(body, paramName, label);
+        } catch (Exception e) {
+            return "Error decrypting " + label.toLowerCase() + ": " + e.getMessage();
+        }
+    }
+
+    /**
+     * Decrypted token of a HEADER, COOKIE or QUERY target; TokenTransformer caches the pairs
+     *
+     * @param token the value as read by TokenTransformer
+     */
+    @SuppressWarnings("try")
+    private String renderToken(String token, String label, HttpRequest request) {
+        if (token == null) {
+            return "";
+        }
+        try (SessionKeys.Scope keys = SessionKeys.scope(config, request);
+             KeyRing.Scope ring = KeyRing.scope(config, request)) {
+            return tokens.decryptToken(token, label);
+        } catch (Exception e) {
+            return "Error decrypting " + label.toLowerCase() + " token: " + e.getMessage();
+        }
+    }
+
+    private String render(String body, String paramName, String label) {
+        // Same profile as TokenTransformer's cache, plus where the field is looked up
+        String location = "Request".equals(label) ? config.getRequestLocation() : config.getResponseLocation();
+        String cacheKey = TokenTransformer.profileKey(config, label) + config.getDataFormat() + '|' + location
+                + '|' + paramName + '\n' + body;
+        String cached = viewCache.get(cacheKey);
+        if (cached != null) {
+            return cached;
+        }
+
+        String view;
+        try {
+            String decrypted = transformer.decryptField(body, paramName, label, false);
+            String plain = decrypted != null ? decrypted : body;
+            view = isJson() ? prettyGson.toJson(JsonParser.parseString(plain)) : plain;
+        } catch (Exception e) {
+            // No se cachea: puede ser una configuración incompleta que el usuario aún está corrigiendo
+            return "Error decrypting " + label.toLowerCase() + ": " + e.getMessage();
+        }
+
+        viewCache.put(cacheKey, view);
+        return view;
+    }
+
+    /**
+     * Read-only Burp editor holding the rendered view
+     */
+    private abstract class DecryptedEditor {
+        protected final RawEditor editor = api.userInterface().createRawEditor(EditorOptions.READ_ONLY);
+
+        protected void show(String view) {
+            editor.setContents(ByteArray.byteArray(view.getBytes(StandardCharsets.UTF_8)));
+        }
+
+        public String caption() {
+            return CAPTION;
+        }
+
+        public Component uiComponent() {
+            return editor.uiComponent();
+        }
+
+        public Selection selectedData() {
+            return editor.selection().orElse(null);
+        }
+
+        public boolean isModified() {
+            return false;
+        }
+    }
+
+    private class RequestEditor extends DecryptedEditor implements ExtensionProvidedHttpRequestEditor {
+        private HttpRequest request;
+
+        @Override
+        public HttpRequest getRequest() {
+            return request;
+        }
+
+        @Override
+        public void setRequestResponse(HttpRequestResponse requestResponse) {
+            request = requestResponse.request();
+            show(tokens.handlesRequests()
+                    ? renderToken(tokens.requestToken(request), "Request", request)
+                    : render(request.bodyToString(), config.getRequestParameter(), "Request", request));
+        }
+
+        @Override
+        public boolean isEnabledFor(HttpRequestResponse requestResponse) {
+            return hasRequestTarget(requestResponse.request());
+        }
+    }
+
+    private class ResponseEditor extends DecryptedEditor implements ExtensionProvidedHttpResponseEditor {
+        private HttpResponse response;
+
+        @Override
+        public HttpResponse getResponse() {
+            return response;
+        }
+
+        @Override
+        public void setRequestResponse(HttpRequestResponse requestResponse) {
+            response = requestResponse.response();
+            show(tokens.handlesResponses()
+                    ? renderToken(tokens.responseToken(response), "Response", requestResponse.request())
+                    : render(bodyText(response), config.getResponseParameter(), "Response", requestResponse.request()));
+        }
+
+        @Override
+        public boolean isEnabledFor(HttpRequestResponse requestResponse) {
+            return hasResponseTarget(requestResponse.response());
+        }
+    }
+
+    /**
+     * Result of one background re-encryption
+     */
+    private static class Reencryption {
+        final String plaintext;
+        final String body;        // the encrypted token for HEADER/COOKIE/QUERY targets
+        final HttpRequest token;  // request carrying that token; null for body targets
+        final String error;
+        final long millis;
+
+        Reencryption(String plaintext, String body, HttpRequest token, String error, long millis) {
+            this.plaintext = plaintext;
+            this.body = body;
+            this.token = token;
+            this.error = error;
+            this.millis = millis;
+        }
+    }
+
+    /**
+     * Editable plaintext on the left, re-encrypted body on the right
+     */
+    private class LiveRequestEditor implements ExtensionProvidedHttpRequestEditor {
+        private final JPanel panel = new JPanel(new BorderLayout());
+        private final JTextArea plaintextArea = new JTextArea();
+        private final JTextArea ciphertextArea = new JTextArea();
+        private final JLabel statusLabel = new JLabel(" ");
+        private final Timer debounce = new Timer(DEBOUNCE_MS, e -> submitReencryption());
+
+        private HttpRequest request;
+        private String originalView;
+        private boolean loading;
+        private long generation;
+        private Future<?> pending;
+        private volatile Reencryption latest;
+
+        LiveRequestEditor() {
+            Font mono = new Font(Font.MONOSPACED, Font.PLAIN, 12);
+            plaintextArea.setFont(mono);
+            ciphertextArea.setFont(mono);
+            ciphertextArea.setEditable(false);
+            ciphertextArea.setLineWrap(true);
+
+            JSplitPane split = new JSplitPane(JSplitPane.HORIZONTAL_SPLIT,
+                    new JScrollPane(plaintextArea), new JScrollPane(ciphertextArea));
+            split.setResizeWeight(0.6);
+            panel.add(split, BorderLayout.CENTER);
+            panel.add(statusLabel, BorderLayout.SOUTH);
+
+            debounce.setRepeats(false);
+            plaintextArea.getDocument().addDocumentListener(new DocumentListener() {
+                @Override
+                public void insertUpdate(DocumentEvent e) {
+                    onEdit();
+                }
+
+                @Override
+                public void removeUpdate(DocumentEvent e) {
+                    onEdit();
+                }
+
+                @Override
+                public void changedUpdate(DocumentEvent e) {
+                }
+            });
+        }
+
+        private void onEdit() {
+            if (!loading) {
+                debounce.restart();
+            }
+        }
+
+        /**
+         * Runs on the EDT when typing pauses; a newer edit cancels the
+         * previous job and makes any late result stale
+         */
+        private void submitReencryption() {
+            String plaintext = plaintextArea.getText();
+            long current = ++generation;
+            if (pending != null) {
+                pending.cancel(true);
+            }
+            statusLabel.setForeground(Color.GRAY);
+            statusLabel.setText("Re-encrypting...");
+
+            pending = reencryptExecutor.submit(() -> {
+                Reencryption result = reencrypt(plaintext);
+                if (Thread.currentThread().isInterrupted()) {
+                    return;
+                }
+                SwingUtilities.invokeLater(() -> {
+                    if (current == generation) {
+                        showResult(result);
+                    }
+                });
+            });
+        }
+
+        @SuppressWarnings("try")
+        private Reencryption reencrypt(String plaintext) {
+            long start = System.nanoTime();
+            try (SessionKeys.Scope keys = SessionKeys.scope(config, request);
+                 KeyRing.Scope ring = KeyRing.scope(config, request)) {
+                if (tokens.handlesRequests()) {
+                    HttpRequest plain = tokens.withRequestToken(request, plaintext);
+                    HttpRequest encrypted = tokens.encryptRequest(plain);
+                    HttpRequest updated = encrypted != null ? encrypted : plain;
+                    return new Reencryption(plaintext, tokens.requestToken(updated), updated, null,
+                            (System.nanoTime() - start) / 1_000_000);
+                }
+                // Validar primero para dar un error claro antes de cifrar (XML y multipart los valida el splice)
+                if (isJson()) {
+                    JsonParser.parseString(plaintext);
+                }
+                String encrypted = transformer.encryptField(plaintext, config.getRequestParameter(), "Request");
+                String body = encrypted != null ? encrypted : plaintext;
+                return new Reencryption(plaintext, body, null, null, (System.nanoTime() - start) / 1_000_000);
+            } catch (Exception e) {
+                String message = e.getCause() != null ? e.getCause().getMessage() : e.getMessage();
+                return new Reencryption(plaintext, null, null, message, (System.nanoTime() - start) / 1_000_000);
+            }
+        }
+
+        private void showResult(Reencryption result) {
+            latest = result;
+            if (result.error != null) {
+                statusLabel.setForeground(Color.RED);
+                statusLabel.setText("⚠ " + result.error);
+                ciphertextArea.setText("");
+            } else {
+                statusLabel.setForeground(new Color(0, 150, 0));
+                statusLabel.setText("✓ Re-encrypted in " + result.millis + " ms");
+                ciphertextArea.setText(result.body);
+                ciphertextArea.setCaretPosition(0);
+            }
+        }
+
+        @Override
+        public HttpRequest getRequest() {
+            if (!isModified()) {
+                return request;
+            }
+
+            String plaintext = plaintextArea.getText();
+            Reencryption result = latest;
+            if (result == null || !result.plaintext.equals(plaintext)) {
+                // Edición posterior al último cálculo: cifrar ahora
+                result = reencrypt(plaintext);
+            }
+            if (result.error != null) {
+                // Enviar el texto tal cual; HttpHandler lo intentará y registrará el error
+                return tokens.handlesRequests()
+                        ? tokens.withRequestToken(request, plaintext) : request.withBody(plaintext);
+            }
+            if (result.token != null) {
+                // El token ya parece cifrado: HttpHandler no lo toca
+                return result.token;
+            }
+
+            MessageTransformer.markPrecomputed(result.body);
+            return request.withBody(result.body);
+        }
+
+        @Override
+        public void setRequestResponse(HttpRequestResponse requestResponse) {
+            request = requestResponse.request();
+            String original = tokens.handlesRequests() ? tokens.requestToken(request) : request.bodyToString();
+            originalView = tokens.handlesRequests()
+                    ? renderToken(original, "Request", request)
+                    : render(original, config.getRequestParameter(), "Request", request);
+
+            debounce.stop();
+            generation++;
+            latest = null;
+            loading = true;
+            plaintextArea.setText(originalView);
+            plaintextArea.setCaretPosition(0);
+            loading = false;
+            ciphertextArea.setText(original != null ? original : "");
+            ciphertextArea.setCaretPosition(0);
+            statusLabel.setForeground(Color.GRAY);
+            statusLabel.setText("Original message");
+        }
+
+        @Override
+        public boolean isEnabledFor(HttpRequestResponse requestResponse) {
+            return hasRequestTarget(requestResponse.request());
+        }
+
+        @Override
+        public String caption() {
+            return CAPTION;
+        }
+
+        @Override
+        public Component uiComponent() {
+            return panel;
+        }
+
+        @Override
+        public Selection selectedData() {
+            String selected = plaintextArea.getSelectedText();
+            if (selected == null) {
+                return null;
+            }
+            return Selection.selection(ByteArray.byteArray(selected.getBytes(StandardCharsets.UTF_8)));
+        }
+
+        @Override
+        public boolean isModified() {
+            return originalView != null && !originalView.equals(plaintextArea.getText());
+        }
+    }
+}
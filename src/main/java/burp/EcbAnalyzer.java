@@ -0,0 +1,513 @@
+package burp;
+
+import burp.api.montoya.http.message.requests.HttpRequest;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * EcbAnalyzer - Bloques de cifrado repetidos en el tráfico (fugas de ECB)
+ *
+ * En ECB dos bloques de texto plano iguales dan el mismo bloque cifrado, así
+ * que la estructura del mensaje se ve sin la clave; en CBC con IV estático,
+ * dos mensajes con el mismo principio empiezan con los mismos bloques. Con
+ * ecbAnalysis, cada ciphertext que descifran los handlers se parte en
+ * bloques de 16 bytes (tras el IV o el salt, si los lleva) y cada bloque se
+ * reduce a un hash de 64 bits en el propio hilo del handler, sin copiar el
+ * mensaje. close() del scope encola los hashes del mensaje; si la cola está
+ * llena se descartan y se cuentan, nunca bloquea el proxy.
+ *
+ * Un hilo analizador los vuelca en una tabla de direccionamiento abierto
+ * de longs (hash → número de apariciones y último mensaje), sin objetos
+ * por bloque. Un bloque ya visto en el mismo mensaje es una repetición
+ * interna (la fuga clásica de ECB) y marca el mensaje; uno visto en otro
+ * mensaje anterior es una repetición entre mensajes. Las estadísticas van
+ * por endpoint (host + ruta + dirección).
+ *
+ * La memoria está acotada: la tabla crece hasta ecbMaxBlocks bloques
+ * distintos y al llenarse se vacía (las repeticiones entre mensajes se
+ * vuelven a aprender), y los endpoints y mensajes marcados tienen tope.
+ * Solo se analizan los modos de bloque (ECB, CBC); GCM es un flujo.
+ */
+public final class EcbAnalyzer {
+
+    public static final int BLOCK = 16;
+
+    static final int QUEUE_CAPACITY = 4096;
+    private static final int MIN_CAPACITY = 4096;
+    private static final int MAX_ENDPOINTS = 512;
+    private static final int MAX_FLAGGED = 200;
+
+    private static final ThreadLocal<Scope> current = new ThreadLocal<>();
+    private static final BlockingQueue<Scope> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+    private static final AtomicLong enqueued = new AtomicLong();
+    private static final AtomicLong processed = new AtomicLong();
+    private static final AtomicLong dropped = new AtomicLong();
+    private static final Object workerLock = new Object();
+    private static volatile Thread worker;
+
+    // Solo los usa el hilo analizador
+    private static BlockTable table = new BlockTable(MIN_CAPACITY);
+    private static int sequence;
+    private static volatile boolean resetRequested;
+
+    // Resultados, protegidos por el lock de results
+    private static final Object results = new Object();
+    private static final Map<String, EndpointStats> endpoints = new LinkedHashMap<String, EndpointStats>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, EndpointStats> eldest) {
+            return size() > MAX_ENDPOINTS;
+        }
+    };
+    private static final ArrayDeque<FlaggedMessage> flagged = new ArrayDeque<>();
+    private static long messages;
+    private static long blocks;
+    private static long flaggedMessages;
+    private static long tableResets;
+    private static int tableSize;
+    private static int tableCapacity = MIN_CAPACITY;
+
+    private EcbAnalyzer() {
+    }
+
+    // ---- Captura en el hilo del handler ----
+
+    /**
+     * Bloques de los ciphertexts de un mensaje; close() los encola
+     */
+    public static final class Scope implements AutoCloseable {
+        private static final Scope NONE = new Scope(0, null, null, 0, null);
+
+        final int messageId;
+        final String endpoint;
+        final String direction;
+        final int maxBlocks;
+        private final Scope previous;
+        long[] hashes;
+        int count;
+
+        private Scope(int messageId, String endpoint, String direction, int maxBlocks, Scope previous) {
+            this.messageId = messageId;
+            this.endpoint = endpoint;
+            this.direction = direction;
+            this.maxBlocks = maxBlocks;
+            this.previous = previous;
+        }
+
+        // Sincronizado: los trabajadores de un array repartido comparten el scope
+        private synchronized void add(byte[] data, int offset) {
+            int n = (data.length - offset) / BLOCK;
+            if (hashes == null) {
+                hashes = new long[Math.max(16, n)];
+            } else if (count + n > hashes.length) {
+                hashes = Arrays.copyOf(hashes, Math.max(count + n, hashes.length * 2));
+            }
+            for (int i = offset, end = offset + n * BLOCK; i < end; i += BLOCK) {
+                hashes[count++] = hash(data, i);
+            }
+        }
+
+        @Override
+        public void close() {
+            if (this == NONE) {
+                return;
+            }
+            if (previous != null) {
+                current.set(previous);
+            } else {
+                current.remove();
+            }
+            if (count == 0) {
+                return;
+            }
+            if (queue.offer(this)) {
+                enqueued.incrementAndGet();
+            } else {
+                dropped.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Scope del hilo actual, para fijarlo en otro hilo (MessageContext);
+     * activate() no lo cierra ni lo encola
+     */
+    static Scope active() {
+        return current.get();
+    }
+
+    static void activate(Scope scope) {
+        if (scope != null) {
+            current.set(scope);
+        } else {
+            current.remove();
+        }
+    }
+
+    /**
+     * Abre la captura del mensaje que va a descifrar el hilo
+     *
+     * @param request request del mensaje (o el que inició la response)
+     */
+    public static Scope scope(CryptoConfig config, HttpRequest request, int messageId, String direction) {
+        if (!analyzes(config) || request == null) {
+            return Scope.NONE;
+        }
+        String host = request.httpService() != null ? request.httpService().host() : "";
+        return scope(config, host + request.pathWithoutQuery(), messageId, direction);
+    }
+
+    /**
+     * Igual, con el endpoint ya formado
+     */
+    public static Scope scope(CryptoConfig config, String endpoint, int messageId, String direction) {
+        if (!analyzes(config)) {
+            return Scope.NONE;
+        }
+        startWorker();
+        Scope scope = new Scope(messageId, endpoint, direction, config.getEcbMaxBlocks(), current.get());
+        current.set(scope);
+        return scope;
+    }
+
+    /**
+     * Añade un ciphertext al mensaje en curso del hilo (lo llama CryptoHelper)
+     */
+    static void observe(byte[] ciphertext, CryptoConfig config) {
+        if (!config.isEcbAnalysis()) {
+            return;
+        }
+        Scope scope = current.get();
+        if (scope == null) {
+            return;
+        }
+        int offset = config.usesKeyDerivation() ? KeyDerivation.HEADER_LENGTH
+                : config.usesIvPrefix() ? config.getIvLength() : 0;
+        if (ciphertext.length - offset >= BLOCK) {
+            scope.add(ciphertext, offset);
+        }
+    }
+
+    private static boolean analyzes(CryptoConfig config) {
+        return config.isEcbAnalysis() && !"GCM".equals(config.getMode());
+    }
+
+    /**
+     * Hash de 64 bits de un bloque: las dos mitades mezcladas y un
+     * finalizador de murmur3. Nunca 0, que marca hueco en la tabla
+     */
+    static long hash(byte[] data, int offset) {
+        long lo = 0;
+        long hi = 0;
+        for (int i = 0; i < 8; i++) {
+            lo = (lo << 8) | (data[offset + i] & 0xff);
+            hi = (hi << 8) | (data[offset + 8 + i] & 0xff);
+        }
+        long h = lo * 0x9E3779B97F4A7C15L + Long.rotateLeft(hi * 0xC2B2AE3D27D4EB4FL, 31);
+        h ^= h >>> 33;
+        h *= 0xFF51AFD7ED558CCDL;
+        h ^= h >>> 33;
+        h *= 0xC4CEB9FE1A85EC53L;
+        h ^= h >>> 33;
+        return h != 0 ? h : 1;
+    }
+
+    // ---- Hilo analizador ----
+
+    private static void startWorker() {
+        if (worker != null) {
+            return;
+        }
+        synchronized (workerLock) {
+            if (worker == null) {
+                Thread thread = new Thread(EcbAnalyzer::analyzeLoop, "destroy-aes-ecb-analyzer");
+                thread.setDaemon(true);
+                thread.start();
+                worker = thread;
+            }
+        }
+    }
+
+    private static void analyzeLoop() {
+        while (true) {
+            Scope message;
+            try {
+                message = queue.take();
+            } catch (InterruptedException e) {
+                return;
+            }
+            if (resetRequested) {
+                resetRequested = false;
+                table = new BlockTable(MIN_CAPACITY);
+            }
+            analyze(message);
+            processed.incrementAndGet();
+        }
+    }
+
+    private static void analyze(Scope message) {
+        sequence = sequence == Integer.MAX_VALUE ? 1 : sequence + 1;
+        int seq = sequence;
+        int repeated = 0;
+        int crossMessage = 0;
+        boolean reset = false;
+        for (int i = 0; i < message.count; i++) {
+            if (table.full(message.maxBlocks)) {
+                table.clear();
+                reset = true;
+            }
+            long previous = table.add(message.hashes[i], seq);
+            if (previous != 0) {
+                if ((int) previous == seq) {
+                    repeated++;
+                } else {
+                    crossMessage++;
+                }
+            }
+        }
+
+        synchronized (results) {
+            messages++;
+            blocks += message.count;
+            if (reset) {
+                tableResets++;
+            }
+            tableSize = table.size;
+            tableCapacity = table.keys.length;
+            EndpointStats stats = endpoints.get(message.endpoint + ' ' + message.direction);
+            if (stats == null) {
+                stats = new EndpointStats(message.endpoint, message.direction);
+                endpoints.put(message.endpoint + ' ' + message.direction, stats);
+            }
+            stats.messages++;
+            stats.blocks += message.count;
+            stats.repeatedBlocks += repeated;
+            stats.crossMessageBlocks += crossMessage;
+            if (repeated > 0) {
+                stats.flaggedMessages++;
+                flaggedMessages++;
+                if (flagged.size() == MAX_FLAGGED) {
+                    flagged.removeFirst();
+                }
+                flagged.addLast(new FlaggedMessage(message.messageId, message.endpoint, message.direction,
+                        message.count, repeated, crossMessage));
+            }
+        }
+    }
+
+    /**
+     * Tabla hash de direccionamiento abierto (sondeo lineal) de hash de
+     * bloque → (apariciones << 32 | último mensaje). Carga máxima 1/2
+     */
+    private static final class BlockTable {
+        long[] keys;
+        long[] values;
+        int size;
+        private int mask;
+
+        BlockTable(int capacity) {
+            keys = new long[capacity];
+            values = new long[capacity];
+            mask = capacity - 1;
+        }
+
+        boolean full(int maxBlocks) {
+            return size >= Math.max(MIN_CAPACITY / 2, maxBlocks);
+        }
+
+        /**
+         * Cuenta una aparición del bloque en el mensaje seq
+         *
+         * @return valor anterior, 0 si el bloque es nuevo
+         */
+        long add(long key, int seq) {
+            int slot = (int) key & mask;
+            while (true) {
+                long existing = keys[slot];
+                if (existing == key) {
+                    long previous = values[slot];
+                    values[slot] = ((previous >>> 32) + 1) << 32 | (seq & 0xFFFFFFFFL);
+                    return previous;
+                }
+                if (existing == 0) {
+                    keys[slot] = key;
+                    values[slot] = 1L << 32 | (seq & 0xFFFFFFFFL);
+                    if (++size > keys.length / 2) {
+                        grow();
+                    }
+                    return 0;
+                }
+                slot = (slot + 1) & mask;
+            }
+        }
+
+        void clear() {
+            Arrays.fill(keys, 0);
+            Arrays.fill(values, 0);
+            size = 0;
+        }
+
+        private void grow() {
+            long[] oldKeys = keys;
+            long[] oldValues = values;
+            keys = new long[oldKeys.length * 2];
+            values = new long[oldKeys.length * 2];
+            mask = keys.length - 1;
+            for (int i = 0; i < oldKeys.length; i++) {
+                long key = oldKeys[i];
+                if (key != 0) {
+                    int slot = (int) key & mask;
+                    while (keys[slot] != 0) {
+                        slot = (slot + 1) & mask;
+                    }
+                    keys[slot] = key;
+                    values[slot] = oldValues[i];
+                }
+            }
+        }
+    }
+
+    // ---- Resultados ----
+
+    public static final class EndpointStats {
+        public final String endpoint;
+        public final String direction;
+        public long messages;
+        public long blocks;
+        public long flaggedMessages;
+        public long repeatedBlocks;
+        public long crossMessageBlocks;
+
+        EndpointStats(String endpoint, String direction) {
+            this.endpoint = endpoint;
+            this.direction = direction;
+        }
+
+        EndpointStats copy() {
+            EndpointStats copy = new EndpointStats(endpoint, direction);
+            copy.messages = messages;
+            copy.blocks = blocks;
+            copy.flaggedMessages = flaggedMessages;
+            copy.repeatedBlocks = repeatedBlocks;
+            copy.crossMessageBlocks = crossMessageBlocks;
+            return copy;
+        }
+    }
+
+    public static final class FlaggedMessage {
+        public final int messageId;
+        public final String endpoint;
+        public final String direction;
+        public final int blocks;
+        public final int repeatedBlocks;
+        public final int crossMessageBlocks;
+
+        FlaggedMessage(int messageId, String endpoint, String direction, int blocks,
+                       int repeatedBlocks, int crossMessageBlocks) {
+            this.messageId = messageId;
+            this.endpoint = endpoint;
+            this.direction = direction;
+            this.blocks = blocks;
+            this.repeatedBlocks = repeatedBlocks;
+            this.crossMessageBlocks = crossMessageBlocks;
+        }
+    }
+
+    /**
+     * Copia coherente de las estadísticas para el panel
+     */
+    public static final class Snapshot {
+        public final long messages;
+        public final long blocks;
+        public final long flaggedMessages;
+        public final long tableResets;
+        public final long dropped;
+        public final int trackedBlocks;
+        public final long tableBytes;
+        public final List<EndpointStats> endpoints;
+        public final List<FlaggedMessage> flagged;
+
+        Snapshot(long messages, long blocks, long flaggedMessages, long tableResets, long dropped,
+                 int trackedBlocks, long tableBytes, List<EndpointStats> endpoints, List<FlaggedMessage> flagged) {
+            this.messages = messages;
+            this.blocks = blocks;
+            this.flaggedMessages = flaggedMessages;
+            this.tableResets = tableResets;
+            this.dropped = dropped;
+            this.trackedBlocks = trackedBlocks;
+            this.tableBytes = tableBytes;
+            this.endpoints = endpoints;
+            this.flagged = flagged;
+        }
+
+        /**
+         * Endpoints con algún mensaje marcado o bloques repetidos entre mensajes
+         */
+        public int flaggedEndpoints() {
+            int count = 0;
+            for (EndpointStats stats : endpoints) {
+                if (stats.flaggedMessages > 0 || stats.crossMessageBlocks > 0) {
+                    count++;
+                }
+            }
+            return count;
+        }
+    }
+
+    public static Snapshot snapshot() {
+        synchronized (results) {
+            List<EndpointStats> endpointCopies = new ArrayList<>(endpoints.size());
+            for (EndpointStats stats : endpoints.values()) {
+                endpointCopies.add(stats.copy());
+            }
+            endpointCopies.sort((a, b) -> Long.compare(
+                    b.repeatedBlocks + b.crossMessageBlocks, a.repeatedBlocks + a.crossMessageBlocks));
+            List<FlaggedMessage> flaggedCopies = new ArrayList<>(flagged);
+            Collections.reverse(flaggedCopies);
+            return new Snapshot(messages, blocks, flaggedMessages, tableResets, dropped.get(), tableSize,
+                    tableCapacity * 16L, endpointCopies, flaggedCopies);
+        }
+    }
+
+    /**
+     * Olvida bloques y estadísticas; la tabla se vacía en el hilo analizador
+     */
+    public static void reset() {
+        resetRequested = true;
+        synchronized (results) {
+            endpoints.clear();
+            flagged.clear();
+            messages = 0;
+            blocks = 0;
+            flaggedMessages = 0;
+            tableResets = 0;
+            tableSize = 0;
+            tableCapacity = MIN_CAPACITY;
+        }
+        dropped.set(0);
+    }
+
+    /**
+     * Mensajes encolados que el hilo analizador aún no ha procesado
+     */
+    static long backlog() {
+        return enqueued.get() - processed.get();
+    }
+
+    /**
+     * Espera a que el hilo analizador vacíe la cola (benchmark)
+     */
+    static void drain() throws InterruptedException {
+        while (processed.get() < enqueued.get()) {
+            Thread.sleep(1);
+        }
+    }
+}
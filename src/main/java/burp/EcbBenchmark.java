@@ -0,0 +1,156 @@
+package burp;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+/**
+ * Throughput and accuracy of the ECB block analyzer
+ *
+ * Encrypts N JSON messages for two endpoints: one in ECB whose plaintext
+ * repeats a 16-byte block, the leak the analyzer looks for, and one in CBC
+ * with a random IV per message, which must not be flagged. Then decrypts
+ * all of them through CryptoHelper as the handlers do, first with the
+ * analysis off and then on:
+ *
+ *   handler   extra ns per message on the decrypting thread (block hashing;
+ *             on a single core it also absorbs the analyzer thread's time)
+ *   analyzer  blocks per minute through the analyzer thread, until drained
+ *
+ * The producer waits to stay within the analyzer queue, so nothing is dropped.
+ *
+ * Usage:
+ *   java -cp destroy-aes.jar:montoya-api.jar:gson.jar burp.EcbBenchmark \
+ *        [--messages 100000] [--payload 1024] [--max-blocks 262144]
+ */
+public class EcbBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int messages = 100_000;
+        int payloadSize = 1024;
+        int maxBlocks = 262_144;
+
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--messages": messages = Integer.parseInt(args[++i]); break;
+                case "--payload": payloadSize = Integer.parseInt(args[++i]); break;
+                case "--max-blocks": maxBlocks = Integer.parseInt(args[++i]); break;
+                default:
+                    System.err.println("Unknown argument: " + args[i]);
+                    System.exit(1);
+            }
+        }
+
+        CryptoConfig ecb = config("ECB", maxBlocks);
+        CryptoConfig cbc = config("CBC", maxBlocks);
+        cbc.setIvBase64(CryptoHelper.generateIV("CBC"));
+        cbc.setIvPolicy(NonceGenerator.RANDOM);
+        cbc.setIvPlacement(NonceGenerator.PLACEMENT_PREFIX);
+
+        Random random = new Random(1);
+        byte[][] ciphertexts = new byte[messages][];
+        long totalBlocks = 0;
+        for (int i = 0; i < messages; i++) {
+            CryptoConfig config = i % 2 == 0 ? ecb : cbc;
+            ciphertexts[i] = CryptoHelper.encrypt(plaintext(random, i, payloadSize), config);
+            totalBlocks += (ciphertexts[i].length - (config.usesIvPrefix() ? 16 : 0)) / EcbAnalyzer.BLOCK;
+        }
+
+        System.out.println("ECB analyzer benchmark: " + messages + " messages of ~" + payloadSize
+                + " bytes, " + totalBlocks + " blocks, half ECB and half CBC with random IV");
+        System.out.println();
+
+        // Warm-up and baseline: analysis off
+        long baseline = Long.MAX_VALUE;
+        for (int round = 0; round < 3; round++) {
+            baseline = Math.min(baseline, decryptAll(ciphertexts, ecb, cbc, false));
+        }
+
+        ecb.setEcbAnalysis(true);
+        cbc.setEcbAnalysis(true);
+        long start = System.nanoTime();
+        long handler = decryptAll(ciphertexts, ecb, cbc, true);
+        EcbAnalyzer.drain();
+        long analyzed = System.nanoTime() - start;
+
+        EcbAnalyzer.Snapshot stats = EcbAnalyzer.snapshot();
+        System.out.printf("%-9s %,12.0f ns per message without analysis, %,.0f with (+%,.0f)%n", "handler",
+                (double) baseline / messages, (double) handler / messages, (double) (handler - baseline) / messages);
+        System.out.printf("%-9s %,12.0f blocks/min, %,d blocks in %,d ms%n", "analyzer",
+                stats.blocks * 60e9 / analyzed, stats.blocks, analyzed / 1_000_000);
+        System.out.printf("%-9s %,12d blocks tracked in %,d KB, %d table reset(s), %,d dropped%n", "memory",
+                stats.trackedBlocks, stats.tableBytes / 1024, stats.tableResets, stats.dropped);
+        System.out.println();
+
+        System.out.printf("%-20s %-10s %10s %10s %12s %12s%n",
+                "endpoint", "direction", "messages", "flagged", "in message", "across");
+        for (EcbAnalyzer.EndpointStats endpoint : stats.endpoints) {
+            System.out.printf("%-20s %-10s %10d %10d %12d %12d%n", endpoint.endpoint, endpoint.direction,
+                    endpoint.messages, endpoint.flaggedMessages, endpoint.repeatedBlocks, endpoint.crossMessageBlocks);
+        }
+
+        if (stats.blocks != totalBlocks || stats.dropped > 0) {
+            throw new IllegalStateException("Analyzed " + stats.blocks + " of " + totalBlocks + " blocks, "
+                    + stats.dropped + " messages dropped");
+        }
+        for (EcbAnalyzer.EndpointStats endpoint : stats.endpoints) {
+            boolean leaky = endpoint.endpoint.endsWith("/ecb");
+            if (leaky ? endpoint.flaggedMessages != endpoint.messages : endpoint.flaggedMessages != 0) {
+                throw new IllegalStateException("Wrong verdict for " + endpoint.endpoint);
+            }
+        }
+        System.out.println();
+        System.out.println("Every ECB message flagged, no CBC message flagged");
+    }
+
+    /**
+     * Decrypts every message inside an analyzer scope, as the handlers do
+     *
+     * @return nanoseconds spent on the decrypting thread
+     */
+    @SuppressWarnings("try")
+    private static long decryptAll(byte[][] ciphertexts, CryptoConfig ecb, CryptoConfig cbc,
+                                   boolean paced) throws Exception {
+        long spent = 0;
+        for (int i = 0; i < ciphertexts.length; i++) {
+            while (paced && EcbAnalyzer.backlog() >= EcbAnalyzer.QUEUE_CAPACITY) {
+                Thread.onSpinWait();
+            }
+            CryptoConfig config = i % 2 == 0 ? ecb : cbc;
+            long t0 = System.nanoTime();
+            try (EcbAnalyzer.Scope scope = EcbAnalyzer.scope(config,
+                    i % 2 == 0 ? "api.example.com/ecb" : "api.example.com/cbc", i, "Response")) {
+                CryptoHelper.decrypt(ciphertexts[i], config);
+            }
+            spent += System.nanoTime() - t0;
+        }
+        return spent;
+    }
+
+    private static CryptoConfig config(String mode, int maxBlocks) throws Exception {
+        CryptoConfig config = new CryptoConfig();
+        config.setMode(mode);
+        config.setPadding("PKCS5Padding");
+        config.setKeySize(256);
+        config.setKeyBase64(CryptoHelper.generateKey(256));
+        config.setEcbMaxBlocks(maxBlocks);
+        return config;
+    }
+
+    /**
+     * JSON with a per-message header and a 32-byte run of spaces aligned to
+     * a block boundary: in ECB at least two identical ciphertext blocks
+     */
+    private static byte[] plaintext(Random random, int id, int size) {
+        StringBuilder json = new StringBuilder("{\"id\":").append(id).append(",\"user\":\"u")
+                .append(random.nextInt(1_000_000)).append("\",\"pad\":\"");
+        while (json.length() % 16 != 0) {
+            json.append('x');
+        }
+        json.append(" ".repeat(32)).append("\",\"items\":[");
+        while (json.length() < size - 16) {
+            json.append(random.nextInt(1_000_000)).append(',');
+        }
+        json.append("0]}");
+        return json.toString().getBytes(StandardCharsets.UTF_8);
+    }
+}
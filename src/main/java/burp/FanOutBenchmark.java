@@ -0,0 +1,168 @@
+package burp;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Speedup of the fork-join fan-out on large top-level JSON arrays
+ *
+ * Builds a response that is an array of N objects, each carrying the
+ * encrypted field, and times MessageTransformer.decryptField and
+ * encryptField on it with fork-join pools of parallelism 1, 2, 4... up to
+ * the number of cores. Parallelism 1 is the sequential path. Every run is
+ * checked: all elements decrypted, in order, and re-encrypted to the
+ * original ciphertext.
+ *
+ * Usage:
+ *   java -cp destroy-aes.jar:montoya-api.jar burp.FanOutBenchmark \
+ *        [--elements 10000] [--payload 128] [--millis 3000] [--max-parallelism 8] [--mode CBC]
+ */
+public class FanOutBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int elements = 10_000;
+        int payloadSize = 128;
+        long millis = 3000;
+        int maxParallelism = Runtime.getRuntime().availableProcessors();
+        String mode = "CBC";
+
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--elements": elements = Integer.parseInt(args[++i]); break;
+                case "--payload": payloadSize = Integer.parseInt(args[++i]); break;
+                case "--millis": millis = Long.parseLong(args[++i]); break;
+                case "--max-parallelism": maxParallelism = Integer.parseInt(args[++i]); break;
+                case "--mode": mode = args[++i]; break;
+                default:
+                    System.err.println("Unknown argument: " + args[i]);
+                    System.exit(1);
+            }
+        }
+
+        CryptoConfig config = new CryptoConfig();
+        config.setMode(mode);
+        config.setPadding("GCM".equals(mode) ? "NoPadding" : "PKCS5Padding");
+        config.setKeySize(256);
+        config.setKeyBase64(CryptoHelper.generateKey(256));
+        config.setIvBase64(CryptoHelper.generateIV(mode));
+
+        String parameter = config.getResponseParameter();
+        String body = body(config, parameter, elements, payloadSize);
+
+        System.out.println("Fan-out benchmark: " + elements + " elements, " + body.length() + " chars, "
+                + config.getAlgorithm() + ", " + Runtime.getRuntime().availableProcessors() + " cores available");
+        System.out.println();
+        System.out.printf("%-12s %14s %10s %14s %10s%n", "parallelism", "decrypt ms", "speedup", "encrypt ms", "speedup");
+
+        List<Integer> levels = new ArrayList<>();
+        for (int p = 1; p < maxParallelism; p *= 2) {
+            levels.add(p);
+        }
+        levels.add(maxParallelism);
+
+        // JIT warmup on the sequential path, so parallelism 1 is not measured cold
+        MessageTransformer warmup = new MessageTransformer(config, new ConsoleLogging(false), "[BENCH]",
+                new ForkJoinPool(1));
+        String warmupPlain = warmup.decryptField(body, parameter, "Response", false);
+        measure(millis, () -> warmup.encryptField(warmupPlain, parameter, "Response"));
+
+        double baseDecrypt = 0;
+        double baseEncrypt = 0;
+        for (int parallelism : levels) {
+            ForkJoinPool pool = new ForkJoinPool(parallelism);
+            try {
+                MessageTransformer transformer = new MessageTransformer(config, new ConsoleLogging(false),
+                        "[BENCH]", pool);
+                String decrypted = transformer.decryptField(body, parameter, "Response", false);
+                check(body, decrypted, transformer.encryptField(decrypted, parameter, "Response"),
+                        parameter, !"GCM".equals(mode));
+
+                double decryptMs = measure(millis,
+                        () -> transformer.decryptField(body, parameter, "Response", false));
+                double encryptMs = measure(millis,
+                        () -> transformer.encryptField(decrypted, parameter, "Response"));
+                if (parallelism == 1) {
+                    baseDecrypt = decryptMs;
+                    baseEncrypt = encryptMs;
+                }
+                System.out.printf("%-12d %14.2f %9.2fx %14.2f %9.2fx%n", parallelism,
+                        decryptMs, baseDecrypt / decryptMs, encryptMs, baseEncrypt / encryptMs);
+            } finally {
+                pool.shutdown();
+            }
+        }
+    }
+
+    interface Operation {
+        Object run() throws Exception;
+    }
+
+    /**
+     * Average milliseconds per body, after a warmup of the same length
+     */
+    private static double measure(long millis, Operation operation) throws Exception {
+        long warmupEnd = System.nanoTime() + millis * 1_000_000L;
+        while (System.nanoTime() < warmupEnd) {
+            operation.run();
+        }
+
+        long ops = 0;
+        long start = System.nanoTime();
+        long end = start + millis * 1_000_000L;
+        long now;
+        do {
+            operation.run();
+            ops++;
+            now = System.nanoTime();
+        } while (now < end);
+        return (now - start) / 1e6 / ops;
+    }
+
+    /**
+     * Every element decrypted to an object, in order, and re-encrypted to the original value
+     */
+    private static void check(String body, String decrypted, String reencrypted, String parameter,
+                              boolean deterministic) {
+        JsonArray original = JsonParser.parseString(body).getAsJsonArray();
+        JsonArray plain = JsonParser.parseString(decrypted).getAsJsonArray();
+        JsonArray cipher = JsonParser.parseString(reencrypted).getAsJsonArray();
+        for (int i = 0; i < original.size(); i++) {
+            JsonObject element = plain.get(i).getAsJsonObject();
+            JsonElement value = element.get(parameter);
+            if (element.get("id").getAsInt() != i || !value.isJsonObject()
+                    || value.getAsJsonObject().get("index").getAsInt() != i) {
+                throw new IllegalStateException("Element " + i + " not decrypted in order: " + element);
+            }
+            if (deterministic && !original.get(i).equals(cipher.get(i))) {
+                throw new IllegalStateException("Element " + i + " changed after round trip");
+            }
+        }
+    }
+
+    private static String body(CryptoConfig config, String parameter, int elements, int payloadSize)
+            throws Exception {
+        Random random = new Random(42);
+        CodecChain chain = CodecChain.compile(config.getResponseCodecs());
+        JsonArray array = new JsonArray();
+        for (int i = 0; i < elements; i++) {
+            StringBuilder plain = new StringBuilder("{\"index\":").append(i).append(",\"note\":\"");
+            while (plain.length() < payloadSize) {
+                plain.append((char) ('a' + random.nextInt(26)));
+            }
+            plain.append("\"}");
+
+            JsonObject element = new JsonObject();
+            element.addProperty("id", i);
+            element.addProperty(parameter, chain.encrypt(plain.toString(), config));
+            array.add(element);
+        }
+        return array.toString();
+    }
+}
@@ -0,0 +1,326 @@
+package burp;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Base64;
+
+/**
+ * HexBase64 - Codec de hex, Base64 y Base64url con tablas de búsqueda
+ *
+ * Decodifica hex y Base64, y codifica hex, en buffers que pasa el llamador,
+ * sin Strings ni arrays intermedios. Hay dos modos de decodificar:
+ *
+ * Tolerante (decodeHex/decodeBase64, fromHex/fromBase64), para claves e IVs
+ * que escribe o pega el usuario:
+ * - Los espacios, tabuladores y saltos de línea se saltan sobre la marcha
+ *   (claves pegadas de otras herramientas, Base64 MIME partido en líneas).
+ * - Base64 acepta los dos alfabetos, con o sin relleno.
+ *
+ * Estricto (los métodos *Strict), para datos del tráfico: etapas de la
+ * cadena de codecs, detección de ciphertext, valores de los mensajes. Sin
+ * espacios y con un solo alfabeto de Base64 (relleno opcional). Un texto en
+ * claro con espacios, como "john smith lives in madrid", no pasa por Base64.
+ *
+ * En los dos, hex acepta mayúsculas y minúsculas.
+ *
+ * Los errores no lanzan excepción: los métodos de bajo nivel devuelven el
+ * número de bytes escritos, o un valor negativo ~posición con el índice del
+ * carácter inválido (el final de la entrada si está truncada). Los de
+ * conveniencia devuelven null.
+ *
+ * El bucle principal decodifica cuatro caracteres Base64 (o dos hex) por
+ * iteración con una sola comprobación de signo; solo cae al camino carácter
+ * a carácter ante espacios, relleno o errores.
+ *
+ * Codificar Base64 no puede fallar ni necesita tolerancia, y en HotSpot 17+
+ * el codificador del JDK es intrínseco (SIMD) y varias veces más rápido que
+ * cualquier tabla: toBase64 lo usa directamente.
+ */
+public final class HexBase64 {
+
+    private static final byte INVALID = -1;
+    private static final byte WHITESPACE = -2;
+
+    // Tolerantes: espacios y los dos alfabetos de Base64
+    private static final byte[] HEX_DECODE = new byte[256];
+    private static final byte[] BASE64_DECODE = new byte[256];
+    // Estrictas: sin espacios, un alfabeto por tabla
+    private static final byte[] HEX_STRICT = new byte[256];
+    private static final byte[] BASE64_STRICT = new byte[256];
+    private static final byte[] BASE64URL_STRICT = new byte[256];
+
+    private static final byte[] HEX_DIGITS = "0123456789abcdef".getBytes(StandardCharsets.US_ASCII);
+    // Las dos tablas de Base64 se funden en una sola de decodificación
+    private static final byte[] BASE64_ALPHABET =
+            "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] BASE64URL_ALPHABET =
+            "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789-_".getBytes(StandardCharsets.US_ASCII);
+
+    static {
+        Arrays.fill(HEX_DECODE, INVALID);
+        Arrays.fill(BASE64_DECODE, INVALID);
+        Arrays.fill(BASE64_STRICT, INVALID);
+        Arrays.fill(BASE64URL_STRICT, INVALID);
+        for (int i = 0; i < 16; i++) {
+            HEX_DECODE[HEX_DIGITS[i]] = (byte) i;
+            HEX_DECODE[Character.toUpperCase(HEX_DIGITS[i])] = (byte) i;
+        }
+        System.arraycopy(HEX_DECODE, 0, HEX_STRICT, 0, 256);
+        for (int i = 0; i < 64; i++) {
+            BASE64_DECODE[BASE64_ALPHABET[i]] = (byte) i;
+            BASE64_DECODE[BASE64URL_ALPHABET[i]] = (byte) i;
+            BASE64_STRICT[BASE64_ALPHABET[i]] = (byte) i;
+            BASE64URL_STRICT[BASE64URL_ALPHABET[i]] = (byte) i;
+        }
+        for (char c : new char[]{' ', '\t', '\r', '\n', '\f', 0x0B}) {
+            HEX_DECODE[c] = WHITESPACE;
+            BASE64_DECODE[c] = WHITESPACE;
+        }
+    }
+
+    private HexBase64() {
+    }
+
+    // ---- Bajo nivel: buffers del llamador ----
+
+    /**
+     * Tamaño máximo de la salida de decodeHex para len caracteres
+     */
+    public static int maxDecodedHexLength(int len) {
+        return len / 2;
+    }
+
+    /**
+     * Tamaño máximo de la salida de decodeBase64 para len caracteres
+     */
+    public static int maxDecodedBase64Length(int len) {
+        return len / 4 * 3 + 2;
+    }
+
+    /**
+     * Si el resultado de un decode es un error
+     */
+    public static boolean failed(int result) {
+        return result < 0;
+    }
+
+    /**
+     * Posición del carácter inválido de un resultado fallido
+     */
+    public static int errorAt(int result) {
+        return ~result;
+    }
+
+    /**
+     * Decodifica hex en out[outOff..], saltando espacios
+     *
+     * @return bytes escritos, o ~posición del primer carácter inválido
+     */
+    public static int decodeHex(byte[] in, int off, int len, byte[] out, int outOff) {
+        return decodeHex(HEX_DECODE, in, off, len, out, outOff);
+    }
+
+    /**
+     * Decodifica hex en out[outOff..], sin admitir espacios
+     *
+     * @return bytes escritos, o ~posición del primer carácter inválido
+     */
+    public static int decodeHexStrict(byte[] in, int off, int len, byte[] out, int outOff) {
+        return decodeHex(HEX_STRICT, in, off, len, out, outOff);
+    }
+
+    private static int decodeHex(byte[] table, byte[] in, int off, int len, byte[] out, int outOff) {
+        int end = off + len;
+        int o = outOff;
+        int high = -1;
+        int i = off;
+        while (i < end) {
+            if (high < 0 && i + 1 < end) {
+                int b = (table[in[i] & 0xff] << 4) | table[in[i + 1] & 0xff];
+                if (b >= 0) {
+                    out[o++] = (byte) b;
+                    i += 2;
+                    continue;
+                }
+            }
+            int v = table[in[i] & 0xff];
+            if (v >= 0) {
+                if (high < 0) {
+                    high = v;
+                } else {
+                    out[o++] = (byte) ((high << 4) | v);
+                    high = -1;
+                }
+            } else if (v != WHITESPACE) {
+                return ~i;
+            }
+            i++;
+        }
+        return high < 0 ? o - outOff : ~end;
+    }
+
+    /**
+     * Decodifica Base64 o Base64url en out[outOff..], saltando espacios
+     *
+     * @return bytes escritos, o ~posición del primer carácter inválido
+     */
+    public static int decodeBase64(byte[] in, int off, int len, byte[] out, int outOff) {
+        return decodeBase64(BASE64_DECODE, in, off, len, out, outOff);
+    }
+
+    /**
+     * Decodifica Base64 (o Base64url si urlSafe) en out[outOff..], sin
+     * espacios ni caracteres del otro alfabeto
+     *
+     * @return bytes escritos, o ~posición del primer carácter inválido
+     */
+    public static int decodeBase64Strict(byte[] in, int off, int len, byte[] out, int outOff, boolean urlSafe) {
+        return decodeBase64(urlSafe ? BASE64URL_STRICT : BASE64_STRICT, in, off, len, out, outOff);
+    }
+
+    private static int decodeBase64(byte[] table, byte[] in, int off, int len, byte[] out, int outOff) {
+        int end = off + len;
+        int o = outOff;
+        int bits = 0;
+        int pending = 0;
+        int i = off;
+        while (i < end) {
+            if (pending == 0 && i + 3 < end) {
+                int b = (table[in[i] & 0xff] << 18) | (table[in[i + 1] & 0xff] << 12)
+                        | (table[in[i + 2] & 0xff] << 6) | table[in[i + 3] & 0xff];
+                if (b >= 0) {
+                    out[o] = (byte) (b >> 16);
+                    out[o + 1] = (byte) (b >> 8);
+                    out[o + 2] = (byte) b;
+                    o += 3;
+                    i += 4;
+                    continue;
+                }
+            }
+            int c = in[i] & 0xff;
+            int v = table[c];
+            if (v >= 0) {
+                bits = (bits << 6) | v;
+                if (++pending == 4) {
+                    out[o] = (byte) (bits >> 16);
+                    out[o + 1] = (byte) (bits >> 8);
+                    out[o + 2] = (byte) bits;
+                    o += 3;
+                    bits = 0;
+                    pending = 0;
+                }
+            } else if (c == '=') {
+                // Relleno: solo cierra un grupo de 2 o 3 caracteres, y detrás solo más relleno
+                if (pending < 2) {
+                    return ~i;
+                }
+                for (int j = i + 1; j < end; j++) {
+                    if (in[j] != '=' && table[in[j] & 0xff] != WHITESPACE) {
+                        return ~j;
+                    }
+                }
+                break;
+            } else if (v != WHITESPACE) {
+                return ~i;
+            }
+            i++;
+        }
+        switch (pending) {
+            case 0:
+                break;
+            case 2:
+                out[o++] = (byte) (bits >> 4);
+                break;
+            case 3:
+                out[o] = (byte) (bits >> 10);
+                out[o + 1] = (byte) (bits >> 2);
+                o += 2;
+                break;
+            default:
+                return ~end;
+        }
+        return o - outOff;
+    }
+
+    /**
+     * Codifica en hex minúsculas en out[outOff..]
+     *
+     * @return caracteres escritos (2 * len)
+     */
+    public static int encodeHex(byte[] in, int off, int len, byte[] out, int outOff) {
+        int o = outOff;
+        for (int i = off, end = off + len; i < end; i++) {
+            out[o++] = HEX_DIGITS[(in[i] >> 4) & 0xf];
+            out[o++] = HEX_DIGITS[in[i] & 0xf];
+        }
+        return o - outOff;
+    }
+
+    // ---- Conveniencia ----
+
+    /**
+     * Bytes de un texto hex, o null si no es hex válido
+     */
+    public static byte[] fromHex(String text) {
+        byte[] in = text.getBytes(StandardCharsets.ISO_8859_1);
+        byte[] out = new byte[maxDecodedHexLength(in.length)];
+        return trimmed(out, decodeHex(in, 0, in.length, out, 0));
+    }
+
+    /**
+     * Bytes de un texto Base64 o Base64url, o null si no es válido
+     */
+    public static byte[] fromBase64(String text) {
+        byte[] in = text.getBytes(StandardCharsets.ISO_8859_1);
+        byte[] out = new byte[maxDecodedBase64Length(in.length)];
+        return trimmed(out, decodeBase64(in, 0, in.length, out, 0));
+    }
+
+    /**
+     * Bytes de un texto hex sin espacios, o null si no es válido
+     */
+    public static byte[] fromHexStrict(String text) {
+        byte[] in = text.getBytes(StandardCharsets.ISO_8859_1);
+        byte[] out = new byte[maxDecodedHexLength(in.length)];
+        return trimmed(out, decodeHexStrict(in, 0, in.length, out, 0));
+    }
+
+    /**
+     * Bytes de un valor Base64 o Base64url del tráfico, o null si no es válido
+     *
+     * El alfabeto lo decide el propio valor ('-' o '_' es Base64url); mezclar
+     * los dos, o cualquier espacio, lo invalida.
+     */
+    public static byte[] fromBase64Strict(String text) {
+        byte[] in = text.getBytes(StandardCharsets.ISO_8859_1);
+        boolean urlSafe = false;
+        for (byte b : in) {
+            if (b == '-' || b == '_') {
+                urlSafe = true;
+                break;
+            }
+        }
+        byte[] out = new byte[maxDecodedBase64Length(in.length)];
+        return trimmed(out, decodeBase64Strict(in, 0, in.length, out, 0, urlSafe));
+    }
+
+    public static String toHex(byte[] data) {
+        byte[] out = new byte[data.length * 2];
+        encodeHex(data, 0, data.length, out, 0);
+        return new String(out, StandardCharsets.ISO_8859_1);
+    }
+
+    public static String toBase64(byte[] data) {
+        return Base64.getEncoder().encodeToString(data);
+    }
+
+    /**
+     * Salida de un decode ajustada a lo escrito, o null si falló
+     */
+    static byte[] trimmed(byte[] out, int result) {
+        if (result < 0) {
+            return null;
+        }
+        return result == out.length ? out : Arrays.copyOf(out, result);
+    }
+}
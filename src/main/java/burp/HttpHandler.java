@@ -1,14 +1,16 @@
 package burp;
 
 import burp.api.montoya.MontoyaApi;
+import burp.api.montoya.core.ByteArray;
+import burp.api.montoya.core.ToolType;
 import burp.api.montoya.http.handler.*;
 import burp.api.montoya.http.message.requests.HttpRequest;
 import burp.api.montoya.http.message.responses.HttpResponse;
 import burp.api.montoya.logging.Logging;
-import com.google.gson.Gson;
-import com.google.gson.JsonElement;
-import com.google.gson.JsonObject;
-import com.google.gson.JsonParser;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 
 /**
  * HttpHandler - Maneja el tráfico HTTP que va al servidor
@@ -23,14 +25,28 @@ import com.google.gson.JsonParser;
  */
 public class HttpHandler implements burp.api.montoya.http.handler.HttpHandler {
     
+    // Pasadas tantas peticiones del ataque sin response, se olvidan las que llevan ORACLE_TIMEOUT_NANOS esperando
+    private static final int ORACLE_PURGE_THRESHOLD = 1024;
+    private static final long ORACLE_TIMEOUT_NANOS = TimeUnit.MINUTES.toNanos(5);
+    
     private final CryptoConfig config;
     private final Logging logging;
-    private final Gson gson;
+    private final MessageTransformer transformer;
+    private final TokenTransformer tokens;
+    private final MessageSigner signer;
+    private final TrafficJournal journal;
+    
+    // Peticiones del ataque de padding oracle en curso (messageId → nanoTime del envío):
+    // ni se cifran ni se descifra su response
+    private final Map<Integer, Long> oracleMessages = new ConcurrentHashMap<>();
     
-    public HttpHandler(CryptoConfig config, MontoyaApi api) {
+    public HttpHandler(CryptoConfig config, MontoyaApi api, TrafficJournal journal) {
         this.config = config;
         this.logging = api.logging();
-        this.gson = new Gson();
+        this.journal = journal;
+        this.transformer = new MessageTransformer(config, logging, "[HTTP]");
+        this.tokens = new TokenTransformer(config, logging, "[HTTP]");
+        this.signer = new MessageSigner(config, logging, "[HTTP]");
     }
     
     /**
@@ -39,15 +55,30 @@ public class HttpHandler implements burp.api.montoya.http.handler.HttpHandler {
      * ahora lo ciframos de nuevo para el servidor
      */
     @Override
+    @SuppressWarnings("try")
     public RequestToBeSentAction handleHttpRequestToBeSent(HttpRequestToBeSent requestToBeSent) {
+        if (requestToBeSent.hasHeader(PaddingOracle.MARKER_HEADER)) {
+            rememberOracleMessage(requestToBeSent.messageId());
+            return RequestToBeSentAction.continueWith(requestToBeSent.withRemovedHeader(PaddingOracle.MARKER_HEADER));
+        }
+        
         if (!config.isEnabled() || !config.isAutoEncrypt()) {
             return RequestToBeSentAction.continueWith(requestToBeSent);
         }
         
-        try {
+        // Sin reescritura en el Proxy, el tráfico del Proxy nunca se descifró
+        if (!config.isEagerProxyRewrite() && requestToBeSent.toolSource().isFromTool(ToolType.PROXY)) {
+            return RequestToBeSentAction.continueWith(requestToBeSent);
+        }
+        
+        try (TransformEvents.Scope scope = TransformEvents.scope(requestToBeSent, "Request");
+             SessionKeys.Scope keys = SessionKeys.scope(config, requestToBeSent);
+             KeyRing.Scope ring = KeyRing.scope(config, requestToBeSent)) {
             HttpRequest encrypted = encryptRequest(requestToBeSent);
             if (encrypted != null) {
                 logging.logToOutput("[HTTP] Request cifrado antes de enviar al servidor");
+                journal.record(TrafficJournal.SOURCE_HTTP, requestToBeSent.messageId(), TrafficJournal.ENCRYPT,
+                        "Request", requestToBeSent, requestToBeSent, encrypted);
                 return RequestToBeSentAction.continueWith(encrypted);
             }
         } catch (Exception e) {
@@ -61,15 +92,43 @@ public class HttpHandler implements burp.api.montoya.http.handler.HttpHandler {
      * DESCIFRA la response que viene del servidor
      */
     @Override
+    @SuppressWarnings("try")
     public ResponseReceivedAction handleHttpResponseReceived(HttpResponseReceived responseReceived) {
-        if (!config.isEnabled() || !config.isDecryptResponses()) {
+        if (oracleMessages.remove(responseReceived.messageId()) != null) {
             return ResponseReceivedAction.continueWith(responseReceived);
         }
         
-        try {
+        if (!config.isEnabled()) {
+            return ResponseReceivedAction.continueWith(responseReceived);
+        }
+        
+        // Todas las herramientas, Proxy incluido: el login puede venir de cualquiera
+        if (config.usesKeyLearning()) {
+            learnSessionKey(responseReceived);
+        }
+        
+        if (!config.isDecryptResponses()) {
+            return ResponseReceivedAction.continueWith(responseReceived);
+        }
+        
+        if (!config.isEagerProxyRewrite() && responseReceived.toolSource().isFromTool(ToolType.PROXY)) {
+            return ResponseReceivedAction.continueWith(responseReceived);
+        }
+        
+        if (config.isSigningEnabled() && !tokens.handlesResponses()) {
+            verifyResponse(responseReceived);
+        }
+        
+        try (TransformEvents.Scope scope = TransformEvents.scope(responseReceived.initiatingRequest(), "Response");
+             SessionKeys.Scope keys = SessionKeys.scope(config, responseReceived.initiatingRequest());
+             KeyRing.Scope ring = KeyRing.scope(config, responseReceived.initiatingRequest());
+             EcbAnalyzer.Scope blocks = EcbAnalyzer.scope(config, responseReceived.initiatingRequest(),
+                     responseReceived.messageId(), "Response")) {
             HttpResponse decrypted = decryptResponse(responseReceived);
             if (decrypted != null) {
                 logging.logToOutput("[HTTP] Response descifrado del servidor");
+                journal.record(TrafficJournal.SOURCE_HTTP, responseReceived.messageId(), TrafficJournal.DECRYPT,
+                        "Response", responseReceived.initiatingRequest(), responseReceived, decrypted);
                 return ResponseReceivedAction.continueWith(decrypted);
             }
         } catch (Exception e) {
@@ -79,51 +138,51 @@ public class HttpHandler implements burp.api.montoya.http.handler.HttpHandler {
         return ResponseReceivedAction.continueWith(responseReceived);
     }
     
+    /**
+     * Anota una petición del ataque; las que nunca reciben response (timeouts,
+     * ataque detenido) se descartan por antigüedad para que el mapa no crezca
+     */
+    private void rememberOracleMessage(int messageId) {
+        long now = System.nanoTime();
+        oracleMessages.put(messageId, now);
+        if (oracleMessages.size() > ORACLE_PURGE_THRESHOLD) {
+            oracleMessages.values().removeIf(sent -> now - sent > ORACLE_TIMEOUT_NANOS);
+        }
+    }
+    
     /**
      * Cifra un request - reemplaza texto plano con valor cifrado
      * Si el valor es un objeto JSON, lo convierte a string antes de cifrar
      */
     private HttpRequest encryptRequest(HttpRequest request) {
         try {
-            String body = request.bodyToString();
-            if (body == null || body.isEmpty()) {
-                return null;
+            // Token en cabecera, cookie o query: el cuerpo no se lee (ni se firma)
+            if (tokens.handlesRequests()) {
+                return tokens.encryptRequest(request);
             }
             
-            if ("JSON".equals(config.getDataFormat())) {
-                JsonObject jsonObject = JsonParser.parseString(body).getAsJsonObject();
-                String paramName = config.getRequestParameter();
-                
-                if (jsonObject.has(paramName)) {
-                    JsonElement element = jsonObject.get(paramName);
-                    String plainData;
-                    
-                    // Si es un objeto/array JSON, convertirlo a string
-                    if (element.isJsonObject() || element.isJsonArray()) {
-                        plainData = gson.toJson(element);
-                        logging.logToOutput("[HTTP] Convirtiendo objeto JSON a string para cifrar");
-                    } else {
-                        plainData = element.getAsString();
-                    }
-                    
-                    // Verificar si ya está cifrado (Base64)
-                    if (isLikelyEncrypted(plainData)) {
-                        logging.logToOutput("[HTTP] Request ya parece estar cifrado, omitiendo...");
-                        return null;
-                    }
-                    
-                    // CIFRAR el texto plano
-                    String encryptedData = CryptoHelper.encrypt(plainData, config);
-                    
-                    // REEMPLAZAR con valor cifrado
-                    jsonObject.addProperty(paramName, encryptedData);
-                    
-                    String newBody = gson.toJson(jsonObject);
-                    logging.logToOutput("[HTTP] Request cifrado antes de enviar al servidor");
-                    
-                    return request.withBody(newBody);
+            String contentEncoding = request.headerValue("Content-Encoding");
+            boolean multipart = "MULTIPART".equals(config.getDataFormat());
+            
+            // Con firma, el cuerpo comprimido se descomprime entero: la firma va sobre el cuerpo en claro
+            if (config.isSigningEnabled() && ContentCodec.isCompressed(contentEncoding) && !multipart) {
+                byte[] plain = ContentCodec.decode(request.body().getBytes(), contentEncoding);
+                HttpRequest encrypted = encryptBody(request.withBody(ByteArray.byteArray(plain)));
+                return encrypted != null ? encrypted.withBody(ByteArray.byteArray(
+                        ContentCodec.encode(encrypted.body().getBytes(), contentEncoding))) : null;
+            }
+            
+            // Cuerpo comprimido o multipart: se cifra en streaming
+            if (transformer.transformsBytes(contentEncoding)) {
+                if (config.isSigningEnabled()) {
+                    logging.logToError("[HTTP] Request multipart cifrado sin firma: solo se firman cuerpos JSON/XML");
                 }
+                byte[] newBody = transformer.encryptField(request.body().getBytes(), contentEncoding,
+                        config.getRequestParameter(), "Request");
+                return newBody != null ? request.withBody(ByteArray.byteArray(newBody)) : null;
             }
+            
+            return encryptBody(request);
         } catch (Exception e) {
             logging.logToError("[HTTP] Error cifrando request: " + e.getMessage());
         }
@@ -132,102 +191,99 @@ public class HttpHandler implements burp.api.montoya.http.handler.HttpHandler {
     }
     
     /**
-     * Descifra una response - reemplaza el valor cifrado con texto plano
-     * Si el texto descifrado es JSON válido, lo parsea como objeto JSON
+     * Cifra (y firma, si está activado) un cuerpo JSON/XML sin comprimir
      */
-    private HttpResponse decryptResponse(HttpResponse response) {
-        try {
-            String body = response.bodyToString();
-            if (body == null || body.isEmpty()) {
-                return null;
-            }
-            
-            if ("JSON".equals(config.getDataFormat())) {
-                JsonObject jsonObject = JsonParser.parseString(body).getAsJsonObject();
-                String paramName = config.getResponseParameter();
-                
-                if (jsonObject.has(paramName)) {
-                    String encryptedData = jsonObject.get(paramName).getAsString();
-                    
-                    // Verificar si parece estar cifrado
-                    if (!isLikelyEncrypted(encryptedData)) {
-                        logging.logToOutput("[HTTP] Response no parece estar cifrado, omitiendo...");
-                        return null;
-                    }
-                    
-                    String decryptedData = CryptoHelper.decrypt(encryptedData, config);
-                    
-                    // Intentar parsear como JSON. Si es válido, insertarlo como objeto JSON
-                    JsonElement parsedJson = tryParseJson(decryptedData);
-                    if (parsedJson != null) {
-                        // Es JSON válido, insertarlo como objeto JSON (no como string)
-                        jsonObject.add(paramName, parsedJson);
-                        logging.logToOutput("[HTTP] Response descifrado y parseado como JSON");
-                    } else {
-                        // No es JSON válido, mantener como string
-                        jsonObject.addProperty(paramName, decryptedData);
-                        logging.logToOutput("[HTTP] Response descifrado (texto plano)");
-                    }
-                    
-                    String newBody = gson.toJson(jsonObject);
-                    return response.withBody(newBody);
-                }
-            }
-        } catch (Exception e) {
-            logging.logToError("[HTTP] Error descifrando response: " + e.getMessage());
-        }
+    private HttpRequest encryptBody(HttpRequest request) throws Exception {
+        String body = request.bodyToString();
+        String newBody = transformer.encryptField(body, config.getRequestParameter(), "Request");
+        HttpRequest encrypted = newBody != null ? request.withBody(newBody) : null;
         
-        return null;
+        // Firmar lo que acabamos de cifrar (o lo que cifró el editor)
+        if (config.isSigningEnabled() && (encrypted != null || MessageTransformer.isPrecomputed(body))) {
+            return signRequest(encrypted != null ? encrypted : request);
+        }
+        return encrypted;
     }
     
     /**
-     * Verifica si un string parece estar cifrado (Base64)
-     * Heurística: Base64 típicamente tiene >16 caracteres y mix de mayúsculas/minúsculas
+     * Firma un request ya cifrado - escribe la firma en el campo o header configurado
      */
-    private boolean isLikelyEncrypted(String data) {
-        if (data == null || data.isEmpty()) {
-            return false;
-        }
+    private HttpRequest signRequest(HttpRequest request) throws Exception {
+        MessageSigner.Signed signed = signer.sign(request.method(), request.path(),
+                request.bodyToString(), config.getRequestParameter());
         
-        // Muy corto para ser cifrado AES (mínimo ~16 chars en Base64)
-        if (data.length() < 16) {
-            return false;
-        }
-        
-        // Si contiene espacios o saltos, no es Base64
-        if (data.contains(" ") || data.contains("\n")) {
-            return false;
+        if (MessageSigner.LOCATION_HEADER.equals(config.getSignatureLocation())) {
+            request = request.withHeader(config.getSignatureName(), signed.signature);
+            if (!signed.timestamp.isEmpty()) {
+                request = request.withHeader(config.getSignatureTimestampName(), signed.timestamp);
+            }
+            return request;
         }
-        
-        // Debe ser solo caracteres Base64
-        if (!data.matches("^[A-Za-z0-9+/]+=*$")) {
-            return false;
+        return request.withBody(signed.body);
+    }
+    
+    /**
+     * Asocia la clave que entrega una response de login/handshake a su sesión
+     */
+    private void learnSessionKey(HttpResponseReceived response) {
+        try {
+            String session = LearnedKeys.learn(config, response.initiatingRequest(), response);
+            if (session != null) {
+                logging.logToOutput("[HTTP] Clave de sesión aprendida para " + session);
+            }
+        } catch (Exception e) {
+            logging.logToError("[HTTP] Error aprendiendo clave de sesión: " + e.getMessage());
         }
-        
-        // Base64 típicamente tiene mix de mayúsculas/minúsculas/números
-        boolean hasUpper = !data.equals(data.toLowerCase());
-        boolean hasLower = !data.equals(data.toUpperCase());
-        
-        return hasUpper || hasLower;
     }
     
     /**
-     * Intenta parsear un string como JSON
-     * Retorna el JsonElement si es válido, null si no es JSON válido
+     * Verifica la firma de la response (resultado memorizado por MessageSigner)
      */
-    private JsonElement tryParseJson(String data) {
-        if (data == null || data.trim().isEmpty()) {
-            return null;
+    private void verifyResponse(HttpResponseReceived response) {
+        try {
+            HttpRequest request = response.initiatingRequest();
+            String timestampName = config.getSignatureTimestampName();
+            // La firma cubre el cuerpo en claro, no el gzip/deflate
+            String contentEncoding = response.headerValue("Content-Encoding");
+            String body = ContentCodec.isCompressed(contentEncoding)
+                    ? response.withBody(ByteArray.byteArray(ContentCodec.decode(response.body().getBytes(),
+                            contentEncoding))).bodyToString()
+                    : response.bodyToString();
+            signer.verify(request.method(), request.path(), body,
+                    config.getResponseParameter(),
+                    response.headerValue(config.getSignatureName()),
+                    timestampName.isEmpty() ? null : response.headerValue(timestampName));
+        } catch (Exception e) {
+            logging.logToError("[HTTP] Error verificando firma de response: " + e.getMessage());
         }
-        
+    }
+    
+    /**
+     * Descifra una response - reemplaza el valor cifrado con texto plano
+     * Si el texto descifrado es JSON válido, lo parsea como objeto JSON
+     */
+    private HttpResponse decryptResponse(HttpResponse response) {
         try {
-            String trimmed = data.trim();
-            // Verificar que comience con { o [ (JSON válido)
-            if (trimmed.startsWith("{") || trimmed.startsWith("[")) {
-                return JsonParser.parseString(trimmed);
+            if (tokens.handlesResponses()) {
+                return tokens.decryptResponse(response, true);
+            }
+            
+            // Cuerpo comprimido o multipart: descifrar en streaming (y recomprimir)
+            // (withBody actualiza Content-Length)
+            String contentEncoding = response.headerValue("Content-Encoding");
+            if (transformer.transformsBytes(contentEncoding)) {
+                byte[] newBody = transformer.decryptField(response.body().getBytes(), contentEncoding,
+                        config.getResponseParameter(), "Response", true);
+                return newBody != null ? response.withBody(ByteArray.byteArray(newBody)) : null;
+            }
+            
+            String newBody = transformer.decryptField(response.bodyToString(),
+                    config.getResponseParameter(), "Response", true);
+            if (newBody != null) {
+                return response.withBody(newBody);
             }
         } catch (Exception e) {
-            // No es JSON válido, retornar null
+            logging.logToError("[HTTP] Error descifrando response: " + e.getMessage());
         }
         
         return null;
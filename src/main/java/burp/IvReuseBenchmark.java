@@ -0,0 +1,132 @@
+package burp;
+
+import java.util.Random;
+
+/**
+ * Cost and accuracy of the IV/nonce reuse detector
+ *
+ * Feeds N (key, IV, plaintext) operations straight into IvReuseDetector, as
+ * CryptoHelper does after each encryption or decryption, first with the exact
+ * table alone and then with the Bloom filter front. Most IVs are random;
+ * every 1000th operation reuses an IV from far back with a new plaintext
+ * (a real reuse) and every 1000th replays an earlier message unchanged
+ * (not a reuse). Prints ns per operation over a run with detection off
+ * (the generator's own cost), memory, and how many of the injected
+ * reuses were reported, exactly or as probable.
+ *
+ * Usage:
+ *   java -cp destroy-aes.jar:montoya-api.jar:gson.jar burp.IvReuseBenchmark \
+ *        [--operations 5000000] [--memory 16] [--keys 8]
+ */
+public class IvReuseBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int operations = 5_000_000;
+        int memoryMb = 16;
+        int keyCount = 8;
+
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--operations": operations = Integer.parseInt(args[++i]); break;
+                case "--memory": memoryMb = Integer.parseInt(args[++i]); break;
+                case "--keys": keyCount = Integer.parseInt(args[++i]); break;
+                default:
+                    System.err.println("Unknown argument: " + args[i]);
+                    System.exit(1);
+            }
+        }
+
+        Random random = new Random(7);
+        byte[][] keys = new byte[keyCount][32];
+        for (byte[] key : keys) {
+            random.nextBytes(key);
+        }
+        byte[][] plaintexts = new byte[64][];
+        for (int i = 0; i < plaintexts.length; i++) {
+            plaintexts[i] = new byte[200 + random.nextInt(800)];
+            random.nextBytes(plaintexts[i]);
+        }
+
+        System.out.println("IV reuse benchmark: " + operations + " operations, " + keyCount + " keys, "
+                + memoryMb + " MB budget, 1 reuse and 1 replay per 1000 operations");
+        System.out.println();
+        System.out.printf("%-8s %10s %10s %10s %10s %10s %8s%n",
+                "table", "ns/op", "reused", "exact", "probable", "KB", "resets");
+
+        // The generator alone: detection off
+        CryptoConfig off = new CryptoConfig();
+        off.setMode("GCM");
+        run(off, keys, plaintexts, Math.min(operations, 500_000), new Random(1));
+        long baseline = System.nanoTime();
+        run(off, keys, plaintexts, operations, new Random(2));
+        baseline = System.nanoTime() - baseline;
+
+        for (boolean bloom : new boolean[]{false, true}) {
+            CryptoConfig config = new CryptoConfig();
+            config.setMode("GCM");
+            config.setIvReuseDetection(true);
+            config.setIvReuseMemoryMb(memoryMb);
+            config.setIvReuseBloom(bloom);
+
+            // Warm-up on the same table, then a clean measured run
+            run(config, keys, plaintexts, Math.min(operations, 500_000), new Random(1));
+            IvReuseDetector.reset();
+            long start = System.nanoTime();
+            int injected = run(config, keys, plaintexts, operations, new Random(2));
+            long elapsed = System.nanoTime() - start;
+
+            long reported = IvReuseDetector.getReuses() + IvReuseDetector.getProbableReuses();
+            System.out.printf("%-8s %10.0f %10d %10d %10d %10d %8d%n", bloom ? "bloom" : "exact",
+                    (double) (elapsed - baseline) / operations, injected, IvReuseDetector.getReuses(),
+                    IvReuseDetector.getProbableReuses(), IvReuseDetector.getMemoryBytes() / 1024,
+                    IvReuseDetector.getResets());
+            if (!bloom && IvReuseDetector.getResets() == 0 && reported != injected) {
+                throw new IllegalStateException("Exact table reported " + reported + " of " + injected + " reuses");
+            }
+            IvReuseDetector.reset();
+        }
+        System.out.println();
+        System.out.println("reused = injected reuses; replays of the same message are never counted."
+                + " Probable = found by the Bloom filter after leaving the exact table");
+    }
+
+    /**
+     * @return reuses injected
+     */
+    private static int run(CryptoConfig config, byte[][] keys, byte[][] plaintexts, int operations, Random random) {
+        // IVs kept for the injected reuses and replays: sampled far back in the run
+        byte[][] pastIvs = new byte[1024][];
+        int[] pastKeys = new int[1024];
+        int[] pastPlaintexts = new int[1024];
+        int injected = 0;
+        for (int i = 0; i < operations; i++) {
+            int keyIndex = random.nextInt(keys.length);
+            int plaintextIndex = random.nextInt(plaintexts.length);
+            byte[] iv = new byte[12];
+            int slot = random.nextInt(pastIvs.length);
+            if (i % 1000 == 500 && pastIvs[slot] != null) {
+                // Same key and IV, different plaintext: a reuse
+                iv = pastIvs[slot];
+                keyIndex = pastKeys[slot];
+                plaintextIndex = (pastPlaintexts[slot] + 1) % plaintexts.length;
+                pastPlaintexts[slot] = plaintextIndex;
+                injected++;
+            } else if (i % 1000 == 999 && pastIvs[slot] != null) {
+                // The same message again: not a reuse
+                iv = pastIvs[slot];
+                keyIndex = pastKeys[slot];
+                plaintextIndex = pastPlaintexts[slot];
+            } else {
+                random.nextBytes(iv);
+                if (i % 997 == 0) {
+                    pastIvs[slot] = iv;
+                    pastKeys[slot] = keyIndex;
+                    pastPlaintexts[slot] = plaintextIndex;
+                }
+            }
+            IvReuseDetector.observe(config, keys[keyIndex], iv, plaintexts[plaintextIndex],
+                    i % 2 == 0 ? IvReuseDetector.DECRYPT : IvReuseDetector.ENCRYPT);
+        }
+        return injected;
+    }
+}
@@ -0,0 +1,434 @@
+package burp;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * IvReuseDetector - IV/nonce repetido con la misma clave, en ambos sentidos
+ *
+ * Cada cifrado y descifrado de CryptoHelper con IV (CBC, GCM) registra el
+ * par (huella de la clave, IV) y un hash del texto plano. El mismo par con
+ * otro texto plano es reutilización: en GCM rompe la confidencialidad y la
+ * autenticación, en CBC delata los prefijos comunes. El mismo par con el
+ * mismo texto es el mismo mensaje otra vez (Repeater, la pestaña
+ * "Decrypted") y no cuenta. Del texto plano se usan la longitud y los
+ * primeros CONTENT_BYTES, para que el coste no dependa del tamaño.
+ *
+ * Los pares van en una tabla de direccionamiento abierto de longs (hash del
+ * par → hash del contenido), partida en STRIPES franjas con su propio lock
+ * para que los hilos del proxy no se esperen. El presupuesto de memoria
+ * (ivReuseMemoryMb) fija su tamaño; al llenarse una franja se vacía.
+ *
+ * Con ivReuseBloom la tabla exacta se queda con un cuarto del presupuesto
+ * (cabe en caché) y el resto es un filtro de Bloom por bloques (todos los
+ * bits de un elemento en la misma línea de caché) que recuerda muchos más
+ * pares a ~16 bits cada uno. Un par que ya no está en la tabla pero sí en
+ * el filtro, con un contenido que el filtro no ha visto, es reutilización
+ * probable (puede ser un falso positivo del filtro).
+ *
+ * Cada par reutilizado se avisa al listener la primera vez; después solo
+ * se cuenta. Coste por mensaje: dos hashes cortos, un lock sin contención
+ * y una o dos líneas de caché.
+ */
+public final class IvReuseDetector {
+
+    public static final String ENCRYPT = "encrypt";
+    public static final String DECRYPT = "decrypt";
+
+    static final int CONTENT_BYTES = 256;
+    private static final int STRIPES = 16;
+    private static final int MIN_CAPACITY = 1024;
+    private static final int MAX_REPORTED = 256;
+    private static final int BLOOM_BITS_PER_PAIR = 16;
+    private static final int BLOOM_HASHES = 8;
+
+    // Lectura de 8 bytes de golpe para el hash
+    private static final VarHandle LONGS = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+
+    private static final int NEW = 0;
+    private static final int REUSED = 1;
+    private static final int PROBABLE = 2;
+
+    /**
+     * Un par (clave, IV) reutilizado
+     */
+    public static final class Reuse {
+        public final String keyFingerprint;
+        public final String iv;
+        public final String mode;
+        public final boolean probable;
+        public final long firstSeen = System.currentTimeMillis();
+        final AtomicLong count = new AtomicLong(1);
+        volatile String lastOperation;
+        volatile long lastSeen = firstSeen;
+
+        Reuse(String keyFingerprint, String iv, String mode, boolean probable, String operation) {
+            this.keyFingerprint = keyFingerprint;
+            this.iv = iv;
+            this.mode = mode;
+            this.probable = probable;
+            this.lastOperation = operation;
+        }
+
+        public long getCount() {
+            return count.get();
+        }
+
+        public String getLastOperation() {
+            return lastOperation;
+        }
+
+        public long getLastSeen() {
+            return lastSeen;
+        }
+
+        @Override
+        public String toString() {
+            return (probable ? "probable " : "") + mode + " IV reuse: key " + keyFingerprint + ", IV " + iv
+                    + ", " + count.get() + " time(s), last on " + lastOperation;
+        }
+    }
+
+    // Tabla actual y la configuración con la que se creó
+    private static volatile Stripe[] stripes;
+    private static int stripesMemoryMb;
+    private static boolean stripesBloom;
+
+    private static final Map<Long, Reuse> reported = new ConcurrentHashMap<>();
+    private static final AtomicLong observed = new AtomicLong();
+    private static final AtomicLong reuses = new AtomicLong();
+    private static final AtomicLong probableReuses = new AtomicLong();
+    private static final AtomicLong resets = new AtomicLong();
+    private static volatile Consumer<Reuse> listener;
+
+    private IvReuseDetector() {
+    }
+
+    /**
+     * Recibe cada par reutilizado nuevo (en el hilo que lo detecta)
+     */
+    public static void setListener(Consumer<Reuse> listener) {
+        IvReuseDetector.listener = listener;
+    }
+
+    /**
+     * Registra un cifrado o descifrado; no hace nada sin IV, sin ivReuseDetection
+     * o en un hilo de prueba (CryptoHelper.trial())
+     *
+     * @param plaintext texto plano de entrada (cifrar) o de salida (descifrar)
+     */
+    static void observe(CryptoConfig config, byte[] key, byte[] iv, byte[] plaintext, String operation) {
+        if (!config.isIvReuseDetection() || iv == null || key == null || CryptoHelper.isTrial()) {
+            return;
+        }
+        long pair = hash(iv, iv.length, hash(key, key.length, 0x243F6A8885A308D3L));
+        long content = hash(plaintext, Math.min(plaintext.length, CONTENT_BYTES), plaintext.length);
+        if (content == 0) {
+            content = 1;
+        }
+        observed.incrementAndGet();
+
+        Stripe[] table = table(config);
+        int result = table[(int) (pair >>> 60) & (STRIPES - 1)].add(pair, content);
+        if (result != NEW) {
+            report(pair, key, iv, config.getMode(), result == PROBABLE, operation);
+        }
+    }
+
+    private static void report(long pair, byte[] key, byte[] iv, String mode, boolean probable, String operation) {
+        (probable ? probableReuses : reuses).incrementAndGet();
+        Reuse reuse = reported.get(pair);
+        if (reuse != null) {
+            reuse.count.incrementAndGet();
+            reuse.lastOperation = operation;
+            reuse.lastSeen = System.currentTimeMillis();
+            return;
+        }
+        if (reported.size() >= MAX_REPORTED) {
+            return;
+        }
+        reuse = new Reuse(fingerprint(key), HexBase64.toHex(iv), mode, probable, operation);
+        if (reported.putIfAbsent(pair, reuse) == null) {
+            Consumer<Reuse> current = listener;
+            if (current != null) {
+                current.accept(reuse);
+            }
+        }
+    }
+
+    /**
+     * Tabla para el presupuesto configurado; se rehace si cambia
+     */
+    private static Stripe[] table(CryptoConfig config) {
+        Stripe[] table = stripes;
+        int memoryMb = Math.max(1, config.getIvReuseMemoryMb());
+        boolean bloom = config.isIvReuseBloom();
+        if (table != null && stripesMemoryMb == memoryMb && stripesBloom == bloom) {
+            return table;
+        }
+        synchronized (IvReuseDetector.class) {
+            if (stripes == null || stripesMemoryMb != memoryMb || stripesBloom != bloom) {
+                long stripeBytes = (long) memoryMb * 1024 * 1024 / STRIPES;
+                long exactBytes = bloom ? stripeBytes / 4 : stripeBytes;
+                Stripe[] created = new Stripe[STRIPES];
+                for (int i = 0; i < STRIPES; i++) {
+                    created[i] = new Stripe(exactBytes, bloom ? stripeBytes - exactBytes : 0);
+                }
+                stripesMemoryMb = memoryMb;
+                stripesBloom = bloom;
+                stripes = created;
+            }
+            return stripes;
+        }
+    }
+
+    /**
+     * Hash de 64 bits de data[0..length), 8 bytes por paso
+     */
+    static long hash(byte[] data, int length, long seed) {
+        long h = seed ^ (length * 0x9E3779B97F4A7C15L);
+        int i = 0;
+        for (; i + 8 <= length; i += 8) {
+            long word = (long) LONGS.get(data, i);
+            h = Long.rotateLeft(h ^ word * 0xC2B2AE3D27D4EB4FL, 31) * 0x9E3779B97F4A7C15L;
+        }
+        for (; i < length; i++) {
+            h = Long.rotateLeft(h ^ (data[i] & 0xffL) * 0xC2B2AE3D27D4EB4FL, 31) * 0x9E3779B97F4A7C15L;
+        }
+        h ^= h >>> 33;
+        h *= 0xFF51AFD7ED558CCDL;
+        h ^= h >>> 33;
+        h *= 0xC4CEB9FE1A85EC53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    /**
+     * Huella de la clave para los avisos: los 4 primeros bytes de su SHA-256
+     */
+    static String fingerprint(byte[] key) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(key);
+            return HexBase64.toHex(new byte[]{digest[0], digest[1], digest[2], digest[3]});
+        } catch (Exception e) {
+            return "?";
+        }
+    }
+
+    /**
+     * Una franja: tabla exacta (par → contenido) y, opcional, su filtro de Bloom
+     */
+    private static final class Stripe {
+        private long[] keys;
+        private long[] values;
+        private int size;
+        private int mask;
+        private final int maxCapacity;
+
+        // Bloom por bloques de 512 bits (8 longs, una línea de caché)
+        private final long[] bloom;
+        private final int bloomBlockMask;
+        private final long bloomCapacity;
+        private long bloomInserted;
+
+        Stripe(long exactBytes, long bloomBytes) {
+            int capacity = MIN_CAPACITY;
+            while ((long) capacity * 2 * 16 <= exactBytes) {
+                capacity *= 2;
+            }
+            maxCapacity = capacity;
+            allocate(Math.min(maxCapacity, MIN_CAPACITY));
+
+            int blocks = 1;
+            while ((long) blocks * 2 * 64 <= bloomBytes) {
+                blocks *= 2;
+            }
+            bloom = bloomBytes > 0 ? new long[blocks * 8] : null;
+            bloomBlockMask = blocks - 1;
+            // Cada par nuevo mete dos elementos: el par y el par con su contenido
+            bloomCapacity = (long) blocks * 512 / BLOOM_BITS_PER_PAIR / 2;
+        }
+
+        private void allocate(int capacity) {
+            keys = new long[capacity];
+            values = new long[capacity];
+            mask = capacity - 1;
+            size = 0;
+        }
+
+        synchronized int add(long pair, long content) {
+            long key = pair != 0 ? pair : 1;
+            int slot = (int) key & mask;
+            while (true) {
+                long existing = keys[slot];
+                if (existing == key) {
+                    long previous = values[slot];
+                    values[slot] = content;
+                    return previous == content ? NEW : REUSED;
+                }
+                if (existing == 0) {
+                    break;
+                }
+                slot = (slot + 1) & mask;
+            }
+
+            // Par que la tabla exacta no tiene (nuevo, o expulsado)
+            int result = NEW;
+            if (bloom != null) {
+                long withContent = key ^ Long.rotateLeft(content * 0x9E3779B97F4A7C15L, 17);
+                boolean pairSeen = bloomTestAndSet(key);
+                boolean contentSeen = bloomTestAndSet(withContent);
+                if (pairSeen && !contentSeen) {
+                    result = PROBABLE;
+                }
+                if (++bloomInserted > bloomCapacity) {
+                    Arrays.fill(bloom, 0);
+                    bloomInserted = 0;
+                    resets.incrementAndGet();
+                }
+            }
+
+            if (size + 1 > keys.length / 2) {
+                if (keys.length < maxCapacity) {
+                    grow();
+                } else {
+                    allocate(keys.length);
+                    resets.incrementAndGet();
+                }
+                slot = (int) key & mask;
+                while (keys[slot] != 0) {
+                    slot = (slot + 1) & mask;
+                }
+            }
+            keys[slot] = key;
+            values[slot] = content;
+            size++;
+            return result;
+        }
+
+        private void grow() {
+            long[] oldKeys = keys;
+            long[] oldValues = values;
+            allocate(oldKeys.length * 2);
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldKeys[i] != 0) {
+                    int slot = (int) oldKeys[i] & mask;
+                    while (keys[slot] != 0) {
+                        slot = (slot + 1) & mask;
+                    }
+                    keys[slot] = oldKeys[i];
+                    values[slot] = oldValues[i];
+                    size++;
+                }
+            }
+        }
+
+        /**
+         * Marca los BLOOM_HASHES bits del elemento en su bloque
+         *
+         * @return si ya estaban todos
+         */
+        private boolean bloomTestAndSet(long element) {
+            int base = ((int) ((element * 0xFF51AFD7ED558CCDL) >>> 32) & bloomBlockMask) * 8;
+            long h = element;
+            boolean present = true;
+            for (int i = 0; i < BLOOM_HASHES; i++) {
+                h = h * 0x9E3779B97F4A7C15L + 0x632BE59BD9B4E019L;
+                int bit = (int) (h >>> 55);
+                long word = bloom[base + (bit >>> 6)];
+                long bitMask = 1L << bit;
+                if ((word & bitMask) == 0) {
+                    present = false;
+                    bloom[base + (bit >>> 6)] = word | bitMask;
+                }
+            }
+            return present;
+        }
+
+        synchronized int size() {
+            return size;
+        }
+
+        long bytes() {
+            return ((long) keys.length * 16) + (bloom != null ? (long) bloom.length * 8 : 0);
+        }
+    }
+
+    // ---- Estadísticas ----
+
+    public static long getObserved() {
+        return observed.get();
+    }
+
+    public static long getReuses() {
+        return reuses.get();
+    }
+
+    public static long getProbableReuses() {
+        return probableReuses.get();
+    }
+
+    public static long getResets() {
+        return resets.get();
+    }
+
+    /**
+     * Pares en la tabla exacta
+     */
+    public static long getTrackedPairs() {
+        Stripe[] table = stripes;
+        long total = 0;
+        if (table != null) {
+            for (Stripe stripe : table) {
+                total += stripe.size();
+            }
+        }
+        return total;
+    }
+
+    /**
+     * Memoria ocupada ahora por la tabla y el filtro
+     */
+    public static long getMemoryBytes() {
+        Stripe[] table = stripes;
+        long total = 0;
+        if (table != null) {
+            for (Stripe stripe : table) {
+                total += stripe.bytes();
+            }
+        }
+        return total;
+    }
+
+    /**
+     * Pares reutilizados, los más repetidos primero
+     */
+    public static List<Reuse> reported() {
+        List<Reuse> list = new ArrayList<>(reported.values());
+        list.sort((a, b) -> Long.compare(b.getCount(), a.getCount()));
+        return list;
+    }
+
+    /**
+     * Olvida pares, contadores y avisos
+     */
+    public static void reset() {
+        synchronized (IvReuseDetector.class) {
+            stripes = null;
+        }
+        reported.clear();
+        observed.set(0);
+        reuses.set(0);
+        probableReuses.set(0);
+        resets.set(0);
+    }
+}
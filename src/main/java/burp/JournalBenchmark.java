@@ -0,0 +1,185 @@
+package burp;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Random;
+
+/**
+ * Write, scan, replay and export throughput of the traffic journal
+ *
+ * Appends N request/response pairs through TrafficJournal exactly as the
+ * handlers do (the producer waits to stay within the queue capacity, so
+ * every record lands on disk), then reads them back with JournalReader:
+ *
+ *   write   records/s from the first append until the writer thread is done
+ *   scan    full read of every segment, touching both bodies of each record
+ *   replay  read from the timestamp of the middle record, using the index
+ *   export  JSON and HAR files
+ *
+ * Every scanned record is checked against the order and content it was
+ * written with.
+ *
+ * Usage:
+ *   java -cp destroy-aes.jar:montoya-api.jar:gson.jar burp.JournalBenchmark \
+ *        [--records 200000] [--payload 512] [--dir /tmp/journal-bench] [--no-export]
+ */
+public class JournalBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int records = 200_000;
+        int payloadSize = 512;
+        Path directory = Paths.get(System.getProperty("java.io.tmpdir"), "destroy-aes-journal-bench");
+        boolean export = true;
+
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--records": records = Integer.parseInt(args[++i]); break;
+                case "--payload": payloadSize = Integer.parseInt(args[++i]); break;
+                case "--dir": directory = Paths.get(args[++i]); break;
+                case "--no-export": export = false; break;
+                default:
+                    System.err.println("Unknown argument: " + args[i]);
+                    System.exit(1);
+            }
+        }
+        // Pairs: even records are requests, odd ones their responses
+        records += records % 2;
+
+        if (Files.exists(directory) && !TrafficJournal.segments(directory).isEmpty()) {
+            System.err.println("Directory already holds a journal, use an empty one: " + directory);
+            System.exit(1);
+        }
+
+        CryptoConfig config = new CryptoConfig();
+        config.setJournalEnabled(true);
+        config.setJournalDirectory(directory.toString());
+        TrafficJournal journal = new TrafficJournal(config, new ConsoleLogging(false));
+
+        byte[][] requests = {message(true, payloadSize, false), message(true, payloadSize, true)};
+        byte[][] responses = {message(false, payloadSize, false), message(false, payloadSize, true)};
+        long bytesPerPair = requests[0].length + requests[1].length + responses[0].length + responses[1].length;
+
+        System.out.println("Journal benchmark: " + records + " records, ~" + bytesPerPair / 2
+                + " bytes of messages per record, " + directory);
+        System.out.println();
+
+        // Write: the producer stays within the queue capacity, so nothing is dropped
+        long appendNanos = 0;
+        long start = System.nanoTime();
+        for (int i = 0; i < records; i++) {
+            while (i - journal.getWritten() >= TrafficJournal.QUEUE_CAPACITY) {
+                Thread.onSpinWait();
+            }
+            boolean request = i % 2 == 0;
+            byte[][] message = request ? requests : responses;
+            long t0 = System.nanoTime();
+            journal.append(TrafficJournal.SOURCE_HTTP, i / 2, TrafficJournal.DECRYPT,
+                    request ? "Request" : "Response", "api.example.com", "https://api.example.com/v1/items?id=" + i / 2,
+                    message[0], message[1]);
+            appendNanos += System.nanoTime() - t0;
+        }
+        while (journal.getWritten() < records) {
+            Thread.sleep(1);
+        }
+        long written = System.nanoTime();
+        journal.close();
+        report("write", records, records * bytesPerPair / 2, written - start);
+        System.out.printf("%-8s %14.0f ns per append on the producer thread, %,d dropped%n", "",
+                (double) appendNanos / records, journal.getDropped());
+        if (journal.getDropped() > 0) {
+            throw new IllegalStateException("Records dropped with a paced producer");
+        }
+
+        // Scan: every record, both bodies read
+        JournalReader reader = new JournalReader(directory);
+        long[] middle = {0};
+        long[] checked = {0};
+        int half = records / 2;
+        start = System.nanoTime();
+        long scanned = reader.scan(record -> {
+            long index = checked[0]++;
+            if (record.messageId != index / 2 || record.isRequest() != (index % 2 == 0)) {
+                throw new IllegalStateException("Record " + index + " out of order: id " + record.messageId);
+            }
+            byte[][] expected = record.isRequest() ? requests : responses;
+            if (record.ciphertextLength() != expected[0].length || record.plaintext().length != expected[1].length) {
+                throw new IllegalStateException("Record " + index + " has the wrong content");
+            }
+            if (index == half) {
+                middle[0] = record.timestamp;
+            }
+            return true;
+        });
+        report("scan", scanned, scanned * bytesPerPair / 2, System.nanoTime() - start);
+        if (scanned != records || reader.count() != records) {
+            throw new IllegalStateException("Scanned " + scanned + " records, index has " + reader.count()
+                    + ", wrote " + records);
+        }
+
+        // Replay from the middle: the index skips the first half
+        start = System.nanoTime();
+        long replayed = reader.replay(middle[0], record -> true);
+        report("replay", replayed, replayed * bytesPerPair / 2, System.nanoTime() - start);
+        if (replayed < records - half) {
+            throw new IllegalStateException("Replay from the middle returned only " + replayed + " records");
+        }
+
+        if (export) {
+            Path json = directory.resolve("export.json");
+            start = System.nanoTime();
+            long exported = reader.exportJson(json);
+            report("json", exported, Files.size(json), System.nanoTime() - start);
+
+            Path har = directory.resolve("export.har");
+            start = System.nanoTime();
+            long entries = reader.exportHar(har);
+            report("har", entries, Files.size(har), System.nanoTime() - start);
+            if (entries != records / 2) {
+                throw new IllegalStateException("HAR has " + entries + " entries, expected " + records / 2);
+            }
+        }
+        System.out.println();
+        System.out.println("All records read back in order with their content.");
+    }
+
+    private static void report(String phase, long records, long bytes, long nanos) {
+        double seconds = nanos / 1e9;
+        System.out.printf("%-8s %,14.0f records/s %10.1f MB/s %10.2f s%n", phase,
+                records / seconds, bytes / seconds / (1024 * 1024), seconds);
+    }
+
+    /**
+     * HTTP message with a JSON body, encrypted-looking or decrypted
+     */
+    private static byte[] message(boolean request, int payloadSize, boolean plain) {
+        Random random = new Random(request ? 1 : 2);
+        StringBuilder body = new StringBuilder();
+        if (plain) {
+            body.append("{\"data\":{\"items\":[");
+            while (body.length() < payloadSize) {
+                body.append("{\"id\":").append(random.nextInt(100000)).append("},");
+            }
+            body.setLength(body.length() - 1);
+            body.append("]}}");
+        } else {
+            body.append("{\"data\":\"");
+            String alphabet = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/";
+            while (body.length() < payloadSize * 4 / 3) {
+                body.append(alphabet.charAt(random.nextInt(alphabet.length())));
+            }
+            body.append("\"}");
+        }
+        byte[] bodyBytes = body.toString().getBytes(StandardCharsets.UTF_8);
+        String head = request
+                ? "POST /v1/items HTTP/1.1\r\nHost: api.example.com\r\nContent-Type: application/json\r\n"
+                : "HTTP/1.1 200 OK\r\nContent-Type: application/json\r\n";
+        head += "Content-Length: " + bodyBytes.length + "\r\n\r\n";
+        byte[] headBytes = head.getBytes(StandardCharsets.ISO_8859_1);
+        byte[] message = new byte[headBytes.length + bodyBytes.length];
+        System.arraycopy(headBytes, 0, message, 0, headBytes.length);
+        System.arraycopy(bodyBytes, 0, message, headBytes.length, bodyBytes.length);
+        return message;
+    }
+}
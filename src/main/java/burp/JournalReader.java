@@ -0,0 +1,501 @@
+package burp;
+
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * JournalReader - Lectura del diario de TrafficJournal
+ *
+ * Recorre los segmentos mapeados en orden sin copiar los cuerpos: cada
+ * Record es una vista sobre el segmento y solo copia el cifrado o el texto
+ * plano si se piden. replay() usa el índice para empezar directamente en el
+ * primer registro de un instante dado. Se puede leer mientras se escribe:
+ * la lectura se detiene en el primer registro incompleto.
+ *
+ * Exporta a JSON (todos los registros) y a HAR 1.2 (pares request/response
+ * en texto plano, con el cifrado en los campos _ciphertext).
+ */
+public class JournalReader {
+
+    // magic + longitud + timestamp + messageId + 5 longitudes de str + 2 longitudes de cuerpo + CRC
+    private static final int MIN_RECORD_LENGTH = 4 + 4 + 8 + 4 + 5 * 2 + 4 + 4 + 4;
+    // Requests esperando su response en la exportación HAR
+    private static final int MAX_PENDING_REQUESTS = 10_000;
+    private static final DateTimeFormatter ISO_DATE =
+            DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'").withZone(ZoneOffset.UTC);
+
+    /**
+     * Un registro del diario; los cuerpos se copian solo al pedirlos
+     */
+    public static final class Record {
+        public final long timestamp;
+        public final int messageId;
+        public final String source;
+        public final String operation;
+        public final String direction;
+        public final String host;
+        public final String url;
+        private final ByteBuffer segment;
+        private final int ciphertextOffset;
+        private final int ciphertextLength;
+        private final int plaintextOffset;
+        private final int plaintextLength;
+
+        private Record(long timestamp, int messageId, String[] strings, ByteBuffer segment,
+                       int ciphertextOffset, int ciphertextLength, int plaintextOffset, int plaintextLength) {
+            this.timestamp = timestamp;
+            this.messageId = messageId;
+            this.source = strings[0];
+            this.operation = strings[1];
+            this.direction = strings[2];
+            this.host = strings[3];
+            this.url = strings[4];
+            this.segment = segment;
+            this.ciphertextOffset = ciphertextOffset;
+            this.ciphertextLength = ciphertextLength;
+            this.plaintextOffset = plaintextOffset;
+            this.plaintextLength = plaintextLength;
+        }
+
+        /**
+         * Mensaje HTTP completo en su forma cifrada
+         */
+        public byte[] ciphertext() {
+            return copy(ciphertextOffset, ciphertextLength);
+        }
+
+        /**
+         * Mensaje HTTP completo en texto plano
+         */
+        public byte[] plaintext() {
+            return copy(plaintextOffset, plaintextLength);
+        }
+
+        public int ciphertextLength() {
+            return ciphertextLength;
+        }
+
+        public int plaintextLength() {
+            return plaintextLength;
+        }
+
+        public boolean isRequest() {
+            return "Request".equals(direction);
+        }
+
+        private byte[] copy(int offset, int length) {
+            byte[] bytes = new byte[length];
+            segment.duplicate().position(offset).get(bytes);
+            return bytes;
+        }
+    }
+
+    /**
+     * Recibe cada registro; false para parar
+     */
+    public interface Visitor {
+        boolean visit(Record record) throws Exception;
+    }
+
+    private final Path directory;
+
+    public JournalReader(Path directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * Recorre todos los registros en orden
+     *
+     * @return registros visitados
+     */
+    public long scan(Visitor visitor) throws Exception {
+        return replay(Long.MIN_VALUE, visitor);
+    }
+
+    /**
+     * Recorre en orden los registros desde un instante (milisegundos epoch),
+     * saltando con el índice los segmentos y registros anteriores
+     *
+     * @return registros visitados
+     */
+    public long replay(long fromMillis, Visitor visitor) throws Exception {
+        long visited = 0;
+        for (Path segmentPath : TrafficJournal.segments(directory)) {
+            int start = fromMillis == Long.MIN_VALUE ? 0 : startOffset(segmentPath, fromMillis);
+            if (start < 0) {
+                continue;
+            }
+            try (FileChannel channel = FileChannel.open(segmentPath, StandardOpenOption.READ)) {
+                MappedByteBuffer segment = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                CRC32 crc = new CRC32();
+                int position = start;
+                while (position + 8 <= segment.limit() && segment.getInt(position) == TrafficJournal.RECORD_MAGIC) {
+                    int length = segment.getInt(position + 4);
+                    if (length < MIN_RECORD_LENGTH || length > segment.limit() - position) {
+                        break;
+                    }
+                    Record record = decode(segment, position, length, crc);
+                    if (record == null) {
+                        // Registro a medio escribir o dañado: fin del segmento
+                        break;
+                    }
+                    position += length;
+                    if (record.timestamp < fromMillis) {
+                        continue;
+                    }
+                    visited++;
+                    if (!visitor.visit(record)) {
+                        return visited;
+                    }
+                }
+            }
+        }
+        return visited;
+    }
+
+    /**
+     * Registros según los índices (sin leer los segmentos)
+     */
+    public long count() throws IOException {
+        long records = 0;
+        for (Path segment : TrafficJournal.segments(directory)) {
+            Path index = TrafficJournal.indexFor(segment);
+            if (Files.exists(index)) {
+                records += Files.size(index) / TrafficJournal.INDEX_ENTRY_SIZE;
+            }
+        }
+        return records;
+    }
+
+    /**
+     * Offset del primer registro con timestamp >= fromMillis, o -1 si el segmento es anterior
+     * (sin índice se recorre el segmento entero)
+     */
+    private static int startOffset(Path segment, long fromMillis) throws IOException {
+        Path indexPath = TrafficJournal.indexFor(segment);
+        if (!Files.exists(indexPath)) {
+            return 0;
+        }
+        try (FileChannel channel = FileChannel.open(indexPath, StandardOpenOption.READ)) {
+            int entries = (int) (channel.size() / TrafficJournal.INDEX_ENTRY_SIZE);
+            if (entries == 0) {
+                return 0;
+            }
+            MappedByteBuffer index = channel.map(FileChannel.MapMode.READ_ONLY, 0,
+                    (long) entries * TrafficJournal.INDEX_ENTRY_SIZE);
+            if (index.getLong((entries - 1) * TrafficJournal.INDEX_ENTRY_SIZE) < fromMillis) {
+                return -1;
+            }
+            int low = 0;
+            int high = entries - 1;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (index.getLong(mid * TrafficJournal.INDEX_ENTRY_SIZE) < fromMillis) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            return index.getInt(low * TrafficJournal.INDEX_ENTRY_SIZE + 8);
+        }
+    }
+
+    /**
+     * Decodifica el registro en position; null si el CRC no cuadra
+     */
+    private static Record decode(ByteBuffer segment, int position, int length, CRC32 crc) {
+        int end = position + length;
+        crc.reset();
+        crc.update(segment.duplicate().position(position + 8).limit(end - 4));
+        if ((int) crc.getValue() != segment.getInt(end - 4)) {
+            return null;
+        }
+
+        int p = position + 8;
+        long timestamp = segment.getLong(p);
+        p += 8;
+        int messageId = segment.getInt(p);
+        p += 4;
+        String[] strings = new String[5];
+        for (int i = 0; i < strings.length; i++) {
+            int stringLength = segment.getShort(p) & 0xffff;
+            p += 2;
+            byte[] bytes = new byte[stringLength];
+            segment.duplicate().position(p).get(bytes);
+            strings[i] = new String(bytes, StandardCharsets.UTF_8);
+            p += stringLength;
+        }
+        int ciphertextLength = segment.getInt(p);
+        int ciphertextOffset = p + 4;
+        p = ciphertextOffset + ciphertextLength;
+        int plaintextLength = segment.getInt(p);
+        int plaintextOffset = p + 4;
+        return new Record(timestamp, messageId, strings, segment,
+                ciphertextOffset, ciphertextLength, plaintextOffset, plaintextLength);
+    }
+
+    // ---- Exportación ----
+
+    /**
+     * Exporta todos los registros como un array JSON
+     *
+     * Los mensajes van como texto si son UTF-8 válido; si no, en Base64
+     * (campos ciphertextBase64 / plaintextBase64).
+     *
+     * @return registros exportados
+     */
+    public long exportJson(Path output) throws Exception {
+        try (Writer out = Files.newBufferedWriter(output, StandardCharsets.UTF_8);
+             JsonWriter json = new JsonWriter(out)) {
+            json.beginArray();
+            long exported = scan(record -> {
+                json.beginObject();
+                json.name("timestamp").value(isoDate(record.timestamp));
+                json.name("messageId").value(record.messageId);
+                json.name("source").value(record.source);
+                json.name("operation").value(record.operation);
+                json.name("direction").value(record.direction);
+                json.name("host").value(record.host);
+                json.name("url").value(record.url);
+                writeBytes(json, "ciphertext", record.ciphertext());
+                writeBytes(json, "plaintext", record.plaintext());
+                json.endObject();
+                return true;
+            });
+            json.endArray();
+            return exported;
+        }
+    }
+
+    /**
+     * Exporta a HAR 1.2: cada request en texto plano con la response del
+     * mismo origen y messageId. Las responses sin request (p. ej. el
+     * re-cifrado de una response ya exportada) se omiten; las requests sin
+     * response salen con status 0.
+     *
+     * @return entradas exportadas
+     */
+    public long exportHar(Path output) throws Exception {
+        try (Writer out = Files.newBufferedWriter(output, StandardCharsets.UTF_8);
+             JsonWriter json = new JsonWriter(out)) {
+            json.beginObject();
+            json.name("log").beginObject();
+            json.name("version").value("1.2");
+            json.name("creator").beginObject()
+                    .name("name").value("Destroy AES")
+                    .name("version").value("1.0.0")
+                    .endObject();
+            json.name("entries").beginArray();
+
+            Map<String, PendingRequest> pending = new LinkedHashMap<>();
+            long[] entries = {0};
+            scan(record -> {
+                String key = record.source + ":" + record.messageId;
+                if (record.isRequest()) {
+                    PendingRequest previous = pending.put(key, new PendingRequest(record));
+                    if (previous != null) {
+                        writeHarEntry(json, previous, null);
+                        entries[0]++;
+                    }
+                    if (pending.size() > MAX_PENDING_REQUESTS) {
+                        Iterator<PendingRequest> oldest = pending.values().iterator();
+                        writeHarEntry(json, oldest.next(), null);
+                        oldest.remove();
+                        entries[0]++;
+                    }
+                } else {
+                    PendingRequest request = pending.remove(key);
+                    if (request != null) {
+                        writeHarEntry(json, request, record);
+                        entries[0]++;
+                    }
+                }
+                return true;
+            });
+            for (PendingRequest request : pending.values()) {
+                writeHarEntry(json, request, null);
+                entries[0]++;
+            }
+
+            json.endArray();
+            json.endObject();
+            json.endObject();
+            return entries[0];
+        }
+    }
+
+    /**
+     * Request copiada del segmento mientras espera su response
+     */
+    private static final class PendingRequest {
+        final long timestamp;
+        final String source;
+        final String url;
+        final byte[] ciphertext;
+        final byte[] plaintext;
+
+        PendingRequest(Record record) {
+            this.timestamp = record.timestamp;
+            this.source = record.source;
+            this.url = record.url;
+            this.ciphertext = record.ciphertext();
+            this.plaintext = record.plaintext();
+        }
+    }
+
+    private static void writeHarEntry(JsonWriter json, PendingRequest request, Record response) throws Exception {
+        RawHttpMessage plainRequest = parse(request.plaintext, false);
+        RawHttpMessage cipherRequest = parse(request.ciphertext, false);
+        long time = response != null ? Math.max(0, response.timestamp - request.timestamp) : 0;
+
+        json.beginObject();
+        json.name("startedDateTime").value(isoDate(request.timestamp));
+        json.name("time").value(time);
+
+        String[] requestLine = plainRequest.startLine.split(" ", 3);
+        json.name("request").beginObject();
+        json.name("method").value(requestLine[0]);
+        json.name("url").value(request.url);
+        json.name("httpVersion").value(requestLine.length > 2 ? requestLine[2] : "HTTP/1.1");
+        writeHeaders(json, plainRequest.headers);
+        writeQueryString(json, request.url);
+        json.name("headersSize").value(-1);
+        json.name("bodySize").value(plainRequest.body.length);
+        if (plainRequest.body.length > 0) {
+            json.name("postData").beginObject()
+                    .name("mimeType").value(headerValue(plainRequest.headers, "Content-Type"))
+                    .name("text").value(new String(plainRequest.body, StandardCharsets.UTF_8))
+                    .endObject();
+        }
+        json.name("_ciphertext").value(new String(cipherRequest.body, StandardCharsets.UTF_8));
+        json.endObject();
+
+        json.name("response").beginObject();
+        if (response != null) {
+            RawHttpMessage plainResponse = parse(response.plaintext(), true);
+            RawHttpMessage cipherResponse = parse(response.ciphertext(), true);
+            String[] statusLine = plainResponse.startLine.split(" ", 3);
+            json.name("status").value(plainResponse.statusCode());
+            json.name("statusText").value(statusLine.length > 2 ? statusLine[2] : "");
+            json.name("httpVersion").value(statusLine[0]);
+            writeHeaders(json, plainResponse.headers);
+            json.name("content").beginObject()
+                    .name("size").value(plainResponse.body.length)
+                    .name("mimeType").value(headerValue(plainResponse.headers, "Content-Type"))
+                    .name("text").value(new String(plainResponse.body, StandardCharsets.UTF_8))
+                    .endObject();
+            json.name("redirectURL").value(headerValue(plainResponse.headers, "Location"));
+            json.name("headersSize").value(-1);
+            json.name("bodySize").value(plainResponse.body.length);
+            json.name("_ciphertext").value(new String(cipherResponse.body, StandardCharsets.UTF_8));
+        } else {
+            json.name("status").value(0);
+            json.name("statusText").value("");
+            json.name("httpVersion").value("");
+            json.name("headers").beginArray().endArray();
+            json.name("cookies").beginArray().endArray();
+            json.name("content").beginObject().name("size").value(0).name("mimeType").value("").endObject();
+            json.name("redirectURL").value("");
+            json.name("headersSize").value(-1);
+            json.name("bodySize").value(-1);
+        }
+        json.endObject();
+
+        json.name("cache").beginObject().endObject();
+        json.name("timings").beginObject()
+                .name("send").value(0)
+                .name("wait").value(time)
+                .name("receive").value(0)
+                .endObject();
+        json.name("comment").value(request.source);
+        json.endObject();
+    }
+
+    private static void writeHeaders(JsonWriter json, List<String[]> headers) throws IOException {
+        json.name("cookies").beginArray().endArray();
+        json.name("headers").beginArray();
+        for (String[] header : headers) {
+            json.beginObject().name("name").value(header[0]).name("value").value(header[1]).endObject();
+        }
+        json.endArray();
+    }
+
+    private static void writeQueryString(JsonWriter json, String url) throws IOException {
+        json.name("queryString").beginArray();
+        int query = url != null ? url.indexOf('?') : -1;
+        if (query >= 0) {
+            for (String pair : url.substring(query + 1).split("&")) {
+                if (pair.isEmpty()) {
+                    continue;
+                }
+                int equals = pair.indexOf('=');
+                json.beginObject()
+                        .name("name").value(equals >= 0 ? pair.substring(0, equals) : pair)
+                        .name("value").value(equals >= 0 ? pair.substring(equals + 1) : "")
+                        .endObject();
+            }
+        }
+        json.endArray();
+    }
+
+    private static String headerValue(List<String[]> headers, String name) {
+        for (String[] header : headers) {
+            if (header[0].equalsIgnoreCase(name)) {
+                return header[1];
+            }
+        }
+        return "";
+    }
+
+    /**
+     * Mensaje HTTP de un registro; si no se puede parsear, todo es cuerpo
+     */
+    private static RawHttpMessage parse(byte[] message, boolean response) {
+        try {
+            RawHttpMessage parsed = RawHttpMessage.tryParse(message, message.length, response, true, false);
+            if (parsed != null) {
+                return parsed;
+            }
+        } catch (Exception e) {
+            // Se exporta tal cual
+        }
+        return new RawHttpMessage(response ? "HTTP/1.1 0 " : "GET / HTTP/1.1", new ArrayList<>(), message);
+    }
+
+    private static void writeBytes(JsonWriter json, String name, byte[] bytes) throws IOException {
+        try {
+            String text = StandardCharsets.UTF_8.newDecoder()
+                    .onMalformedInput(CodingErrorAction.REPORT)
+                    .onUnmappableCharacter(CodingErrorAction.REPORT)
+                    .decode(ByteBuffer.wrap(bytes)).toString();
+            json.name(name).value(text);
+        } catch (CharacterCodingException e) {
+            json.name(name + "Base64").value(Base64.getEncoder().encodeToString(bytes));
+        }
+    }
+
+    private static String isoDate(long millis) {
+        return ISO_DATE.format(Instant.ofEpochMilli(millis));
+    }
+}
@@ -0,0 +1,214 @@
+package burp;
+
+/**
+ * JsonSplice - Localiza y reemplaza el valor de un campo JSON sin parsear el documento
+ *
+ * Recorre el texto una vez, siguiendo strings y profundidad, hasta encontrar
+ * la clave en el objeto raíz, y devuelve los límites de su valor. Sirve
+ * para los caminos calientes (frames WebSocket) donde construir un árbol
+ * Gson por mensaje costaría más que el propio cifrado.
+ */
+final class JsonSplice {
+
+    private JsonSplice() {
+    }
+
+    /**
+     * Límites [start, end) del valor de una clave del objeto raíz, o null
+     * si el texto no es un objeto o no tiene esa clave
+     */
+    static int[] findValue(String json, String key) {
+        int i = skipWhitespace(json, 0);
+        if (i >= json.length() || json.charAt(i) != '{') {
+            return null;
+        }
+        i++;
+
+        while (true) {
+            i = skipWhitespace(json, i);
+            if (i >= json.length() || json.charAt(i) == '}') {
+                return null;
+            }
+            if (json.charAt(i) == ',') {
+                i++;
+                continue;
+            }
+            if (json.charAt(i) != '"') {
+                return null;
+            }
+
+            int keyEnd = stringEnd(json, i);
+            if (keyEnd < 0) {
+                return null;
+            }
+            boolean match = keyMatches(json, i + 1, keyEnd - 1, key);
+
+            i = skipWhitespace(json, keyEnd);
+            if (i >= json.length() || json.charAt(i) != ':') {
+                return null;
+            }
+            int valueStart = skipWhitespace(json, i + 1);
+            int valueEnd = valueEnd(json, valueStart);
+            if (valueEnd < 0) {
+                return null;
+            }
+            if (match) {
+                return new int[]{valueStart, valueEnd};
+            }
+            i = valueEnd;
+        }
+    }
+
+    /**
+     * Reemplaza json[start, end) por el valor dado
+     */
+    static String splice(String json, int[] range, String value) {
+        return new StringBuilder(json.length() - (range[1] - range[0]) + value.length())
+                .append(json, 0, range[0])
+                .append(value)
+                .append(json, range[1], json.length())
+                .toString();
+    }
+
+    /**
+     * Contenido de un string JSON (con comillas) sin escapes
+     */
+    static String unquote(String json, int start, int end) {
+        StringBuilder sb = null;
+        for (int i = start + 1; i < end - 1; i++) {
+            char c = json.charAt(i);
+            if (c != '\\') {
+                if (sb != null) {
+                    sb.append(c);
+                }
+                continue;
+            }
+            if (sb == null) {
+                sb = new StringBuilder(end - start);
+                sb.append(json, start + 1, i);
+            }
+            char escaped = json.charAt(++i);
+            switch (escaped) {
+                case 'n': sb.append('\n'); break;
+                case 'r': sb.append('\r'); break;
+                case 't': sb.append('\t'); break;
+                case 'b': sb.append('\b'); break;
+                case 'f': sb.append('\f'); break;
+                case 'u':
+                    sb.append((char) Integer.parseInt(json.substring(i + 1, i + 5), 16));
+                    i += 4;
+                    break;
+                default: sb.append(escaped);
+            }
+        }
+        return sb != null ? sb.toString() : json.substring(start + 1, end - 1);
+    }
+
+    /**
+     * String JSON con comillas y escapes mínimos
+     */
+    static String quote(String value) {
+        StringBuilder sb = new StringBuilder(value.length() + 2);
+        sb.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"': sb.append("\\\""); break;
+                case '\\': sb.append("\\\\"); break;
+                case '\n': sb.append("\\n"); break;
+                case '\r': sb.append("\\r"); break;
+                case '\t': sb.append("\\t"); break;
+                default:
+                    if (c < 0x20) {
+                        sb.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        sb.append(c);
+                    }
+            }
+        }
+        return sb.append('"').toString();
+    }
+
+    /**
+     * Indica si el texto es un único objeto o array JSON bien anidado
+     */
+    static boolean isComposite(String text) {
+        int start = skipWhitespace(text, 0);
+        if (start >= text.length() || (text.charAt(start) != '{' && text.charAt(start) != '[')) {
+            return false;
+        }
+        int end = valueEnd(text, start);
+        return end > 0 && skipWhitespace(text, end) == text.length();
+    }
+
+    static boolean isString(String json, int[] range) {
+        return json.charAt(range[0]) == '"';
+    }
+
+    /**
+     * Fin (exclusivo) del valor que empieza en start: string, objeto, array o primitivo
+     */
+    private static int valueEnd(String json, int start) {
+        if (start >= json.length()) {
+            return -1;
+        }
+        char c = json.charAt(start);
+        if (c == '"') {
+            return stringEnd(json, start);
+        }
+        if (c == '{' || c == '[') {
+            int depth = 0;
+            for (int i = start; i < json.length(); i++) {
+                char d = json.charAt(i);
+                if (d == '"') {
+                    i = stringEnd(json, i) - 1;
+                    if (i < 0) {
+                        return -1;
+                    }
+                } else if (d == '{' || d == '[') {
+                    depth++;
+                } else if (d == '}' || d == ']') {
+                    if (--depth == 0) {
+                        return i + 1;
+                    }
+                }
+            }
+            return -1;
+        }
+        int i = start;
+        while (i < json.length() && ",}] \t\r\n".indexOf(json.charAt(i)) < 0) {
+            i++;
+        }
+        return i;
+    }
+
+    /**
+     * Fin (exclusivo, tras la comilla de cierre) del string que empieza en start
+     */
+    private static int stringEnd(String json, int start) {
+        for (int i = start + 1; i < json.length(); i++) {
+            char c = json.charAt(i);
+            if (c == '\\') {
+                i++;
+            } else if (c == '"') {
+                return i + 1;
+            }
+        }
+        return -1;
+    }
+
+    private static boolean keyMatches(String json, int start, int end, String key) {
+        // Las claves con escapes se comparan ya sin escapar
+        if (json.indexOf('\\', start) >= 0 && json.indexOf('\\', start) < end) {
+            return unquote(json, start - 1, end + 1).equals(key);
+        }
+        return end - start == key.length() && json.regionMatches(start, key, 0, key.length());
+    }
+
+    private static int skipWhitespace(String json, int i) {
+        while (i < json.length() && Character.isWhitespace(json.charAt(i))) {
+            i++;
+        }
+        return i;
+    }
+}
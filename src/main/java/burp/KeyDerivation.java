@@ -0,0 +1,199 @@
+package burp;
+
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Derivación de clave/IV a partir de una passphrase (estilo OpenSSL / CryptoJS)
+ *
+ * El cifrado lleva la cabecera "Salted__" seguida de 8 bytes de salt, y la
+ * clave y el IV se derivan por mensaje con EVP_BytesToKey (MD5 o SHA-256) o
+ * PBKDF2. Como derivar cuesta miles de iteraciones de hash, los pares
+ * clave/IV se memorizan en una caché concurrente acotada, indexada por los
+ * parámetros del perfil y el salt.
+ */
+public class KeyDerivation {
+
+    public static final String NONE = "NONE";
+    public static final String EVP_MD5 = "EVP_MD5";
+    public static final String EVP_SHA256 = "EVP_SHA256";
+    public static final String PBKDF2_SHA1 = "PBKDF2_SHA1";
+    public static final String PBKDF2_SHA256 = "PBKDF2_SHA256";
+
+    static final byte[] SALTED_MAGIC = "Salted__".getBytes(StandardCharsets.US_ASCII);
+    static final int SALT_LENGTH = 8;
+    static final int HEADER_LENGTH = SALTED_MAGIC.length + SALT_LENGTH;
+
+    private static final int MAX_CACHE_SIZE = 1024;
+
+    private static final Map<String, DerivedKey> cache = new ConcurrentHashMap<>();
+    private static final Queue<String> insertionOrder = new ConcurrentLinkedQueue<>();
+
+    /**
+     * Clave e IV derivados para un salt
+     */
+    public static class DerivedKey {
+        final byte[] key;
+        final byte[] iv;
+        final byte[] salt;
+
+        DerivedKey(byte[] key, byte[] iv, byte[] salt) {
+            this.key = key;
+            this.iv = iv;
+            this.salt = salt;
+        }
+    }
+
+    /**
+     * Deriva la clave/IV de un mensaje cifrado a partir de su cabecera "Salted__"
+     */
+    public static DerivedKey forCiphertext(byte[] encryptedData, CryptoConfig config) throws Exception {
+        if (!hasSaltHeader(encryptedData)) {
+            throw new Exception("Ciphertext has no \"Salted__\" header");
+        }
+        byte[] salt = Arrays.copyOfRange(encryptedData, SALTED_MAGIC.length, HEADER_LENGTH);
+        return derive(config, salt);
+    }
+
+    /**
+     * Clave/IV para cifrar: salt aleatorio nuevo en cada mensaje
+     *
+     * La clave y el IV salen del salt, así que repetirlo repetiría el par
+     * (clave, IV): en GCM es reutilizar el nonce y en CBC el cifrado se
+     * vuelve determinista. La derivación queda en la caché, de modo que
+     * volver a descifrar el mensaje enviado no la repite.
+     */
+    public static DerivedKey forEncryption(CryptoConfig config) throws Exception {
+        return derive(config, NonceGenerator.randomBytes(SALT_LENGTH));
+    }
+
+    public static boolean hasSaltHeader(byte[] data) {
+        if (data.length < HEADER_LENGTH) {
+            return false;
+        }
+        for (int i = 0; i < SALTED_MAGIC.length; i++) {
+            if (data[i] != SALTED_MAGIC[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Deriva (o recupera de la caché) la clave/IV para un salt
+     */
+    static DerivedKey derive(CryptoConfig config, byte[] salt) throws Exception {
+        String cacheKey = profileKey(config) + '|' + HexBase64.toBase64(salt);
+        DerivedKey cached = cache.get(cacheKey);
+        if (cached != null) {
+            return cached;
+        }
+
+        // Fuera de cualquier lock: dos hilos con el mismo salt nuevo pueden
+        // derivar a la vez, pero ninguno bloquea a los demás salts
+        DerivedKey derived = computeKey(config, salt);
+        if (cache.putIfAbsent(cacheKey, derived) == null) {
+            insertionOrder.add(cacheKey);
+            while (cache.size() > MAX_CACHE_SIZE) {
+                String eldest = insertionOrder.poll();
+                if (eldest == null) {
+                    break;
+                }
+                cache.remove(eldest);
+            }
+        }
+        return derived;
+    }
+
+    private static DerivedKey computeKey(CryptoConfig config, byte[] salt) throws Exception {
+        int keyLength = config.getKeySize() / 8;
+        int ivLength = ivLength(config.getMode());
+        byte[] password = config.getPassphrase().getBytes(StandardCharsets.UTF_8);
+        int iterations = config.getKdfIterations();
+
+        byte[] material;
+        switch (config.getKeyDerivation()) {
+            case EVP_MD5:
+                material = evpBytesToKey("MD5", password, salt, iterations, keyLength + ivLength);
+                break;
+            case EVP_SHA256:
+                material = evpBytesToKey("SHA-256", password, salt, iterations, keyLength + ivLength);
+                break;
+            case PBKDF2_SHA1:
+                material = pbkdf2("PBKDF2WithHmacSHA1", config.getPassphrase(), salt, iterations, keyLength + ivLength);
+                break;
+            case PBKDF2_SHA256:
+                material = pbkdf2("PBKDF2WithHmacSHA256", config.getPassphrase(), salt, iterations, keyLength + ivLength);
+                break;
+            default:
+                throw new Exception("Unsupported key derivation: " + config.getKeyDerivation());
+        }
+
+        byte[] key = Arrays.copyOfRange(material, 0, keyLength);
+        byte[] iv = ivLength > 0 ? Arrays.copyOfRange(material, keyLength, keyLength + ivLength) : null;
+        return new DerivedKey(key, iv, salt);
+    }
+
+    /**
+     * EVP_BytesToKey de OpenSSL: D_i = H^count(D_(i-1) || password || salt)
+     */
+    static byte[] evpBytesToKey(String digestName, byte[] password, byte[] salt,
+                                int iterations, int length) throws Exception {
+        MessageDigest digest = MessageDigest.getInstance(digestName);
+        byte[] out = new byte[length];
+        byte[] block = new byte[0];
+        int written = 0;
+        while (written < length) {
+            digest.update(block);
+            digest.update(password);
+            digest.update(salt);
+            block = digest.digest();
+            for (int i = 1; i < iterations; i++) {
+                block = digest.digest(block);
+            }
+            int n = Math.min(block.length, length - written);
+            System.arraycopy(block, 0, out, written, n);
+            written += n;
+        }
+        return out;
+    }
+
+    /**
+     * PBKDF2 con la misma salida que "openssl enc -pbkdf2": clave e IV seguidos
+     */
+    static byte[] pbkdf2(String algorithm, String password, byte[] salt,
+                         int iterations, int length) throws Exception {
+        PBEKeySpec spec = new PBEKeySpec(password.toCharArray(), salt, iterations, length * 8);
+        try {
+            return SecretKeyFactory.getInstance(algorithm).generateSecret(spec).getEncoded();
+        } finally {
+            spec.clearPassword();
+        }
+    }
+
+    static int ivLength(String mode) {
+        if ("GCM".equals(mode)) {
+            return 12;
+        }
+        return "CBC".equals(mode) ? 16 : 0;
+    }
+
+    /**
+     * Número de entradas en la caché (para el panel y las pruebas de carga)
+     */
+    public static int cacheSize() {
+        return cache.size();
+    }
+
+    private static String profileKey(CryptoConfig config) {
+        return config.getKeyDerivation() + '|' + config.getKdfIterations() + '|' + config.getKeySize()
+                + '|' + config.getMode() + '|' + config.getPassphrase();
+    }
+}
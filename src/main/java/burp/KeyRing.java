@@ -0,0 +1,471 @@
+package burp;
+
+import burp.api.montoya.http.message.requests.HttpRequest;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * KeyRing - Anillo de claves de respaldo, probadas por orden de éxito
+ *
+ * Durante una rotación de claves, o probando staging y producción a la
+ * vez, llegan mensajes cifrados con claves distintas. Además de la clave
+ * e IV configurados, keyRing admite una clave por línea, "clave [iv]" en
+ * Base64 ("#" para comentarios; sin IV se usa el configurado). Al
+ * descifrar se prueban en este orden:
+ *
+ *   1. la última que funcionó para el host del mensaje
+ *   2. las demás, de la que funcionó más recientemente a la que menos
+ *
+ * Con una sola clave en uso basta un intento por mensaje; tras una
+ * rotación, unos pocos intentos fallidos reordenan el anillo. En GCM una
+ * clave equivocada falla en la comprobación del tag. En CBC/ECB el padding
+ * acepta una de cada ~256 claves equivocadas, así que además el texto
+ * plano debe parecer texto (UTF-8 sin caracteres de control); si ninguna
+ * clave lo consigue (cuerpos binarios) se usa la primera que pasó el padding.
+ *
+ * Para cifrar se usa la clave del host o, si no se conoce, la de éxito
+ * más reciente. El host lo fija el handler con scope(), como SessionKeys.
+ * Los descifrados de prueba (CryptoHelper.trial()) no cuentan ni reordenan.
+ *
+ * No se usa con derivación de clave (la clave sale de la passphrase) ni
+ * con claves por mensaje (envueltas o aprendidas).
+ */
+public final class KeyRing {
+
+    private static final int MAX_HOSTS = 4096;
+
+    // Anillo de la configuración actual; se reconstruye si cambian clave, IV o líneas
+    private static volatile Ring current;
+
+    // Host del mensaje que procesa el hilo (solo con el anillo activo)
+    private static final ThreadLocal<String> host = new ThreadLocal<>();
+
+    private KeyRing() {
+    }
+
+    /**
+     * Una clave del anillo con sus contadores
+     */
+    public static final class Entry {
+        public final String label;
+        public final String fingerprint;
+        final byte[] key;
+        final byte[] iv;    // null: sin IV (ECB) o IV delante de cada mensaje
+        private final AtomicLong successes = new AtomicLong();
+        private final AtomicLong failures = new AtomicLong();
+
+        private Entry(String label, byte[] key, byte[] iv) {
+            this.label = label;
+            this.fingerprint = IvReuseDetector.fingerprint(key);
+            this.key = key;
+            this.iv = iv;
+        }
+
+        /**
+         * Mensajes descifrados con esta clave
+         */
+        public long getSuccesses() {
+            return successes.get();
+        }
+
+        /**
+         * Intentos fallidos con esta clave
+         */
+        public long getFailures() {
+            return failures.get();
+        }
+    }
+
+    /**
+     * Un intento de descifrado con una clave e IV del anillo
+     */
+    interface Attempt {
+        byte[] decrypt(byte[] key, byte[] iv) throws Exception;
+    }
+
+    /**
+     * Texto plano y la clave del anillo que lo descifró
+     */
+    static final class Decrypted {
+        final byte[] key;
+        final byte[] iv;
+        final byte[] plaintext;
+
+        private Decrypted(Entry entry, byte[] plaintext) {
+            this.key = entry.key;
+            this.iv = entry.iv;
+            this.plaintext = plaintext;
+        }
+    }
+
+    private static final class Ring {
+        final String keyBase64;
+        final String ivBase64;
+        final String spec;
+        final String mode;
+        final String ivPlacement;
+        final int keySize;
+        final Entry[] entries;
+        // Orden por éxito reciente; se sustituye entero (copy-on-write) al cambiar la cabeza
+        volatile Entry[] order;
+        final Map<String, Entry> hosts = new ConcurrentHashMap<>();
+        final AtomicLong messages = new AtomicLong();
+        final AtomicLong attempts = new AtomicLong();
+
+        Ring(CryptoConfig config, Entry[] entries) {
+            this.keyBase64 = config.getKeyBase64();
+            this.ivBase64 = config.getIvBase64();
+            this.spec = config.getKeyRing();
+            this.mode = config.getMode();
+            this.ivPlacement = config.getIvPlacement();
+            this.keySize = config.getKeySize();
+            this.entries = entries;
+            this.order = entries.clone();
+        }
+
+        boolean matches(CryptoConfig config) {
+            return keyBase64.equals(config.getKeyBase64()) && ivBase64.equals(config.getIvBase64())
+                    && spec.equals(config.getKeyRing()) && mode.equals(config.getMode())
+                    && ivPlacement.equals(config.getIvPlacement()) && keySize == config.getKeySize();
+        }
+    }
+
+    // ---- Contexto del mensaje ----
+
+    /**
+     * Host fijado en el hilo hasta close(), que restaura el anterior
+     */
+    public static final class Scope implements AutoCloseable {
+        private static final Scope NONE = new Scope(null, false);
+
+        private final String previous;
+        private final boolean active;
+
+        private Scope(String previous, boolean active) {
+            this.previous = previous;
+            this.active = active;
+        }
+
+        @Override
+        public void close() {
+            if (!active) {
+                return;
+            }
+            if (previous == null) {
+                host.remove();
+            } else {
+                host.set(previous);
+            }
+        }
+    }
+
+    /**
+     * Host del hilo actual, para fijarlo en otro hilo (MessageContext)
+     */
+    static String activeHost() {
+        return host.get();
+    }
+
+    static void activateHost(String messageHost) {
+        if (messageHost != null) {
+            host.set(messageHost);
+        } else {
+            host.remove();
+        }
+    }
+
+    /**
+     * Fija el host del request (el mismo sirve para su response); sin anillo no hace nada
+     */
+    public static Scope scope(CryptoConfig config, HttpRequest request) {
+        if (request == null || !config.usesKeyRing()) {
+            return Scope.NONE;
+        }
+        return scope(config, request.httpService() != null ? request.httpService().host() : null);
+    }
+
+    /**
+     * Igual, con el host ya conocido (StandaloneProxy)
+     */
+    public static Scope scope(CryptoConfig config, String messageHost) {
+        if (messageHost == null || !config.usesKeyRing()) {
+            return Scope.NONE;
+        }
+        String previous = host.get();
+        host.set(messageHost);
+        return new Scope(previous, true);
+    }
+
+    // ---- Claves ----
+
+    /**
+     * Anillo de la configuración, compilado la primera vez
+     *
+     * @throws Exception si una línea no es una clave (o IV) válida para el modo
+     */
+    private static Ring ring(CryptoConfig config) throws Exception {
+        Ring ring = current;
+        if (ring != null && ring.matches(config)) {
+            return ring;
+        }
+        ring = new Ring(config, parse(config));
+        current = ring;
+        return ring;
+    }
+
+    private static Entry[] parse(CryptoConfig config) throws Exception {
+        boolean staticIv = config.requiresIv() && !config.usesIvPrefix();
+        byte[] configuredIv = staticIv ? config.getIv() : null;
+        List<Entry> entries = new ArrayList<>();
+        entries.add(new Entry("configured", config.getKey(), configuredIv));
+
+        String[] lines = config.getKeyRing().split("\r?\n");
+        for (int i = 0; i < lines.length; i++) {
+            String line = lines[i].trim();
+            int comment = line.indexOf('#');
+            if (comment >= 0) {
+                line = line.substring(0, comment).trim();
+            }
+            if (line.isEmpty()) {
+                continue;
+            }
+            String[] fields = line.split("\\s+");
+            byte[] key = HexBase64.fromBase64(fields[0]);
+            if (key == null || key.length * 8 != config.getKeySize()) {
+                throw new Exception("Key ring line " + (i + 1) + ": key is not a " + config.getKeySize()
+                        + "-bit Base64 key");
+            }
+            byte[] iv = configuredIv;
+            if (fields.length > 1) {
+                iv = HexBase64.fromBase64(fields[1]);
+                if (iv == null || (iv.length != 16 && iv.length != 12)) {
+                    throw new Exception("Key ring line " + (i + 1) + ": IV is not a 12 or 16-byte Base64 value");
+                }
+            }
+            entries.add(new Entry("line " + (i + 1), key, staticIv ? iv : null));
+        }
+        return entries.toArray(new Entry[0]);
+    }
+
+    /**
+     * Comprueba las líneas del anillo (CryptoConfig.isValid)
+     */
+    static void validate(CryptoConfig config) throws Exception {
+        ring(config);
+    }
+
+    /**
+     * Descifra probando las claves del anillo en orden de éxito
+     *
+     * @throws Exception si ninguna clave descifra el mensaje
+     */
+    static Decrypted decrypt(CryptoConfig config, Attempt attempt) throws Exception {
+        Ring ring = ring(config);
+        boolean counted = !CryptoHelper.isTrial();
+        if (counted) {
+            ring.messages.incrementAndGet();
+        }
+        String messageHost = host.get();
+        Entry sticky = messageHost != null ? ring.hosts.get(messageHost) : null;
+        boolean authenticated = "GCM".equals(config.getMode());
+
+        Entry[] order = ring.order;
+        Entry fallback = null;
+        byte[] fallbackPlaintext = null;
+        Exception firstError = null;
+        for (int i = -1; i < order.length; i++) {
+            Entry entry = i < 0 ? sticky : order[i];
+            if (entry == null || (i >= 0 && entry == sticky)) {
+                continue;
+            }
+            if (counted) {
+                ring.attempts.incrementAndGet();
+            }
+            byte[] plaintext;
+            try {
+                plaintext = attempt.decrypt(entry.key, entry.iv);
+            } catch (Exception e) {
+                // Tag o padding incorrectos: la clave no es esta
+                if (counted) {
+                    entry.failures.incrementAndGet();
+                }
+                if (firstError == null) {
+                    firstError = e;
+                }
+                continue;
+            }
+            if (authenticated || isPlausibleText(plaintext)) {
+                if (counted) {
+                    promote(ring, entry, messageHost);
+                }
+                return new Decrypted(entry, plaintext);
+            }
+            if (counted) {
+                entry.failures.incrementAndGet();
+            }
+            if (fallback == null) {
+                fallback = entry;
+                fallbackPlaintext = plaintext;
+            }
+        }
+
+        if (fallback != null) {
+            // Contada como fallo al probarla: era la buena
+            if (counted) {
+                fallback.failures.decrementAndGet();
+                promote(ring, fallback, messageHost);
+            }
+            return new Decrypted(fallback, fallbackPlaintext);
+        }
+        throw new Exception("No key in the ring decrypts this message (" + order.length + " tried)"
+                + (firstError != null ? ": " + firstError.getMessage() : ""));
+    }
+
+    /**
+     * Clave para cifrar: la del host del mensaje, o la de éxito más reciente
+     */
+    static Entry forEncryption(CryptoConfig config) throws Exception {
+        Ring ring = ring(config);
+        String messageHost = host.get();
+        Entry sticky = messageHost != null ? ring.hosts.get(messageHost) : null;
+        return sticky != null ? sticky : ring.order[0];
+    }
+
+    /**
+     * Identifica la clave con la que se cifraría ahora, para las cachés por mensaje
+     */
+    static String currentKeyId(CryptoConfig config) {
+        try {
+            Entry entry = forEncryption(config);
+            return "ring:" + entry.label + ":" + entry.fingerprint;
+        } catch (Exception e) {
+            return "";
+        }
+    }
+
+    /**
+     * Cuenta el éxito, fija la clave para el host y la pone en cabeza si no lo está
+     */
+    private static void promote(Ring ring, Entry entry, String messageHost) {
+        entry.successes.incrementAndGet();
+        if (messageHost != null && ring.hosts.get(messageHost) != entry) {
+            if (ring.hosts.size() >= MAX_HOSTS) {
+                ring.hosts.clear();
+            }
+            ring.hosts.put(messageHost, entry);
+        }
+        if (ring.order[0] == entry) {
+            return;
+        }
+        synchronized (ring) {
+            Entry[] order = ring.order;
+            if (order[0] == entry) {
+                return;
+            }
+            Entry[] reordered = new Entry[order.length];
+            reordered[0] = entry;
+            int next = 1;
+            for (Entry other : order) {
+                if (other != entry) {
+                    reordered[next++] = other;
+                }
+            }
+            ring.order = reordered;
+        }
+    }
+
+    /**
+     * UTF-8 bien formado y sin caracteres de control salvo tab, CR y LF
+     *
+     * Un bloque descifrado con la clave equivocada es ruido: casi nunca lo cumple.
+     */
+    static boolean isPlausibleText(byte[] data) {
+        int i = 0;
+        while (i < data.length) {
+            int b = data[i] & 0xff;
+            if (b < 0x80) {
+                if (b < 0x20 && b != '\t' && b != '\n' && b != '\r' || b == 0x7f) {
+                    return false;
+                }
+                i++;
+                continue;
+            }
+            int extra;
+            if (b >= 0xc2 && b <= 0xdf) {
+                extra = 1;
+            } else if (b >= 0xe0 && b <= 0xef) {
+                extra = 2;
+            } else if (b >= 0xf0 && b <= 0xf4) {
+                extra = 3;
+            } else {
+                return false;
+            }
+            if (i + extra >= data.length) {
+                return false;
+            }
+            for (int k = 1; k <= extra; k++) {
+                if ((data[i + k] & 0xc0) != 0x80) {
+                    return false;
+                }
+            }
+            i += extra + 1;
+        }
+        return true;
+    }
+
+    // ---- Estadísticas ----
+
+    /**
+     * Claves del anillo de la configuración, contando la configurada (0 si no compila)
+     */
+    public static int size(CryptoConfig config) {
+        try {
+            return ring(config).entries.length;
+        } catch (Exception e) {
+            return 0;
+        }
+    }
+
+    /**
+     * Claves en el orden en que se probarían ahora (vacío sin anillo compilado)
+     */
+    public static List<Entry> order() {
+        Ring ring = current;
+        return ring != null ? Collections.unmodifiableList(Arrays.asList(ring.order)) : Collections.emptyList();
+    }
+
+    /**
+     * Etiqueta de la clave fijada para cada host
+     */
+    public static Map<String, String> stickyHosts() {
+        Ring ring = current;
+        Map<String, String> hosts = new java.util.TreeMap<>();
+        if (ring != null) {
+            ring.hosts.forEach((name, entry) -> hosts.put(name, entry.label));
+        }
+        return hosts;
+    }
+
+    public static long getMessages() {
+        Ring ring = current;
+        return ring != null ? ring.messages.get() : 0;
+    }
+
+    public static long getAttempts() {
+        Ring ring = current;
+        return ring != null ? ring.attempts.get() : 0;
+    }
+
+    /**
+     * Vuelve al orden de la configuración y olvida hosts y contadores
+     */
+    public static void reset() {
+        current = null;
+    }
+}
@@ -0,0 +1,184 @@
+package burp;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+/**
+ * Attempts per message and cost of the fallback key ring
+ *
+ * Encrypts M JSON messages under K keys and decrypts them through
+ * CryptoHelper with a ring holding all K keys, in GCM (IV prefix) and CBC
+ * (static IV). Scenarios:
+ *
+ *   stable     every message under one key, which is last in the ring
+ *   rotation   the first half under one key, the second under another
+ *   two hosts  two hosts on different keys, interleaved, without and with
+ *              the per-host scope
+ *
+ * Prints attempts per message, failed attempts in total and ns per
+ * message, plus the cost of one wrong-key attempt next to a decryption
+ * with the right key.
+ *
+ * Usage:
+ *   java -cp destroy-aes.jar:montoya-api.jar:gson.jar burp.KeyRingBenchmark \
+ *        [--messages 100000] [--keys 4] [--size 256]
+ */
+public class KeyRingBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int messages = 100_000;
+        int keyCount = 4;
+        int size = 256;
+
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--messages": messages = Integer.parseInt(args[++i]); break;
+                case "--keys": keyCount = Integer.parseInt(args[++i]); break;
+                case "--size": size = Integer.parseInt(args[++i]); break;
+                default:
+                    System.err.println("Unknown argument: " + args[i]);
+                    System.exit(1);
+            }
+        }
+        if (keyCount < 3) {
+            System.err.println("--keys must be at least 3");
+            System.exit(1);
+        }
+
+        System.out.println("Key ring benchmark: " + messages + " messages of ~" + size + " bytes, "
+                + keyCount + " keys in the ring");
+        for (String mode : new String[]{"GCM", "CBC"}) {
+            run(mode, messages, keyCount, size);
+        }
+        System.out.println();
+        System.out.println("attempts = decryptions tried per message; failed = wrong-key attempts in the run."
+                + " The ring starts in configuration order for every scenario");
+    }
+
+    private static void run(String mode, int messages, int keyCount, int size) throws Exception {
+        Random random = new Random(11);
+        String[] keys = new String[keyCount];
+        for (int i = 0; i < keyCount; i++) {
+            keys[i] = CryptoHelper.generateKey(256);
+        }
+        String iv = CryptoHelper.generateIV(mode);
+        CryptoConfig[] single = new CryptoConfig[keyCount];
+        for (int i = 0; i < keyCount; i++) {
+            single[i] = config(mode, keys[i], iv, "");
+        }
+        StringBuilder spec = new StringBuilder();
+        for (int i = 1; i < keyCount; i++) {
+            spec.append(keys[i]).append('\n');
+        }
+        CryptoConfig ring = config(mode, keys[0], iv, spec.toString());
+        if (!ring.isValid()) {
+            throw new IllegalStateException("Invalid ring configuration");
+        }
+
+        int last = keyCount - 1;
+        byte[][] underLast = encrypt(single, messages, size, random, i -> last);
+        byte[][] rotation = encrypt(single, messages, size, random, i -> i < messages / 2 ? 1 : last);
+        byte[][] interleaved = encrypt(single, messages, size, random, i -> i % 2 == 0 ? 1 : 2);
+
+        System.out.println();
+        System.out.println(mode + ":");
+        System.out.printf("  %-26s %10s %10s %10s%n", "scenario", "attempts", "failed", "ns/msg");
+
+        // Warm-up
+        scenario(ring, underLast, null);
+        scenario(ring, interleaved, new String[]{"a.example", "b.example"});
+
+        print("stable (key " + (last + 1) + " of " + keyCount + ")", scenario(ring, underLast, null), messages);
+        print("rotation (key 2 -> " + (last + 1) + ")", scenario(ring, rotation, null), messages);
+        print("two hosts, no host scope", scenario(ring, interleaved, null), messages);
+        print("two hosts, per-host scope", scenario(ring, interleaved, new String[]{"a.example", "b.example"}),
+                messages);
+
+        // One attempt with the wrong key against the decryption that follows it
+        long right = Long.MAX_VALUE;
+        long wrong = Long.MAX_VALUE;
+        for (int round = 0; round < 3; round++) {
+            right = Math.min(right, timeDirect(single[last], underLast));
+            wrong = Math.min(wrong, timeDirect(single[0], underLast));
+        }
+        System.out.printf("  %-26s %10s %10s %10.0f%n", "right key", "-", "-", (double) right / messages);
+        System.out.printf("  %-26s %10s %10s %10.0f%n", "wrong key (" + ("GCM".equals(mode) ? "tag" : "padding/text")
+                + ")", "-", "-", (double) wrong / messages);
+    }
+
+    private interface KeyChoice {
+        int keyFor(int message);
+    }
+
+    private static CryptoConfig config(String mode, String key, String iv, String keyRing) {
+        CryptoConfig config = new CryptoConfig();
+        config.setMode(mode);
+        config.setPadding("GCM".equals(mode) ? "NoPadding" : "PKCS5Padding");
+        config.setKeySize(256);
+        config.setKeyBase64(key);
+        config.setIvBase64(iv);
+        if ("GCM".equals(mode)) {
+            config.setIvPolicy(NonceGenerator.RANDOM);
+            config.setIvPlacement(NonceGenerator.PLACEMENT_PREFIX);
+        }
+        config.setKeyRing(keyRing);
+        return config;
+    }
+
+    private static byte[][] encrypt(CryptoConfig[] single, int messages, int size, Random random, KeyChoice choice)
+            throws Exception {
+        byte[][] encrypted = new byte[messages][];
+        for (int i = 0; i < messages; i++) {
+            StringBuilder json = new StringBuilder(size + 32).append("{\"id\":").append(i).append(",\"data\":\"");
+            while (json.length() < size) {
+                json.append((char) ('a' + random.nextInt(26)));
+            }
+            byte[] plaintext = json.append("\"}").toString().getBytes(StandardCharsets.UTF_8);
+            encrypted[i] = CryptoHelper.encrypt(plaintext, single[choice.keyFor(i)]);
+        }
+        return encrypted;
+    }
+
+    /**
+     * @return {attempts, nanoseconds} for the whole run, from a freshly ordered ring
+     */
+    @SuppressWarnings("try")
+    private static long[] scenario(CryptoConfig ring, byte[][] encrypted, String[] hosts) throws Exception {
+        KeyRing.reset();
+        long start = System.nanoTime();
+        for (int i = 0; i < encrypted.length; i++) {
+            if (hosts == null) {
+                CryptoHelper.decrypt(encrypted[i], ring);
+            } else {
+                try (KeyRing.Scope scope = KeyRing.scope(ring, hosts[i % hosts.length])) {
+                    CryptoHelper.decrypt(encrypted[i], ring);
+                }
+            }
+        }
+        long elapsed = System.nanoTime() - start;
+        if (KeyRing.getMessages() != encrypted.length) {
+            throw new IllegalStateException("Ring decrypted " + KeyRing.getMessages() + " of " + encrypted.length);
+        }
+        return new long[]{KeyRing.getAttempts(), elapsed};
+    }
+
+    private static void print(String scenario, long[] result, int messages) {
+        System.out.printf("  %-26s %10.3f %10d %10.0f%n", scenario, (double) result[0] / messages,
+                result[0] - messages, (double) result[1] / messages);
+    }
+
+    /**
+     * Decrypts with a single key and no ring; failures are the wrong-key cost
+     */
+    private static long timeDirect(CryptoConfig config, byte[][] encrypted) {
+        long start = System.nanoTime();
+        for (byte[] message : encrypted) {
+            try {
+                CryptoHelper.decrypt(message, config);
+            } catch (Exception e) {
+                // Wrong key: the tag (or padding) check failed
+            }
+        }
+        return System.nanoTime() - start;
+    }
+}
@@ -0,0 +1,299 @@
+package burp;
+
+import burp.api.montoya.http.message.HttpHeader;
+import burp.api.montoya.http.message.requests.HttpRequest;
+import burp.api.montoya.http.message.responses.HttpResponse;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * LearnedKeys - Claves AES aprendidas de las responses de login/handshake
+ *
+ * Algunas apps entregan la clave (y a veces el IV) en la response del login
+ * o de un handshake, y cada sesión de usuario tiene la suya. Con keyLearning,
+ * cada response que trae material de clave en la cabecera o campo JSON
+ * configurado lo asocia al identificador de sesión: el token del campo
+ * learnSessionField, la cookie o cabecera que la response establece, o la
+ * que ya llevaba el request. Los requests posteriores se resuelven a su
+ * clave con una búsqueda en un mapa concurrente por ese identificador, así
+ * que cientos de sesiones de prueba conviven sin tocar el panel.
+ *
+ * Las entradas caducan tras learnedKeyTtl segundos sin uso. No hay hilo de
+ * limpieza: cada búsqueda descarta su entrada si caducó, y aprender una
+ * clave barre el mapa como mucho una vez cada SWEEP_INTERVAL.
+ */
+public final class LearnedKeys {
+
+    public static final String SOURCE_COOKIE = "COOKIE";
+    public static final String SOURCE_HEADER = "HEADER";
+
+    // Tope de memoria si llegan más sesiones vivas que las que caducan
+    private static final int MAX_SESSIONS = 65536;
+    private static final long SWEEP_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(10);
+
+    // "nombre=identificador" → clave
+    private static final Map<String, Entry> sessions = new ConcurrentHashMap<>();
+    private static final AtomicLong nextSweep = new AtomicLong(System.nanoTime());
+
+    private LearnedKeys() {
+    }
+
+    private static final class Entry {
+        final SessionKeys.Material material;
+        // Renovado en cada uso: una escritura volátil, sin reemplazar la entrada
+        volatile long expiresAt;
+
+        Entry(SessionKeys.Material material, long expiresAt) {
+            this.material = material;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    /**
+     * Clave de la sesión del request, o null si no tiene o caducó
+     */
+    static SessionKeys.Material lookup(CryptoConfig config, Function<String, String> requestHeader) {
+        String id = requestSessionId(config, requestHeader);
+        if (id == null) {
+            return null;
+        }
+        String mapKey = config.getSessionIdName() + '=' + id;
+        Entry entry = sessions.get(mapKey);
+        if (entry == null) {
+            return null;
+        }
+        long now = System.nanoTime();
+        if (now - entry.expiresAt > 0) {
+            sessions.remove(mapKey, entry);
+            return null;
+        }
+        entry.expiresAt = now + ttlNanos(config);
+        return entry.material;
+    }
+
+    /**
+     * Aprende la clave de una response de Burp, si la trae
+     *
+     * @return identificador de sesión enmascarado para los logs, o null si no había clave
+     */
+    public static String learn(CryptoConfig config, HttpRequest request, HttpResponse response) throws Exception {
+        return learn(config, request::headerValue, name -> {
+            List<String> values = new ArrayList<>(1);
+            for (HttpHeader header : response.headers()) {
+                if (header.name().equalsIgnoreCase(name)) {
+                    values.add(header.value());
+                }
+            }
+            return values;
+        }, response::bodyToString);
+    }
+
+    /**
+     * Igual, para los mensajes del proxy standalone
+     */
+    public static String learn(CryptoConfig config, RawHttpMessage request, RawHttpMessage response) throws Exception {
+        return learn(config, request::header, name -> {
+            List<String> values = new ArrayList<>(1);
+            for (String[] header : response.headers) {
+                if (header[0].equalsIgnoreCase(name)) {
+                    values.add(header[1]);
+                }
+            }
+            return values;
+        }, () -> new String(response.body, StandardCharsets.UTF_8));
+    }
+
+    private static String learn(CryptoConfig config, Function<String, String> requestHeader,
+                                Function<String, List<String>> responseHeaders,
+                                Supplier<String> responseBody) throws Exception {
+        boolean inHeader = SessionKeys.LOCATION_HEADER.equals(config.getLearnKeyLocation());
+        String body = null;
+        String keyText;
+        if (inHeader) {
+            keyText = first(responseHeaders.apply(config.getLearnKeyName()));
+        } else {
+            body = responseBody.get();
+            // La mayoría de responses no traen clave: descartarlas sin recorrer el JSON
+            keyText = body.contains('"' + config.getLearnKeyName() + '"')
+                    ? SessionKeys.fieldValue(body, config.getLearnKeyName()) : null;
+        }
+        if (keyText == null || keyText.trim().isEmpty()) {
+            return null;
+        }
+
+        byte[] key = decodeMaterial(keyText.trim());
+        if (key.length != 16 && key.length != 24 && key.length != 32) {
+            throw new Exception("Learned key " + config.getLearnKeyName() + " has " + key.length
+                    + " bytes, expected 16, 24 or 32");
+        }
+        byte[] iv = null;
+        String ivName = config.getLearnIvName();
+        if (ivName != null && !ivName.isEmpty()) {
+            String ivText = inHeader ? first(responseHeaders.apply(ivName)) : SessionKeys.fieldValue(body, ivName);
+            if (ivText != null && !ivText.trim().isEmpty()) {
+                iv = decodeMaterial(ivText.trim());
+                if (iv.length != 12 && iv.length != 16) {
+                    throw new Exception("Learned IV " + ivName + " has " + iv.length + " bytes, expected 12 or 16");
+                }
+            }
+        }
+
+        String read = body;
+        String id = responseSessionId(config, requestHeader, responseHeaders, read != null ? () -> read : responseBody);
+        if (id == null) {
+            throw new Exception("Response carries key material but no " + config.getSessionIdSource() + " "
+                    + config.getSessionIdName() + " to bind it to");
+        }
+
+        long now = System.nanoTime();
+        sessions.put(config.getSessionIdName() + '=' + id,
+                new Entry(new SessionKeys.Material(key, iv), now + ttlNanos(config)));
+        sweep(now);
+        return config.getSessionIdName() + '=' + mask(id);
+    }
+
+    /**
+     * Identificador de sesión de un request: la cookie o la cabecera (sin "Bearer ")
+     */
+    static String requestSessionId(CryptoConfig config, Function<String, String> requestHeader) {
+        String name = config.getSessionIdName();
+        if (LearnedKeys.SOURCE_COOKIE.equals(config.getSessionIdSource())) {
+            return cookieValue(requestHeader.apply("Cookie"), name);
+        }
+        return token(requestHeader.apply(name));
+    }
+
+    /**
+     * Identificador que la response establece (token del login, Set-Cookie o cabecera),
+     * o el del request si sigue en la misma sesión
+     */
+    private static String responseSessionId(CryptoConfig config, Function<String, String> requestHeader,
+                                            Function<String, List<String>> responseHeaders,
+                                            Supplier<String> responseBody) {
+        String field = config.getLearnSessionField();
+        if (field != null && !field.isEmpty()) {
+            String issued = token(SessionKeys.fieldValue(responseBody.get(), field));
+            if (issued != null) {
+                return issued;
+            }
+        }
+        String name = config.getSessionIdName();
+        if (LearnedKeys.SOURCE_COOKIE.equals(config.getSessionIdSource())) {
+            for (String setCookie : responseHeaders.apply("Set-Cookie")) {
+                String value = cookieValue(setCookie.split(";", 2)[0], name);
+                if (value != null) {
+                    return value;
+                }
+            }
+        } else {
+            String issued = token(first(responseHeaders.apply(name)));
+            if (issued != null) {
+                return issued;
+            }
+        }
+        return requestSessionId(config, requestHeader);
+    }
+
+    private static String cookieValue(String cookies, String name) {
+        if (cookies == null) {
+            return null;
+        }
+        int start = 0;
+        while (start < cookies.length()) {
+            int end = cookies.indexOf(';', start);
+            if (end < 0) {
+                end = cookies.length();
+            }
+            int equals = cookies.indexOf('=', start);
+            if (equals > 0 && equals < end && cookies.substring(start, equals).trim().equals(name)) {
+                String value = cookies.substring(equals + 1, end).trim();
+                return value.isEmpty() ? null : value;
+            }
+            start = end + 1;
+        }
+        return null;
+    }
+
+    private static String token(String value) {
+        if (value == null) {
+            return null;
+        }
+        value = value.trim();
+        if (value.regionMatches(true, 0, "Bearer ", 0, 7)) {
+            value = value.substring(7).trim();
+        }
+        return value.isEmpty() ? null : value;
+    }
+
+    private static String first(List<String> values) {
+        return values.isEmpty() ? null : values.get(0);
+    }
+
+    /**
+     * Hex si solo tiene dígitos hex y longitud de clave/IV; si no, Base64 o Base64url
+     */
+    static byte[] decodeMaterial(String text) throws Exception {
+        int length = text.length();
+        byte[] material = length == 24 || length == 32 || length == 48 || length == 64
+                ? HexBase64.fromHexStrict(text) : null;
+        if (material == null) {
+            material = HexBase64.fromBase64Strict(text);
+        }
+        if (material == null) {
+            throw new Exception("Learned key material is neither hex nor Base64");
+        }
+        return material;
+    }
+
+    /**
+     * Quita las sesiones caducadas; si aun así hay demasiadas, las que toque
+     */
+    private static void sweep(long now) {
+        long scheduled = nextSweep.get();
+        boolean due = now - scheduled > 0 && nextSweep.compareAndSet(scheduled, now + SWEEP_INTERVAL_NANOS);
+        if (!due && sessions.size() <= MAX_SESSIONS) {
+            return;
+        }
+        Iterator<Map.Entry<String, Entry>> iterator = sessions.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<String, Entry> session = iterator.next();
+            if (now - session.getValue().expiresAt > 0 || sessions.size() > MAX_SESSIONS) {
+                iterator.remove();
+            }
+        }
+    }
+
+    private static long ttlNanos(CryptoConfig config) {
+        return TimeUnit.SECONDS.toNanos(config.getLearnedKeyTtl());
+    }
+
+    /**
+     * Los identificadores de sesión son credenciales: en los logs solo el principio
+     */
+    static String mask(String id) {
+        return id.length() <= 8 ? "…" : id.substring(0, 6) + "…";
+    }
+
+    /**
+     * Número de sesiones con clave (para el panel y las pruebas de carga)
+     */
+    public static int size() {
+        return sessions.size();
+    }
+
+    /**
+     * Olvida todas las claves aprendidas
+     */
+    public static void clear() {
+        sessions.clear();
+    }
+}
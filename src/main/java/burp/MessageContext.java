@@ -0,0 +1,59 @@
+package burp;
+
+/**
+ * MessageContext - Contexto del mensaje en curso, para llevarlo a otro hilo
+ *
+ * Los handlers fijan en su hilo el mensaje que procesan: host y dirección
+ * para los eventos JFR (TransformEvents), la clave de sesión (SessionKeys),
+ * el host para el anillo de claves (KeyRing) y la captura de bloques
+ * (EcbAnalyzer). Todo vive en ThreadLocal, así que una tarea que reparte el
+ * mensaje en el pool fork-join lo perdería: capture() lo toma en el hilo del
+ * handler y attach() lo fija en el trabajador mientras procesa su parte.
+ *
+ * attach() no abre ni cierra scopes; el handler sigue siendo quien los
+ * cierra (y quien encola la captura de EcbAnalyzer) al terminar el mensaje.
+ */
+final class MessageContext {
+
+    private final TransformEvents.Scope events;
+    private final SessionKeys.Material keys;
+    private final String host;
+    private final EcbAnalyzer.Scope blocks;
+
+    private MessageContext(TransformEvents.Scope events, SessionKeys.Material keys, String host,
+                           EcbAnalyzer.Scope blocks) {
+        this.events = events;
+        this.keys = keys;
+        this.host = host;
+        this.blocks = blocks;
+    }
+
+    /**
+     * Contexto fijado en el hilo actual
+     */
+    static MessageContext capture() {
+        return new MessageContext(TransformEvents.active(), SessionKeys.active(), KeyRing.activeHost(),
+                EcbAnalyzer.active());
+    }
+
+    /**
+     * Fija este contexto en el hilo actual
+     *
+     * @return el contexto que tenía el hilo, para restore() al terminar
+     */
+    MessageContext attach() {
+        MessageContext previous = capture();
+        restore();
+        return previous;
+    }
+
+    /**
+     * Vuelve a fijar este contexto (el devuelto por attach()) en el hilo
+     */
+    void restore() {
+        TransformEvents.activate(events);
+        SessionKeys.activate(keys);
+        KeyRing.activateHost(host);
+        EcbAnalyzer.activate(blocks);
+    }
+}
@@ -0,0 +1,251 @@
+package burp;
+
+import burp.api.montoya.logging.Logging;
+import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * MessageSigner - Etapa de firma HMAC después del cifrado
+ *
+ * Calcula la firma sobre una entrada canónica configurable (plantilla con
+ * {ciphertext}, {body}, {timestamp}, {path} y {method}) y la escribe en un
+ * campo JSON hermano del campo cifrado o en un header.
+ *
+ * Cada hilo reutiliza sus propias instancias de Mac ya inicializadas, y las
+ * verificaciones de responses se memorizan, para que firmar cueste
+ * microsegundos por request.
+ */
+public class MessageSigner {
+
+    public static final String LOCATION_FIELD = "FIELD";
+    public static final String LOCATION_HEADER = "HEADER";
+
+    private static final int MAX_MACS_PER_THREAD = 8;
+    private static final int VERIFY_CACHE_SIZE = 1024;
+
+    // Mac no es thread-safe: una instancia por hilo y por algoritmo/clave
+    private static final ThreadLocal<Map<String, Mac>> macs = ThreadLocal.withInitial(HashMap::new);
+
+    // Resultado de verificaciones ya hechas, indexado por algoritmo/clave + firma + entrada canónica
+    private static final Map<String, Boolean> verified = Collections.synchronizedMap(
+            new LinkedHashMap<String, Boolean>(VERIFY_CACHE_SIZE, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+                    return size() > VERIFY_CACHE_SIZE;
+                }
+            });
+
+    private final CryptoConfig config;
+    private final Logging logging;
+    private final Gson gson;
+    private final String tag;
+
+    /**
+     * Resultado de firmar: el cuerpo (con los campos de firma si van en el
+     * JSON) y los valores para los headers si van en headers
+     */
+    public static class Signed {
+        public final String body;
+        public final String signature;
+        public final String timestamp;
+
+        Signed(String body, String signature, String timestamp) {
+            this.body = body;
+            this.signature = signature;
+            this.timestamp = timestamp;
+        }
+    }
+
+    public MessageSigner(CryptoConfig config, Logging logging, String tag) {
+        this.config = config;
+        this.logging = logging;
+        this.gson = new Gson();
+        this.tag = tag;
+    }
+
+    /**
+     * Firma un mensaje ya cifrado
+     *
+     * @param paramName campo con el valor cifrado, para {ciphertext}
+     */
+    public Signed sign(String method, String path, String body, String paramName) throws Exception {
+        boolean inField = LOCATION_FIELD.equals(config.getSignatureLocation());
+        String timestampName = config.getSignatureTimestampName();
+        String timestamp = timestampName == null || timestampName.isEmpty()
+                ? "" : String.valueOf(System.currentTimeMillis());
+
+        JsonObject jsonObject = null;
+        if (inField || needs("{ciphertext}")) {
+            jsonObject = JsonParser.parseString(body).getAsJsonObject();
+            if (inField) {
+                jsonObject.remove(config.getSignatureName());
+                if (!timestamp.isEmpty()) {
+                    jsonObject.addProperty(timestampName, timestamp);
+                }
+                body = gson.toJson(jsonObject);
+            }
+        }
+
+        String canonical = canonicalInput(method, path, body, ciphertext(jsonObject, paramName), timestamp);
+        String signature = encode(mac().doFinal(canonical.getBytes(StandardCharsets.UTF_8)));
+
+        if (inField) {
+            jsonObject.addProperty(config.getSignatureName(), signature);
+            body = gson.toJson(jsonObject);
+        }
+        return new Signed(body, signature, timestamp);
+    }
+
+    /**
+     * Verifica la firma de un mensaje recibido
+     *
+     * @param headerSignature valor del header de firma (si la firma va en header)
+     * @param headerTimestamp valor del header de timestamp (si la firma va en header)
+     * @return null si el mensaje no trae firma
+     */
+    public Boolean verify(String method, String path, String body, String paramName,
+                          String headerSignature, String headerTimestamp) throws Exception {
+        boolean inField = LOCATION_FIELD.equals(config.getSignatureLocation());
+        String timestampName = config.getSignatureTimestampName();
+        boolean hasTimestamp = timestampName != null && !timestampName.isEmpty();
+
+        String signature = headerSignature;
+        String timestamp = hasTimestamp && headerTimestamp != null ? headerTimestamp : "";
+        JsonObject jsonObject = null;
+
+        if (inField || needs("{ciphertext}")) {
+            jsonObject = JsonParser.parseString(body).getAsJsonObject();
+            if (inField) {
+                JsonElement field = jsonObject.remove(config.getSignatureName());
+                signature = field != null && field.isJsonPrimitive() ? field.getAsString() : null;
+                if (hasTimestamp && jsonObject.has(timestampName)) {
+                    timestamp = jsonObject.get(timestampName).getAsString();
+                }
+                body = gson.toJson(jsonObject);
+            }
+        }
+
+        if (signature == null || signature.isEmpty()) {
+            return null;
+        }
+
+        String canonical = canonicalInput(method, path, body, ciphertext(jsonObject, paramName), timestamp);
+        // Con otra clave (o codificación) la misma firma puede dejar de ser válida
+        String cacheKey = config.getSigningAlgorithm() + '|' + config.getSigningKey() + '|'
+                + config.getSignatureEncoding() + '|' + signature + '\n' + canonical;
+        Boolean cached = verified.get(cacheKey);
+        if (cached != null) {
+            return cached;
+        }
+
+        byte[] expected = mac().doFinal(canonical.getBytes(StandardCharsets.UTF_8));
+        boolean valid = MessageDigest.isEqual(expected, decode(signature));
+        verified.put(cacheKey, valid);
+        if (!valid) {
+            logging.logToError(tag + " Firma inválida en " + path);
+        }
+        return valid;
+    }
+
+    /**
+     * Sustituye los marcadores de la plantilla en una sola pasada
+     */
+    String canonicalInput(String method, String path, String body, String ciphertext, String timestamp) {
+        String template = config.getSigningInput();
+        StringBuilder sb = new StringBuilder(template.length() + body.length());
+        int i = 0;
+        while (i < template.length()) {
+            char c = template.charAt(i);
+            if (c == '\\' && i + 1 < template.length() && template.charAt(i + 1) == 'n') {
+                sb.append('\n');
+                i += 2;
+                continue;
+            }
+            if (c == '{') {
+                int end = template.indexOf('}', i);
+                if (end > 0) {
+                    String value = placeholder(template.substring(i + 1, end), method, path, body, ciphertext, timestamp);
+                    if (value != null) {
+                        sb.append(value);
+                        i = end + 1;
+                        continue;
+                    }
+                }
+            }
+            sb.append(c);
+            i++;
+        }
+        return sb.toString();
+    }
+
+    private static String placeholder(String name, String method, String path, String body,
+                                      String ciphertext, String timestamp) {
+        switch (name) {
+            case "ciphertext": return ciphertext;
+            case "body": return body;
+            case "timestamp": return timestamp;
+            case "path": return path;
+            case "method": return method;
+            default: return null;
+        }
+    }
+
+    private boolean needs(String placeholder) {
+        return config.getSigningInput().contains(placeholder);
+    }
+
+    private static String ciphertext(JsonObject jsonObject, String paramName) {
+        if (jsonObject == null || !jsonObject.has(paramName) || !jsonObject.get(paramName).isJsonPrimitive()) {
+            return "";
+        }
+        return jsonObject.get(paramName).getAsString();
+    }
+
+    /**
+     * Mac del hilo actual para el algoritmo/clave configurados
+     */
+    private Mac mac() throws Exception {
+        String algorithm = config.getSigningAlgorithm();
+        String key = config.getSigningKey();
+        if (key == null || key.isEmpty()) {
+            throw new Exception("Signing key not configured");
+        }
+
+        Map<String, Mac> threadMacs = macs.get();
+        String macKey = algorithm + '|' + key;
+        Mac mac = threadMacs.get(macKey);
+        if (mac == null) {
+            if (threadMacs.size() >= MAX_MACS_PER_THREAD) {
+                threadMacs.clear();
+            }
+            mac = Mac.getInstance(algorithm);
+            mac.init(new SecretKeySpec(key.getBytes(StandardCharsets.UTF_8), algorithm));
+            threadMacs.put(macKey, mac);
+        }
+        return mac;
+    }
+
+    private String encode(byte[] signature) {
+        if ("BASE64".equals(config.getSignatureEncoding())) {
+            return HexBase64.toBase64(signature);
+        }
+        return HexBase64.toHex(signature);
+    }
+
+    private byte[] decode(String signature) {
+        byte[] decoded = "BASE64".equals(config.getSignatureEncoding())
+                ? HexBase64.fromBase64Strict(signature) : HexBase64.fromHexStrict(signature);
+        return decoded != null ? decoded : new byte[0];
+    }
+}
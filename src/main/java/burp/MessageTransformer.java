@@ -0,0 +1,737 @@
+package burp;
+
+import burp.api.montoya.logging.Logging;
+import com.google.gson.Gson;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * MessageTransformer - Pipeline de transformación de cuerpos
+ *
+ * Contiene la lógica de descifrado/cifrado de campos que comparten
+ * ProxyHandler y HttpHandler. Trabaja sobre el cuerpo como String,
+ * sin depender de los tipos de mensaje de Montoya, para poder
+ * reutilizarla fuera de Burp (ver StandaloneProxy).
+ *
+ * Los métodos devuelven el nuevo cuerpo, o null si no hay nada que cambiar.
+ * Si el cuerpo es un array, se transforma el campo de cada elemento.
+ *
+ * Con dataFormat XML o MULTIPART el campo es un elemento/atributo o una
+ * parte con ese nombre, y el cuerpo se recorre en una sola pasada con
+ * XmlSplice o MultipartSplice, sin árbol intermedio.
+ *
+ * Antes de cifrar, el texto plano pasa por las reglas de PlaintextRules.
+ */
+public class MessageTransformer {
+
+    private static final int PRECOMPUTED_CACHE_SIZE = 256;
+
+    // Bytes iniciales donde se busca la declaración <?xml ... encoding="..."?>
+    private static final int XML_PROLOG_BYTES = 256;
+    private static final Pattern XML_ENCODING = Pattern.compile("encoding\\s*=\\s*[\"']([A-Za-z0-9._-]+)[\"']");
+
+    // Arrays con al menos tantos elementos se reparten en el pool fork-join
+    static final int FAN_OUT_THRESHOLD = 256;
+    // Elementos que procesa secuencialmente cada tarea hoja
+    private static final int FAN_OUT_BATCH = 64;
+
+    // Cuerpos ya cifrados en segundo plano por el editor "Decrypted":
+    // encryptField los deja pasar sin parsear
+    private static final Set<String> precomputedBodies = Collections.newSetFromMap(
+            Collections.synchronizedMap(new LinkedHashMap<String, Boolean>(PRECOMPUTED_CACHE_SIZE, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+                    return size() > PRECOMPUTED_CACHE_SIZE;
+                }
+            }));
+
+    private final CryptoConfig config;
+    private final Logging logging;
+    private final Gson gson;
+    private final String tag;
+    private final ForkJoinPool pool;
+
+    /**
+     * @param tag prefijo de los logs, por ejemplo "[PROXY]" o "[HTTP]"
+     */
+    public MessageTransformer(CryptoConfig config, Logging logging, String tag) {
+        this(config, logging, tag, FanOutPool.INSTANCE);
+    }
+
+    /**
+     * @param pool pool para los arrays grandes (el benchmark prueba distintos paralelismos)
+     */
+    MessageTransformer(CryptoConfig config, Logging logging, String tag, ForkJoinPool pool) {
+        this.config = config;
+        this.logging = logging;
+        this.gson = new Gson();
+        this.tag = tag;
+        this.pool = pool;
+    }
+
+    /**
+     * Descifra un campo - reemplaza el valor cifrado con texto plano
+     * Si el texto descifrado es JSON válido, lo parsea como objeto JSON
+     *
+     * @param label "Request" o "Response": elige la cadena de codecs y aparece en los logs
+     * @param onlyIfEncrypted omitir el campo si no parece estar cifrado
+     */
+    public String decryptField(String body, String paramName, String label,
+                               boolean onlyIfEncrypted) throws Exception {
+        if (body == null || body.isEmpty()) {
+            return null;
+        }
+
+        if (isSpliceFormat()) {
+            return spliceText(body, paramName, label, decryptValue(label, onlyIfEncrypted), "descifrados");
+        }
+
+        if (!"JSON".equals(config.getDataFormat())) {
+            return null;
+        }
+
+        JsonElement root = parse(body, label);
+        return serialize(root, decryptRoot(root, paramName, label, onlyIfEncrypted), label);
+    }
+
+    /**
+     * Descifra un campo de un cuerpo con Content-Encoding (gzip/deflate)
+     *
+     * El JSON se lee directamente del stream descomprimido y se escribe en
+     * un stream que recomprime: el cuerpo descomprimido nunca existe entero
+     * como String.
+     *
+     * @return el nuevo cuerpo, comprimido con la misma codificación, o null
+     */
+    public byte[] decryptField(byte[] body, String contentEncoding, String paramName, String label,
+                               boolean onlyIfEncrypted) throws Exception {
+        if (isSpliceFormat()) {
+            return spliceBytes(body, contentEncoding, paramName, label,
+                    decryptValue(label, onlyIfEncrypted), "descifrados");
+        }
+        JsonElement root = readCompressed(body, contentEncoding, label);
+        if (root == null) {
+            return null;
+        }
+        return writeCompressed(root, decryptRoot(root, paramName, label, onlyIfEncrypted), contentEncoding, label);
+    }
+
+    /**
+     * Descifra el campo del objeto raíz o, si el cuerpo es un array (APIs
+     * bulk, GraphQL por lotes), el campo de cada elemento
+     */
+    private boolean decryptRoot(JsonElement root, String paramName, String label,
+                                boolean onlyIfEncrypted) throws Exception {
+        if (root.isJsonObject()) {
+            return decryptInto(root.getAsJsonObject(), paramName, label, onlyIfEncrypted, true);
+        }
+        if (!root.isJsonArray()) {
+            return false;
+        }
+
+        JsonArray array = root.getAsJsonArray();
+        int count = transformElements(array,
+                element -> decryptInto(element, paramName, label, onlyIfEncrypted, false));
+        if (count > 0) {
+            logging.logToOutput(tag + " " + label + " array: " + count + " de " + array.size()
+                    + " elementos descifrados");
+        }
+        return count > 0;
+    }
+
+    /**
+     * @param verbose log por campo; los elementos de un array se resumen en un solo log
+     */
+    private boolean decryptInto(JsonObject jsonObject, String paramName, String label,
+                                boolean onlyIfEncrypted, boolean verbose) throws Exception {
+        if (!jsonObject.has(paramName)) {
+            return false;
+        }
+
+        // Un objeto/array ya fue descifrado por otro handler (HttpHandler y
+        // ProxyHandler ven la misma response en el Proxy)
+        JsonElement element = jsonObject.get(paramName);
+        if (!element.isJsonPrimitive()) {
+            return false;
+        }
+        String encryptedData = element.getAsString();
+        CodecChain chain = codecChain(label);
+
+        // Verificar si parece estar cifrado
+        if (onlyIfEncrypted && !chain.isLikelyEncrypted(encryptedData, config)) {
+            if (verbose) {
+                logging.logToOutput(tag + " " + label + " no parece estar cifrado, omitiendo...");
+            }
+            return false;
+        }
+
+        String decryptedData = chain.decrypt(encryptedData, config);
+
+        // Intentar parsear como JSON. Si es válido, insertarlo como objeto JSON
+        JsonElement parsedJson = tryParseJson(decryptedData);
+        if (parsedJson != null) {
+            // Es JSON válido, insertarlo como objeto JSON (no como string)
+            jsonObject.add(paramName, parsedJson);
+            if (verbose) {
+                logging.logToOutput(tag + " " + label + " descifrado y parseado como JSON");
+            }
+        } else {
+            // No es JSON válido, mantener como string
+            jsonObject.addProperty(paramName, decryptedData);
+            if (verbose) {
+                logging.logToOutput(tag + " " + label + " descifrado (texto plano)");
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Cifra un campo - reemplaza texto plano con valor cifrado
+     * Si el valor es un objeto JSON, lo convierte a string antes de cifrar
+     *
+     * @param label "Request" o "Response": elige la cadena de codecs y aparece en los logs
+     */
+    public String encryptField(String body, String paramName, String label) throws Exception {
+        if (body == null || body.isEmpty()) {
+            return null;
+        }
+
+        if (precomputedBodies.contains(body)) {
+            logging.logToOutput(tag + " " + label + " ya cifrado por el editor, omitiendo...");
+            return null;
+        }
+
+        if (isSpliceFormat()) {
+            return spliceText(body, paramName, label, encryptValue(label), "cifrados");
+        }
+
+        if (!"JSON".equals(config.getDataFormat())) {
+            return null;
+        }
+
+        JsonElement root = parse(body, label);
+        return serialize(root, encryptRoot(root, paramName, label), label);
+    }
+
+    /**
+     * Cifra un campo de un cuerpo con Content-Encoding (gzip/deflate), en streaming
+     *
+     * @return el nuevo cuerpo, comprimido con la misma codificación, o null
+     */
+    public byte[] encryptField(byte[] body, String contentEncoding, String paramName, String label) throws Exception {
+        if (isSpliceFormat()) {
+            return spliceBytes(body, contentEncoding, paramName, label, encryptValue(label), "cifrados");
+        }
+        JsonElement root = readCompressed(body, contentEncoding, label);
+        if (root == null) {
+            return null;
+        }
+        return writeCompressed(root, encryptRoot(root, paramName, label), contentEncoding, label);
+    }
+
+    private boolean encryptRoot(JsonElement root, String paramName, String label) throws Exception {
+        if (root.isJsonObject()) {
+            return encryptInto(root.getAsJsonObject(), paramName, label, true);
+        }
+        if (!root.isJsonArray()) {
+            return false;
+        }
+
+        JsonArray array = root.getAsJsonArray();
+        int count = transformElements(array, element -> encryptInto(element, paramName, label, false));
+        if (count > 0) {
+            logging.logToOutput(tag + " " + label + " array: " + count + " de " + array.size()
+                    + " elementos cifrados");
+        }
+        return count > 0;
+    }
+
+    private boolean encryptInto(JsonObject jsonObject, String paramName, String label,
+                                boolean verbose) throws Exception {
+        if (!jsonObject.has(paramName)) {
+            return false;
+        }
+
+        JsonElement element = jsonObject.get(paramName);
+        PlaintextRules rules = PlaintextRules.compile(config.getPlaintextRules());
+        String plainData;
+
+        // Si es un objeto/array JSON, convertirlo a string (las reglas JSON van sobre el árbol)
+        boolean composite = element.isJsonObject() || element.isJsonArray();
+        boolean rewrittenJson = false;
+        if (composite) {
+            rewrittenJson = rules.applyJson(element, label);
+            plainData = gson.toJson(element);
+            if (verbose) {
+                logging.logToOutput(tag + " Convirtiendo objeto JSON a string para cifrar");
+            }
+        } else {
+            plainData = element.getAsString();
+        }
+
+        // Verificar si ya está cifrado (según la cadena de codecs)
+        CodecChain chain = codecChain(label);
+        if (chain.isLikelyEncrypted(plainData, config)) {
+            if (verbose) {
+                logging.logToOutput(tag + " " + label + " ya parece estar cifrado, omitiendo...");
+            }
+            return false;
+        }
+
+        String rewritten = composite ? rules.applyText(plainData, label) : rules.apply(plainData, label);
+        if (verbose && (rewrittenJson || rewritten != plainData)) {
+            logging.logToOutput(tag + " " + label + " reescrito por las reglas de texto plano");
+        }
+
+        // CIFRAR el texto plano y REEMPLAZAR con valor cifrado
+        String encryptedData = chain.encrypt(rewritten, config);
+        jsonObject.addProperty(paramName, encryptedData);
+
+        return true;
+    }
+
+    /**
+     * Indica si el cuerpo debe ir por los métodos de byte[]: comprimido, o
+     * multipart (las partes binarias no sobreviven a una conversión a String)
+     */
+    public boolean transformsBytes(String contentEncoding) {
+        return ContentCodec.isCompressed(contentEncoding) || "MULTIPART".equals(config.getDataFormat());
+    }
+
+    private boolean isSpliceFormat() {
+        return "XML".equals(config.getDataFormat()) || "MULTIPART".equals(config.getDataFormat());
+    }
+
+    /**
+     * Comprobación barata, sin parsear ni descifrar, de si el cuerpo puede
+     * llevar el campo en el formato configurado (pestañas del editor)
+     */
+    public boolean mayContainField(String body, String paramName) {
+        if (body == null || paramName == null || paramName.isEmpty()) {
+            return false;
+        }
+        if ("XML".equals(config.getDataFormat())) {
+            return body.contains("<" + paramName) || body.contains(paramName + "=");
+        }
+        if ("MULTIPART".equals(config.getDataFormat())) {
+            return body.contains("name=\"" + paramName + "\"") || body.contains("name=" + paramName);
+        }
+        return "JSON".equals(config.getDataFormat()) && body.contains("\"" + paramName + "\"");
+    }
+
+    /**
+     * Transformación de un valor XML o multipart; null para dejarlo como está
+     */
+    interface FieldTransform {
+        String apply(String value) throws Exception;
+    }
+
+    private FieldTransform decryptValue(String label, boolean onlyIfEncrypted) throws Exception {
+        CodecChain chain = codecChain(label);
+        return value -> {
+            String encryptedData = value.trim();
+            if (onlyIfEncrypted && !chain.isLikelyEncrypted(encryptedData, config)) {
+                return null;
+            }
+            return chain.decrypt(encryptedData, config);
+        };
+    }
+
+    private FieldTransform encryptValue(String label) throws Exception {
+        CodecChain chain = codecChain(label);
+        PlaintextRules rules = PlaintextRules.compile(config.getPlaintextRules());
+        return value -> chain.isLikelyEncrypted(value, config)
+                ? null : chain.encrypt(rules.apply(value, label), config);
+    }
+
+    /**
+     * XML o multipart sobre el cuerpo como String (editor, cuerpos sin comprimir)
+     */
+    private String spliceText(String body, String paramName, String label, FieldTransform transform,
+                              String action) throws Exception {
+        if (!"XML".equals(config.getDataFormat())) {
+            // Multipart trabaja con bytes: ISO-8859-1 los conserva uno a uno
+            byte[] result = spliceBytes(body.getBytes(StandardCharsets.ISO_8859_1), null, paramName, label,
+                    transform, action);
+            return result != null ? new String(result, StandardCharsets.ISO_8859_1) : null;
+        }
+
+        TransformEvents.ParseEvent event = new TransformEvents.ParseEvent();
+        event.begin();
+        StringWriter out = new StringWriter(body.length() + 64);
+        int count;
+        try {
+            count = XmlSplice.transform(new StringReader(body), out, paramName, transform);
+            TransformEvents.commit(event, label, body.length(), count, TransformEvents.OK);
+        } catch (Exception e) {
+            TransformEvents.commit(event, label, body.length(), 0, TransformEvents.ERROR);
+            throw e;
+        }
+        return spliced(count, label, action) ? out.toString() : null;
+    }
+
+    /**
+     * XML o multipart en streaming, del cuerpo (descomprimido si hace falta)
+     * a un stream que recomprime. En memoria solo hay un buffer de lectura y
+     * el valor del campo, además del cuerpo de salida
+     *
+     * El evento JFR Parse cubre la pasada entera, transformación incluida
+     */
+    private byte[] spliceBytes(byte[] body, String contentEncoding, String paramName, String label,
+                               FieldTransform transform, String action) throws Exception {
+        if (body == null || body.length == 0) {
+            return null;
+        }
+        boolean compressed = ContentCodec.isCompressed(contentEncoding);
+        if (compressed && !ContentCodec.isSupported(contentEncoding)) {
+            logging.logToOutput(tag + " " + label + " con Content-Encoding " + contentEncoding
+                    + " no soportado, omitiendo...");
+            return null;
+        }
+
+        TransformEvents.ParseEvent event = new TransformEvents.ParseEvent();
+        event.begin();
+        ByteArrayOutputStream out = new ByteArrayOutputStream(body.length + 256);
+        int count;
+        try (InputStream in = compressed
+                    ? ContentCodec.decodingStream(body, contentEncoding) : new ByteArrayInputStream(body);
+             OutputStream encoder = compressed ? ContentCodec.encodingStream(out, contentEncoding) : out) {
+            if ("XML".equals(config.getDataFormat())) {
+                BufferedInputStream buffered = new BufferedInputStream(in);
+                Charset charset = xmlCharset(buffered);
+                Writer writer = new OutputStreamWriter(encoder, charset);
+                count = XmlSplice.transform(new InputStreamReader(buffered, charset), writer, paramName, transform);
+                writer.flush();
+            } else {
+                count = MultipartSplice.transform(in, encoder, paramName, transform);
+            }
+            TransformEvents.commit(event, label, body.length, count, TransformEvents.OK);
+        } catch (Exception e) {
+            TransformEvents.commit(event, label, body.length, 0, TransformEvents.ERROR);
+            throw e;
+        }
+        return spliced(count, label, action) ? out.toByteArray() : null;
+    }
+
+    private boolean spliced(int count, String label, String action) {
+        if (count == 0) {
+            return false;
+        }
+        logging.logToOutput(tag + " " + label + " " + config.getDataFormat() + ": " + count + " valores " + action);
+        return true;
+    }
+
+    /**
+     * Charset de la declaración XML, o UTF-8 si no la hay o no se conoce
+     */
+    static Charset xmlCharset(BufferedInputStream in) throws IOException {
+        in.mark(XML_PROLOG_BYTES);
+        byte[] prolog = in.readNBytes(XML_PROLOG_BYTES);
+        in.reset();
+        String text = new String(prolog, StandardCharsets.ISO_8859_1);
+        int end = text.indexOf("?>");
+        if (!text.startsWith("<?xml") || end < 0) {
+            return StandardCharsets.UTF_8;
+        }
+        Matcher matcher = XML_ENCODING.matcher(text.substring(0, end));
+        try {
+            return matcher.find() ? Charset.forName(matcher.group(1)) : StandardCharsets.UTF_8;
+        } catch (IllegalArgumentException e) {
+            return StandardCharsets.UTF_8;
+        }
+    }
+
+    /**
+     * Parsea el JSON leyendo del stream descomprimido
+     * Retorna null si no hay nada que hacer (vacío, formato o codificación no soportados)
+     */
+    private JsonElement readCompressed(byte[] body, String contentEncoding, String label) throws Exception {
+        if (body == null || body.length == 0 || !"JSON".equals(config.getDataFormat())) {
+            return null;
+        }
+
+        if (!ContentCodec.isSupported(contentEncoding)) {
+            logging.logToOutput(tag + " " + label + " con Content-Encoding " + contentEncoding
+                    + " no soportado, omitiendo...");
+            return null;
+        }
+
+        TransformEvents.ParseEvent event = new TransformEvents.ParseEvent();
+        event.begin();
+        try (Reader reader = new InputStreamReader(ContentCodec.decodingStream(body, contentEncoding),
+                StandardCharsets.UTF_8)) {
+            JsonElement root = JsonParser.parseReader(reader);
+            TransformEvents.commit(event, label, body.length, fieldCount(root), TransformEvents.OK);
+            return root;
+        } catch (Exception e) {
+            TransformEvents.commit(event, label, body.length, 0, TransformEvents.ERROR);
+            throw e;
+        }
+    }
+
+    /**
+     * Serializa el JSON directamente en un stream que recomprime
+     *
+     * @param changed si la transformación cambió algo; si no, retorna null sin serializar
+     */
+    private byte[] writeCompressed(JsonElement root, boolean changed, String contentEncoding,
+                                   String label) throws Exception {
+        TransformEvents.SerializeEvent event = new TransformEvents.SerializeEvent();
+        event.begin();
+        if (!changed) {
+            TransformEvents.commit(event, label, 0, fieldCount(root), TransformEvents.SKIPPED);
+            return null;
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (Writer writer = new OutputStreamWriter(ContentCodec.encodingStream(out, contentEncoding),
+                StandardCharsets.UTF_8)) {
+            gson.toJson(root, writer);
+        }
+        TransformEvents.commit(event, label, out.size(), fieldCount(root), TransformEvents.OK);
+        return out.toByteArray();
+    }
+
+    /**
+     * Parsea el cuerpo (evento JFR Parse)
+     */
+    private JsonElement parse(String body, String label) {
+        TransformEvents.ParseEvent event = new TransformEvents.ParseEvent();
+        event.begin();
+        try {
+            JsonElement root = JsonParser.parseString(body);
+            TransformEvents.commit(event, label, body.length(), fieldCount(root), TransformEvents.OK);
+            return root;
+        } catch (RuntimeException e) {
+            TransformEvents.commit(event, label, body.length(), 0, TransformEvents.ERROR);
+            throw e;
+        }
+    }
+
+    /**
+     * Serializa el árbol si la transformación cambió algo (evento JFR Serialize)
+     */
+    private String serialize(JsonElement root, boolean changed, String label) {
+        TransformEvents.SerializeEvent event = new TransformEvents.SerializeEvent();
+        event.begin();
+        if (!changed) {
+            TransformEvents.commit(event, label, 0, fieldCount(root), TransformEvents.SKIPPED);
+            return null;
+        }
+        String json = gson.toJson(root);
+        TransformEvents.commit(event, label, json.length(), fieldCount(root), TransformEvents.OK);
+        return json;
+    }
+
+    /**
+     * Campos del objeto raíz o elementos del array raíz
+     */
+    private static int fieldCount(JsonElement root) {
+        if (root.isJsonArray()) {
+            return root.getAsJsonArray().size();
+        }
+        return root.isJsonObject() ? root.getAsJsonObject().size() : 0;
+    }
+
+    /**
+     * Transformación de un elemento de array; true si lo cambió
+     */
+    private interface ElementTransform {
+        boolean apply(JsonObject element) throws Exception;
+    }
+
+    /**
+     * Aplica la transformación a cada objeto del array, en su sitio
+     *
+     * Cada elemento se modifica en el mismo árbol, así que el orden se
+     * conserva sin construir un segundo DOM. A partir de FAN_OUT_THRESHOLD
+     * elementos el trabajo se divide en el pool fork-join; el primer error
+     * detiene las tareas pendientes y se relanza aquí. Los trabajadores
+     * procesan cada tramo con el contexto del hilo que llama (MessageContext).
+     *
+     * @return número de elementos transformados
+     */
+    private int transformElements(JsonArray array, ElementTransform transform) throws Exception {
+        if (array.size() < FAN_OUT_THRESHOLD || pool.getParallelism() == 1) {
+            int count = 0;
+            for (JsonElement element : array) {
+                if (element.isJsonObject() && transform.apply(element.getAsJsonObject())) {
+                    count++;
+                }
+            }
+            return count;
+        }
+
+        AtomicReference<Exception> failure = new AtomicReference<>();
+        int count = pool.invoke(new FanOutTask(array, 0, array.size(), transform, failure,
+                MessageContext.capture()));
+        if (failure.get() != null) {
+            throw failure.get();
+        }
+        return count;
+    }
+
+    /**
+     * Divide el rango de elementos en mitades hasta FAN_OUT_BATCH
+     */
+    private static class FanOutTask extends RecursiveTask<Integer> {
+        private static final long serialVersionUID = 1L;
+
+        private final JsonArray array;
+        private final int start;
+        private final int end;
+        private final ElementTransform transform;
+        private final AtomicReference<Exception> failure;
+        private final MessageContext context;
+
+        FanOutTask(JsonArray array, int start, int end, ElementTransform transform,
+                   AtomicReference<Exception> failure, MessageContext context) {
+            this.array = array;
+            this.start = start;
+            this.end = end;
+            this.transform = transform;
+            this.failure = failure;
+            this.context = context;
+        }
+
+        @Override
+        protected Integer compute() {
+            if (end - start > FAN_OUT_BATCH) {
+                int middle = (start + end) >>> 1;
+                FanOutTask left = new FanOutTask(array, start, middle, transform, failure, context);
+                left.fork();
+                int right = new FanOutTask(array, middle, end, transform, failure, context).compute();
+                return left.join() + right;
+            }
+
+            int count = 0;
+            MessageContext previous = context.attach();
+            try {
+                for (int i = start; i < end && failure.get() == null; i++) {
+                    JsonElement element = array.get(i);
+                    try {
+                        if (element.isJsonObject() && transform.apply(element.getAsJsonObject())) {
+                            count++;
+                        }
+                    } catch (Exception e) {
+                        failure.compareAndSet(null, e);
+                    }
+                }
+            } finally {
+                previous.restore();
+            }
+            return count;
+        }
+    }
+
+    /**
+     * Pool compartido por todos los transformers, creado en el primer uso
+     * (hilos daemon, uno por CPU)
+     */
+    private static class FanOutPool {
+        static final ForkJoinPool INSTANCE = new ForkJoinPool(Runtime.getRuntime().availableProcessors(),
+                pool -> {
+                    ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+                    thread.setName("destroy-aes-fanout-" + thread.getPoolIndex());
+                    return thread;
+                }, null, false);
+    }
+
+    private CodecChain codecChain(String label) throws Exception {
+        return CodecChain.compile("Request".equals(label) ? config.getRequestCodecs() : config.getResponseCodecs());
+    }
+
+    /**
+     * Registra un cuerpo cifrado de antemano, para no volver a procesarlo al enviar
+     */
+    public static void markPrecomputed(String encryptedBody) {
+        precomputedBodies.add(encryptedBody);
+    }
+
+    /**
+     * Indica si un cuerpo fue cifrado de antemano por el editor
+     */
+    public static boolean isPrecomputed(String body) {
+        return precomputedBodies.contains(body);
+    }
+    
+    /**
+     * Verifica si un string parece estar cifrado (Base64)
+     * Heurística: Base64 típicamente tiene >16 caracteres y mix de mayúsculas/minúsculas
+     */
+    public static boolean isLikelyEncrypted(String data) {
+        if (data == null || data.isEmpty()) {
+            return false;
+        }
+
+        // Muy corto para ser cifrado AES (mínimo ~16 chars en Base64)
+        if (data.length() < 16) {
+            return false;
+        }
+
+        // Si contiene espacios o saltos, no es Base64
+        if (data.contains(" ") || data.contains("\n")) {
+            return false;
+        }
+
+        // Debe ser solo caracteres Base64
+        if (!data.matches("^[A-Za-z0-9+/]+=*$")) {
+            return false;
+        }
+
+        // Base64 típicamente tiene mix de mayúsculas/minúsculas/números
+        boolean hasUpper = !data.equals(data.toLowerCase());
+        boolean hasLower = !data.equals(data.toUpperCase());
+
+        return hasUpper || hasLower;
+    }
+
+    /**
+     * Intenta parsear un string como JSON
+     * Retorna el JsonElement si es válido, null si no es JSON válido
+     */
+    public static JsonElement tryParseJson(String data) {
+        if (data == null || data.trim().isEmpty()) {
+            return null;
+        }
+
+        try {
+            String trimmed = data.trim();
+            // Verificar que comience con { o [ (JSON válido)
+            if (trimmed.startsWith("{") || trimmed.startsWith("[")) {
+                return JsonParser.parseString(trimmed);
+            }
+        } catch (Exception e) {
+            // No es JSON válido, retornar null
+        }
+
+        return null;
+    }
+}
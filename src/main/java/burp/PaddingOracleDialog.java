@@ -0,0 +1,204 @@
+package burp;
+
+import burp.api.montoya.MontoyaApi;
+import burp.api.montoya.http.message.requests.HttpRequest;
+
+import javax.swing.*;
+import java.awt.BorderLayout;
+import java.awt.FlowLayout;
+import java.awt.GridBagConstraints;
+import java.awt.GridBagLayout;
+import java.awt.Insets;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Padding oracle attack window, opened from the context menu on a request selection
+ *
+ * The selection is the CBC ciphertext, encoded like the request side of the
+ * codec chain. Every guess replays the request with the selection replaced;
+ * the detector fields say what a padding error looks like. The attack runs
+ * on the context menu pool and reports progress here.
+ */
+class PaddingOracleDialog extends JDialog {
+
+    private static final long serialVersionUID = 1L;
+
+    private final MontoyaApi api;
+    private final CryptoConfig config;
+    private final ExecutorService executor;
+    private final HttpRequest request;
+    private final int start;
+    private final int end;
+
+    private final JTextField statusField = new JTextField("500", 6);
+    private final JTextField lengthField = new JTextField("", 6);
+    private final JTextField regexField = new JTextField("", 20);
+    private final JTextField inFlightField = new JTextField("16", 4);
+    private final JTextField blocksField = new JTextField("4", 4);
+    private final JCheckBox ivFirstBlockCheckbox = new JCheckBox("IV is the first block");
+    private final JTextField stateFileField = new JTextField("", 28);
+    private final JTextField forgeField = new JTextField("", 28);
+    private final JTextArea output = new JTextArea(14, 70);
+    private final JButton decryptButton = new JButton("Decrypt");
+    private final JButton forgeButton = new JButton("Forge");
+    private final JButton stopButton = new JButton("Stop");
+
+    private volatile PaddingOracle running;
+
+    PaddingOracleDialog(MontoyaApi api, CryptoConfig config, ExecutorService executor,
+                        HttpRequest request, int start, int end) {
+        super((java.awt.Frame) null, "Padding oracle - " + request.httpService(), false);
+        this.api = api;
+        this.config = config;
+        this.executor = executor;
+        this.request = request;
+        this.start = start;
+        this.end = end;
+
+        ivFirstBlockCheckbox.setSelected(config.usesIvPrefix());
+        output.setEditable(false);
+        output.setLineWrap(true);
+        stopButton.setEnabled(false);
+
+        JPanel form = new JPanel(new GridBagLayout());
+        GridBagConstraints gbc = new GridBagConstraints();
+        gbc.insets = new Insets(3, 5, 3, 5);
+        gbc.anchor = GridBagConstraints.WEST;
+        int row = 0;
+        row = addRow(form, gbc, row, "Padding error status:", statusField);
+        row = addRow(form, gbc, row, "Padding error body length:", lengthField);
+        row = addRow(form, gbc, row, "Padding error body regex:", regexField);
+        row = addRow(form, gbc, row, "Requests in flight:", inFlightField);
+        row = addRow(form, gbc, row, "Parallel blocks:", blocksField);
+        gbc.gridx = 1;
+        gbc.gridy = row++;
+        form.add(ivFirstBlockCheckbox, gbc);
+        row = addRow(form, gbc, row, "State file (resume):", stateFileField);
+        addRow(form, gbc, row, "Plaintext to forge:", forgeField);
+
+        JPanel buttons = new JPanel(new FlowLayout(FlowLayout.LEFT));
+        buttons.add(decryptButton);
+        buttons.add(forgeButton);
+        buttons.add(stopButton);
+
+        JPanel north = new JPanel(new BorderLayout());
+        north.add(form, BorderLayout.CENTER);
+        north.add(buttons, BorderLayout.SOUTH);
+        add(north, BorderLayout.NORTH);
+        add(new JScrollPane(output), BorderLayout.CENTER);
+
+        decryptButton.addActionListener(e -> run(false));
+        forgeButton.addActionListener(e -> run(true));
+        stopButton.addActionListener(e -> {
+            PaddingOracle attack = running;
+            if (attack != null) {
+                attack.stop();
+                append("Stopping...");
+            }
+        });
+
+        pack();
+        setLocationRelativeTo(null);
+    }
+
+    private static int addRow(JPanel form, GridBagConstraints gbc, int row, String label, JComponent field) {
+        gbc.gridx = 0;
+        gbc.gridy = row;
+        form.add(new JLabel(label), gbc);
+        gbc.gridx = 1;
+        form.add(field, gbc);
+        return row + 1;
+    }
+
+    private void run(boolean forge) {
+        String selection = new String(request.toByteArray().getBytes(), start, end - start,
+                StandardCharsets.ISO_8859_1).trim();
+        String forgeText = forgeField.getText();
+        if (forge && forgeText.isEmpty()) {
+            append("Enter the plaintext to forge first");
+            return;
+        }
+
+        PaddingOracle attack;
+        byte[] ciphertext;
+        byte[] iv;
+        PaddingOracle.State state;
+        Path statePath;
+        try {
+            PaddingOracle.Detector detector = new PaddingOracle.Detector(
+                    statusField.getText(), lengthField.getText(), regexField.getText());
+            CodecChain chain = CodecChain.compile(config.getRequestCodecs());
+            ciphertext = chain.decodeCiphertext(selection, config);
+            iv = ivFirstBlockCheckbox.isSelected() ? null : staticIv();
+            String stateFile = stateFileField.getText().trim();
+            statePath = stateFile.isEmpty() ? null : Paths.get(stateFile);
+            state = statePath == null ? null : PaddingOracle.State.load(statePath);
+            PaddingOracle.Oracle oracle = new PaddingOracle.HttpOracle(api, request, start, end, chain, config, detector);
+            attack = new PaddingOracle(oracle, Integer.parseInt(inFlightField.getText().trim()),
+                    Integer.parseInt(blocksField.getText().trim()), state, statePath, this::append);
+            append((forge ? "Forging " : "Decrypting ") + ciphertext.length + "-byte ciphertext, " + detector
+                    + (state != null && state.knownBytes() > 0 ? ", resuming with " + state.knownBytes()
+                    + " known bytes" : ""));
+        } catch (Exception e) {
+            append("Error: " + e.getMessage());
+            return;
+        }
+
+        running = attack;
+        setRunning(true);
+        executor.submit(() -> {
+            try {
+                if (forge) {
+                    byte[] forged = attack.encrypt(forgeText.getBytes(StandardCharsets.UTF_8));
+                    String encoded = CodecChain.compile(config.getRequestCodecs()).encodeCiphertext(forged, config);
+                    append("Forged ciphertext (IV first):\n" + encoded);
+                } else {
+                    byte[] plaintext = attack.decrypt(ciphertext, iv);
+                    append("Plaintext:\n" + new String(plaintext, StandardCharsets.UTF_8));
+                }
+                append("Done - " + attack.stats());
+                api.logging().logToOutput("[ORACLE] " + (forge ? "Forge" : "Decrypt") + " finished - " + attack.stats());
+            } catch (Exception e) {
+                append("Stopped: " + e.getMessage() + " - " + attack.stats());
+                api.logging().logToError("[ORACLE] " + e.getMessage());
+            } finally {
+                attack.close();
+                running = null;
+                SwingUtilities.invokeLater(() -> setRunning(false));
+            }
+        });
+    }
+
+    /**
+     * Static IV from the configuration, or zeros: the first block then
+     * comes out as its intermediate value
+     */
+    private byte[] staticIv() throws Exception {
+        String configured = config.getIvBase64();
+        if (configured == null || configured.isEmpty()) {
+            append("No static IV configured: first block decrypts XORed with the unknown IV");
+            return new byte[PaddingOracle.BLOCK];
+        }
+        byte[] iv = HexBase64.fromBase64(configured);
+        if (iv == null || iv.length != PaddingOracle.BLOCK) {
+            throw new Exception("Configured IV is not a 16-byte Base64 value");
+        }
+        return iv;
+    }
+
+    private void setRunning(boolean active) {
+        decryptButton.setEnabled(!active);
+        forgeButton.setEnabled(!active);
+        stopButton.setEnabled(active);
+    }
+
+    private void append(String line) {
+        SwingUtilities.invokeLater(() -> {
+            output.append(line + "\n");
+            output.setCaretPosition(output.getDocument().getLength());
+        });
+    }
+}
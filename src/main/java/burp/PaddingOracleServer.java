@@ -0,0 +1,164 @@
+package burp;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import javax.crypto.BadPaddingException;
+import javax.crypto.Cipher;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Deliberately vulnerable local stand-in for a CBC padding-oracle endpoint
+ *
+ * Tokens are AES-128-CBC with a random key and a random IV sent as the first
+ * block. The server answers with a distinct status for bad padding, the
+ * classic mistake PaddingOracle exploits:
+ *
+ *   GET  /token                       → {"data":"<Base64 IV||ciphertext>"}
+ *   POST /api  {"data":"<Base64>"}    → 200 {"user":...} / 400 bad JSON / 500 bad padding
+ *
+ * An optional per-request latency models a remote server, which is where
+ * bounded parallel requests pay off. Binds to 127.0.0.1 only.
+ *
+ * Usage:
+ *   java -cp destroy-aes.jar:montoya-api.jar burp.PaddingOracleServer [--port 8099] [--latency 5]
+ */
+public class PaddingOracleServer {
+
+    static final String SECRET = "{\"user\":\"alice\",\"role\":\"user\",\"note\":\"padding oracles leak\"}";
+
+    private final SecretKeySpec key = new SecretKeySpec(NonceGenerator.randomBytes(16), "AES");
+    private final int latencyMillis;
+    private HttpServer server;
+    private ExecutorService executor;
+
+    public PaddingOracleServer(int latencyMillis) {
+        this.latencyMillis = latencyMillis;
+    }
+
+    public static void main(String[] args) throws Exception {
+        int port = 8099;
+        int latency = 0;
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--port": port = Integer.parseInt(args[++i]); break;
+                case "--latency": latency = Integer.parseInt(args[++i]); break;
+                default:
+                    System.err.println("Unknown argument: " + args[i]);
+                    System.exit(1);
+            }
+        }
+        PaddingOracleServer server = new PaddingOracleServer(latency);
+        server.start(port);
+        System.out.println("Padding oracle stand-in on http://127.0.0.1:" + server.getPort());
+        System.out.println("Token: " + server.token());
+        System.out.println("POST /api {\"data\":\"<token>\"}: 500 on bad padding, 400 on bad JSON, 200 otherwise");
+    }
+
+    public void start(int port) throws IOException {
+        // Headers and body go out as two writes: without TCP_NODELAY, Nagle plus
+        // delayed ACKs add ~40 ms to every keep-alive request
+        System.setProperty("sun.net.httpserver.nodelay", "true");
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", port), 1024);
+        executor = Executors.newFixedThreadPool(64);
+        server.setExecutor(executor);
+        server.createContext("/token", exchange -> {
+            JsonObject json = new JsonObject();
+            json.addProperty("data", token());
+            send(exchange, 200, json.toString());
+        });
+        server.createContext("/api", this::handleApi);
+        server.start();
+    }
+
+    public void stop() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    /**
+     * A fresh token for SECRET: Base64 of IV || AES-CBC(SECRET)
+     */
+    public String token() {
+        try {
+            byte[] iv = NonceGenerator.randomBytes(16);
+            Cipher cipher = Cipher.getInstance("AES/CBC/PKCS5Padding");
+            cipher.init(Cipher.ENCRYPT_MODE, key, new IvParameterSpec(iv));
+            byte[] encrypted = cipher.doFinal(SECRET.getBytes(StandardCharsets.UTF_8));
+            byte[] out = Arrays.copyOf(iv, iv.length + encrypted.length);
+            System.arraycopy(encrypted, 0, out, iv.length, encrypted.length);
+            return Base64.getEncoder().encodeToString(out);
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private void handleApi(HttpExchange exchange) throws IOException {
+        if (latencyMillis > 0) {
+            try {
+                Thread.sleep(latencyMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        byte[] data;
+        try {
+            String body = new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8);
+            data = Base64.getDecoder().decode(JsonParser.parseString(body).getAsJsonObject().get("data").getAsString());
+        } catch (RuntimeException e) {
+            send(exchange, 400, "{\"error\":\"Bad request\"}");
+            return;
+        }
+        if (data.length < 32 || data.length % 16 != 0) {
+            send(exchange, 400, "{\"error\":\"Bad length\"}");
+            return;
+        }
+
+        String plaintext;
+        try {
+            Cipher cipher = Cipher.getInstance("AES/CBC/PKCS5Padding");
+            cipher.init(Cipher.DECRYPT_MODE, key, new IvParameterSpec(data, 0, 16));
+            plaintext = new String(cipher.doFinal(data, 16, data.length - 16), StandardCharsets.UTF_8);
+        } catch (BadPaddingException e) {
+            send(exchange, 500, "{\"error\":\"Invalid padding\"}");
+            return;
+        } catch (Exception e) {
+            send(exchange, 500, "{\"error\":\"" + e.getClass().getSimpleName() + "\"}");
+            return;
+        }
+
+        try {
+            JsonObject token = JsonParser.parseString(plaintext).getAsJsonObject();
+            JsonObject json = new JsonObject();
+            json.addProperty("user", token.has("user") ? token.get("user").getAsString() : null);
+            json.addProperty("role", token.has("role") ? token.get("role").getAsString() : null);
+            send(exchange, 200, json.toString());
+        } catch (RuntimeException e) {
+            send(exchange, 400, "{\"error\":\"Bad token\"}");
+        }
+    }
+
+    private static void send(HttpExchange exchange, int status, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+}
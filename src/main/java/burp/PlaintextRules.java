@@ -0,0 +1,639 @@
+package burp;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.google.gson.JsonPrimitive;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * PlaintextRules - Reglas de match/replace sobre el texto plano
+ *
+ * El match/replace de Burp solo ve el ciphertext. Estas reglas se aplican
+ * al texto descifrado justo antes de volver a cifrarlo: requests hacia el
+ * servidor (HttpHandler) y responses hacia el cliente (ProxyHandler), en
+ * el cuerpo, en tokens de cabecera/cookie/query y en frames WebSocket.
+ *
+ * Una regla por línea, "#" para comentarios:
+ *
+ *   request  literal "role":"user" => "role":"admin"
+ *   both     regex   "exp":\d+ => "exp":4102444800
+ *   request  set     $.user.role => "admin"
+ *   response remove  $.debug
+ *
+ * El primer campo es request, response o both. literal y regex reemplazan
+ * texto (regex admite $1); set y remove modifican el JSON en una ruta
+ * $.a.b, $.a[0] o $.a[*].b, y el valor de set es JSON (o texto si no lo es).
+ *
+ * Orden por mensaje: primero las reglas JSON, luego todas las literales
+ * en una sola pasada y por último las regex, en orden. Las literales de
+ * cada dirección se compilan en un autómata Aho-Corasick: el coste de la
+ * pasada no depende de cuántas haya. Si dos literales se solapan gana la
+ * que empieza antes y, a igual inicio, la más larga.
+ *
+ * Las reglas se compilan una vez por texto de configuración; cada regla
+ * cuenta sus aciertos mientras la configuración no cambie.
+ */
+public final class PlaintextRules {
+
+    public static final String REQUEST = "request";
+    public static final String RESPONSE = "response";
+    public static final String BOTH = "both";
+
+    public static final String LITERAL = "literal";
+    public static final String REGEX = "regex";
+    public static final String SET = "set";
+    public static final String REMOVE = "remove";
+
+    private static final String ARROW = " =>";
+
+    // Sin reglas: apply devuelve el texto tal cual
+    public static final PlaintextRules NONE = new PlaintextRules("", new Rule[0]);
+
+    // Última configuración compilada (se compara por contenido)
+    private static volatile PlaintextRules current = NONE;
+
+    /**
+     * Una regla con su contador de aciertos
+     */
+    public static final class Rule {
+        public final int line;
+        public final String scope;
+        public final String type;
+        public final String pattern;
+        public final String replacement;
+
+        private final Pattern regex;
+        private final JsonPath path;
+        private final JsonElement value;
+        private final AtomicLong hits = new AtomicLong();
+
+        private Rule(int line, String scope, String type, String pattern, String replacement) throws Exception {
+            this.line = line;
+            this.scope = scope;
+            this.type = type;
+            this.pattern = pattern;
+            this.replacement = replacement;
+            this.regex = REGEX.equals(type) ? compileRegex(pattern) : null;
+            this.path = SET.equals(type) || REMOVE.equals(type) ? JsonPath.parse(pattern) : null;
+            this.value = SET.equals(type) ? jsonValue(replacement) : null;
+        }
+
+        private Pattern compileRegex(String pattern) throws Exception {
+            try {
+                return Pattern.compile(pattern);
+            } catch (PatternSyntaxException e) {
+                throw new Exception("Invalid regex: " + e.getDescription());
+            }
+        }
+
+        private boolean appliesTo(boolean request) {
+            return BOTH.equals(scope) || scope.equals(request ? REQUEST : RESPONSE);
+        }
+
+        /**
+         * Reemplazos (literal, regex) o nodos modificados (set, remove)
+         */
+        public long getHits() {
+            return hits.get();
+        }
+
+        @Override
+        public String toString() {
+            return scope + " " + type + " " + pattern + (REMOVE.equals(type) ? "" : " => " + replacement);
+        }
+    }
+
+    private final String spec;
+    private final Rule[] rules;
+    private final Direction request;
+    private final Direction response;
+    private final Gson gson = new Gson();
+
+    private PlaintextRules(String spec, Rule[] rules) {
+        this.spec = spec;
+        this.rules = rules;
+        this.request = new Direction(rules, true);
+        this.response = new Direction(rules, false);
+    }
+
+    /**
+     * Compila (o recupera ya compilada) la configuración de reglas
+     *
+     * @throws Exception con el número de línea si una regla no es válida
+     */
+    public static PlaintextRules compile(String spec) throws Exception {
+        if (spec == null || spec.trim().isEmpty()) {
+            return NONE;
+        }
+        PlaintextRules rules = current;
+        if (!spec.equals(rules.spec)) {
+            rules = new PlaintextRules(spec, parse(spec));
+            current = rules;
+        }
+        return rules;
+    }
+
+    private static Rule[] parse(String spec) throws Exception {
+        List<Rule> rules = new ArrayList<>();
+        String[] lines = spec.split("\r?\n");
+        for (int i = 0; i < lines.length; i++) {
+            String line = lines[i].trim();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            try {
+                rules.add(parseRule(i + 1, line));
+            } catch (Exception e) {
+                throw new Exception("Plaintext rule on line " + (i + 1) + ": " + e.getMessage());
+            }
+        }
+        return rules.toArray(new Rule[0]);
+    }
+
+    private static Rule parseRule(int lineNumber, String line) throws Exception {
+        String[] head = line.split("\\s+", 3);
+        if (head.length < 3) {
+            throw new Exception("expected <request|response|both> <literal|regex|set|remove> <pattern>");
+        }
+        String scope = head[0].toLowerCase(Locale.ROOT);
+        String type = head[1].toLowerCase(Locale.ROOT);
+        if (!REQUEST.equals(scope) && !RESPONSE.equals(scope) && !BOTH.equals(scope)) {
+            throw new Exception("unknown direction " + head[0]);
+        }
+        if (REMOVE.equals(type)) {
+            return new Rule(lineNumber, scope, type, head[2].trim(), "");
+        }
+        if (!LITERAL.equals(type) && !REGEX.equals(type) && !SET.equals(type)) {
+            throw new Exception("unknown rule type " + head[1]);
+        }
+
+        // "patrón => reemplazo"; el reemplazo puede quedar vacío (la línea llega recortada)
+        String rest = head[2];
+        int arrow = rest.indexOf(ARROW + " ");
+        if (arrow < 0 && rest.endsWith(ARROW)) {
+            arrow = rest.length() - ARROW.length();
+        }
+        if (arrow <= 0) {
+            throw new Exception("expected <pattern> => <replacement>");
+        }
+        String pattern = rest.substring(0, arrow);
+        String replacement = rest.substring(Math.min(rest.length(), arrow + ARROW.length() + 1));
+        return new Rule(lineNumber, scope, type, SET.equals(type) ? pattern.trim() : pattern, replacement);
+    }
+
+    /**
+     * Valor de una regla set: JSON si se puede parsear, si no texto
+     */
+    private static JsonElement jsonValue(String text) {
+        try {
+            JsonElement value = JsonParser.parseString(text);
+            if (!value.isJsonNull() || "null".equals(text.trim())) {
+                return value;
+            }
+        } catch (RuntimeException e) {
+            // No es JSON: se usa como string
+        }
+        return new JsonPrimitive(text);
+    }
+
+    /**
+     * Reglas en el orden de la configuración
+     */
+    public List<Rule> rules() {
+        return Collections.unmodifiableList(Arrays.asList(rules));
+    }
+
+    public boolean isEmpty() {
+        return rules.length == 0;
+    }
+
+    public void resetHits() {
+        for (Rule rule : rules) {
+            rule.hits.set(0);
+        }
+    }
+
+    /**
+     * Aciertos de todas las reglas
+     */
+    public long totalHits() {
+        long total = 0;
+        for (Rule rule : rules) {
+            total += rule.hits.get();
+        }
+        return total;
+    }
+
+    /**
+     * Aplica las reglas de la dirección a un texto plano a punto de cifrarse
+     *
+     * Las reglas JSON solo se aplican si el texto es un objeto o array JSON.
+     *
+     * @param label "Request" o "Response"
+     * @return el texto reescrito, o el mismo String si ninguna regla acertó
+     */
+    public String apply(String plaintext, String label) {
+        Direction direction = direction(label);
+        if (direction.isEmpty() || plaintext == null) {
+            return plaintext;
+        }
+        String text = plaintext;
+        if (direction.json.length > 0) {
+            JsonElement root = MessageTransformer.tryParseJson(text);
+            if (root != null && applyJson(direction, root)) {
+                text = gson.toJson(root);
+            }
+        }
+        return applyText(direction, text);
+    }
+
+    /**
+     * Solo las reglas set/remove, sobre un árbol ya parseado (se modifica en su sitio)
+     *
+     * @return true si alguna regla lo cambió
+     */
+    public boolean applyJson(JsonElement root, String label) {
+        Direction direction = direction(label);
+        return direction.json.length > 0 && applyJson(direction, root);
+    }
+
+    /**
+     * Solo las reglas literal y regex
+     *
+     * @return el texto reescrito, o el mismo String si ninguna regla acertó
+     */
+    public String applyText(String plaintext, String label) {
+        Direction direction = direction(label);
+        return direction.isEmpty() || plaintext == null ? plaintext : applyText(direction, plaintext);
+    }
+
+    private Direction direction(String label) {
+        return "Request".equals(label) ? request : response;
+    }
+
+    private static boolean applyJson(Direction direction, JsonElement root) {
+        boolean changed = false;
+        for (Rule rule : direction.json) {
+            int count = rule.path.apply(root, 0, REMOVE.equals(rule.type) ? null : rule.value);
+            if (count > 0) {
+                rule.hits.addAndGet(count);
+                changed = true;
+            }
+        }
+        return changed;
+    }
+
+    private static String applyText(Direction direction, String text) {
+        if (direction.literals != null) {
+            text = direction.literals.replace(text);
+        }
+        for (Rule rule : direction.regex) {
+            Matcher matcher = rule.regex.matcher(text);
+            if (!matcher.find()) {
+                continue;
+            }
+            StringBuilder out = new StringBuilder(text.length() + 16);
+            int count = 0;
+            do {
+                matcher.appendReplacement(out, rule.replacement);
+                count++;
+            } while (matcher.find());
+            matcher.appendTail(out);
+            rule.hits.addAndGet(count);
+            text = out.toString();
+        }
+        return text;
+    }
+
+    /**
+     * Reglas de una dirección, separadas por etapa
+     */
+    private static final class Direction {
+        final Rule[] json;
+        final Automaton literals;
+        final Rule[] regex;
+
+        Direction(Rule[] rules, boolean request) {
+            List<Rule> json = new ArrayList<>();
+            List<Rule> literals = new ArrayList<>();
+            List<Rule> regex = new ArrayList<>();
+            for (Rule rule : rules) {
+                if (!rule.appliesTo(request)) {
+                    continue;
+                }
+                if (LITERAL.equals(rule.type)) {
+                    literals.add(rule);
+                } else if (REGEX.equals(rule.type)) {
+                    regex.add(rule);
+                } else {
+                    json.add(rule);
+                }
+            }
+            this.json = json.toArray(new Rule[0]);
+            this.literals = literals.isEmpty() ? null : new Automaton(literals.toArray(new Rule[0]));
+            this.regex = regex.toArray(new Rule[0]);
+        }
+
+        boolean isEmpty() {
+            return json.length == 0 && literals == null && regex.length == 0;
+        }
+    }
+
+    /**
+     * Autómata Aho-Corasick de todas las literales de una dirección
+     *
+     * Los caracteres se agrupan en clases (0: ninguno de los patrones lo
+     * contiene) y las transiciones de fallo se resuelven al construirlo, así
+     * que la pasada es una lectura de tabla por carácter. La tabla ocupa
+     * estados × clases enteros.
+     */
+    static final class Automaton {
+        private final Rule[] rules;
+        private final char[] classes = new char[Character.MAX_VALUE + 1];
+        private final int classCount;
+        private final int shift;        // filas de 2^shift enteros
+        private final int[] delta;      // fila + clase → fila siguiente (fila = estado << shift)
+        private final int[] depth;      // longitud del prefijo que representa cada estado
+        private final int[] terminal;   // regla que termina en el estado, o -1
+        private final int[] match;      // el propio estado o su sufijo más largo que es terminal, o 0
+
+        Automaton(Rule[] rules) {
+            this.rules = rules;
+
+            int states = 1;
+            char next = 1;
+            for (Rule rule : rules) {
+                states += rule.pattern.length();
+                for (int i = 0; i < rule.pattern.length(); i++) {
+                    char c = rule.pattern.charAt(i);
+                    if (classes[c] == 0) {
+                        classes[c] = next++;
+                    }
+                }
+            }
+            classCount = next;
+            shift = 32 - Integer.numberOfLeadingZeros(classCount - 1);
+
+            // Trie: -1 donde no hay arista
+            int[] table = new int[states << shift];
+            Arrays.fill(table, -1);
+            int[] depth = new int[states];
+            int[] terminal = new int[states];
+            Arrays.fill(terminal, -1);
+            int used = 1;
+            for (int r = 0; r < rules.length; r++) {
+                String pattern = rules[r].pattern;
+                int state = 0;
+                for (int i = 0; i < pattern.length(); i++) {
+                    int slot = (state << shift) + classes[pattern.charAt(i)];
+                    if (table[slot] < 0) {
+                        table[slot] = used;
+                        depth[used] = depth[state] + 1;
+                        used++;
+                    }
+                    state = table[slot];
+                }
+                // Patrones repetidos: gana la primera regla
+                if (terminal[state] < 0) {
+                    terminal[state] = r;
+                }
+            }
+
+            // Fallos en anchura; la tabla pasa a ser la función de transición completa
+            int[] fail = new int[used];
+            int[] dictionary = new int[used];
+            ArrayDeque<Integer> queue = new ArrayDeque<>();
+            table[0] = 0;
+            for (int c = 1; c < classCount; c++) {
+                if (table[c] < 0) {
+                    table[c] = 0;
+                } else {
+                    queue.add(table[c]);
+                }
+            }
+            while (!queue.isEmpty()) {
+                int state = queue.poll();
+                int failure = fail[state];
+                dictionary[state] = terminal[failure] >= 0 ? failure : dictionary[failure];
+                table[state << shift] = 0;
+                for (int c = 1; c < classCount; c++) {
+                    int slot = (state << shift) + c;
+                    if (table[slot] < 0) {
+                        table[slot] = table[(failure << shift) + c];
+                    } else {
+                        fail[table[slot]] = table[(failure << shift) + c];
+                        queue.add(table[slot]);
+                    }
+                }
+            }
+
+            // Las transiciones guardan la fila destino: la pasada no multiplica ni desplaza
+            this.delta = Arrays.copyOf(table, used << shift);
+            for (int i = 0; i < delta.length; i++) {
+                delta[i] <<= shift;
+            }
+            this.depth = Arrays.copyOf(depth, used);
+            this.terminal = Arrays.copyOf(terminal, used);
+            this.match = new int[used];
+            for (int state = 1; state < used; state++) {
+                match[state] = terminal[state] >= 0 ? state : dictionary[state];
+            }
+        }
+
+        /**
+         * Reemplaza las coincidencias más a la izquierda (y más largas), sin solaparse
+         *
+         * Cada búsqueda avanza hasta que ninguna coincidencia posterior puede
+         * empezar antes que la mejor encontrada, la aplica y sigue desde su
+         * final. Solo se vuelve a leer el texto entre ese final y el punto
+         * donde se decidió, como mucho la longitud del patrón más largo.
+         *
+         * @return el texto reescrito, o el mismo String si no hay coincidencias
+         */
+        String replace(String text) {
+            char[] classes = this.classes;
+            int[] delta = this.delta;
+            int[] depth = this.depth;
+            int[] match = this.match;
+            int shift = this.shift;
+            int length = text.length();
+            StringBuilder out = null;
+            int copied = 0;
+            int position = 0;
+            while (position < length) {
+                int row = 0;
+                int bestStart = -1;
+                int bestEnd = 0;
+                int bestRule = -1;
+                for (int i = position; i < length; i++) {
+                    row = delta[row + classes[text.charAt(i)]];
+                    int state = row >>> shift;
+                    int end = i + 1;
+                    // Lo que empiece aquí o después ya no mejora la mejor
+                    if (bestStart >= 0 && end - depth[state] > bestStart) {
+                        break;
+                    }
+                    int found = match[state];
+                    if (found != 0) {
+                        int start = end - depth[found];
+                        if (bestStart < 0 || start <= bestStart) {
+                            bestStart = start;
+                            bestEnd = end;
+                            bestRule = terminal[found];
+                        }
+                    }
+                }
+                if (bestStart < 0) {
+                    break;
+                }
+
+                if (out == null) {
+                    out = new StringBuilder(length + 16);
+                }
+                Rule rule = rules[bestRule];
+                out.append(text, copied, bestStart).append(rule.replacement);
+                rule.hits.incrementAndGet();
+                copied = bestEnd;
+                position = bestEnd;
+            }
+            return out == null ? text : out.append(text, copied, length).toString();
+        }
+    }
+
+    /**
+     * Ruta JSON sencilla: $ seguido de .nombre, ['nombre'], [n] o [*]
+     */
+    static final class JsonPath {
+        private static final int NAME = -2;
+        private static final int ALL = -1;
+
+        private final String[] names;
+        private final int[] indexes;   // NAME, ALL o la posición en el array
+
+        private JsonPath(String[] names, int[] indexes) {
+            this.names = names;
+            this.indexes = indexes;
+        }
+
+        static JsonPath parse(String path) throws Exception {
+            if (!path.startsWith("$")) {
+                throw new Exception("JSON path must start with $: " + path);
+            }
+            List<String> names = new ArrayList<>();
+            List<Integer> indexes = new ArrayList<>();
+            int i = 1;
+            while (i < path.length()) {
+                char c = path.charAt(i);
+                if (c == '.') {
+                    int end = i + 1;
+                    while (end < path.length() && path.charAt(end) != '.' && path.charAt(end) != '[') {
+                        end++;
+                    }
+                    if (end == i + 1) {
+                        throw new Exception("empty name in JSON path: " + path);
+                    }
+                    names.add(path.substring(i + 1, end));
+                    indexes.add(NAME);
+                    i = end;
+                } else if (c == '[') {
+                    int end = path.indexOf(']', i);
+                    if (end < 0) {
+                        throw new Exception("unclosed [ in JSON path: " + path);
+                    }
+                    String inside = path.substring(i + 1, end).trim();
+                    if (inside.length() >= 2 && (inside.charAt(0) == '\'' || inside.charAt(0) == '"')
+                            && inside.charAt(inside.length() - 1) == inside.charAt(0)) {
+                        names.add(inside.substring(1, inside.length() - 1));
+                        indexes.add(NAME);
+                    } else if ("*".equals(inside)) {
+                        names.add(null);
+                        indexes.add(ALL);
+                    } else {
+                        try {
+                            names.add(null);
+                            indexes.add(Integer.parseInt(inside));
+                        } catch (NumberFormatException e) {
+                            throw new Exception("bad index [" + inside + "] in JSON path: " + path);
+                        }
+                        if (indexes.get(indexes.size() - 1) < 0) {
+                            throw new Exception("negative index in JSON path: " + path);
+                        }
+                    }
+                    i = end + 1;
+                } else {
+                    throw new Exception("unexpected '" + c + "' in JSON path: " + path);
+                }
+            }
+            if (names.isEmpty()) {
+                throw new Exception("JSON path selects the whole document: " + path);
+            }
+            int[] indexArray = new int[indexes.size()];
+            for (int k = 0; k < indexArray.length; k++) {
+                indexArray[k] = indexes.get(k);
+            }
+            return new JsonPath(names.toArray(new String[0]), indexArray);
+        }
+
+        /**
+         * Pone (value) o quita (value null) los nodos de la ruta bajo node
+         *
+         * Con set se crea la última clave si el objeto padre existe; los
+         * tramos intermedios que no existen no se crean.
+         *
+         * @return nodos modificados
+         */
+        int apply(JsonElement node, int segment, JsonElement value) {
+            boolean last = segment == names.length - 1;
+            if (indexes[segment] == NAME) {
+                if (!node.isJsonObject()) {
+                    return 0;
+                }
+                JsonObject object = node.getAsJsonObject();
+                String name = names[segment];
+                if (last) {
+                    if (value == null) {
+                        return object.remove(name) != null ? 1 : 0;
+                    }
+                    object.add(name, value.deepCopy());
+                    return 1;
+                }
+                JsonElement child = object.get(name);
+                return child != null ? apply(child, segment + 1, value) : 0;
+            }
+
+            if (!node.isJsonArray()) {
+                return 0;
+            }
+            JsonArray array = node.getAsJsonArray();
+            int from = indexes[segment] == ALL ? 0 : indexes[segment];
+            int to = indexes[segment] == ALL ? array.size() : Math.min(array.size(), from + 1);
+            int count = 0;
+            // Hacia atrás: quitar un elemento no mueve los que quedan por visitar
+            for (int i = to - 1; i >= from; i--) {
+                if (!last) {
+                    count += apply(array.get(i), segment + 1, value);
+                } else if (value == null) {
+                    array.remove(i);
+                    count++;
+                } else {
+                    array.set(i, value.deepCopy());
+                    count++;
+                }
+            }
+            return count;
+        }
+    }
+}
@@ -0,0 +1,147 @@
+package burp;
+
+import java.util.Random;
+
+/**
+ * Cost of the plaintext rules stage as the number of literal rules grows
+ *
+ * Builds M JSON messages of ~S bytes, each carrying a few of the rule
+ * patterns ("kN":"user"), and rewrites them with 1, 10, 100 and 1000
+ * literal rules: once through the compiled automaton and once with one
+ * String.replace per rule, which is what separate match/replace rules
+ * cost. Both must give the same text. A last row adds one regex and one
+ * JSON set rule on top of the largest literal set.
+ *
+ * Usage:
+ *   java -cp destroy-aes.jar:montoya-api.jar:gson.jar burp.PlaintextRulesBenchmark \
+ *        [--messages 20000] [--size 4096] [--rules 1,10,100,1000]
+ */
+public class PlaintextRulesBenchmark {
+
+    private static final int MATCHES_PER_MESSAGE = 4;
+
+    public static void main(String[] args) throws Exception {
+        int messages = 20_000;
+        int size = 4096;
+        String ruleCounts = "1,10,100,1000";
+
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--messages": messages = Integer.parseInt(args[++i]); break;
+                case "--size": size = Integer.parseInt(args[++i]); break;
+                case "--rules": ruleCounts = args[++i]; break;
+                default:
+                    System.err.println("Unknown argument: " + args[i]);
+                    System.exit(1);
+            }
+        }
+
+        System.out.println("Plaintext rules benchmark: " + messages + " messages of ~" + size + " bytes, "
+                + MATCHES_PER_MESSAGE + " rule patterns per message");
+        System.out.println();
+        System.out.printf("%-16s %12s %12s %12s %10s%n", "rules", "automaton", "replace", "MB/s", "hits");
+
+        int largest = 0;
+        for (String count : ruleCounts.split(",")) {
+            int rules = Integer.parseInt(count.trim());
+            largest = Math.max(largest, rules);
+            String[] texts = messages(messages, size, rules, new Random(rules));
+            String spec = literalRules(rules);
+
+            PlaintextRules compiled = PlaintextRules.compile(spec);
+            long automaton = Long.MAX_VALUE;
+            long replace = Long.MAX_VALUE;
+            for (int round = 0; round < 3; round++) {
+                compiled.resetHits();
+                automaton = Math.min(automaton, time(texts, text -> compiled.applyText(text, "Request")));
+                replace = Math.min(replace, time(texts, text -> replaceEach(text, rules)));
+            }
+            long hits = compiled.totalHits();
+            for (String text : texts) {
+                if (!compiled.applyText(text, "Request").equals(replaceEach(text, rules))) {
+                    throw new IllegalStateException("Automaton and String.replace disagree with " + rules + " rules");
+                }
+            }
+            System.out.printf("%-16s %9.0f ns %9.0f ns %12.0f %10d%n", rules + " literal",
+                    (double) automaton / messages, (double) replace / messages,
+                    (double) messages * size / (automaton / 1e9) / (1 << 20), hits);
+        }
+
+        // Regex and JSON rules run after the automaton, one pass each
+        String[] texts = messages(messages, size, largest, new Random(largest));
+        PlaintextRules mixed = PlaintextRules.compile(literalRules(largest)
+                + "request regex \"f1\":\"[a-z]+\" => \"f1\":\"rewritten\"\n"
+                + "request set $.k0 => \"admin\"\n");
+        long elapsed = Long.MAX_VALUE;
+        for (int round = 0; round < 3; round++) {
+            mixed.resetHits();
+            elapsed = Math.min(elapsed, time(texts, text -> mixed.apply(text, "Request")));
+        }
+        System.out.printf("%-16s %9.0f ns %12s %12.0f %10d%n", "+regex +set", (double) elapsed / messages, "-",
+                (double) messages * size / (elapsed / 1e9) / (1 << 20), mixed.totalHits());
+        System.out.println();
+        System.out.println("automaton = one pass for all literal rules; replace = one String.replace per rule."
+                + " Hits are for the last round");
+    }
+
+    private interface Rewrite {
+        String apply(String text) throws Exception;
+    }
+
+    private static long time(String[] texts, Rewrite rewrite) throws Exception {
+        long length = 0;
+        long start = System.nanoTime();
+        for (String text : texts) {
+            length += rewrite.apply(text).length();
+        }
+        long elapsed = System.nanoTime() - start;
+        if (length == 0) {
+            throw new IllegalStateException("Empty output");
+        }
+        return elapsed;
+    }
+
+    private static String literalRules(int count) {
+        StringBuilder spec = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            spec.append("request literal \"k").append(i).append("\":\"user\" => \"k").append(i)
+                    .append("\":\"admin\"\n");
+        }
+        return spec.toString();
+    }
+
+    private static String replaceEach(String text, int count) {
+        for (int i = 0; i < count; i++) {
+            text = text.replace("\"k" + i + "\":\"user\"", "\"k" + i + "\":\"admin\"");
+        }
+        return text;
+    }
+
+    /**
+     * JSON objects with random string fields and a few "kN":"user" pairs
+     */
+    private static String[] messages(int count, int size, int rules, Random random) {
+        String[] texts = new String[count];
+        for (int m = 0; m < count; m++) {
+            StringBuilder json = new StringBuilder(size + 64).append('{');
+            int field = 0;
+            while (json.length() < size) {
+                if (json.length() > 1) {
+                    json.append(',');
+                }
+                if (field % 8 == 3 && field / 8 < MATCHES_PER_MESSAGE) {
+                    json.append("\"k").append(random.nextInt(rules)).append("\":\"user\"");
+                } else {
+                    json.append("\"f").append(field).append("\":\"");
+                    for (int i = 0, n = 8 + random.nextInt(24); i < n; i++) {
+                        json.append((char) ('a' + random.nextInt(26)));
+                    }
+                    json.append('"');
+                }
+                field++;
+            }
+            texts[m] = json.append('}').toString();
+        }
+        return texts;
+    }
+}
@@ -0,0 +1,294 @@
+package burp;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Throughput and latency report for StandaloneProxy against a local echo server
+ *
+ * Starts an echo server that returns every request body unchanged, a proxy in
+ * front of it with a random key, and a single-threaded NIO load client that
+ * keeps the requested number of keep-alive connections busy. Each round trip
+ * goes plaintext → encrypt → echo → decrypt, and the client checks that the
+ * plaintext came back.
+ *
+ * Usage:
+ *   java -cp destroy-aes.jar:montoya-api.jar burp.ProxyBenchmark \
+ *        [--connections 2000] [--duration 20] [--warmup 5] [--payload 256] [--mode CBC]
+ */
+public class ProxyBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int connections = 2000;
+        int durationSeconds = 20;
+        int warmupSeconds = 5;
+        int payloadSize = 256;
+        String mode = "CBC";
+
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--connections": connections = Integer.parseInt(args[++i]); break;
+                case "--duration": durationSeconds = Integer.parseInt(args[++i]); break;
+                case "--warmup": warmupSeconds = Integer.parseInt(args[++i]); break;
+                case "--payload": payloadSize = Integer.parseInt(args[++i]); break;
+                case "--mode": mode = args[++i]; break;
+                default:
+                    System.err.println("Unknown argument: " + args[i]);
+                    System.exit(1);
+            }
+        }
+
+        CryptoConfig config = new CryptoConfig();
+        config.setMode(mode);
+        config.setPadding("GCM".equals(mode) ? "NoPadding" : "PKCS5Padding");
+        config.setKeySize(256);
+        config.setKeyBase64(CryptoHelper.generateKey(256));
+        config.setIvBase64(CryptoHelper.generateIV(mode));
+        config.setEnabled(true);
+
+        EchoServer echo = new EchoServer();
+        echo.start();
+
+        StandaloneProxy proxy = new StandaloneProxy(config, new ConsoleLogging(false), 0,
+                "127.0.0.1", echo.getPort(), Runtime.getRuntime().availableProcessors() * 8, 256);
+        proxy.start();
+
+        char[] filler = new char[payloadSize];
+        Arrays.fill(filler, 'x');
+        String body = "{\"data\":{\"user\":\"bench\",\"pad\":\"" + new String(filler) + "\"}}";
+
+        System.out.println("Destroy AES proxy benchmark: " + config.getAlgorithm() + ", "
+                + connections + " connections, payload " + body.length() + " bytes");
+
+        LoadClient client = new LoadClient(proxy.getPort(), connections, body);
+        client.run(warmupSeconds * 1000L, durationSeconds * 1000L);
+
+        proxy.stop();
+        echo.stop();
+        client.report(durationSeconds);
+    }
+
+    /**
+     * Echo server: returns each request body as a JSON response, keep-alive
+     */
+    static class EchoServer {
+        private final ServerSocket server;
+        private final ExecutorService pool = Executors.newCachedThreadPool(r -> {
+            Thread t = new Thread(r, "echo-server");
+            t.setDaemon(true);
+            return t;
+        });
+
+        EchoServer() throws IOException {
+            server = new ServerSocket();
+            server.bind(new InetSocketAddress("127.0.0.1", 0), 1024);
+        }
+
+        int getPort() {
+            return server.getLocalPort();
+        }
+
+        void start() {
+            pool.execute(() -> {
+                while (!server.isClosed()) {
+                    try {
+                        Socket socket = server.accept();
+                        socket.setTcpNoDelay(true);
+                        pool.execute(() -> serve(socket));
+                    } catch (IOException e) {
+                        // Servidor cerrado
+                    }
+                }
+            });
+        }
+
+        private void serve(Socket socket) {
+            try (Socket s = socket) {
+                InputStream in = s.getInputStream();
+                OutputStream out = s.getOutputStream();
+                byte[] buffer = new byte[16 * 1024];
+                int length = 0;
+                while (true) {
+                    RawHttpMessage request = RawHttpMessage.tryParse(buffer, length, false, false, false);
+                    if (request == null) {
+                        if (length == buffer.length) {
+                            buffer = Arrays.copyOf(buffer, buffer.length * 2);
+                        }
+                        int n = in.read(buffer, length, buffer.length - length);
+                        if (n < 0) {
+                            return;
+                        }
+                        length += n;
+                        continue;
+                    }
+                    System.arraycopy(buffer, request.consumed, buffer, 0, length - request.consumed);
+                    length -= request.consumed;
+
+                    RawHttpMessage response = new RawHttpMessage("HTTP/1.1 200 OK", new ArrayList<>(), request.body);
+                    response.setHeader("Content-Type", "application/json");
+                    out.write(response.toBytes());
+                    out.flush();
+                }
+            } catch (Exception e) {
+                // Conexión cerrada
+            }
+        }
+
+        void stop() throws IOException {
+            server.close();
+            pool.shutdownNow();
+        }
+    }
+
+    /**
+     * Closed-loop NIO client: every connection sends its next request as soon
+     * as the previous response arrives
+     */
+    static class LoadClient {
+        private final int port;
+        private final int connections;
+        private final byte[] request;
+        private long[] latencies = new long[1 << 16];
+        private int samples;
+        private long errors;
+
+        LoadClient(int port, int connections, String body) {
+            this.port = port;
+            this.connections = connections;
+            byte[] bodyBytes = body.getBytes(StandardCharsets.UTF_8);
+            RawHttpMessage message = new RawHttpMessage("POST /echo HTTP/1.1", new ArrayList<>(), bodyBytes);
+            message.setHeader("Host", "127.0.0.1");
+            message.setHeader("Content-Type", "application/json");
+            this.request = message.toBytes();
+        }
+
+        private static class Conn {
+            ByteBuffer out;
+            byte[] in = new byte[4096];
+            int length;
+            long sentAt;
+        }
+
+        void run(long warmupMs, long durationMs) throws Exception {
+            Selector selector = Selector.open();
+            for (int i = 0; i < connections; i++) {
+                SocketChannel channel = SocketChannel.open();
+                channel.configureBlocking(false);
+                channel.connect(new InetSocketAddress("127.0.0.1", port));
+                channel.register(selector, SelectionKey.OP_CONNECT, new Conn());
+            }
+
+            long start = System.currentTimeMillis();
+            long measureFrom = start + warmupMs;
+            long end = measureFrom + durationMs;
+            int open = connections;
+
+            while (open > 0) {
+                selector.select(100);
+                long now = System.currentTimeMillis();
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    Conn conn = (Conn) key.attachment();
+                    SocketChannel channel = (SocketChannel) key.channel();
+                    try {
+                        if (key.isConnectable()) {
+                            channel.finishConnect();
+                            send(key, conn);
+                        } else if (key.isWritable()) {
+                            channel.write(conn.out);
+                            if (!conn.out.hasRemaining()) {
+                                key.interestOps(SelectionKey.OP_READ);
+                            }
+                        } else if (key.isReadable()) {
+                            if (conn.length == conn.in.length) {
+                                conn.in = Arrays.copyOf(conn.in, conn.in.length * 2);
+                            }
+                            int n = channel.read(ByteBuffer.wrap(conn.in, conn.length, conn.in.length - conn.length));
+                            if (n < 0) {
+                                throw new IOException("closed");
+                            }
+                            conn.length += n;
+                            RawHttpMessage response = RawHttpMessage.tryParse(conn.in, conn.length, true, false, false);
+                            if (response == null) {
+                                continue;
+                            }
+                            conn.length = 0;
+                            if (now >= measureFrom) {
+                                record(System.nanoTime() - conn.sentAt, response);
+                            }
+                            if (now < end) {
+                                send(key, conn);
+                            } else {
+                                key.cancel();
+                                channel.close();
+                                open--;
+                            }
+                        }
+                    } catch (Exception e) {
+                        errors++;
+                        key.cancel();
+                        channel.close();
+                        open--;
+                    }
+                }
+                if (now > end + 30_000) {
+                    break;
+                }
+            }
+            selector.close();
+        }
+
+        private void send(SelectionKey key, Conn conn) {
+            conn.out = ByteBuffer.wrap(request);
+            conn.sentAt = System.nanoTime();
+            key.interestOps(SelectionKey.OP_WRITE);
+        }
+
+        private void record(long nanos, RawHttpMessage response) {
+            // La respuesta debe volver descifrada y parseada como JSON
+            String body = new String(response.body, StandardCharsets.UTF_8);
+            if (response.statusCode() != 200 || !body.contains("\"user\":\"bench\"")) {
+                errors++;
+                return;
+            }
+            if (samples == latencies.length) {
+                latencies = Arrays.copyOf(latencies, latencies.length * 2);
+            }
+            latencies[samples++] = nanos;
+        }
+
+        void report(int durationSeconds) {
+            long[] sorted = Arrays.copyOf(latencies, samples);
+            Arrays.sort(sorted);
+            System.out.println("requests:   " + samples + " ok, " + errors + " errors");
+            System.out.printf("throughput: %.0f req/s%n", samples / (double) durationSeconds);
+            System.out.printf("latency:    p50=%.2fms p90=%.2fms p99=%.2fms p999=%.2fms max=%.2fms%n",
+                    percentile(sorted, 0.50), percentile(sorted, 0.90), percentile(sorted, 0.99),
+                    percentile(sorted, 0.999), sorted.length == 0 ? 0 : sorted[sorted.length - 1] / 1e6);
+        }
+
+        private static double percentile(long[] sorted, double p) {
+            if (sorted.length == 0) {
+                return 0;
+            }
+            int index = (int) Math.min(sorted.length - 1, Math.ceil(p * sorted.length) - 1);
+            return sorted[Math.max(0, index)] / 1e6;
+        }
+    }
+}
@@ -1,32 +1,36 @@
 package burp;
 
 import burp.api.montoya.MontoyaApi;
+import burp.api.montoya.core.ByteArray;
 import burp.api.montoya.proxy.http.*;
 import burp.api.montoya.http.message.requests.HttpRequest;
 import burp.api.montoya.http.message.responses.HttpResponse;
 import burp.api.montoya.logging.Logging;
-import com.google.gson.Gson;
-import com.google.gson.JsonElement;
-import com.google.gson.JsonObject;
-import com.google.gson.JsonParser;
 
 /**
  * ProxyHandler - Maneja el tráfico en el Proxy Intercept
  * 
  * Este handler descifra requests ANTES de mostrarlos en el intercept
  * y cifra responses ANTES de enviarlas al cliente
+ *
+ * Con eagerProxyRewrite desactivado no toca ningún mensaje: el texto plano
+ * solo se calcula en la pestaña "Decrypted" (DecryptedEditorProvider)
  */
 public class ProxyHandler implements burp.api.montoya.proxy.http.ProxyRequestHandler, 
                                       burp.api.montoya.proxy.http.ProxyResponseHandler {
     
     private final CryptoConfig config;
     private final Logging logging;
-    private final Gson gson;
+    private final MessageTransformer transformer;
+    private final TokenTransformer tokens;
+    private final TrafficJournal journal;
     
-    public ProxyHandler(CryptoConfig config, MontoyaApi api) {
+    public ProxyHandler(CryptoConfig config, MontoyaApi api, TrafficJournal journal) {
         this.config = config;
         this.logging = api.logging();
-        this.gson = new Gson();
+        this.journal = journal;
+        this.transformer = new MessageTransformer(config, logging, "[PROXY]");
+        this.tokens = new TokenTransformer(config, logging, "[PROXY]");
     }
     
     /**
@@ -34,15 +38,22 @@ public class ProxyHandler implements burp.api.montoya.proxy.http.ProxyRequestHan
      * DESCIFRA la data para que el usuario vea texto plano en el intercept
      */
     @Override
+    @SuppressWarnings("try")
     public ProxyRequestReceivedAction handleRequestReceived(InterceptedRequest interceptedRequest) {
-        if (!config.isEnabled() || !config.isDecryptRequests()) {
+        if (!config.isEnabled() || !config.isDecryptRequests() || !config.isEagerProxyRewrite()) {
             return ProxyRequestReceivedAction.continueWith(interceptedRequest);
         }
         
-        try {
+        try (TransformEvents.Scope scope = TransformEvents.scope(interceptedRequest, "Request");
+             SessionKeys.Scope keys = SessionKeys.scope(config, interceptedRequest);
+             KeyRing.Scope ring = KeyRing.scope(config, interceptedRequest);
+             EcbAnalyzer.Scope blocks = EcbAnalyzer.scope(config, interceptedRequest,
+                     interceptedRequest.messageId(), "Request")) {
             HttpRequest decrypted = decryptRequest(interceptedRequest);
             if (decrypted != null) {
                 logging.logToOutput("[PROXY REQUEST] Descifrado para visualización");
+                journal.record(TrafficJournal.SOURCE_PROXY, interceptedRequest.messageId(), TrafficJournal.DECRYPT,
+                        "Request", interceptedRequest, interceptedRequest, decrypted);
                 return ProxyRequestReceivedAction.continueWith(decrypted);
             }
         } catch (Exception e) {
@@ -67,15 +78,22 @@ public class ProxyHandler implements burp.api.montoya.proxy.http.ProxyRequestHan
      * DESCIFRA la response para que el usuario vea texto plano
      */
     @Override
+    @SuppressWarnings("try")
     public ProxyResponseReceivedAction handleResponseReceived(InterceptedResponse interceptedResponse) {
-        if (!config.isEnabled() || !config.isDecryptResponses()) {
+        if (!config.isEnabled() || !config.isDecryptResponses() || !config.isEagerProxyRewrite()) {
             return ProxyResponseReceivedAction.continueWith(interceptedResponse);
         }
         
-        try {
+        try (TransformEvents.Scope scope = TransformEvents.scope(interceptedResponse.initiatingRequest(), "Response");
+             SessionKeys.Scope keys = SessionKeys.scope(config, interceptedResponse.initiatingRequest());
+             KeyRing.Scope ring = KeyRing.scope(config, interceptedResponse.initiatingRequest());
+             EcbAnalyzer.Scope blocks = EcbAnalyzer.scope(config, interceptedResponse.initiatingRequest(),
+                     interceptedResponse.messageId(), "Response")) {
             HttpResponse decrypted = decryptResponse(interceptedResponse);
             if (decrypted != null) {
                 logging.logToOutput("[PROXY RESPONSE] Descifrado para visualización");
+                journal.record(TrafficJournal.SOURCE_PROXY, interceptedResponse.messageId(), TrafficJournal.DECRYPT,
+                        "Response", interceptedResponse.initiatingRequest(), interceptedResponse, decrypted);
                 return ProxyResponseReceivedAction.continueWith(decrypted);
             }
         } catch (Exception e) {
@@ -90,15 +108,20 @@ public class ProxyHandler implements burp.api.montoya.proxy.http.ProxyRequestHan
      * RE-CIFRA la response para que el cliente la reciba cifrada
      */
     @Override
+    @SuppressWarnings("try")
     public ProxyResponseToBeSentAction handleResponseToBeSent(InterceptedResponse interceptedResponse) {
-        if (!config.isEnabled() || !config.isAutoEncrypt()) {
+        if (!config.isEnabled() || !config.isAutoEncrypt() || !config.isEagerProxyRewrite()) {
             return ProxyResponseToBeSentAction.continueWith(interceptedResponse);
         }
         
-        try {
+        try (TransformEvents.Scope scope = TransformEvents.scope(interceptedResponse.initiatingRequest(), "Response");
+             SessionKeys.Scope keys = SessionKeys.scope(config, interceptedResponse.initiatingRequest());
+             KeyRing.Scope ring = KeyRing.scope(config, interceptedResponse.initiatingRequest())) {
             HttpResponse encrypted = encryptResponse(interceptedResponse);
             if (encrypted != null) {
                 logging.logToOutput("[PROXY RESPONSE] Re-cifrado antes de enviar al cliente");
+                journal.record(TrafficJournal.SOURCE_PROXY, interceptedResponse.messageId(), TrafficJournal.ENCRYPT,
+                        "Response", interceptedResponse.initiatingRequest(), interceptedResponse, encrypted);
                 return ProxyResponseToBeSentAction.continueWith(encrypted);
             }
         } catch (Exception e) {
@@ -114,34 +137,23 @@ public class ProxyHandler implements burp.api.montoya.proxy.http.ProxyRequestHan
      */
     private HttpRequest decryptRequest(HttpRequest request) {
         try {
-            String body = request.bodyToString();
-            if (body == null || body.isEmpty()) {
-                return null;
+            // Token en cabecera, cookie o query: el cuerpo no se lee
+            if (tokens.handlesRequests()) {
+                return tokens.decryptRequest(request, false);
+            }
+            
+            // Cuerpo comprimido o multipart: se transforma en streaming (withBody actualiza Content-Length)
+            String contentEncoding = request.headerValue("Content-Encoding");
+            if (transformer.transformsBytes(contentEncoding)) {
+                byte[] newBody = transformer.decryptField(request.body().getBytes(), contentEncoding,
+                        config.getRequestParameter(), "Request", false);
+                return newBody != null ? request.withBody(ByteArray.byteArray(newBody)) : null;
             }
             
-            if ("JSON".equals(config.getDataFormat())) {
-                JsonObject jsonObject = JsonParser.parseString(body).getAsJsonObject();
-                String paramName = config.getRequestParameter();
-                
-                if (jsonObject.has(paramName)) {
-                    String encryptedData = jsonObject.get(paramName).getAsString();
-                    String decryptedData = CryptoHelper.decrypt(encryptedData, config);
-                    
-                    // Intentar parsear como JSON. Si es válido, insertarlo como objeto JSON
-                    JsonElement parsedJson = tryParseJson(decryptedData);
-                    if (parsedJson != null) {
-                        // Es JSON válido, insertarlo como objeto JSON (no como string)
-                        jsonObject.add(paramName, parsedJson);
-                        logging.logToOutput("[PROXY] Request descifrado y parseado como JSON");
-                    } else {
-                        // No es JSON válido, mantener como string
-                        jsonObject.addProperty(paramName, decryptedData);
-                        logging.logToOutput("[PROXY] Request descifrado (texto plano)");
-                    }
-                    
-                    String newBody = gson.toJson(jsonObject);
-                    return request.withBody(newBody);
-                }
+            String newBody = transformer.decryptField(request.bodyToString(),
+                    config.getRequestParameter(), "Request", false);
+            if (newBody != null) {
+                return request.withBody(newBody);
             }
         } catch (Exception e) {
             logging.logToError("[PROXY] Error descifrando request: " + e.getMessage());
@@ -156,34 +168,22 @@ public class ProxyHandler implements burp.api.montoya.proxy.http.ProxyRequestHan
      */
     private HttpResponse decryptResponse(HttpResponse response) {
         try {
-            String body = response.bodyToString();
-            if (body == null || body.isEmpty()) {
-                return null;
+            if (tokens.handlesResponses()) {
+                return tokens.decryptResponse(response, false);
             }
             
-            if ("JSON".equals(config.getDataFormat())) {
-                JsonObject jsonObject = JsonParser.parseString(body).getAsJsonObject();
-                String paramName = config.getResponseParameter();
-                
-                if (jsonObject.has(paramName)) {
-                    String encryptedData = jsonObject.get(paramName).getAsString();
-                    String decryptedData = CryptoHelper.decrypt(encryptedData, config);
-                    
-                    // Intentar parsear como JSON. Si es válido, insertarlo como objeto JSON
-                    JsonElement parsedJson = tryParseJson(decryptedData);
-                    if (parsedJson != null) {
-                        // Es JSON válido, insertarlo como objeto JSON (no como string)
-                        jsonObject.add(paramName, parsedJson);
-                        logging.logToOutput("[PROXY] Response descifrado y parseado como JSON");
-                    } else {
-                        // No es JSON válido, mantener como string
-                        jsonObject.addProperty(paramName, decryptedData);
-                        logging.logToOutput("[PROXY] Response descifrado (texto plano)");
-                    }
-                    
-                    String newBody = gson.toJson(jsonObject);
-                    return response.withBody(newBody);
-                }
+            // Cuerpo comprimido o multipart: se transforma en streaming (withBody actualiza Content-Length)
+            String contentEncoding = response.headerValue("Content-Encoding");
+            if (transformer.transformsBytes(contentEncoding)) {
+                byte[] newBody = transformer.decryptField(response.body().getBytes(), contentEncoding,
+                        config.getResponseParameter(), "Response", false);
+                return newBody != null ? response.withBody(ByteArray.byteArray(newBody)) : null;
+            }
+            
+            String newBody = transformer.decryptField(response.bodyToString(),
+                    config.getResponseParameter(), "Response", false);
+            if (newBody != null) {
+                return response.withBody(newBody);
             }
         } catch (Exception e) {
             logging.logToError("[PROXY] Error descifrando response: " + e.getMessage());
@@ -198,98 +198,26 @@ public class ProxyHandler implements burp.api.montoya.proxy.http.ProxyRequestHan
      */
     private HttpResponse encryptResponse(HttpResponse response) {
         try {
-            String body = response.bodyToString();
-            if (body == null || body.isEmpty()) {
-                return null;
+            if (tokens.handlesResponses()) {
+                return tokens.encryptResponse(response);
             }
             
-            if ("JSON".equals(config.getDataFormat())) {
-                JsonObject jsonObject = JsonParser.parseString(body).getAsJsonObject();
-                String paramName = config.getResponseParameter();
-                
-                if (jsonObject.has(paramName)) {
-                    JsonElement element = jsonObject.get(paramName);
-                    String plainData;
-                    
-                    // Si es un objeto/array JSON, convertirlo a string
-                    if (element.isJsonObject() || element.isJsonArray()) {
-                        plainData = gson.toJson(element);
-                        logging.logToOutput("[PROXY] Convirtiendo objeto JSON a string para cifrar");
-                    } else {
-                        plainData = element.getAsString();
-                    }
-                    
-                    // Solo cifrar si parece ser texto plano (no ya cifrado)
-                    if (isLikelyPlaintext(plainData)) {
-                        // CIFRAR el texto plano
-                        String encryptedData = CryptoHelper.encrypt(plainData, config);
-                        
-                        // REEMPLAZAR con valor cifrado
-                        jsonObject.addProperty(paramName, encryptedData);
-                        
-                        String newBody = gson.toJson(jsonObject);
-                        logging.logToOutput("[PROXY] Response cifrado para cliente");
-                        
-                        return response.withBody(newBody);
-                    }
-                }
+            // Cuerpo comprimido o multipart: se transforma en streaming (withBody actualiza Content-Length)
+            String contentEncoding = response.headerValue("Content-Encoding");
+            if (transformer.transformsBytes(contentEncoding)) {
+                byte[] newBody = transformer.encryptField(response.body().getBytes(), contentEncoding,
+                        config.getResponseParameter(), "Response");
+                return newBody != null ? response.withBody(ByteArray.byteArray(newBody)) : null;
             }
-        } catch (Exception e) {
-            logging.logToError("[PROXY] Error cifrando response: " + e.getMessage());
-        }
-        
-        return null;
-    }
-    
-    /**
-     * Verifica si un string es texto plano (no cifrado Base64)
-     */
-    private boolean isLikelyPlaintext(String data) {
-        if (data == null || data.isEmpty()) {
-            return false;
-        }
-        
-        // Si es muy corto (<16 chars), probablemente es plano
-        if (data.length() < 16) {
-            return true;
-        }
-        
-        // Si contiene caracteres JSON típicos, es texto plano
-        if (data.contains("{") || data.contains("[") || data.contains("\"")) {
-            return true;
-        }
-        
-        // Si tiene espacios, probablemente es plano
-        if (data.contains(" ")) {
-            return true;
-        }
-        
-        // Si NO es Base64 válido, es texto plano
-        if (!data.matches("^[A-Za-z0-9+/]+=*$")) {
-            return true;
-        }
-        
-        // Por defecto, asumir que es texto plano si llegó aquí
-        return false;
-    }
-    
-    /**
-     * Intenta parsear un string como JSON
-     * Retorna el JsonElement si es válido, null si no es JSON válido
-     */
-    private JsonElement tryParseJson(String data) {
-        if (data == null || data.trim().isEmpty()) {
-            return null;
-        }
-        
-        try {
-            String trimmed = data.trim();
-            // Verificar que comience con { o [ (JSON válido)
-            if (trimmed.startsWith("{") || trimmed.startsWith("[")) {
-                return JsonParser.parseString(trimmed);
+            
+            String newBody = transformer.encryptField(response.bodyToString(),
+                    config.getResponseParameter(), "Response");
+            if (newBody != null) {
+                logging.logToOutput("[PROXY] Response cifrado para cliente");
+                return response.withBody(newBody);
             }
         } catch (Exception e) {
-            // No es JSON válido, retornar null
+            logging.logToError("[PROXY] Error cifrando response: " + e.getMessage());
         }
         
         return null;
@@ -0,0 +1,227 @@
+package burp;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Minimal HTTP/1.1 message used by the standalone proxy
+ *
+ * Parses incrementally from a byte buffer: tryParse returns null until a
+ * complete message (headers plus Content-Length, chunked or read-until-close
+ * body) is available. Chunked bodies are de-chunked, and toBytes()
+ * re-emits the message with an explicit Content-Length, except for
+ * responses that never have a body (to HEAD, 1xx, 204, 304): their framing
+ * headers describe the resource and are kept as received.
+ */
+final class RawHttpMessage {
+
+    private static final byte[] CRLF = {'\r', '\n'};
+
+    final String startLine;
+    final List<String[]> headers;
+    byte[] body;
+
+    /** Bytes of the source buffer consumed by this message */
+    int consumed;
+
+    /** Response without a body by definition: toBytes() keeps its headers untouched */
+    boolean bodiless;
+
+    /** Body delimited by the peer closing: the connection cannot be reused */
+    boolean delimitedByClose;
+
+    RawHttpMessage(String startLine, List<String[]> headers, byte[] body) {
+        this.startLine = startLine;
+        this.headers = headers;
+        this.body = body;
+    }
+
+    /**
+     * Tries to parse one message from the start of buf
+     *
+     * @param response whether a status line is expected
+     * @param eof whether the peer has closed, which terminates a body without length
+     * @param headOnly the message answers a HEAD request and carries no body
+     * @return the message, or null if more bytes are needed
+     * @throws Exception if the message is malformed (oversized header section, invalid length)
+     */
+    static RawHttpMessage tryParse(byte[] buf, int len, boolean response, boolean eof,
+                                   boolean headOnly) throws Exception {
+        int headerEnd = indexOf(buf, 0, len, new byte[]{'\r', '\n', '\r', '\n'});
+        if (headerEnd < 0) {
+            if (len > 64 * 1024) {
+                throw new Exception("Header section too large");
+            }
+            return null;
+        }
+
+        String head = new String(buf, 0, headerEnd, StandardCharsets.ISO_8859_1);
+        String[] lines = head.split("\r\n");
+        List<String[]> headers = new ArrayList<>(lines.length);
+        for (int i = 1; i < lines.length; i++) {
+            int colon = lines[i].indexOf(':');
+            if (colon > 0) {
+                headers.add(new String[]{lines[i].substring(0, colon).trim(), lines[i].substring(colon + 1).trim()});
+            }
+        }
+        RawHttpMessage message = new RawHttpMessage(lines[0], headers, new byte[0]);
+
+        int bodyStart = headerEnd + 4;
+        String transferEncoding = message.header("Transfer-Encoding");
+        String contentLength = message.header("Content-Length");
+
+        if (response && (headOnly || !message.responseHasBody())) {
+            message.consumed = bodyStart;
+            message.bodiless = true;
+        } else if (transferEncoding != null && transferEncoding.toLowerCase().contains("chunked")) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            int pos = bodyStart;
+            while (true) {
+                int lineEnd = indexOf(buf, pos, len, CRLF);
+                if (lineEnd < 0) {
+                    return null;
+                }
+                String sizeLine = new String(buf, pos, lineEnd - pos, StandardCharsets.ISO_8859_1);
+                int semicolon = sizeLine.indexOf(';');
+                int size = parseLength(semicolon >= 0 ? sizeLine.substring(0, semicolon) : sizeLine, 16,
+                        "chunk size");
+                pos = lineEnd + 2;
+                if (size == 0) {
+                    // Skip trailers up to the empty line
+                    while (true) {
+                        int trailerEnd = indexOf(buf, pos, len, CRLF);
+                        if (trailerEnd < 0) {
+                            return null;
+                        }
+                        boolean empty = trailerEnd == pos;
+                        pos = trailerEnd + 2;
+                        if (empty) {
+                            break;
+                        }
+                    }
+                    break;
+                }
+                if (len < pos + size + 2) {
+                    return null;
+                }
+                out.write(buf, pos, size);
+                pos += size + 2;
+            }
+            message.body = out.toByteArray();
+            message.consumed = pos;
+            message.removeHeader("Transfer-Encoding");
+        } else if (contentLength != null) {
+            int length = parseLength(contentLength, 10, "Content-Length");
+            if (len < bodyStart + length) {
+                return null;
+            }
+            message.body = new byte[length];
+            System.arraycopy(buf, bodyStart, message.body, 0, length);
+            message.consumed = bodyStart + length;
+        } else if (response && message.responseHasBody()) {
+            // Body delimited by connection close
+            if (!eof) {
+                return null;
+            }
+            message.body = new byte[len - bodyStart];
+            System.arraycopy(buf, bodyStart, message.body, 0, message.body.length);
+            message.consumed = len;
+            message.delimitedByClose = true;
+        } else {
+            message.consumed = bodyStart;
+        }
+
+        return message;
+    }
+
+    /**
+     * Non-negative length field; anything else is a malformed message
+     */
+    private static int parseLength(String value, int radix, String field) throws Exception {
+        String digits = value.trim();
+        // parseInt accepts a sign, but "+5" or "-5" is not a length
+        if (digits.isEmpty() || digits.charAt(0) == '+' || digits.charAt(0) == '-') {
+            throw new Exception("Invalid " + field + ": " + value);
+        }
+        try {
+            return Integer.parseInt(digits, radix);
+        } catch (NumberFormatException e) {
+            throw new Exception("Invalid " + field + ": " + value);
+        }
+    }
+
+    String header(String name) {
+        for (String[] header : headers) {
+            if (header[0].equalsIgnoreCase(name)) {
+                return header[1];
+            }
+        }
+        return null;
+    }
+
+    void setHeader(String name, String value) {
+        removeHeader(name);
+        headers.add(new String[]{name, value});
+    }
+
+    void removeHeader(String name) {
+        headers.removeIf(header -> header[0].equalsIgnoreCase(name));
+    }
+
+    int statusCode() {
+        String[] parts = startLine.split(" ", 3);
+        return parts.length > 1 ? Integer.parseInt(parts[1]) : 0;
+    }
+
+    boolean responseHasBody() {
+        int status = statusCode();
+        return status >= 200 && status != 204 && status != 304;
+    }
+
+    /**
+     * HTTP/1.1 is persistent unless told otherwise, HTTP/1.0 only on request
+     */
+    boolean isKeepAlive() {
+        String connection = header("Connection");
+        if (startLine.contains("HTTP/1.0")) {
+            return connection != null && connection.equalsIgnoreCase("keep-alive");
+        }
+        return connection == null || !connection.equalsIgnoreCase("close");
+    }
+
+    byte[] toBytes() {
+        StringBuilder head = new StringBuilder(256);
+        head.append(startLine).append("\r\n");
+        for (String[] header : headers) {
+            if (header[0].equalsIgnoreCase("Content-Length") && !bodiless) {
+                continue;
+            }
+            head.append(header[0]).append(": ").append(header[1]).append("\r\n");
+        }
+        if (!bodiless) {
+            head.append("Content-Length: ").append(body.length).append("\r\n");
+        }
+        head.append("\r\n");
+
+        byte[] headBytes = head.toString().getBytes(StandardCharsets.ISO_8859_1);
+        byte[] out = new byte[headBytes.length + body.length];
+        System.arraycopy(headBytes, 0, out, 0, headBytes.length);
+        System.arraycopy(body, 0, out, headBytes.length, body.length);
+        return out;
+    }
+
+    static int indexOf(byte[] buf, int from, int len, byte[] pattern) {
+        outer:
+        for (int i = from; i <= len - pattern.length; i++) {
+            for (int j = 0; j < pattern.length; j++) {
+                if (buf[i + j] != pattern[j]) {
+                    continue outer;
+                }
+            }
+            return i;
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,357 @@
+package burp;
+
+import com.sun.management.HotSpotDiagnosticMXBean;
+
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.security.PublicKey;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+
+/**
+ * SelfTest - Prueba de corrección y rendimiento de la configuración activa
+ *
+ * Lo lanza el botón "Test Configuration" del panel:
+ * 1. Corrección: cifra y descifra payloads aleatorios de varios tamaños,
+ *    con bytes (CryptoHelper) y con la cadena de codecs de requests
+ * 2. Rendimiento: MB/s con payloads grandes y ops/s con mensajes pequeños
+ *    (cadena completa), con un hilo y con un hilo por CPU
+ * 3. Si la JVM usa las instrucciones AES-NI (intrínsecos de HotSpot)
+ * 4. Con claves envueltas con RSA, lo que cuesta desenvolver una frente a
+ *    la caché. Con claves por mensaje el resto usa una clave aleatoria
+ *
+ * Todos sus hilos corren en modo de prueba (CryptoHelper.trial()): los
+ * payloads sintéticos no llegan a IvReuseDetector, a los IVs de ECHO ni a
+ * los contadores de KeyRing.
+ *
+ * Tarda unos segundos: hay que llamarlo fuera del EDT.
+ */
+public class SelfTest {
+
+    private static final int[] SIZES = {0, 1, 15, 16, 17, 255, 4096, 65536, 1 << 20};
+    private static final int BULK_SIZE = 64 * 1024;
+    private static final int MESSAGE_SIZE = 256;
+    private static final long MEASURE_MILLIS = 400;
+    // El código AES intrínseco solo existe tras compilar con C2, que cuenta
+    // invocaciones: con bloques de 64 KB se tardan segundos en llegar al
+    // umbral, así que primero se llama muchas veces con bloques pequeños.
+    // Después cada operación se repite hasta que su ritmo se estabiliza.
+    private static final int JIT_WARMUP_CALLS = 20_000;
+    private static final long JIT_WARMUP_MILLIS = 3000;
+    private static final int UNWRAP_CALLS = 50;
+
+    /**
+     * Resultado de una ejecución, listo para mostrar
+     */
+    public static class Result {
+        public final Date started = new Date();
+        public final List<String> failures = new ArrayList<>();
+        public final List<String> lines = new ArrayList<>();
+        public boolean correct;
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder();
+            sb.append(new SimpleDateFormat("yyyy-MM-dd HH:mm:ss").format(started)).append('\n');
+            sb.append(correct ? "Correctness: PASS" : "Correctness: FAIL").append('\n');
+            for (String failure : failures) {
+                sb.append("  ✗ ").append(failure).append('\n');
+            }
+            for (String line : lines) {
+                sb.append(line).append('\n');
+            }
+            return sb.toString();
+        }
+    }
+
+    interface Operation {
+        void run() throws Exception;
+    }
+
+    /**
+     * Ejecuta la prueba completa
+     *
+     * @param progress recibe una línea por fase (se llama desde el hilo de la prueba)
+     */
+    @SuppressWarnings("try")
+    public static Result run(CryptoConfig config, Consumer<String> progress) {
+        Result result = new Result();
+        result.lines.add("Profile: " + config.getAlgorithm() + ", " + config.getKeySize() + "-bit"
+                + (config.usesKeyDerivation() ? ", " + config.getKeyDerivation() : "")
+                + (config.usesKeyWrapping() ? ", " + config.getKeyWrapping() + " session keys" : "")
+                + (config.usesKeyLearning() ? ", learned session keys (" + LearnedKeys.size() + " sessions)" : "")
+                + ", chain " + config.getRequestCodecs());
+
+        // Sin mensajes reales la clave de sesión es aleatoria: este hilo la fija
+        // aquí y los de medida en cada operación (sin envoltura no se consulta)
+        byte[] sessionKey = config.usesSessionKeys() ? randomBytes(config.getKeySize() / 8, 2) : null;
+        try (CryptoHelper.Trial trial = CryptoHelper.trial();
+             SessionKeys.Scope keys = SessionKeys.with(sessionKey)) {
+            progress.accept("Checking correctness...");
+            result.correct = checkCorrectness(config, result.failures);
+            if (!result.correct) {
+                return result;
+            }
+            measureThroughput(config, progress, result, sessionKey);
+            if (config.usesKeyWrapping()) {
+                progress.accept("Measuring session key unwrapping...");
+                result.lines.add(unwrapCost(config, sessionKey));
+            }
+        }
+        return result;
+    }
+
+    private static void measureThroughput(CryptoConfig config, Consumer<String> progress, Result result,
+                                          byte[] sessionKey) {
+
+        int threads = Math.max(2, Runtime.getRuntime().availableProcessors());
+        try {
+            byte[] bulk = randomBytes(BULK_SIZE, 1);
+            byte[] bulkCipher = CryptoHelper.encrypt(bulk, config);
+            String message = jsonMessage(MESSAGE_SIZE);
+            CodecChain chain = CodecChain.compile(config.getRequestCodecs());
+
+            Operation encrypt = inSession(sessionKey, () -> CryptoHelper.encrypt(bulk, config));
+            Operation decrypt = inSession(sessionKey, () -> CryptoHelper.decrypt(bulkCipher, config));
+            Operation roundTrip = inSession(sessionKey, () -> chain.decrypt(chain.encrypt(message, config), config));
+
+            progress.accept("Warming up...");
+            byte[] small = Arrays.copyOf(bulk, 32);
+            for (int i = 0; i < JIT_WARMUP_CALLS; i++) {
+                CryptoHelper.decrypt(CryptoHelper.encrypt(small, config), config);
+            }
+            warmUp(encrypt);
+            warmUp(decrypt);
+            warmUp(roundTrip);
+
+            progress.accept("Measuring single-thread throughput...");
+            double encryptOps = measure(1, encrypt);
+            double decryptOps = measure(1, decrypt);
+            double roundTrips = measure(1, roundTrip);
+            result.lines.add(String.format("1 thread:   encrypt %.1f MB/s, decrypt %.1f MB/s, %,.0f msg round trips/s",
+                    mbPerSecond(encryptOps), mbPerSecond(decryptOps), roundTrips));
+
+            progress.accept("Measuring " + threads + "-thread throughput...");
+            double encryptOpsN = measure(threads, encrypt);
+            double decryptOpsN = measure(threads, decrypt);
+            double roundTripsN = measure(threads, roundTrip);
+            result.lines.add(String.format("%d threads: encrypt %.1f MB/s, decrypt %.1f MB/s, %,.0f msg round trips/s",
+                    threads, mbPerSecond(encryptOpsN), mbPerSecond(decryptOpsN), roundTripsN));
+            result.lines.add(String.format("Scaling: %.2fx on %d cores",
+                    decryptOpsN / decryptOps, Runtime.getRuntime().availableProcessors()));
+            result.lines.add(aesIntrinsics(mbPerSecond(decryptOps)));
+        } catch (Exception e) {
+            result.lines.add("Throughput measurement failed: " + e.getMessage());
+        }
+    }
+
+    /**
+     * La operación con la clave de sesión fijada en el hilo que la ejecuta
+     */
+    @SuppressWarnings("try")
+    private static Operation inSession(byte[] sessionKey, Operation operation) {
+        if (sessionKey == null) {
+            return operation;
+        }
+        return () -> {
+            try (SessionKeys.Scope keys = SessionKeys.with(sessionKey)) {
+                operation.run();
+            }
+        };
+    }
+
+    /**
+     * Desenvolver con la clave privada frente a encontrar la clave en la caché
+     */
+    private static String unwrapCost(CryptoConfig config, byte[] sessionKey) {
+        try {
+            // El relleno RSA es aleatorio: cada envoltura es distinta y ninguna está en la caché
+            PublicKey publicKey = SessionKeys.publicKey(config);
+            String[] wrapped = new String[UNWRAP_CALLS];
+            for (int i = 0; i < wrapped.length; i++) {
+                wrapped[i] = SessionKeys.wrap(config.getKeyWrapping(), publicKey, sessionKey);
+            }
+            for (int i = 0; i < UNWRAP_CALLS / 5; i++) {
+                SessionKeys.unwrap(config, SessionKeys.wrap(config.getKeyWrapping(), publicKey, sessionKey));
+            }
+
+            long start = System.nanoTime();
+            for (String key : wrapped) {
+                SessionKeys.unwrap(config, key);
+            }
+            double rsaNanos = (System.nanoTime() - start) / (double) UNWRAP_CALLS;
+
+            int cachedCalls = UNWRAP_CALLS * 20_000;
+            start = System.nanoTime();
+            for (int i = 0; i < cachedCalls; i++) {
+                SessionKeys.unwrap(config, wrapped[i % UNWRAP_CALLS]);
+            }
+            double cachedNanos = (System.nanoTime() - start) / (double) cachedCalls;
+            return String.format("Session keys: RSA unwrap %.0f µs, cached %.0f ns (%.0fx)",
+                    rsaNanos / 1000, cachedNanos, rsaNanos / cachedNanos);
+        } catch (Exception e) {
+            return "Session key measurement failed: " + e.getMessage();
+        }
+    }
+
+    /**
+     * Round-trip de payloads aleatorios de cada tamaño
+     */
+    private static boolean checkCorrectness(CryptoConfig config, List<String> failures) {
+        boolean blockAligned = "NoPadding".equals(config.getPadding()) && !"GCM".equals(config.getMode());
+        CodecChain chain;
+        try {
+            chain = CodecChain.compile(config.getRequestCodecs());
+        } catch (Exception e) {
+            failures.add("Codec chain: " + e.getMessage());
+            return false;
+        }
+
+        for (int size : SIZES) {
+            // Sin padding solo se pueden cifrar bloques completos
+            if (blockAligned && size % 16 != 0) {
+                continue;
+            }
+            byte[] plaintext = randomBytes(size, size);
+            try {
+                byte[] decrypted = CryptoHelper.decrypt(CryptoHelper.encrypt(plaintext, config), config);
+                if (!Arrays.equals(plaintext, decrypted)) {
+                    failures.add(size + " bytes: decrypted bytes differ");
+                }
+            } catch (Exception e) {
+                failures.add(size + " bytes: " + e.getMessage());
+            }
+        }
+
+        // La cadena trabaja con texto: se prueba con JSON de distintos tamaños
+        for (int size : new int[]{16, 1024, 65536}) {
+            String message = jsonMessage(size);
+            if (blockAligned && message.getBytes(StandardCharsets.UTF_8).length % 16 != 0) {
+                continue;
+            }
+            try {
+                if (!message.equals(chain.decrypt(chain.encrypt(message, config), config))) {
+                    failures.add("chain, " + size + " chars: decrypted text differs");
+                }
+            } catch (Exception e) {
+                failures.add("chain, " + size + " chars: " + e.getMessage());
+            }
+        }
+        return failures.isEmpty();
+    }
+
+    /**
+     * Ejecuta la operación en tandas de 100 ms hasta que dos tandas seguidas
+     * van al mismo ritmo (±5%) o se agota JIT_WARMUP_MILLIS
+     */
+    private static void warmUp(Operation operation) throws Exception {
+        long deadline = System.nanoTime() + JIT_WARMUP_MILLIS * 1_000_000L;
+        long previous = 0;
+        while (System.nanoTime() < deadline) {
+            long end = System.nanoTime() + 100_000_000L;
+            long ops = 0;
+            while (System.nanoTime() < end) {
+                operation.run();
+                ops++;
+            }
+            if (previous > 0 && Math.abs(ops - previous) <= previous / 20) {
+                return;
+            }
+            previous = ops;
+        }
+    }
+
+    /**
+     * Operaciones por segundo con N hilos, tras un calentamiento igual de largo
+     */
+    @SuppressWarnings("try")
+    private static double measure(int threads, Operation operation) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "destroy-aes-selftest-worker");
+            thread.setDaemon(true);
+            return thread;
+        });
+        try {
+            long warmupEnd = System.nanoTime() + MEASURE_MILLIS * 1_000_000L;
+            long end = warmupEnd + MEASURE_MILLIS * 1_000_000L;
+            List<Future<Long>> counts = new ArrayList<>();
+            for (int i = 0; i < threads; i++) {
+                counts.add(executor.submit(() -> {
+                    try (CryptoHelper.Trial trial = CryptoHelper.trial()) {
+                        while (System.nanoTime() < warmupEnd) {
+                            operation.run();
+                        }
+                        long ops = 0;
+                        while (System.nanoTime() < end) {
+                            operation.run();
+                            ops++;
+                        }
+                        return ops;
+                    }
+                }));
+            }
+            long total = 0;
+            for (Future<Long> count : counts) {
+                total += count.get();
+            }
+            return total * 1000.0 / MEASURE_MILLIS;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * AES-NI: UseAES es true solo si la CPU lo soporta y la JVM lo usa.
+     * UseAESIntrinsics es un flag de diagnóstico y normalmente no es visible.
+     */
+    static String aesIntrinsics(double decryptMbPerSecond) {
+        try {
+            HotSpotDiagnosticMXBean hotspot = ManagementFactory.getPlatformMXBean(HotSpotDiagnosticMXBean.class);
+            String useAes = hotspot.getVMOption("UseAES").getValue();
+            String intrinsics = vmOption(hotspot, "UseAESIntrinsics");
+            boolean active = "true".equals(useAes) && !"false".equals(intrinsics);
+            return "AES-NI intrinsics: " + (active ? "active" : "NOT active")
+                    + " (UseAES=" + useAes + (intrinsics != null ? ", UseAESIntrinsics=" + intrinsics : "")
+                    + ", " + System.getProperty("os.arch") + ")";
+        } catch (Exception e) {
+            // JVM sin HotSpot: solo queda la estimación por velocidad
+            return "AES-NI intrinsics: unknown on this JVM (" + (decryptMbPerSecond > 300
+                    ? "throughput suggests hardware AES" : "throughput suggests software AES") + ")";
+        }
+    }
+
+    private static String vmOption(HotSpotDiagnosticMXBean hotspot, String name) {
+        try {
+            return hotspot.getVMOption(name).getValue();
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    private static double mbPerSecond(double opsPerSecond) {
+        return opsPerSecond * BULK_SIZE / (1024 * 1024);
+    }
+
+    private static byte[] randomBytes(int size, long seed) {
+        byte[] bytes = new byte[size];
+        new Random(seed).nextBytes(bytes);
+        return bytes;
+    }
+
+    private static String jsonMessage(int size) {
+        StringBuilder sb = new StringBuilder("{\"n\":\"");
+        Random random = new Random(size);
+        while (sb.length() < size - 2) {
+            sb.append((char) ('a' + random.nextInt(26)));
+        }
+        return sb.append("\"}").toString();
+    }
+}
@@ -0,0 +1,425 @@
+package burp;
+
+import burp.api.montoya.http.message.requests.HttpRequest;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.OAEPParameterSpec;
+import javax.crypto.spec.PSource;
+import java.nio.charset.StandardCharsets;
+import java.security.Key;
+import java.security.KeyFactory;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.security.interfaces.RSAPrivateCrtKey;
+import java.security.spec.MGF1ParameterSpec;
+import java.security.spec.PKCS8EncodedKeySpec;
+import java.security.spec.RSAPublicKeySpec;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * SessionKeys - Claves AES de sesión envueltas con RSA (cifrado híbrido)
+ *
+ * Muchos clientes móviles generan una clave AES aleatoria por request,
+ * cifran el cuerpo con ella y la envían envuelta con RSA en una cabecera o
+ * en un campo JSON hermano; el servidor responde con la misma clave. Con
+ * keyWrapping distinto de NONE, la clave privada configurada desenvuelve la
+ * clave de cada mensaje y CryptoHelper la usa en lugar de la estática.
+ *
+ * Descifrar con la clave privada RSA cuesta unas mil veces más que el AES
+ * del cuerpo, y la misma clave envuelta se ve varias veces (request en el
+ * Proxy, re-cifrado en HttpHandler, su response, reintentos), así que las
+ * claves desenvueltas se guardan en una caché concurrente acotada indexada
+ * por los bytes envueltos. La response no necesita estado propio: su clave
+ * sale de la cabecera o el campo del request que la originó, que da un
+ * acierto en la caché.
+ *
+ * La otra fuente de claves por mensaje son las aprendidas de las responses
+ * de login/handshake (LearnedKeys); scope() resuelve la que corresponda y
+ * la fija por hilo, como el host de TransformEvents: CryptoHelper no conoce
+ * el mensaje.
+ */
+public final class SessionKeys {
+
+    public static final String NONE = "NONE";
+    public static final String RSA_PKCS1 = "RSA_PKCS1";
+    public static final String RSA_OAEP_SHA1 = "RSA_OAEP_SHA1";
+    public static final String RSA_OAEP_SHA256 = "RSA_OAEP_SHA256";
+
+    public static final String LOCATION_HEADER = "HEADER";
+    public static final String LOCATION_FIELD = "FIELD";
+
+    private static final int MAX_CACHE_SIZE = 4096;
+
+    // "algoritmo|envuelta" → clave AES; se vacía al cambiar la clave privada
+    private static final Map<String, byte[]> cache = new ConcurrentHashMap<>();
+    private static final Queue<String> insertionOrder = new ConcurrentLinkedQueue<>();
+
+    // {PEM, PrivateKey}: parsear la clave en cada mensaje costaría casi tanto como desenvolver
+    private static volatile Object[] parsedKey;
+
+    private static final ThreadLocal<Material> current = new ThreadLocal<>();
+
+    private SessionKeys() {
+    }
+
+    /**
+     * Clave de un mensaje y, si se aprendió con ella, su IV (null: el configurado)
+     */
+    public static final class Material {
+        final byte[] key;
+        final byte[] iv;
+
+        Material(byte[] key, byte[] iv) {
+            this.key = key;
+            this.iv = iv;
+        }
+    }
+
+    /**
+     * Clave de sesión fijada en el hilo hasta close(), que restaura la anterior
+     */
+    public static final class Scope implements AutoCloseable {
+        private static final Scope NONE = new Scope(null, false);
+
+        private final Material previous;
+        private final boolean active;
+
+        private Scope(Material previous, boolean active) {
+            this.previous = previous;
+            this.active = active;
+        }
+
+        @Override
+        public void close() {
+            if (!active) {
+                return;
+            }
+            if (previous == null) {
+                current.remove();
+            } else {
+                current.set(previous);
+            }
+        }
+    }
+
+    /**
+     * Resuelve la clave de sesión del request (la misma sirve para su response)
+     * y la fija en el hilo; sin claves por mensaje o sin clave para el request no hace nada
+     */
+    public static Scope scope(CryptoConfig config, HttpRequest request) throws Exception {
+        return request == null || !config.usesSessionKeys() ? Scope.NONE : with(resolve(config, request));
+    }
+
+    /**
+     * Clave de sesión del request: desenvuelta o aprendida; null si no lleva ninguna
+     */
+    public static Material resolve(CryptoConfig config, HttpRequest request) throws Exception {
+        return resolve(config, request::headerValue, request::bodyToString);
+    }
+
+    /**
+     * Igual, para los mensajes del proxy standalone
+     */
+    public static Material resolve(CryptoConfig config, RawHttpMessage request) throws Exception {
+        return resolve(config, request::header, () -> new String(request.body, StandardCharsets.UTF_8));
+    }
+
+    private static Material resolve(CryptoConfig config, Function<String, String> header,
+                                    Supplier<String> body) throws Exception {
+        if (config.usesKeyLearning()) {
+            return LearnedKeys.lookup(config, header);
+        }
+        if (!config.usesKeyWrapping()) {
+            return null;
+        }
+        String wrapped = LOCATION_HEADER.equals(config.getWrappedKeyLocation())
+                ? header.apply(config.getWrappedKeyName())
+                : fieldValue(body.get(), config.getWrappedKeyName());
+        if (wrapped == null || wrapped.trim().isEmpty()) {
+            return null;
+        }
+        return new Material(unwrap(config, wrapped.trim()), null);
+    }
+
+    /**
+     * Material del hilo actual, para fijarlo en otro hilo (MessageContext)
+     */
+    static Material active() {
+        return current.get();
+    }
+
+    static void activate(Material material) {
+        if (material != null) {
+            current.set(material);
+        } else {
+            current.remove();
+        }
+    }
+
+    /**
+     * Fija una clave ya resuelta (null: ninguna) en el hilo
+     */
+    public static Scope with(Material material) {
+        Material previous = current.get();
+        current.set(material);
+        return new Scope(previous, true);
+    }
+
+    /**
+     * Fija una clave de sesión ya conocida (autotest)
+     */
+    static Scope with(byte[] key) {
+        return with(key != null ? new Material(key, null) : null);
+    }
+
+    /**
+     * Valor de texto de un campo del objeto JSON raíz, o null
+     */
+    static String fieldValue(String body, String name) {
+        int[] range = JsonSplice.findValue(body, name);
+        return range != null && JsonSplice.isString(body, range)
+                ? JsonSplice.unquote(body, range[0], range[1]) : null;
+    }
+
+    /**
+     * Clave AES de este mensaje: la de sesión fijada en el hilo, o la configurada
+     */
+    static byte[] key(CryptoConfig config) throws Exception {
+        if (!config.usesSessionKeys()) {
+            return config.getKey();
+        }
+        Material material = current.get();
+        if (material != null) {
+            return material.key;
+        }
+        if (config.usesKeyLearning()) {
+            // Sin clave aprendida (tráfico previo al login): la configurada, si la hay
+            String configured = config.getKeyBase64();
+            if (configured != null && !configured.isEmpty()) {
+                return config.getKey();
+            }
+            throw new Exception("No learned session key for this message's " + config.getSessionIdSource()
+                    + " " + config.getSessionIdName());
+        }
+        throw new Exception("No wrapped session key (" + config.getWrappedKeyLocation() + " "
+                + config.getWrappedKeyName() + ") in this message");
+    }
+
+    /**
+     * IV estático de este mensaje: el aprendido con la clave, o el configurado
+     */
+    static byte[] iv(CryptoConfig config) throws Exception {
+        Material material = config.usesKeyLearning() ? current.get() : null;
+        return material != null && material.iv != null && config.requiresIv() ? material.iv : config.getIv();
+    }
+
+    /**
+     * Identifica la clave de sesión en curso para las cachés por mensaje ("" sin claves por mensaje)
+     * Con anillo de claves, la que usaría KeyRing para cifrar
+     */
+    static String currentKeyId(CryptoConfig config) {
+        if (config.usesKeyRing()) {
+            return KeyRing.currentKeyId(config);
+        }
+        Material material = config.usesSessionKeys() ? current.get() : null;
+        if (material == null) {
+            return "";
+        }
+        return HexBase64.toBase64(material.key) + (material.iv != null ? ":" + HexBase64.toBase64(material.iv) : "");
+    }
+
+    /**
+     * Desenvuelve (o recupera de la caché) una clave de sesión en Base64 o Base64url
+     */
+    public static byte[] unwrap(CryptoConfig config, String wrapped) throws Exception {
+        PrivateKey privateKey = privateKey(config);
+        String cacheKey = config.getKeyWrapping() + '|' + wrapped;
+        byte[] cached = cache.get(cacheKey);
+        if (cached != null) {
+            return cached;
+        }
+
+        // Fuera de cualquier lock, como KeyDerivation: dos hilos con la misma
+        // clave nueva pueden desenvolverla a la vez sin bloquear a las demás
+        byte[] key;
+        try {
+            key = cipher(config.getKeyWrapping(), Cipher.DECRYPT_MODE, privateKey).doFinal(decode(wrapped));
+        } catch (Exception e) {
+            throw new Exception("Cannot unwrap session key with " + config.getKeyWrapping() + ": " + e.getMessage());
+        }
+        if (key.length != 16 && key.length != 24 && key.length != 32) {
+            throw new Exception("Unwrapped session key has " + key.length + " bytes, expected 16, 24 or 32");
+        }
+
+        if (cache.putIfAbsent(cacheKey, key) == null) {
+            insertionOrder.add(cacheKey);
+            while (cache.size() > MAX_CACHE_SIZE) {
+                String eldest = insertionOrder.poll();
+                if (eldest == null) {
+                    break;
+                }
+                cache.remove(eldest);
+            }
+        }
+        return key;
+    }
+
+    /**
+     * Envuelve una clave con la pública, como haría el cliente (autotest y pruebas)
+     */
+    static String wrap(String wrapping, PublicKey publicKey, byte[] key) throws Exception {
+        return HexBase64.toBase64(cipher(wrapping, Cipher.ENCRYPT_MODE, publicKey).doFinal(key));
+    }
+
+    /**
+     * Pública correspondiente a la privada configurada (el CRT la incluye)
+     */
+    static PublicKey publicKey(CryptoConfig config) throws Exception {
+        PrivateKey privateKey = privateKey(config);
+        if (!(privateKey instanceof RSAPrivateCrtKey)) {
+            throw new Exception("RSA private key has no public exponent");
+        }
+        RSAPrivateCrtKey crt = (RSAPrivateCrtKey) privateKey;
+        return KeyFactory.getInstance("RSA").generatePublic(
+                new RSAPublicKeySpec(crt.getModulus(), crt.getPublicExponent()));
+    }
+
+    private static Cipher cipher(String wrapping, int opmode, Key key) throws Exception {
+        Cipher cipher;
+        switch (wrapping) {
+            case RSA_PKCS1:
+                cipher = Cipher.getInstance("RSA/ECB/PKCS1Padding");
+                cipher.init(opmode, key);
+                return cipher;
+            case RSA_OAEP_SHA1:
+                cipher = Cipher.getInstance("RSA/ECB/OAEPWithSHA-1AndMGF1Padding");
+                cipher.init(opmode, key);
+                return cipher;
+            case RSA_OAEP_SHA256:
+                // MGF1 también con SHA-256, como WebCrypto y Android; el nombre
+                // "OAEPWithSHA-256AndMGF1Padding" del JDK usa MGF1 con SHA-1
+                cipher = Cipher.getInstance("RSA/ECB/OAEPPadding");
+                cipher.init(opmode, key, new OAEPParameterSpec("SHA-256", "MGF1",
+                        MGF1ParameterSpec.SHA256, PSource.PSpecified.DEFAULT));
+                return cipher;
+            default:
+                throw new Exception("Unsupported key wrapping: " + wrapping);
+        }
+    }
+
+    /**
+     * Clave privada configurada, parseada una vez por PEM
+     */
+    static PrivateKey privateKey(CryptoConfig config) throws Exception {
+        String pem = config.getRsaPrivateKey();
+        Object[] parsed = parsedKey;
+        if (parsed != null && parsed[0].equals(pem)) {
+            return (PrivateKey) parsed[1];
+        }
+        PrivateKey privateKey = parsePrivateKey(pem);
+        if (parsed != null) {
+            // Las claves desenvueltas con la clave anterior ya no valen
+            cache.clear();
+            insertionOrder.clear();
+        }
+        parsedKey = new Object[]{pem, privateKey};
+        return privateKey;
+    }
+
+    /**
+     * PEM PKCS#8 ("BEGIN PRIVATE KEY"), PEM PKCS#1 ("BEGIN RSA PRIVATE KEY")
+     * o el DER de cualquiera de los dos en Base64
+     */
+    static PrivateKey parsePrivateKey(String pem) throws Exception {
+        if (pem == null || pem.trim().isEmpty()) {
+            throw new Exception("RSA private key not configured");
+        }
+        if (pem.contains("ENCRYPTED")) {
+            throw new Exception("Encrypted private keys are not supported, export it without a passphrase");
+        }
+        byte[] der = HexBase64.fromBase64(pem.replaceAll("-----[^-]*-----", ""));
+        if (der == null) {
+            throw new Exception("RSA private key is not valid PEM/Base64");
+        }
+
+        KeyFactory factory = KeyFactory.getInstance("RSA");
+        boolean pkcs1 = pem.contains("BEGIN RSA PRIVATE KEY");
+        try {
+            return factory.generatePrivate(new PKCS8EncodedKeySpec(pkcs1 ? pkcs1ToPkcs8(der) : der));
+        } catch (Exception e) {
+            if (pkcs1 || pem.contains("-----")) {
+                throw new Exception("Invalid RSA private key: " + e.getMessage());
+            }
+        }
+        // DER sin cabeceras PEM: puede ser PKCS#1
+        try {
+            return factory.generatePrivate(new PKCS8EncodedKeySpec(pkcs1ToPkcs8(der)));
+        } catch (Exception e) {
+            throw new Exception("Invalid RSA private key: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Envuelve un RSAPrivateKey (PKCS#1) en un PrivateKeyInfo (PKCS#8), que es
+     * lo que acepta KeyFactory: SEQUENCE { 0, rsaEncryption, OCTET STRING pkcs1 }
+     */
+    private static byte[] pkcs1ToPkcs8(byte[] pkcs1) {
+        byte[] versionAndAlgorithm = {
+                0x02, 0x01, 0x00,
+                0x30, 0x0d, 0x06, 0x09, 0x2a, (byte) 0x86, 0x48, (byte) 0x86, (byte) 0xf7, 0x0d, 0x01, 0x01, 0x01, 0x05, 0x00
+        };
+        byte[] octetLength = derLength(pkcs1.length);
+        int contentLength = versionAndAlgorithm.length + 1 + octetLength.length + pkcs1.length;
+        byte[] sequenceLength = derLength(contentLength);
+
+        byte[] out = new byte[1 + sequenceLength.length + contentLength];
+        int i = 0;
+        out[i++] = 0x30;
+        System.arraycopy(sequenceLength, 0, out, i, sequenceLength.length);
+        i += sequenceLength.length;
+        System.arraycopy(versionAndAlgorithm, 0, out, i, versionAndAlgorithm.length);
+        i += versionAndAlgorithm.length;
+        out[i++] = 0x04;
+        System.arraycopy(octetLength, 0, out, i, octetLength.length);
+        i += octetLength.length;
+        System.arraycopy(pkcs1, 0, out, i, pkcs1.length);
+        return out;
+    }
+
+    private static byte[] derLength(int length) {
+        if (length < 0x80) {
+            return new byte[]{(byte) length};
+        }
+        int bytes = length > 0xffffff ? 4 : length > 0xffff ? 3 : length > 0xff ? 2 : 1;
+        byte[] out = new byte[1 + bytes];
+        out[0] = (byte) (0x80 | bytes);
+        for (int i = bytes; i > 0; i--) {
+            out[i] = (byte) length;
+            length >>>= 8;
+        }
+        return out;
+    }
+
+    /**
+     * Base64 estándar o Base64url, con o sin relleno
+     */
+    private static byte[] decode(String wrapped) throws Exception {
+        byte[] decoded = HexBase64.fromBase64Strict(wrapped);
+        if (decoded == null) {
+            throw new Exception("wrapped key is not valid Base64");
+        }
+        return decoded;
+    }
+
+    /**
+     * Número de claves de sesión en la caché (para el panel y las pruebas de carga)
+     */
+    public static int cacheSize() {
+        return cache.size();
+    }
+}
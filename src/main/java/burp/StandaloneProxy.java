@@ -0,0 +1,698 @@
+package burp;
+
+import burp.api.montoya.logging.Logging;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.Properties;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Standalone rewrite proxy - runs the extension pipeline without Burp
+ *
+ * Reverse proxy for load-test pipelines: clients send plaintext requests to
+ * the listen port, the proxy encrypts them like HttpHandler does before
+ * forwarding to the upstream, and decrypts the upstream responses on the way
+ * back. The same MessageTransformer as the Burp handlers is used.
+ *
+ * Client connections are served by a single NIO selector thread, so thousands
+ * of idle keep-alive connections cost one SelectionKey each. Complete
+ * requests are handed to a worker pool that transforms them and exchanges
+ * them over a pool of persistent upstream connections.
+ *
+ * Usage:
+ *   java -cp destroy-aes.jar:montoya-api.jar burp.StandaloneProxy \
+ *        --upstream host:port --config aes.properties [--listen 8081] \
+ *        [--workers 32] [--pool 64] [--verbose]
+ */
+public class StandaloneProxy {
+
+    private static final int CLIENT_BUFFER_SIZE = 4 * 1024;
+    // Largest request buffered per client connection, headers included
+    private static final int MAX_REQUEST_SIZE = 16 * 1024 * 1024;
+    private static final int UPSTREAM_BUFFER_SIZE = 16 * 1024;
+    private static final int UPSTREAM_TIMEOUT_MS = 30_000;
+
+    private final CryptoConfig config;
+    private final Logging logging;
+    private final MessageTransformer transformer;
+    private final MessageSigner signer;
+    private final UpstreamPool upstreamPool;
+    private final ExecutorService workers;
+    private final Selector selector;
+    private final ServerSocketChannel server;
+    private final Queue<Runnable> selectorTasks = new ConcurrentLinkedQueue<>();
+    private final AtomicLong handledRequests = new AtomicLong();
+    private final AtomicLong failedRequests = new AtomicLong();
+
+    private volatile boolean running;
+    private Thread selectorThread;
+
+    public StandaloneProxy(CryptoConfig config, Logging logging, int listenPort,
+                           String upstreamHost, int upstreamPort,
+                           int workerThreads, int maxIdleUpstream) throws IOException {
+        this.config = config;
+        this.logging = logging;
+        this.transformer = new MessageTransformer(config, logging, "[STANDALONE]");
+        this.signer = new MessageSigner(config, logging, "[STANDALONE]");
+        this.upstreamPool = new UpstreamPool(upstreamHost, upstreamPort, maxIdleUpstream);
+        this.workers = Executors.newFixedThreadPool(workerThreads, r -> {
+            Thread t = new Thread(r, "destroy-aes-worker");
+            t.setDaemon(true);
+            return t;
+        });
+        this.selector = Selector.open();
+        this.server = ServerSocketChannel.open();
+        server.bind(new InetSocketAddress(listenPort), 4096);
+        server.configureBlocking(false);
+        server.register(selector, SelectionKey.OP_ACCEPT);
+    }
+
+    public int getPort() {
+        return server.socket().getLocalPort();
+    }
+
+    public long getHandledRequests() {
+        return handledRequests.get();
+    }
+
+    public long getFailedRequests() {
+        return failedRequests.get();
+    }
+
+    public void start() {
+        running = true;
+        selectorThread = new Thread(this::selectLoop, "destroy-aes-selector");
+        selectorThread.setDaemon(true);
+        selectorThread.start();
+    }
+
+    public void stop() {
+        running = false;
+        selector.wakeup();
+        workers.shutdownNow();
+        try {
+            selectorThread.join(1000);
+            server.close();
+            for (SelectionKey key : selector.keys()) {
+                key.channel().close();
+            }
+            selector.close();
+        } catch (Exception e) {
+            logging.logToError("[STANDALONE] Error stopping: " + e.getMessage());
+        }
+        upstreamPool.close();
+    }
+
+    /**
+     * Per client connection state, only touched by the selector thread
+     * except for the response handed back through selectorTasks
+     */
+    private static class ClientConnection {
+        byte[] buffer = new byte[CLIENT_BUFFER_SIZE];
+        int length;
+        ByteBuffer pendingWrite;
+        boolean closeAfterWrite;
+    }
+
+    private void selectLoop() {
+        while (running) {
+            try {
+                selector.select();
+
+                Runnable task;
+                while ((task = selectorTasks.poll()) != null) {
+                    task.run();
+                }
+
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    if (!key.isValid()) {
+                        continue;
+                    }
+                    try {
+                        if (key.isAcceptable()) {
+                            accept();
+                        } else if (key.isReadable()) {
+                            read(key);
+                        } else if (key.isWritable()) {
+                            write(key);
+                        }
+                    } catch (Exception e) {
+                        close(key);
+                    }
+                }
+            } catch (Exception e) {
+                if (running) {
+                    logging.logToError("[STANDALONE] Selector error: " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    private void accept() throws IOException {
+        SocketChannel channel;
+        while ((channel = server.accept()) != null) {
+            channel.configureBlocking(false);
+            channel.socket().setTcpNoDelay(true);
+            channel.register(selector, SelectionKey.OP_READ, new ClientConnection());
+        }
+    }
+
+    private void read(SelectionKey key) throws Exception {
+        ClientConnection conn = (ClientConnection) key.attachment();
+        SocketChannel channel = (SocketChannel) key.channel();
+
+        if (conn.length == conn.buffer.length) {
+            if (conn.buffer.length >= MAX_REQUEST_SIZE) {
+                reject(key, conn, "413 Payload Too Large", "Request larger than " + MAX_REQUEST_SIZE + " bytes");
+                return;
+            }
+            byte[] grown = new byte[conn.buffer.length * 2];
+            System.arraycopy(conn.buffer, 0, grown, 0, conn.length);
+            conn.buffer = grown;
+        }
+
+        int n = channel.read(ByteBuffer.wrap(conn.buffer, conn.length, conn.buffer.length - conn.length));
+        if (n < 0) {
+            close(key);
+            return;
+        }
+        conn.length += n;
+        dispatchIfComplete(key, conn);
+    }
+
+    /**
+     * Hands a complete request to the workers; reading pauses until the
+     * response is written, so pipelined requests are answered in order
+     */
+    private void dispatchIfComplete(SelectionKey key, ClientConnection conn) throws Exception {
+        RawHttpMessage request;
+        try {
+            request = RawHttpMessage.tryParse(conn.buffer, conn.length, false, false, false);
+        } catch (Exception e) {
+            reject(key, conn, "400 Bad Request", e.getMessage());
+            return;
+        }
+        if (request == null) {
+            return;
+        }
+
+        System.arraycopy(conn.buffer, request.consumed, conn.buffer, 0, conn.length - request.consumed);
+        conn.length -= request.consumed;
+        key.interestOps(0);
+
+        workers.execute(() -> {
+            byte[] bytes;
+            boolean close;
+            try {
+                boolean keepAlive = request.isKeepAlive();
+                RawHttpMessage response = handle(request, keepAlive);
+                // El 502 anuncia Connection: close y la conexión se cierra tras escribirlo
+                close = !keepAlive || "close".equalsIgnoreCase(response.header("Connection"));
+                bytes = response.toBytes();
+            } catch (RuntimeException e) {
+                // Sin respuesta encolada la conexión quedaría parada para siempre
+                failedRequests.incrementAndGet();
+                logging.logToError("[STANDALONE] Error interno: " + e);
+                bytes = errorResponse("500 Internal Server Error", "Proxy error: " + e).toBytes();
+                close = true;
+            }
+            byte[] answer = bytes;
+            boolean closeAfterWrite = close;
+            selectorTasks.add(() -> beginWrite(key, answer, closeAfterWrite));
+            selector.wakeup();
+        });
+    }
+
+    /**
+     * Answers a request that is not forwarded and closes the connection
+     * once the answer is written; unread input is discarded
+     */
+    private void reject(SelectionKey key, ClientConnection conn, String status, String message) {
+        conn.length = 0;
+        beginWrite(key, errorResponse(status, message).toBytes(), true);
+    }
+
+    private static RawHttpMessage errorResponse(String status, String message) {
+        RawHttpMessage error = new RawHttpMessage("HTTP/1.1 " + status, new ArrayList<>(),
+                message.getBytes(StandardCharsets.UTF_8));
+        error.setHeader("Content-Type", "text/plain");
+        error.setHeader("Connection", "close");
+        return error;
+    }
+
+    private void beginWrite(SelectionKey key, byte[] response, boolean closeAfterWrite) {
+        if (!key.isValid()) {
+            return;
+        }
+        ClientConnection conn = (ClientConnection) key.attachment();
+        conn.pendingWrite = ByteBuffer.wrap(response);
+        conn.closeAfterWrite = closeAfterWrite;
+        key.interestOps(SelectionKey.OP_WRITE);
+    }
+
+    private void write(SelectionKey key) throws Exception {
+        ClientConnection conn = (ClientConnection) key.attachment();
+        ((SocketChannel) key.channel()).write(conn.pendingWrite);
+        if (conn.pendingWrite.hasRemaining()) {
+            return;
+        }
+
+        conn.pendingWrite = null;
+        if (conn.closeAfterWrite) {
+            close(key);
+            return;
+        }
+        key.interestOps(SelectionKey.OP_READ);
+        if (conn.length > 0) {
+            dispatchIfComplete(key, conn);
+        }
+    }
+
+    private void close(SelectionKey key) {
+        key.cancel();
+        try {
+            key.channel().close();
+        } catch (IOException e) {
+            // Ya cerrado
+        }
+    }
+
+    /**
+     * Runs on a worker: encrypt the request, exchange it with the upstream
+     * and decrypt the response. A response with Connection: close ends the
+     * client connection.
+     */
+    @SuppressWarnings("try")
+    private RawHttpMessage handle(RawHttpMessage request, boolean clientKeepAlive) {
+        handledRequests.incrementAndGet();
+        boolean head = request.startLine.startsWith("HEAD ");
+        // Resolved before encrypting: the response uses the same session key
+        SessionKeys.Material session = resolveSession(request);
+
+        if (config.isEnabled() && config.isAutoEncrypt() && request.body.length > 0) {
+            try (TransformEvents.Scope scope = TransformEvents.scope(upstreamPool.host, "Request");
+                 SessionKeys.Scope keys = SessionKeys.with(session);
+                 KeyRing.Scope ring = KeyRing.scope(config, upstreamPool.host)) {
+                encryptRequest(request);
+            } catch (Exception e) {
+                logging.logToError("[STANDALONE] Error cifrando request: " + e.getMessage());
+            }
+        }
+
+        // La conexión con el upstream siempre es persistente
+        request.removeHeader("Connection");
+        request.removeHeader("Keep-Alive");
+        request.removeHeader("Proxy-Connection");
+        // El cuerpo ya está entero en memoria: un 100 Continue del upstream no aporta nada
+        request.removeHeader("Expect");
+
+        RawHttpMessage response;
+        try {
+            response = exchange(request.toBytes(), head, isIdempotent(request.startLine));
+        } catch (Exception e) {
+            failedRequests.incrementAndGet();
+            logging.logToError("[STANDALONE] Upstream error: " + e.getMessage());
+            return errorResponse("502 Bad Gateway", "Upstream error: " + e.getMessage());
+        }
+
+        if (config.isEnabled() && config.usesKeyLearning()) {
+            learnSessionKey(request, response);
+        }
+
+        if (config.isEnabled() && config.isDecryptResponses() && response.body.length > 0) {
+            try (TransformEvents.Scope scope = TransformEvents.scope(upstreamPool.host, "Response");
+                 SessionKeys.Scope keys = SessionKeys.with(session);
+                 KeyRing.Scope ring = KeyRing.scope(config, upstreamPool.host)) {
+                decryptResponse(response);
+            } catch (Exception e) {
+                logging.logToError("[STANDALONE] Error descifrando response: " + e.getMessage());
+            }
+        }
+
+        response.removeHeader("Connection");
+        response.removeHeader("Keep-Alive");
+        if (!clientKeepAlive) {
+            response.setHeader("Connection", "close");
+        }
+        return response;
+    }
+
+    /**
+     * Methods that may be sent twice without changing the outcome (RFC 9110)
+     */
+    private static boolean isIdempotent(String startLine) {
+        String method = startLine.substring(0, Math.max(0, startLine.indexOf(' ')));
+        switch (method) {
+            case "GET":
+            case "HEAD":
+            case "OPTIONS":
+            case "TRACE":
+            case "PUT":
+            case "DELETE":
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Per-request session key (RSA-wrapped or learned), or null
+     */
+    private SessionKeys.Material resolveSession(RawHttpMessage request) {
+        if (!config.isEnabled() || !config.usesSessionKeys()) {
+            return null;
+        }
+        try {
+            return SessionKeys.resolve(config, request);
+        } catch (Exception e) {
+            logging.logToError("[STANDALONE] Error resolviendo clave de sesión: " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Binds key material delivered by a login/handshake response to its session
+     */
+    private void learnSessionKey(RawHttpMessage request, RawHttpMessage response) {
+        try {
+            String session = LearnedKeys.learn(config, request, response);
+            if (session != null) {
+                logging.logToOutput("[STANDALONE] Clave de sesión aprendida para " + session);
+            }
+        } catch (Exception e) {
+            logging.logToError("[STANDALONE] Error aprendiendo clave de sesión: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Encrypts the request field in place; compressed and multipart bodies
+     * are transformed as a stream (compressed ones stay compressed). With
+     * signing, a compressed body is inflated whole instead, since the
+     * signature covers the plain body. toBytes() rewrites Content-Length.
+     */
+    private void encryptRequest(RawHttpMessage request) throws Exception {
+        String contentEncoding = request.header("Content-Encoding");
+        boolean multipart = "MULTIPART".equals(config.getDataFormat());
+        if (config.isSigningEnabled() && ContentCodec.isCompressed(contentEncoding) && !multipart) {
+            byte[] compressed = request.body;
+            request.body = ContentCodec.decode(compressed, contentEncoding);
+            request.body = encryptBody(request) ? ContentCodec.encode(request.body, contentEncoding) : compressed;
+            return;
+        }
+
+        if (transformer.transformsBytes(contentEncoding)) {
+            if (config.isSigningEnabled()) {
+                logging.logToError("[STANDALONE] Request multipart cifrado sin firma: solo se firman cuerpos JSON/XML");
+            }
+            byte[] newBody = transformer.encryptField(request.body, contentEncoding,
+                    config.getRequestParameter(), "Request");
+            if (newBody != null) {
+                request.body = newBody;
+            }
+            return;
+        }
+        encryptBody(request);
+    }
+
+    /**
+     * Encrypts (and signs, if enabled) an uncompressed JSON/XML body in place
+     *
+     * @return false if nothing was encrypted
+     */
+    private boolean encryptBody(RawHttpMessage request) throws Exception {
+        String newBody = transformer.encryptField(new String(request.body, StandardCharsets.UTF_8),
+                config.getRequestParameter(), "Request");
+        if (newBody != null) {
+            request.body = newBody.getBytes(StandardCharsets.UTF_8);
+            if (config.isSigningEnabled()) {
+                signRequest(request);
+            }
+        }
+        return newBody != null;
+    }
+
+    /**
+     * Decrypts the response field in place, as a stream for compressed and multipart bodies
+     */
+    private void decryptResponse(RawHttpMessage response) throws Exception {
+        String contentEncoding = response.header("Content-Encoding");
+        if (transformer.transformsBytes(contentEncoding)) {
+            byte[] newBody = transformer.decryptField(response.body, contentEncoding,
+                    config.getResponseParameter(), "Response", true);
+            if (newBody != null) {
+                response.body = newBody;
+            }
+            return;
+        }
+
+        String newBody = transformer.decryptField(new String(response.body, StandardCharsets.UTF_8),
+                config.getResponseParameter(), "Response", true);
+        if (newBody != null) {
+            response.body = newBody.getBytes(StandardCharsets.UTF_8);
+        }
+    }
+
+    /**
+     * Writes the signature of an encrypted request into the configured field or header
+     */
+    private void signRequest(RawHttpMessage request) throws Exception {
+        String[] startLine = request.startLine.split(" ", 3);
+        MessageSigner.Signed signed = signer.sign(startLine[0], startLine.length > 1 ? startLine[1] : "/",
+                new String(request.body, StandardCharsets.UTF_8), config.getRequestParameter());
+
+        if (MessageSigner.LOCATION_HEADER.equals(config.getSignatureLocation())) {
+            request.setHeader(config.getSignatureName(), signed.signature);
+            if (!signed.timestamp.isEmpty()) {
+                request.setHeader(config.getSignatureTimestampName(), signed.timestamp);
+            }
+        } else {
+            request.body = signed.body.getBytes(StandardCharsets.UTF_8);
+        }
+    }
+
+    /**
+     * Sends the request over a pooled connection; an idempotent request on a
+     * stale pooled connection (closed by the upstream while idle) is retried
+     * once on a fresh one
+     */
+    private RawHttpMessage exchange(byte[] request, boolean head, boolean idempotent) throws Exception {
+        UpstreamConnection conn = upstreamPool.acquire();
+        try {
+            return exchange(conn, request, head);
+        } catch (IOException e) {
+            conn.close();
+            // Tras un timeout o con parte de la response leída el upstream pudo
+            // procesar el request: repetirlo duplicaría un POST
+            if (!conn.reused || !idempotent || conn.received > 0 || e instanceof SocketTimeoutException) {
+                throw e;
+            }
+        }
+        conn = upstreamPool.connect();
+        try {
+            return exchange(conn, request, head);
+        } catch (Exception e) {
+            conn.close();
+            throw e;
+        }
+    }
+
+    private RawHttpMessage exchange(UpstreamConnection conn, byte[] request, boolean head) throws Exception {
+        conn.out.write(request);
+        conn.out.flush();
+        RawHttpMessage response = conn.readResponse(head);
+        // Un cuerpo leído hasta el cierre deja la conexión inservible, y bytes
+        // de más tras la response la desincronizarían para el siguiente request
+        if (response.isKeepAlive() && !response.delimitedByClose && conn.length == 0) {
+            upstreamPool.release(conn);
+        } else {
+            conn.close();
+        }
+        return response;
+    }
+
+    /**
+     * Persistent blocking connection to the upstream
+     */
+    private static class UpstreamConnection {
+        final Socket socket;
+        final InputStream in;
+        final OutputStream out;
+        byte[] buffer = new byte[UPSTREAM_BUFFER_SIZE];
+        int length;
+        boolean reused;
+        // Bytes read from the upstream during the current exchange
+        int received;
+
+        UpstreamConnection(String host, int port) throws IOException {
+            socket = new Socket();
+            socket.connect(new InetSocketAddress(host, port), UPSTREAM_TIMEOUT_MS);
+            socket.setTcpNoDelay(true);
+            socket.setSoTimeout(UPSTREAM_TIMEOUT_MS);
+            in = socket.getInputStream();
+            out = socket.getOutputStream();
+        }
+
+        /**
+         * Reads the final response; interim 1xx responses (other than 101)
+         * are skipped, and bytes after the response stay in the buffer
+         */
+        RawHttpMessage readResponse(boolean head) throws Exception {
+            received = 0;
+            boolean eof = false;
+            while (true) {
+                RawHttpMessage response = RawHttpMessage.tryParse(buffer, length, true, eof, head);
+                if (response != null) {
+                    System.arraycopy(buffer, response.consumed, buffer, 0, length - response.consumed);
+                    length -= response.consumed;
+                    int status = response.statusCode();
+                    if (status >= 100 && status < 200 && status != 101) {
+                        continue;
+                    }
+                    return response;
+                }
+                if (eof) {
+                    throw new IOException("Upstream closed the connection");
+                }
+                if (length == buffer.length) {
+                    byte[] grown = new byte[buffer.length * 2];
+                    System.arraycopy(buffer, 0, grown, 0, length);
+                    buffer = grown;
+                }
+                int n = in.read(buffer, length, buffer.length - length);
+                if (n < 0) {
+                    eof = true;
+                } else {
+                    length += n;
+                    received += n;
+                }
+            }
+        }
+
+        void close() {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // Ya cerrado
+            }
+        }
+    }
+
+    /**
+     * LIFO pool of idle upstream connections, so the hottest connection is
+     * reused first and surplus idle ones are closed
+     */
+    private static class UpstreamPool {
+        private final String host;
+        private final int port;
+        private final LinkedBlockingDeque<UpstreamConnection> idle;
+
+        UpstreamPool(String host, int port, int maxIdle) {
+            this.host = host;
+            this.port = port;
+            this.idle = new LinkedBlockingDeque<>(maxIdle);
+        }
+
+        UpstreamConnection acquire() throws IOException {
+            UpstreamConnection conn = idle.pollFirst();
+            if (conn != null) {
+                conn.reused = true;
+                return conn;
+            }
+            return connect();
+        }
+
+        UpstreamConnection connect() throws IOException {
+            return new UpstreamConnection(host, port);
+        }
+
+        void release(UpstreamConnection conn) {
+            if (!idle.offerFirst(conn)) {
+                conn.close();
+            }
+        }
+
+        void close() {
+            UpstreamConnection conn;
+            while ((conn = idle.pollFirst()) != null) {
+                conn.close();
+            }
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        int listenPort = 8081;
+        String upstream = null;
+        String configFile = null;
+        int workerThreads = Runtime.getRuntime().availableProcessors() * 8;
+        int maxIdleUpstream = 64;
+        boolean verbose = false;
+
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--listen": listenPort = Integer.parseInt(args[++i]); break;
+                case "--upstream": upstream = args[++i]; break;
+                case "--config": configFile = args[++i]; break;
+                case "--workers": workerThreads = Integer.parseInt(args[++i]); break;
+                case "--pool": maxIdleUpstream = Integer.parseInt(args[++i]); break;
+                case "--verbose": verbose = true; break;
+                default:
+                    System.err.println("Unknown argument: " + args[i]);
+                    System.exit(1);
+            }
+        }
+
+        if (upstream == null || configFile == null) {
+            System.err.println("Usage: StandaloneProxy --upstream host:port --config aes.properties "
+                    + "[--listen 8081] [--workers N] [--pool N] [--verbose]");
+            System.exit(1);
+        }
+
+        CryptoConfig config = new CryptoConfig();
+        Properties props = new Properties();
+        try (InputStream in = new FileInputStream(configFile)) {
+            props.load(in);
+        }
+        config.loadFromProperties(props);
+        if (!config.isValid()) {
+            System.err.println("Invalid configuration: " + config);
+            System.exit(1);
+        }
+
+        int colon = upstream.lastIndexOf(':');
+        StandaloneProxy proxy = new StandaloneProxy(config, new ConsoleLogging(verbose), listenPort,
+                upstream.substring(0, colon), Integer.parseInt(upstream.substring(colon + 1)),
+                workerThreads, maxIdleUpstream);
+        proxy.start();
+        System.out.println("Destroy AES standalone proxy on :" + proxy.getPort() + " -> " + upstream
+                + " (" + config + ")");
+
+        Runtime.getRuntime().addShutdownHook(new Thread(proxy::stop));
+        while (true) {
+            TimeUnit.SECONDS.sleep(60);
+            System.out.println("handled=" + proxy.getHandledRequests() + " failed=" + proxy.getFailedRequests());
+        }
+    }
+}
@@ -0,0 +1,351 @@
+package burp;
+
+import burp.api.montoya.http.message.HttpHeader;
+import burp.api.montoya.http.message.params.HttpParameter;
+import burp.api.montoya.http.message.params.HttpParameterType;
+import burp.api.montoya.http.message.requests.HttpRequest;
+import burp.api.montoya.http.message.responses.HttpResponse;
+import burp.api.montoya.logging.Logging;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * TokenTransformer - Tokens cifrados fuera del cuerpo
+ *
+ * Con requestLocation/responseLocation HEADER, COOKIE o QUERY el parámetro
+ * configurado es una cabecera, una cookie (Set-Cookie en las responses) o
+ * un parámetro de la URL. Se lee y se reescribe con las APIs de cabeceras y
+ * parámetros de Montoya, sin leer nunca el cuerpo.
+ *
+ * Los tokens se repiten en miles de requests de una sesión, así que los
+ * pares cifrado ↔ texto plano se guardan en una caché compartida por todos
+ * los handlers: descifrar un token ya visto no toca AES, y volver a cifrar
+ * un texto plano sin editar devuelve exactamente el token original. Con
+ * anillo de claves el par solo se guarda en el sentido cifrado → texto
+ * plano: la clave que descifró puede no ser la que cifraría ese texto.
+ * Lo que cifra este transformer solo se memoriza con IV estático, sin
+ * derivación ni claves de sesión: si no, cada cifrado debe llevar su
+ * propio IV, salt o clave.
+ */
+public class TokenTransformer {
+
+    public static final String BODY = "BODY";
+    public static final String HEADER = "HEADER";
+    public static final String COOKIE = "COOKIE";
+    public static final String QUERY = "QUERY";
+
+    private static final int MAX_CACHE_SIZE = 4096;
+
+    // "perfil|cifrado" → texto plano y "perfil|texto plano" → cifrado
+    private static final Map<String, String> plaintexts = new ConcurrentHashMap<>();
+    private static final Map<String, String> ciphertexts = new ConcurrentHashMap<>();
+    private static final Queue<String> insertionOrder = new ConcurrentLinkedQueue<>();
+
+    private final CryptoConfig config;
+    private final Logging logging;
+    private final String tag;
+
+    /**
+     * @param tag prefijo de los logs, por ejemplo "[PROXY]" o "[HTTP]"
+     */
+    public TokenTransformer(CryptoConfig config, Logging logging, String tag) {
+        this.config = config;
+        this.logging = logging;
+        this.tag = tag;
+    }
+
+    /**
+     * Indica si el token de los requests va fuera del cuerpo
+     */
+    public boolean handlesRequests() {
+        return !BODY.equals(config.getRequestLocation());
+    }
+
+    public boolean handlesResponses() {
+        return !BODY.equals(config.getResponseLocation());
+    }
+
+    /**
+     * Descifra el token del request; null si no lo tiene o no hay nada que cambiar
+     */
+    public HttpRequest decryptRequest(HttpRequest request, boolean onlyIfEncrypted) throws Exception {
+        String name = config.getRequestParameter();
+        String value = readRequest(request, name);
+        String plaintext = value != null ? decrypt(value, "Request", onlyIfEncrypted) : null;
+        return plaintext != null ? writeRequest(request, name, plaintext) : null;
+    }
+
+    public HttpRequest encryptRequest(HttpRequest request) throws Exception {
+        String name = config.getRequestParameter();
+        String value = readRequest(request, name);
+        String ciphertext = value != null ? encrypt(value, "Request") : null;
+        return ciphertext != null ? writeRequest(request, name, ciphertext) : null;
+    }
+
+    public HttpResponse decryptResponse(HttpResponse response, boolean onlyIfEncrypted) throws Exception {
+        String name = config.getResponseParameter();
+        String value = readResponse(response, name);
+        String plaintext = value != null ? decrypt(value, "Response", onlyIfEncrypted) : null;
+        return plaintext != null ? writeResponse(response, name, plaintext) : null;
+    }
+
+    public HttpResponse encryptResponse(HttpResponse response) throws Exception {
+        String name = config.getResponseParameter();
+        String value = readResponse(response, name);
+        String ciphertext = value != null ? encrypt(value, "Response") : null;
+        return ciphertext != null ? writeResponse(response, name, ciphertext) : null;
+    }
+
+    /**
+     * Valor del token del request tal como va (sin %XX), o null si no lo lleva (pestaña del editor)
+     */
+    public String requestToken(HttpRequest request) {
+        return readRequest(request, config.getRequestParameter());
+    }
+
+    public String responseToken(HttpResponse response) {
+        return readResponse(response, config.getResponseParameter());
+    }
+
+    /**
+     * Texto plano de un valor leído con requestToken/responseToken
+     */
+    public String decryptToken(String value, String label) throws Exception {
+        return decrypt(value, label, false);
+    }
+
+    /**
+     * Request con ese valor en el token, sin cifrar (el editor lo cifra con encryptRequest)
+     */
+    public HttpRequest withRequestToken(HttpRequest request, String value) {
+        return writeRequest(request, config.getRequestParameter(), value);
+    }
+
+    private String decrypt(String ciphertext, String label, boolean onlyIfEncrypted) throws Exception {
+        CodecChain chain = codecChain(label);
+        if (onlyIfEncrypted && !chain.isLikelyEncrypted(ciphertext, config)) {
+            return null;
+        }
+        String profile = profileKey(config, label);
+        String plaintext = plaintexts.get(profile + ciphertext);
+        if (plaintext == null) {
+            plaintext = chain.decrypt(ciphertext, config);
+            // El anillo pudo descifrar con otra clave que la del perfil: el token no vale para re-cifrar
+            remember(profile, ciphertext, plaintext, !config.usesKeyRing());
+        }
+        logging.logToOutput(tag + " " + label + " " + location(label) + " " + parameter(label) + " descifrado");
+        return plaintext;
+    }
+
+    private String encrypt(String plaintext, String label) throws Exception {
+        CodecChain chain = codecChain(label);
+        if (chain.isLikelyEncrypted(plaintext, config)) {
+            return null;
+        }
+        plaintext = PlaintextRules.compile(config.getPlaintextRules()).apply(plaintext, label);
+        String profile = profileKey(config, label);
+        // Con IV aleatorio/contador, salt o clave por mensaje solo se reutiliza el token
+        // original de un texto plano sin editar (el par que guardó decrypt)
+        String ciphertext = ciphertexts.get(profile + plaintext);
+        if (ciphertext == null) {
+            ciphertext = chain.encrypt(plaintext, config);
+            remember(profile, ciphertext, plaintext, isDeterministic());
+        }
+        logging.logToOutput(tag + " " + label + " " + location(label) + " " + parameter(label) + " cifrado");
+        return ciphertext;
+    }
+
+    /**
+     * Si cifrar dos veces el mismo texto plano debe dar el mismo token
+     */
+    private boolean isDeterministic() {
+        return NonceGenerator.STATIC.equals(config.getIvPolicy()) && !config.usesKeyDerivation()
+                && !config.usesSessionKeys();
+    }
+
+    /**
+     * Guarda el par (en ambos sentidos si reversible); se descartan los más antiguos pasado MAX_CACHE_SIZE
+     */
+    private static void remember(String profile, String ciphertext, String plaintext, boolean reversible) {
+        String key = profile + ciphertext;
+        if (plaintexts.put(key, plaintext) == null) {
+            insertionOrder.add(key);
+        }
+        if (reversible) {
+            ciphertexts.put(profile + plaintext, ciphertext);
+        }
+        while (plaintexts.size() > MAX_CACHE_SIZE) {
+            String oldest = insertionOrder.poll();
+            if (oldest == null) {
+                break;
+            }
+            String evicted = plaintexts.remove(oldest);
+            if (evicted != null) {
+                int separator = oldest.indexOf('\n');
+                ciphertexts.remove(oldest.substring(0, separator + 1) + evicted, oldest.substring(separator + 1));
+            }
+        }
+    }
+
+    private String readRequest(HttpRequest request, String name) {
+        switch (config.getRequestLocation()) {
+            case HEADER:
+                return request.headerValue(name);
+            case COOKIE: {
+                String value = request.parameterValue(name, HttpParameterType.COOKIE);
+                return value != null ? percentDecode(value) : null;
+            }
+            case QUERY: {
+                String value = request.parameterValue(name, HttpParameterType.URL);
+                return value != null ? percentDecode(value) : null;
+            }
+            default:
+                return null;
+        }
+    }
+
+    private HttpRequest writeRequest(HttpRequest request, String name, String value) {
+        switch (config.getRequestLocation()) {
+            case HEADER:
+                return request.withUpdatedHeader(name, headerValue(value));
+            case COOKIE:
+                return request.withUpdatedParameters(HttpParameter.cookieParameter(name, percentEncode(value, false)));
+            default:
+                return request.withUpdatedParameters(HttpParameter.urlParameter(name, percentEncode(value, true)));
+        }
+    }
+
+    private String readResponse(HttpResponse response, String name) {
+        switch (config.getResponseLocation()) {
+            case HEADER:
+                return response.headerValue(name);
+            case COOKIE: {
+                String value = response.cookieValue(name);
+                return value != null ? percentDecode(value) : null;
+            }
+            default:
+                return null;
+        }
+    }
+
+    private HttpResponse writeResponse(HttpResponse response, String name, String value) {
+        if (HEADER.equals(config.getResponseLocation())) {
+            return response.withUpdatedHeader(name, headerValue(value));
+        }
+
+        // Set-Cookie puede repetirse y Montoya solo actualiza la primera cabecera:
+        // se quitan todas y se vuelven a añadir, con el valor de esa cookie cambiado
+        HttpResponse updated = response.withRemovedHeader("Set-Cookie");
+        String prefix = name + "=";
+        for (HttpHeader header : response.headers()) {
+            if (!header.name().equalsIgnoreCase("Set-Cookie")) {
+                continue;
+            }
+            String cookie = header.value();
+            if (cookie.trim().startsWith(prefix)) {
+                int start = cookie.indexOf(prefix) + prefix.length();
+                int end = cookie.indexOf(';', start);
+                cookie = cookie.substring(0, start) + percentEncode(value, false)
+                        + (end >= 0 ? cookie.substring(end) : "");
+            }
+            updated = updated.withAddedHeader(header.name(), cookie);
+        }
+        return updated;
+    }
+
+    /**
+     * Las cabeceras no admiten saltos de línea: el JSON descifrado se deja en una línea
+     */
+    private static String headerValue(String value) {
+        return value.indexOf('\r') < 0 && value.indexOf('\n') < 0
+                ? value : value.replace("\r", "").replace('\n', ' ');
+    }
+
+    /**
+     * Codifica con %XX lo que no puede ir en una cookie o en la query;
+     * '+', '/' y '=' del Base64 se escapan en la query, donde tienen otro significado
+     */
+    static String percentEncode(String value, boolean query) {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        StringBuilder sb = null;
+        for (int i = 0; i < bytes.length; i++) {
+            int b = bytes[i] & 0xff;
+            boolean safe = b > 0x20 && b < 0x7f && b != '%' && b != '"' && b != ',' && b != ';' && b != '\\'
+                    && (!query || (b != '+' && b != '/' && b != '=' && b != '&' && b != '#' && b != '?'));
+            if (safe) {
+                if (sb != null) {
+                    sb.append((char) b);
+                }
+                continue;
+            }
+            if (sb == null) {
+                sb = new StringBuilder(bytes.length + 16);
+                sb.append(value, 0, i);
+            }
+            sb.append('%').append(Character.toUpperCase(Character.forDigit(b >> 4, 16)))
+                    .append(Character.toUpperCase(Character.forDigit(b & 0xf, 16)));
+        }
+        return sb != null ? sb.toString() : value;
+    }
+
+    /**
+     * Decodifica %XX como UTF-8; a diferencia de URLDecoder, '+' se conserva (Base64)
+     */
+    static String percentDecode(String value) {
+        if (value.indexOf('%') < 0) {
+            return value;
+        }
+        StringBuilder sb = new StringBuilder(value.length());
+        ByteArrayOutputStream pending = new ByteArrayOutputStream();
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            int high = c == '%' && i + 2 < value.length() ? Character.digit(value.charAt(i + 1), 16) : -1;
+            int low = high >= 0 ? Character.digit(value.charAt(i + 2), 16) : -1;
+            if (low >= 0) {
+                // Secuencias %XX seguidas forman un carácter UTF-8
+                pending.write(high << 4 | low);
+                i += 2;
+                continue;
+            }
+            if (pending.size() > 0) {
+                sb.append(new String(pending.toByteArray(), StandardCharsets.UTF_8));
+                pending.reset();
+            }
+            sb.append(c);
+        }
+        if (pending.size() > 0) {
+            sb.append(new String(pending.toByteArray(), StandardCharsets.UTF_8));
+        }
+        return sb.toString();
+    }
+
+    private String location(String label) {
+        return "Request".equals(label) ? config.getRequestLocation() : config.getResponseLocation();
+    }
+
+    private String parameter(String label) {
+        return "Request".equals(label) ? config.getRequestParameter() : config.getResponseParameter();
+    }
+
+    private CodecChain codecChain(String label) throws Exception {
+        return CodecChain.compile("Request".equals(label) ? config.getRequestCodecs() : config.getResponseCodecs());
+    }
+
+    /**
+     * Todo lo que cambia el resultado de cifrar/descifrar, terminado en '\n'
+     * (no aparece en los valores, que son una sola línea). También la caché
+     * de vistas del editor parte de aquí
+     */
+    static String profileKey(CryptoConfig config, String label) {
+        return config.getMode() + '|' + config.getPadding() + '|' + config.getKeyBase64() + '|' + config.getIvBase64()
+                + '|' + config.getIvPlacement() + '|' + config.getIvPolicy() + '|' + config.getKeyDerivation()
+                + '|' + config.getPassphrase() + '|' + config.getKdfIterations()
+                + '|' + config.getKeyRing().replace('\n', ' ') + '|' + SessionKeys.currentKeyId(config) + '|'
+                + ("Request".equals(label) ? config.getRequestCodecs() : config.getResponseCodecs()) + '\n';
+    }
+}
@@ -0,0 +1,381 @@
+package burp;
+
+import burp.api.montoya.http.message.HttpMessage;
+import burp.api.montoya.http.message.requests.HttpRequest;
+import burp.api.montoya.logging.Logging;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+
+/**
+ * TrafficJournal - Diario de los mensajes transformados, para evidencias
+ *
+ * Los handlers llaman a append() con el mensaje original y el
+ * transformado; append() solo encola (si la cola está llena, en registros
+ * o en bytes de cuerpos pendientes, el registro se descarta y se cuenta,
+ * nunca bloquea el hilo del proxy). Un hilo escritor
+ * vacía la cola en segmentos mapeados en memoria:
+ *
+ *   segment-00000001.log  registros consecutivos, el resto del archivo a ceros
+ *   segment-00000001.idx  por registro: timestamp (long) + offset (int)
+ *
+ * Cuando un registro no cabe se abre el segmento siguiente. Cada registro:
+ *
+ *   int magic, int longitud total, long timestamp, int messageId,
+ *   str origen, str operación, str dirección, str host, str url,
+ *   int + bytes cifrado, int + bytes plano, int CRC32
+ *
+ * (str = short con la longitud + UTF-8). Un magic a cero marca el final
+ * del segmento; un CRC que no cuadra (registro a medio escribir tras un
+ * cierre brusco) también. JournalReader lee este formato.
+ */
+public class TrafficJournal {
+
+    public static final String SOURCE_PROXY = "PROXY";
+    public static final String SOURCE_HTTP = "HTTP";
+    public static final String DECRYPT = "decrypt";
+    public static final String ENCRYPT = "encrypt";
+
+    static final int RECORD_MAGIC = 0x4A524E4C;  // "JRNL"
+    static final int INDEX_ENTRY_SIZE = 12;
+    static final String SEGMENT_SUFFIX = ".log";
+    static final String INDEX_SUFFIX = ".idx";
+
+    private static final long SEGMENT_SIZE = 64L * 1024 * 1024;
+    static final int QUEUE_CAPACITY = 8192;
+    // Cuerpos pendientes como mucho: 8192 respuestas grandes no caben en el heap
+    static final long QUEUE_BYTES = 64L * 1024 * 1024;
+    private static final int BATCH_SIZE = 256;
+
+    /**
+     * Un mensaje pendiente de escribir
+     */
+    private static final class Entry {
+        final long timestamp = System.currentTimeMillis();
+        final int messageId;
+        final String source;
+        final String operation;
+        final String direction;
+        final String host;
+        final String url;
+        final byte[] ciphertext;
+        final byte[] plaintext;
+        final long size;
+
+        Entry(int messageId, String source, String operation, String direction, String host, String url,
+              byte[] ciphertext, byte[] plaintext) {
+            this.messageId = messageId;
+            this.source = source;
+            this.operation = operation;
+            this.direction = direction;
+            this.host = host;
+            this.url = url;
+            this.ciphertext = ciphertext;
+            this.plaintext = plaintext;
+            this.size = (long) ciphertext.length + plaintext.length;
+        }
+    }
+
+    private final CryptoConfig config;
+    private final Logging logging;
+    private final BlockingQueue<Entry> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+    private final AtomicLong queuedBytes = new AtomicLong();
+    private final AtomicLong written = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final Thread writer;
+    private volatile boolean closed;
+
+    // Solo los usa el hilo escritor
+    private Path directory;
+    private int segmentNumber;
+    private FileChannel segmentChannel;
+    private MappedByteBuffer segment;
+    private FileChannel indexChannel;
+    private final ByteBuffer indexBuffer = ByteBuffer.allocate(BATCH_SIZE * INDEX_ENTRY_SIZE);
+    private final CRC32 crc = new CRC32();
+
+    public TrafficJournal(CryptoConfig config, Logging logging) {
+        this.config = config;
+        this.logging = logging;
+        this.writer = new Thread(this::writeLoop, "destroy-aes-journal");
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    /**
+     * Si hay que registrar mensajes (los handlers lo consultan antes de copiar bytes)
+     */
+    public boolean isEnabled() {
+        return !closed && config.isJournalEnabled();
+    }
+
+    /**
+     * Encola un mensaje transformado; nunca bloquea
+     *
+     * @param operation DECRYPT u ENCRYPT: ciphertext es la entrada o la salida
+     * @param direction "Request" o "Response"
+     * @return false si se descartó porque la cola estaba llena (registros o bytes)
+     */
+    public boolean append(String source, int messageId, String operation, String direction, String host, String url,
+                          byte[] ciphertext, byte[] plaintext) {
+        if (!isEnabled()) {
+            return false;
+        }
+        Entry entry = new Entry(messageId, source, operation, direction, host, url, ciphertext, plaintext);
+        if (queuedBytes.addAndGet(entry.size) <= QUEUE_BYTES) {
+            if (queue.offer(entry)) {
+                return true;
+            }
+        }
+        queuedBytes.addAndGet(-entry.size);
+        if (dropped.incrementAndGet() % 1000 == 1) {
+            logging.logToError("[JOURNAL] Cola llena, registros descartados: " + dropped.get());
+        }
+        return false;
+    }
+
+    /**
+     * Encola un mensaje transformado por un handler de Burp
+     *
+     * @param request el request del mensaje (o el que inició la response): host y URL
+     * @param original mensaje antes de transformarlo
+     * @param transformed mensaje después de transformarlo
+     */
+    public void record(String source, int messageId, String operation, String direction, HttpRequest request,
+                       HttpMessage original, HttpMessage transformed) {
+        if (!isEnabled()) {
+            return;
+        }
+        byte[] before = original.toByteArray().getBytes();
+        byte[] after = transformed.toByteArray().getBytes();
+        boolean decrypt = DECRYPT.equals(operation);
+        append(source, messageId, operation, direction,
+                request.httpService() != null ? request.httpService().host() : null, request.url(),
+                decrypt ? before : after, decrypt ? after : before);
+    }
+
+    public long getWritten() {
+        return written.get();
+    }
+
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    /**
+     * Directorio de los segmentos según la configuración
+     */
+    public Path getDirectory() {
+        return Paths.get(config.getJournalDirectory());
+    }
+
+    /**
+     * Escribe lo pendiente y cierra el segmento actual (al descargar la extensión)
+     */
+    public void close() {
+        closed = true;
+        try {
+            writer.join(5000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // ---- Hilo escritor ----
+
+    // Sin interrupt(): interrumpir una escritura en un FileChannel lo cierra
+    private void writeLoop() {
+        List<Entry> batch = new ArrayList<>(BATCH_SIZE);
+        while (!closed || !queue.isEmpty()) {
+            try {
+                Entry first = queue.poll(200, TimeUnit.MILLISECONDS);
+                if (first != null) {
+                    batch.add(first);
+                    queue.drainTo(batch, BATCH_SIZE - 1);
+                    writeBatch(batch);
+                }
+            } catch (Exception e) {
+                logging.logToError("[JOURNAL] Error escribiendo: " + e.getMessage());
+                closeSegment();
+            }
+            for (Entry entry : batch) {
+                queuedBytes.addAndGet(-entry.size);
+            }
+            batch.clear();
+        }
+        closeSegment();
+    }
+
+    private void writeBatch(List<Entry> batch) throws IOException {
+        if (batch.isEmpty()) {
+            return;
+        }
+        // Cambio de directorio en la configuración: se sigue en el nuevo
+        Path configured = getDirectory();
+        if (!configured.equals(directory)) {
+            closeSegment();
+            directory = configured;
+            segmentNumber = 0;
+        }
+
+        for (Entry entry : batch) {
+            byte[][] strings = {
+                utf8(entry.source), utf8(entry.operation), utf8(entry.direction), utf8(entry.host), utf8(entry.url)
+            };
+            int length = 4 + 4 + 8 + 4 + 4 + entry.ciphertext.length + 4 + entry.plaintext.length + 4;
+            for (byte[] string : strings) {
+                length += 2 + string.length;
+            }
+
+            if (segment == null || segment.remaining() < length) {
+                openNextSegment(length);
+            }
+            int offset = segment.position();
+            segment.putInt(RECORD_MAGIC);
+            segment.putInt(length);
+            segment.putLong(entry.timestamp);
+            segment.putInt(entry.messageId);
+            for (byte[] string : strings) {
+                segment.putShort((short) string.length);
+                segment.put(string);
+            }
+            segment.putInt(entry.ciphertext.length);
+            segment.put(entry.ciphertext);
+            segment.putInt(entry.plaintext.length);
+            segment.put(entry.plaintext);
+            crc.reset();
+            crc.update(segment.duplicate().position(offset + 8).limit(segment.position()));
+            segment.putInt((int) crc.getValue());
+
+            if (!indexBuffer.hasRemaining()) {
+                flushIndex();
+            }
+            indexBuffer.putLong(entry.timestamp);
+            indexBuffer.putInt(offset);
+        }
+        flushIndex();
+        written.addAndGet(batch.size());
+    }
+
+    /**
+     * Abre el segmento siguiente, con sitio al menos para un registro de minLength
+     */
+    private void openNextSegment(int minLength) throws IOException {
+        closeSegment();
+        Files.createDirectories(directory);
+        if (segmentNumber == 0) {
+            segmentNumber = lastSegmentNumber(directory);
+        }
+        segmentNumber++;
+
+        Path segmentPath = directory.resolve(segmentName(segmentNumber) + SEGMENT_SUFFIX);
+        segmentChannel = FileChannel.open(segmentPath, StandardOpenOption.CREATE_NEW,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        // +4: siempre queda sitio para el magic a cero que cierra el segmento
+        segment = segmentChannel.map(FileChannel.MapMode.READ_WRITE, 0, Math.max(SEGMENT_SIZE, minLength + 4L));
+        indexChannel = FileChannel.open(directory.resolve(segmentName(segmentNumber) + INDEX_SUFFIX),
+                StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+        logging.logToOutput("[JOURNAL] Nuevo segmento: " + segmentPath);
+    }
+
+    private void flushIndex() throws IOException {
+        indexBuffer.flip();
+        while (indexBuffer.hasRemaining()) {
+            indexChannel.write(indexBuffer);
+        }
+        indexBuffer.clear();
+    }
+
+    private void closeSegment() {
+        try {
+            if (indexChannel != null) {
+                flushIndex();
+            }
+            if (segment != null) {
+                segment.force();
+            }
+            if (segmentChannel != null) {
+                segmentChannel.close();
+            }
+            if (indexChannel != null) {
+                indexChannel.close();
+            }
+        } catch (IOException e) {
+            logging.logToError("[JOURNAL] Error cerrando segmento: " + e.getMessage());
+        }
+        segment = null;
+        segmentChannel = null;
+        indexChannel = null;
+        indexBuffer.clear();
+    }
+
+    /**
+     * Número del último segmento del directorio (0 si no hay ninguno), para no pisar diarios anteriores
+     */
+    static int lastSegmentNumber(Path directory) throws IOException {
+        int last = 0;
+        for (Path segment : segments(directory)) {
+            last = Math.max(last, segmentNumber(segment));
+        }
+        return last;
+    }
+
+    /**
+     * Segmentos del directorio, en orden
+     */
+    static List<Path> segments(Path directory) throws IOException {
+        List<Path> segments = new ArrayList<>();
+        if (!Files.isDirectory(directory)) {
+            return segments;
+        }
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "segment-*" + SEGMENT_SUFFIX)) {
+            for (Path path : stream) {
+                if (segmentNumber(path) > 0) {
+                    segments.add(path);
+                }
+            }
+        }
+        segments.sort((a, b) -> Integer.compare(segmentNumber(a), segmentNumber(b)));
+        return segments;
+    }
+
+    static Path indexFor(Path segment) {
+        String name = segment.getFileName().toString();
+        return segment.resolveSibling(name.substring(0, name.length() - SEGMENT_SUFFIX.length()) + INDEX_SUFFIX);
+    }
+
+    private static int segmentNumber(Path segment) {
+        String name = segment.getFileName().toString();
+        try {
+            return Integer.parseInt(name.substring("segment-".length(), name.length() - SEGMENT_SUFFIX.length()));
+        } catch (RuntimeException e) {
+            return 0;
+        }
+    }
+
+    private static String segmentName(int number) {
+        return String.format("segment-%08d", number);
+    }
+
+    private static byte[] utf8(String value) {
+        byte[] bytes = value == null ? new byte[0] : value.getBytes(StandardCharsets.UTF_8);
+        // Los campos de texto llevan la longitud en un short
+        return bytes.length <= Short.MAX_VALUE ? bytes : Arrays.copyOf(bytes, Short.MAX_VALUE);
+    }
+}
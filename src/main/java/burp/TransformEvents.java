@@ -0,0 +1,238 @@
+package burp;
+
+import burp.api.montoya.http.message.requests.HttpRequest;
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+import jdk.jfr.FlightRecorder;
+import jdk.jfr.FlightRecorderListener;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Recording;
+import jdk.jfr.RecordingState;
+import jdk.jfr.StackTrace;
+
+/**
+ * TransformEvents - Eventos JFR de cada etapa de la transformación
+ *
+ * Parse y Serialize (JSON, en MessageTransformer), Decode (etapas de la
+ * cadena de codecs antes del cifrado) y Decrypt/Encrypt (CryptoHelper).
+ * Cada evento lleva host, dirección, tamaño, número de campos y resultado,
+ * para cruzar la latencia de la extensión con GC y contención de hilos en
+ * Mission Control.
+ *
+ * Están desactivados por defecto: hay que activarlos en la configuración
+ * de la grabación (un .jfc con <event name="destroyaes.Decrypt"> y
+ * enabled=true, pasado con -XX:StartFlightRecording=settings=... o
+ * jcmd <pid> JFR.start settings=...). Desactivados, new + begin() + commit()
+ * los elimina el JIT, y scope() no toca el ThreadLocal.
+ *
+ * El host y la dirección los fija el handler con scope(); CryptoHelper y
+ * MessageTransformer no conocen el mensaje y los leen del hilo.
+ */
+public final class TransformEvents {
+
+    public static final String OK = "OK";
+    public static final String SKIPPED = "SKIPPED";
+    public static final String ERROR = "ERROR";
+
+    private static final Class<?>[] EVENT_CLASSES = {
+        ParseEvent.class, DecodeEvent.class, DecryptEvent.class, EncryptEvent.class, SerializeEvent.class
+    };
+
+    // Mensaje que procesa el hilo actual (solo con algún evento activo)
+    private static final ThreadLocal<Scope> current = new ThreadLocal<>();
+
+    // Algún evento activo en alguna grabación; se recalcula al cambiar el estado de JFR
+    private static volatile boolean enabled;
+
+    static {
+        try {
+            FlightRecorder.addListener(new FlightRecorderListener() {
+                @Override
+                public void recorderInitialized(FlightRecorder recorder) {
+                    refresh();
+                }
+
+                @Override
+                public void recordingStateChanged(Recording recording) {
+                    refresh();
+                }
+            });
+        } catch (Throwable e) {
+            // JVM sin JFR: los eventos quedan desactivados
+            enabled = false;
+        }
+    }
+
+    private TransformEvents() {
+    }
+
+    // ---- Eventos ----
+
+    @Category({"Destroy AES", "Transform"})
+    @Enabled(false)
+    @StackTrace(false)
+    abstract static class TransformEvent extends Event {
+        @Label("Host")
+        String host;
+
+        @Label("Direction")
+        @Description("Request or Response")
+        String direction;
+
+        @Label("Body Size")
+        @DataAmount
+        long bodySize;
+
+        @Label("Field Count")
+        @Description("Fields or array elements involved")
+        int fieldCount;
+
+        @Label("Outcome")
+        @Description("OK, SKIPPED or ERROR")
+        String outcome;
+    }
+
+    @Name("destroyaes.Parse")
+    @Label("Parse JSON")
+    public static final class ParseEvent extends TransformEvent {
+    }
+
+    @Name("destroyaes.Decode")
+    @Label("Decode Value")
+    @Description("Codec chain stages before the cipher (URL, Base64, hex...)")
+    public static final class DecodeEvent extends TransformEvent {
+    }
+
+    @Name("destroyaes.Decrypt")
+    @Label("Decrypt")
+    public static final class DecryptEvent extends TransformEvent {
+    }
+
+    @Name("destroyaes.Encrypt")
+    @Label("Encrypt")
+    public static final class EncryptEvent extends TransformEvent {
+    }
+
+    @Name("destroyaes.Serialize")
+    @Label("Serialize JSON")
+    public static final class SerializeEvent extends TransformEvent {
+    }
+
+    // ---- Contexto del mensaje ----
+
+    /**
+     * Mensaje en curso en el hilo; close() lo retira
+     */
+    public static final class Scope implements AutoCloseable {
+        private static final Scope NONE = new Scope(null, null, null);
+
+        final String host;
+        final String direction;
+        private final Scope previous;
+
+        private Scope(String host, String direction, Scope previous) {
+            this.host = host;
+            this.direction = direction;
+            this.previous = previous;
+        }
+
+        @Override
+        public void close() {
+            if (this != NONE) {
+                if (previous != null) {
+                    current.set(previous);
+                } else {
+                    current.remove();
+                }
+            }
+        }
+    }
+
+    /**
+     * Mensaje del hilo actual, para fijarlo en otro hilo (MessageContext)
+     */
+    static Scope active() {
+        return current.get();
+    }
+
+    static void activate(Scope scope) {
+        if (scope != null) {
+            current.set(scope);
+        } else {
+            current.remove();
+        }
+    }
+
+    /**
+     * Fija host y dirección del mensaje que va a procesar el hilo
+     *
+     * @param request request del mensaje (o el que inició la response)
+     */
+    public static Scope scope(HttpRequest request, String direction) {
+        if (!enabled || request == null) {
+            return Scope.NONE;
+        }
+        return scope(request.httpService() != null ? request.httpService().host() : null, direction);
+    }
+
+    /**
+     * Igual, con el host ya conocido (StandaloneProxy)
+     */
+    public static Scope scope(String host, String direction) {
+        if (!enabled) {
+            return Scope.NONE;
+        }
+        Scope scope = new Scope(host, direction, current.get());
+        current.set(scope);
+        return scope;
+    }
+
+    /**
+     * Completa y emite el evento si su tipo está activo
+     *
+     * @param direction dirección si el llamador la conoce; si no, la del scope
+     */
+    static void commit(TransformEvent event, String direction, long bodySize, int fieldCount, String outcome) {
+        if (!event.shouldCommit()) {
+            return;
+        }
+        Scope scope = current.get();
+        event.host = scope != null ? scope.host : null;
+        event.direction = direction != null ? direction : scope != null ? scope.direction : null;
+        event.bodySize = bodySize;
+        event.fieldCount = fieldCount;
+        event.outcome = outcome;
+        event.commit();
+    }
+
+    /**
+     * Indica si algún evento está activo (para saltar trabajo previo a los eventos)
+     */
+    static boolean isEnabled() {
+        return enabled;
+    }
+
+    private static void refresh() {
+        boolean any = false;
+        for (Recording recording : FlightRecorder.getFlightRecorder().getRecordings()) {
+            if (recording.getState() == RecordingState.RUNNING) {
+                any = true;
+                break;
+            }
+        }
+        if (any) {
+            any = false;
+            for (Class<?> eventClass : EVENT_CLASSES) {
+                @SuppressWarnings("unchecked")
+                EventType type = EventType.getEventType((Class<? extends Event>) eventClass);
+                any |= type.isEnabled();
+            }
+        }
+        enabled = any;
+    }
+}
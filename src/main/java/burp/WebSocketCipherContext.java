@@ -0,0 +1,167 @@
+package burp;
+
+import javax.crypto.Cipher;
+import java.util.Objects;
+
+/**
+ * WebSocketCipherContext - Estado de cifrado de una conexión WebSocket
+ *
+ * Se construye en el handshake a partir de la configuración activa: clave,
+ * IV, instancias de Cipher ya inicializadas y las cadenas de codecs con la
+ * etapa AES sustituida por esos Cipher. Así cada frame solo paga el
+ * cifrado y el splice del campo, sin Cipher.getInstance ni init.
+ *
+ * Si la configuración cambia (otra clave, otro modo...) isCurrent() deja de
+ * ser cierto y el handler construye un contexto nuevo. Con claves de sesión
+ * (envueltas o aprendidas) no hay Cipher cacheados: la clave depende de la
+ * conexión y la resuelve CryptoHelper con el SessionKeys.Scope del handler.
+ *
+ * Cipher no es thread-safe: cada uso se sincroniza sobre la instancia. En
+ * una misma conexión los frames de cada sentido llegan en orden, así que el
+ * lock casi nunca tiene contención.
+ */
+final class WebSocketCipherContext {
+
+    private final CryptoConfig config;
+
+    // Valores de la configuración con los que se construyó el contexto
+    private final String mode;
+    private final String padding;
+    private final String keyBase64;
+    private final String ivBase64;
+    private final String keyRing;
+    private final String ivPolicy;
+    private final String ivPlacement;
+    private final String keyDerivation;
+    private final String passphrase;
+    private final int kdfIterations;
+    private final boolean keyLearning;
+    private final String keyWrapping;
+    private final String requestCodecs;
+    private final String responseCodecs;
+
+    // null con derivación de clave (cada mensaje trae su salt), IV por mensaje, anillo o claves de sesión
+    private final Cipher decryptCipher;
+    // null también en GCM: el JDK no permite cifrar dos veces con el mismo nonce
+    private final Cipher encryptCipher;
+
+    private final CodecChain requestChain;
+    private final CodecChain responseChain;
+
+    private WebSocketCipherContext(CryptoConfig config) throws Exception {
+        this.config = config;
+        this.mode = config.getMode();
+        this.padding = config.getPadding();
+        this.keyBase64 = config.getKeyBase64();
+        this.ivBase64 = config.getIvBase64();
+        this.keyRing = config.getKeyRing();
+        this.ivPolicy = config.getIvPolicy();
+        this.ivPlacement = config.getIvPlacement();
+        this.keyDerivation = config.getKeyDerivation();
+        this.passphrase = config.getPassphrase();
+        this.kdfIterations = config.getKdfIterations();
+        this.keyLearning = config.isKeyLearning();
+        this.keyWrapping = config.getKeyWrapping();
+        this.requestCodecs = config.getRequestCodecs();
+        this.responseCodecs = config.getResponseCodecs();
+
+        if (config.usesKeyDerivation() || config.usesIvPrefix() || config.usesKeyRing()
+                || config.usesSessionKeys()) {
+            decryptCipher = null;
+            encryptCipher = null;
+        } else {
+            decryptCipher = CryptoHelper.initCipher(Cipher.DECRYPT_MODE, config, config.getKey(), config.getIv());
+            encryptCipher = "GCM".equals(mode)
+                    ? null : CryptoHelper.initCipher(Cipher.ENCRYPT_MODE, config, config.getKey(), config.getIv());
+        }
+
+        CodecChain.Stage cipher = new CipherStage();
+        this.requestChain = CodecChain.compile(requestCodecs).withCipher(cipher);
+        this.responseChain = CodecChain.compile(responseCodecs).withCipher(cipher);
+    }
+
+    /**
+     * Construye el contexto de una conexión con la configuración actual
+     */
+    static WebSocketCipherContext bind(CryptoConfig config) throws Exception {
+        if (!config.isValid()) {
+            throw new Exception("Invalid crypto configuration");
+        }
+        return new WebSocketCipherContext(config);
+    }
+
+    /**
+     * Indica si el contexto sigue correspondiendo a la configuración
+     */
+    boolean isCurrent() {
+        return Objects.equals(mode, config.getMode())
+                && Objects.equals(padding, config.getPadding())
+                && Objects.equals(keyBase64, config.getKeyBase64())
+                && Objects.equals(ivBase64, config.getIvBase64())
+                && Objects.equals(keyRing, config.getKeyRing())
+                && Objects.equals(ivPolicy, config.getIvPolicy())
+                && Objects.equals(ivPlacement, config.getIvPlacement())
+                && Objects.equals(keyDerivation, config.getKeyDerivation())
+                && Objects.equals(passphrase, config.getPassphrase())
+                && kdfIterations == config.getKdfIterations()
+                && keyLearning == config.isKeyLearning()
+                && Objects.equals(keyWrapping, config.getKeyWrapping())
+                && Objects.equals(requestCodecs, config.getRequestCodecs())
+                && Objects.equals(responseCodecs, config.getResponseCodecs());
+    }
+
+    /**
+     * Cadena de codecs del sentido dado (cliente → servidor usa la de requests)
+     */
+    CodecChain chain(boolean clientToServer) {
+        return clientToServer ? requestChain : responseChain;
+    }
+
+    /**
+     * Descifra un frame binario completo (sin codecs)
+     */
+    byte[] decrypt(byte[] data) throws Exception {
+        if (decryptCipher == null) {
+            return CryptoHelper.decrypt(data, config);
+        }
+        synchronized (decryptCipher) {
+            return decryptCipher.doFinal(data);
+        }
+    }
+
+    /**
+     * Cifra un frame binario completo (sin codecs)
+     */
+    byte[] encrypt(byte[] data) throws Exception {
+        if (encryptCipher == null) {
+            return CryptoHelper.encrypt(data, config);
+        }
+        synchronized (encryptCipher) {
+            return encryptCipher.doFinal(data);
+        }
+    }
+
+    CryptoConfig config() {
+        return config;
+    }
+
+    /**
+     * Etapa AES de las cadenas, sobre los Cipher cacheados
+     */
+    private class CipherStage implements CodecChain.Stage {
+        @Override
+        public String name() {
+            return "AES";
+        }
+
+        @Override
+        public byte[] decode(byte[] in, CryptoConfig config) throws Exception {
+            return decrypt(in);
+        }
+
+        @Override
+        public byte[] encode(byte[] in, CryptoConfig config) throws Exception {
+            return encrypt(in);
+        }
+    }
+}
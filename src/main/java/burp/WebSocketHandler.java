@@ -0,0 +1,386 @@
+package burp;
+
+import burp.api.montoya.MontoyaApi;
+import burp.api.montoya.core.ByteArray;
+import burp.api.montoya.http.message.requests.HttpRequest;
+import burp.api.montoya.logging.Logging;
+import burp.api.montoya.proxy.websocket.BinaryMessageReceivedAction;
+import burp.api.montoya.proxy.websocket.BinaryMessageToBeSentAction;
+import burp.api.montoya.proxy.websocket.InterceptedBinaryMessage;
+import burp.api.montoya.proxy.websocket.InterceptedTextMessage;
+import burp.api.montoya.proxy.websocket.ProxyMessageHandler;
+import burp.api.montoya.proxy.websocket.ProxyWebSocketCreation;
+import burp.api.montoya.proxy.websocket.ProxyWebSocketCreationHandler;
+import burp.api.montoya.proxy.websocket.TextMessageReceivedAction;
+import burp.api.montoya.proxy.websocket.TextMessageToBeSentAction;
+import burp.api.montoya.websocket.Direction;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+
+/**
+ * WebSocketHandler - Descifra y vuelve a cifrar frames WebSocket en el Proxy
+ *
+ * FLUJO (igual que ProxyHandler + HttpHandler para HTTP):
+ * 1. Frame recibido en el Proxy → se DESCIFRA para verlo en claro
+ * 2. Frame a punto de enviarse → se CIFRA de nuevo para el destino
+ *
+ * Cliente → servidor usa el parámetro y la cadena de codecs de requests;
+ * servidor → cliente, los de responses.
+ *
+ * Cada conexión guarda su WebSocketCipherContext, creado en el handshake,
+ * y el request de upgrade: con claves de sesión cada frame se procesa con la
+ * clave que resuelve ese request (envuelta en él o aprendida para su sesión).
+ * Los frames JSON no se parsean: solo se localiza y reemplaza el valor del
+ * campo (JsonSplice). Un frame que no es JSON se trata entero como el valor
+ * cifrado. Por frame no se escribe en el log salvo errores: a cientos de
+ * frames por segundo el log costaría más que el cifrado.
+ *
+ * Al enviar solo se cifra lo que se descifró al recibir: cada sentido de la
+ * conexión guarda, en orden, cómo se recibió cada frame (campo, frame
+ * entero, binario en bruto o sin tocar). Los keep-alives y frames de
+ * control en claro salen igual que llegaron.
+ */
+public class WebSocketHandler implements ProxyWebSocketCreationHandler {
+
+    // Cómo se recibió un frame
+    private static final int PLAIN = 0;   // sin descifrar: sale tal cual
+    private static final int FIELD = 1;   // campo JSON descifrado
+    private static final int WHOLE = 2;   // frame de texto entero descifrado
+    private static final int RAW = 3;     // frame binario descifrado en bruto, sin codecs
+
+    // Frames recibidos pendientes de enviar por sentido (los descartados en el Proxy no salen nunca)
+    private static final int MAX_PENDING = 1024;
+
+    private final CryptoConfig config;
+    private final Logging logging;
+
+    public WebSocketHandler(CryptoConfig config, MontoyaApi api) {
+        this.config = config;
+        this.logging = api.logging();
+    }
+
+    /**
+     * Handshake: registra el handler de la conexión con su contexto de cifrado
+     */
+    @Override
+    public void handleWebSocketCreation(ProxyWebSocketCreation webSocketCreation) {
+        HttpRequest upgradeRequest = webSocketCreation.upgradeRequest();
+        String url = upgradeRequest.url();
+        webSocketCreation.proxyWebSocket().registerProxyMessageHandler(new Connection(upgradeRequest));
+        if (config.isEnabled()) {
+            logging.logToOutput("[WS] Conexión WebSocket registrada: " + url);
+        }
+    }
+
+    /**
+     * Un frame tal como salió del handler de recepción
+     */
+    static final class Ingress {
+        final int kind;
+        final String text;    // frames de texto
+        final byte[] bytes;   // frames binarios
+
+        private Ingress(int kind, String text, byte[] bytes) {
+            this.kind = kind;
+            this.text = text;
+            this.bytes = bytes;
+        }
+
+        boolean matches(String payload, byte[] binary) {
+            return text != null ? text.equals(payload) : Arrays.equals(bytes, binary);
+        }
+    }
+
+    /**
+     * Handler de los frames de una conexión
+     */
+    class Connection implements ProxyMessageHandler {
+        private final HttpRequest upgradeRequest;
+        private final String url;
+        private volatile WebSocketCipherContext context;
+        private final Deque<Ingress> pendingRequests = new ArrayDeque<>();
+        private final Deque<Ingress> pendingResponses = new ArrayDeque<>();
+
+        Connection(HttpRequest upgradeRequest) {
+            this.upgradeRequest = upgradeRequest;
+            this.url = upgradeRequest.url();
+            try {
+                this.context = WebSocketCipherContext.bind(config);
+            } catch (Exception e) {
+                // Sin configuración válida todavía: se intenta de nuevo en el primer frame
+                this.context = null;
+            }
+        }
+
+        @Override
+        @SuppressWarnings("try")
+        public TextMessageReceivedAction handleTextMessageReceived(InterceptedTextMessage interceptedTextMessage) {
+            boolean clientToServer = interceptedTextMessage.direction() == Direction.CLIENT_TO_SERVER;
+            if (!shouldDecrypt(clientToServer)) {
+                return TextMessageReceivedAction.continueWith(interceptedTextMessage);
+            }
+
+            String payload = interceptedTextMessage.payload();
+            Ingress ingress = null;
+            try (SessionKeys.Scope ignored = keys()) {
+                ingress = decryptText(context(), payload, clientToServer);
+            } catch (Exception e) {
+                logging.logToError("[WS] Error descifrando frame de " + url + ": " + e.getMessage());
+            }
+            if (ingress == null) {
+                remember(clientToServer, new Ingress(PLAIN, payload, null));
+                return TextMessageReceivedAction.continueWith(interceptedTextMessage);
+            }
+            remember(clientToServer, ingress);
+            return TextMessageReceivedAction.continueWith(ingress.text);
+        }
+
+        @Override
+        @SuppressWarnings("try")
+        public TextMessageToBeSentAction handleTextMessageToBeSent(InterceptedTextMessage interceptedTextMessage) {
+            if (!shouldEncrypt()) {
+                return TextMessageToBeSentAction.continueWith(interceptedTextMessage);
+            }
+
+            boolean clientToServer = interceptedTextMessage.direction() == Direction.CLIENT_TO_SERVER;
+            String payload = interceptedTextMessage.payload();
+            Ingress ingress = take(clientToServer, payload, null);
+            if (ingress == null || ingress.kind == PLAIN) {
+                return TextMessageToBeSentAction.continueWith(interceptedTextMessage);
+            }
+            try (SessionKeys.Scope ignored = keys()) {
+                String encrypted = encryptText(context(), payload, clientToServer, ingress.kind);
+                if (encrypted != null) {
+                    return TextMessageToBeSentAction.continueWith(encrypted);
+                }
+            } catch (Exception e) {
+                logging.logToError("[WS] Error cifrando frame para " + url + ": " + e.getMessage());
+            }
+            return TextMessageToBeSentAction.continueWith(interceptedTextMessage);
+        }
+
+        @Override
+        @SuppressWarnings("try")
+        public BinaryMessageReceivedAction handleBinaryMessageReceived(InterceptedBinaryMessage interceptedBinaryMessage) {
+            boolean clientToServer = interceptedBinaryMessage.direction() == Direction.CLIENT_TO_SERVER;
+            if (!shouldDecrypt(clientToServer)) {
+                return BinaryMessageReceivedAction.continueWith(interceptedBinaryMessage);
+            }
+
+            byte[] payload = interceptedBinaryMessage.payload().getBytes();
+            Ingress ingress = null;
+            try (SessionKeys.Scope ignored = keys()) {
+                ingress = decryptBinary(context(), payload, clientToServer);
+            } catch (Exception e) {
+                logging.logToError("[WS] Error descifrando frame binario de " + url + ": " + e.getMessage());
+            }
+            if (ingress == null) {
+                remember(clientToServer, new Ingress(PLAIN, null, payload));
+                return BinaryMessageReceivedAction.continueWith(interceptedBinaryMessage);
+            }
+            remember(clientToServer, ingress);
+            return BinaryMessageReceivedAction.continueWith(ByteArray.byteArray(ingress.bytes));
+        }
+
+        @Override
+        @SuppressWarnings("try")
+        public BinaryMessageToBeSentAction handleBinaryMessageToBeSent(InterceptedBinaryMessage interceptedBinaryMessage) {
+            if (!shouldEncrypt()) {
+                return BinaryMessageToBeSentAction.continueWith(interceptedBinaryMessage);
+            }
+
+            boolean clientToServer = interceptedBinaryMessage.direction() == Direction.CLIENT_TO_SERVER;
+            byte[] payload = interceptedBinaryMessage.payload().getBytes();
+            Ingress ingress = take(clientToServer, null, payload);
+            if (ingress == null || ingress.kind == PLAIN) {
+                return BinaryMessageToBeSentAction.continueWith(interceptedBinaryMessage);
+            }
+            try (SessionKeys.Scope ignored = keys()) {
+                byte[] encrypted = encryptBinary(context(), payload, clientToServer, ingress.kind);
+                if (encrypted != null) {
+                    return BinaryMessageToBeSentAction.continueWith(ByteArray.byteArray(encrypted));
+                }
+            } catch (Exception e) {
+                logging.logToError("[WS] Error cifrando frame binario para " + url + ": " + e.getMessage());
+            }
+            return BinaryMessageToBeSentAction.continueWith(interceptedBinaryMessage);
+        }
+
+        /**
+         * Contexto de la conexión; se reconstruye si la configuración cambió
+         */
+        private WebSocketCipherContext context() throws Exception {
+            WebSocketCipherContext current = context;
+            if (current == null || !current.isCurrent()) {
+                current = WebSocketCipherContext.bind(config);
+                context = current;
+            }
+            return current;
+        }
+
+        /**
+         * Fija en el hilo la clave de sesión de la conexión (sin claves de sesión no hace nada)
+         */
+        private SessionKeys.Scope keys() throws Exception {
+            return SessionKeys.scope(config, upgradeRequest);
+        }
+
+        /**
+         * Anota cómo se recibió un frame, en el orden de llegada
+         */
+        private void remember(boolean clientToServer, Ingress ingress) {
+            Deque<Ingress> pending = clientToServer ? pendingRequests : pendingResponses;
+            synchronized (pending) {
+                if (pending.size() >= MAX_PENDING) {
+                    pending.pollFirst();
+                }
+                pending.addLast(ingress);
+            }
+        }
+
+        /**
+         * Cómo se recibió el frame que sale ahora: el primero pendiente que sale
+         * sin cambios (los anteriores se descartaron en el Proxy) o, si se
+         * editó, el más antiguo
+         *
+         * @return null si no hay ninguno pendiente (frame que no pasó por la recepción)
+         */
+        private Ingress take(boolean clientToServer, String text, byte[] bytes) {
+            Deque<Ingress> pending = clientToServer ? pendingRequests : pendingResponses;
+            synchronized (pending) {
+                int skipped = 0;
+                for (Ingress ingress : pending) {
+                    if (ingress.matches(text, bytes)) {
+                        for (int i = 0; i < skipped; i++) {
+                            pending.pollFirst();
+                        }
+                        return pending.pollFirst();
+                    }
+                    skipped++;
+                }
+                return pending.pollFirst();
+            }
+        }
+
+        /**
+         * Descifra el campo de un frame de texto
+         *
+         * @return el frame con el campo en claro, o null si no hay nada que descifrar
+         */
+        Ingress decryptText(WebSocketCipherContext context, String payload, boolean clientToServer) throws Exception {
+            CodecChain chain = context.chain(clientToServer);
+            int[] range = "JSON".equals(config.getDataFormat()) ? JsonSplice.findValue(payload, parameter(clientToServer)) : null;
+
+            if (range == null) {
+                // Frame que no es un objeto JSON con el campo: el frame entero es el valor
+                String value = payload.trim();
+                if (!chain.isLikelyEncrypted(value, config)) {
+                    return null;
+                }
+                return new Ingress(WHOLE, chain.decrypt(value, config), null);
+            }
+
+            // Un objeto/array ya está descifrado; otros primitivos no son ciphertext
+            if (!JsonSplice.isString(payload, range)) {
+                return null;
+            }
+            String value = JsonSplice.unquote(payload, range[0], range[1]);
+            if (!chain.isLikelyEncrypted(value, config)) {
+                return null;
+            }
+
+            // JSON en claro va como objeto/array, igual que en MessageTransformer
+            String plaintext = chain.decrypt(value, config);
+            return new Ingress(FIELD, JsonSplice.splice(payload, range,
+                    JsonSplice.isComposite(plaintext) ? plaintext.trim() : JsonSplice.quote(plaintext)), null);
+        }
+
+        /**
+         * Vuelve a cifrar lo que se descifró al recibir el frame
+         *
+         * Si se descifró el frame entero, se cifra entero aunque sea JSON con un
+         * campo del mismo nombre; si se descifró un campo, solo ese campo
+         *
+         * @param kind WHOLE o FIELD, según se recibió
+         * @return el frame cifrado, o null si el campo ya no está
+         */
+        String encryptText(WebSocketCipherContext context, String payload, boolean clientToServer, int kind)
+                throws Exception {
+            CodecChain chain = context.chain(clientToServer);
+            PlaintextRules rules = PlaintextRules.compile(config.getPlaintextRules());
+            String label = clientToServer ? "Request" : "Response";
+
+            if (kind == WHOLE) {
+                return chain.encrypt(rules.apply(payload, label), config);
+            }
+
+            int[] range = JsonSplice.findValue(payload, parameter(clientToServer));
+            if (range == null) {
+                return null;
+            }
+            String plainData = JsonSplice.isString(payload, range)
+                    ? JsonSplice.unquote(payload, range[0], range[1])
+                    : payload.substring(range[0], range[1]);
+            return JsonSplice.splice(payload, range,
+                    JsonSplice.quote(chain.encrypt(rules.apply(plainData, label), config)));
+        }
+
+        /**
+         * Frames binarios: si llevan JSON se tratan como texto; si no, el frame
+         * entero es el ciphertext, sin codecs
+         */
+        Ingress decryptBinary(WebSocketCipherContext context, byte[] payload, boolean clientToServer) throws Exception {
+            if (looksLikeJson(payload)) {
+                Ingress text = decryptText(context, new String(payload, StandardCharsets.UTF_8), clientToServer);
+                return text != null ? new Ingress(text.kind, null, text.text.getBytes(StandardCharsets.UTF_8)) : null;
+            }
+            if (!CiphertextScanner.isPlausibleCiphertext(payload.length, config)) {
+                return null;
+            }
+            return new Ingress(RAW, null, context.decrypt(payload));
+        }
+
+        /**
+         * @param kind RAW, o WHOLE/FIELD si el frame llevaba JSON al recibirlo
+         */
+        byte[] encryptBinary(WebSocketCipherContext context, byte[] payload, boolean clientToServer, int kind)
+                throws Exception {
+            // El texto en claro de un frame binario cifrado en bruto puede ser JSON: se cifra entero
+            if (kind == RAW) {
+                return context.encrypt(payload);
+            }
+            String encrypted = encryptText(context, new String(payload, StandardCharsets.UTF_8), clientToServer, kind);
+            return encrypted != null ? encrypted.getBytes(StandardCharsets.UTF_8) : null;
+        }
+    }
+
+    private boolean shouldDecrypt(boolean clientToServer) {
+        if (!config.isEnabled() || !config.isEagerProxyRewrite()) {
+            return false;
+        }
+        return clientToServer ? config.isDecryptRequests() : config.isDecryptResponses();
+    }
+
+    private boolean shouldEncrypt() {
+        return config.isEnabled() && config.isEagerProxyRewrite() && config.isAutoEncrypt();
+    }
+
+    private String parameter(boolean clientToServer) {
+        return clientToServer ? config.getRequestParameter() : config.getResponseParameter();
+    }
+
+    private static boolean looksLikeJson(byte[] payload) {
+        for (byte b : payload) {
+            if (b == '{') {
+                return true;
+            }
+            if (b != ' ' && b != '\t' && b != '\r' && b != '\n') {
+                return false;
+            }
+        }
+        return false;
+    }
+}
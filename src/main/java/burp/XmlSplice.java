@@ -0,0 +1,478 @@
+package burp;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+
+/**
+ * XmlSplice - Transforma elementos y atributos XML en una sola pasada
+ *
+ * Lee el documento como un lector StAX, de marca en marca, y copia al
+ * Writer todo lo que no cambia tal cual: no se construye DOM ni se vuelve a
+ * serializar, así que espacios, comentarios, prefijos y el orden de los
+ * atributos se conservan. Solo se retienen en memoria la etiqueta actual y
+ * el contenido del elemento buscado, ambos acotados.
+ *
+ * El nombre se compara con el nombre local (sin prefijo de namespace) o con
+ * el nombre completo, y se transforman todas las apariciones: elementos
+ * (texto o CDATA) y atributos con ese nombre.
+ */
+final class XmlSplice {
+
+    // Etiquetas y valores más grandes se consideran XML roto, no un campo
+    static final int MAX_TAG_CHARS = 64 * 1024;
+    static final int MAX_VALUE_CHARS = 16 * 1024 * 1024;
+
+    private static final int START = 0;
+    private static final int EMPTY = 1;
+    private static final int END = 2;
+    private static final int OTHER = 3;
+
+    private final Input in;
+    private final Writer out;
+    private final String name;
+    private final MessageTransformer.FieldTransform transform;
+    private final StringBuilder tag = new StringBuilder();
+    private int count;
+
+    private XmlSplice(Reader reader, Writer out, String name, MessageTransformer.FieldTransform transform) {
+        this.in = new Input(reader);
+        this.out = out;
+        this.name = name;
+        this.transform = transform;
+    }
+
+    /**
+     * Copia el documento de reader a out transformando los valores con ese nombre
+     *
+     * @return número de valores transformados (0: la salida es igual a la entrada)
+     */
+    static int transform(Reader reader, Writer out, String name,
+                         MessageTransformer.FieldTransform transform) throws Exception {
+        XmlSplice splice = new XmlSplice(reader, out, name, transform);
+        splice.run();
+        return splice.count;
+    }
+
+    private void run() throws Exception {
+        while (in.copyText(out)) {
+            in.next();
+            int kind = readMarkup(out);
+            if (kind == END) {
+                out.append(tag);
+                continue;
+            }
+            if (kind == OTHER) {
+                continue;
+            }
+
+            String text = transformAttributes(tag.toString());
+            out.write(text);
+            if (kind == START && matches(tagName(text, 1))) {
+                transformContent();
+            }
+        }
+    }
+
+    /**
+     * Contenido del elemento hasta su etiqueta de cierre (elementos anidados incluidos)
+     */
+    private void transformContent() throws Exception {
+        Capture content = new Capture();
+        int depth = 0;
+        while (true) {
+            if (!in.copyText(content)) {
+                throw new Exception("XML incompleto: falta el cierre de <" + name + ">");
+            }
+            in.next();
+            int kind = readMarkup(content);
+            if (kind == START) {
+                depth++;
+            } else if (kind == END && depth-- == 0) {
+                break;
+            }
+            if (kind != OTHER) {
+                content.append(tag);
+            }
+        }
+
+        String raw = content.chars.toString();
+        String transformed = transform.apply(contentValue(raw));
+        if (transformed != null) {
+            out.write(escapeContent(transformed));
+            count++;
+        } else {
+            out.write(raw);
+        }
+        out.append(tag);
+    }
+
+    /**
+     * Transforma los atributos con ese nombre; devuelve la etiqueta, reescrita o no
+     */
+    private String transformAttributes(String text) throws Exception {
+        StringBuilder rewritten = null;
+        int copied = 0;
+        int i = 1 + tagName(text, 1).length();
+        while (i < text.length()) {
+            char c = text.charAt(i);
+            if (Character.isWhitespace(c) || c == '/' || c == '>') {
+                i++;
+                continue;
+            }
+            int nameStart = i;
+            while (i < text.length() && text.charAt(i) != '=' && !Character.isWhitespace(text.charAt(i))
+                    && text.charAt(i) != '>' && text.charAt(i) != '/') {
+                i++;
+            }
+            String attribute = text.substring(nameStart, i);
+            while (i < text.length() && Character.isWhitespace(text.charAt(i))) {
+                i++;
+            }
+            if (i >= text.length() || text.charAt(i) != '=') {
+                continue;
+            }
+            i++;
+            while (i < text.length() && Character.isWhitespace(text.charAt(i))) {
+                i++;
+            }
+            if (i >= text.length() || (text.charAt(i) != '"' && text.charAt(i) != '\'')) {
+                throw new Exception("Atributo XML sin comillas: " + attribute);
+            }
+            char quote = text.charAt(i);
+            int valueEnd = text.indexOf(quote, i + 1);
+            if (valueEnd < 0) {
+                throw new Exception("Atributo XML sin cerrar: " + attribute);
+            }
+
+            if (matches(attribute) && !attribute.startsWith("xmlns")) {
+                String transformed = transform.apply(unescape(text.substring(i + 1, valueEnd)));
+                if (transformed != null) {
+                    if (rewritten == null) {
+                        rewritten = new StringBuilder(text.length() + transformed.length());
+                    }
+                    rewritten.append(text, copied, i + 1).append(escapeAttribute(transformed, quote));
+                    copied = valueEnd;
+                    count++;
+                }
+            }
+            i = valueEnd + 1;
+        }
+        return rewritten == null ? text : rewritten.append(text, copied, text.length()).toString();
+    }
+
+    /**
+     * Lee la marca que sigue a '<'. Las etiquetas quedan en tag; comentarios,
+     * CDATA, instrucciones y DOCTYPE se copian directamente a sink
+     */
+    private int readMarkup(Writer sink) throws Exception {
+        int c = in.peek();
+        if (c == '!') {
+            in.next();
+            sink.write("<!");
+            if (in.peek() == '-') {
+                in.copyThrough("-->", sink);
+            } else if (in.peek() == '[') {
+                in.copyThrough("]]>", sink);
+            } else {
+                in.copyDeclaration(sink);
+            }
+            return OTHER;
+        }
+        if (c == '?') {
+            sink.write('<');
+            in.copyThrough("?>", sink);
+            return OTHER;
+        }
+
+        // Etiqueta de apertura, cierre o vacía: hasta '>' fuera de comillas
+        tag.setLength(0);
+        tag.append('<');
+        char quote = 0;
+        while (true) {
+            int d = in.next();
+            if (d < 0) {
+                throw new Exception("XML incompleto: etiqueta sin cerrar");
+            }
+            tag.append((char) d);
+            if (quote != 0) {
+                if (d == quote) {
+                    quote = 0;
+                }
+            } else if (d == '"' || d == '\'') {
+                quote = (char) d;
+            } else if (d == '>') {
+                break;
+            }
+            if (tag.length() > MAX_TAG_CHARS) {
+                throw new Exception("Etiqueta XML de más de " + MAX_TAG_CHARS + " caracteres");
+            }
+        }
+        if (tag.charAt(1) == '/') {
+            return END;
+        }
+        return tag.charAt(tag.length() - 2) == '/' ? EMPTY : START;
+    }
+
+    private boolean matches(String qualifiedName) {
+        if (qualifiedName.equals(name)) {
+            return true;
+        }
+        int colon = qualifiedName.indexOf(':');
+        return colon >= 0 && qualifiedName.length() - colon - 1 == name.length()
+                && qualifiedName.regionMatches(colon + 1, name, 0, name.length());
+    }
+
+    private static String tagName(String text, int start) {
+        int end = start;
+        while (end < text.length() && !Character.isWhitespace(text.charAt(end))
+                && text.charAt(end) != '/' && text.charAt(end) != '>') {
+            end++;
+        }
+        return text.substring(start, end);
+    }
+
+    /**
+     * Valor del contenido: texto sin escapes, una sección CDATA, o el XML
+     * interno tal cual si el elemento tiene hijos
+     */
+    static String contentValue(String raw) {
+        String trimmed = raw.trim();
+        if (trimmed.startsWith("<![CDATA[") && trimmed.endsWith("]]>")
+                && trimmed.indexOf("]]>") == trimmed.length() - 3) {
+            return trimmed.substring(9, trimmed.length() - 3);
+        }
+        return raw.indexOf('<') >= 0 ? raw : unescape(raw);
+    }
+
+    /**
+     * Texto plano como contenido: CDATA si tiene marcas (más legible), escapado si no se puede
+     */
+    static String escapeContent(String value) {
+        if (value.indexOf('<') < 0 && value.indexOf('&') < 0 && value.indexOf('>') < 0) {
+            return value;
+        }
+        if (!value.contains("]]>")) {
+            return "<![CDATA[" + value + "]]>";
+        }
+        StringBuilder sb = new StringBuilder(value.length() + 16);
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '<': sb.append("&lt;"); break;
+                case '>': sb.append("&gt;"); break;
+                case '&': sb.append("&amp;"); break;
+                default: sb.append(c);
+            }
+        }
+        return sb.toString();
+    }
+
+    static String escapeAttribute(String value, char quote) {
+        StringBuilder sb = new StringBuilder(value.length() + 16);
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '<': sb.append("&lt;"); break;
+                case '&': sb.append("&amp;"); break;
+                case '"': sb.append(quote == '"' ? "&quot;" : "\""); break;
+                case '\'': sb.append(quote == '\'' ? "&apos;" : "'"); break;
+                case '\n': sb.append("&#10;"); break;
+                case '\r': sb.append("&#13;"); break;
+                case '\t': sb.append("&#9;"); break;
+                default: sb.append(c);
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Resuelve las entidades predefinidas y las referencias numéricas
+     */
+    static String unescape(String text) {
+        int amp = text.indexOf('&');
+        if (amp < 0) {
+            return text;
+        }
+        StringBuilder sb = new StringBuilder(text.length());
+        sb.append(text, 0, amp);
+        int i = amp;
+        while (i < text.length()) {
+            char c = text.charAt(i);
+            int semicolon = c == '&' ? text.indexOf(';', i) : -1;
+            if (semicolon < 0 || semicolon - i > 10) {
+                sb.append(c);
+                i++;
+                continue;
+            }
+            String entity = text.substring(i + 1, semicolon);
+            switch (entity) {
+                case "lt": sb.append('<'); break;
+                case "gt": sb.append('>'); break;
+                case "amp": sb.append('&'); break;
+                case "quot": sb.append('"'); break;
+                case "apos": sb.append('\''); break;
+                default:
+                    try {
+                        if (entity.startsWith("#x")) {
+                            sb.appendCodePoint(Integer.parseInt(entity.substring(2), 16));
+                        } else if (entity.startsWith("#")) {
+                            sb.appendCodePoint(Integer.parseInt(entity.substring(1)));
+                        } else {
+                            sb.append(text, i, semicolon + 1);
+                        }
+                    } catch (IllegalArgumentException e) {
+                        sb.append(text, i, semicolon + 1);
+                    }
+            }
+            i = semicolon + 1;
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Contenido del elemento buscado, acotado a MAX_VALUE_CHARS
+     */
+    private static final class Capture extends Writer {
+        final StringBuilder chars = new StringBuilder();
+
+        @Override
+        public void write(char[] buffer, int offset, int length) throws IOException {
+            reserve(length);
+            chars.append(buffer, offset, length);
+        }
+
+        @Override
+        public void write(int c) throws IOException {
+            reserve(1);
+            chars.append((char) c);
+        }
+
+        @Override
+        public void write(String text) throws IOException {
+            reserve(text.length());
+            chars.append(text);
+        }
+
+        @Override
+        public Writer append(CharSequence text) throws IOException {
+            reserve(text.length());
+            chars.append(text);
+            return this;
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void close() {
+        }
+
+        private void reserve(int length) throws IOException {
+            if (chars.length() + length > MAX_VALUE_CHARS) {
+                throw new IOException("Valor XML de más de " + MAX_VALUE_CHARS + " caracteres");
+            }
+        }
+    }
+
+    /**
+     * Reader con buffer propio: el texto se copia por tramos, no carácter a carácter
+     */
+    private static final class Input {
+        private final Reader reader;
+        private final char[] buffer = new char[8192];
+        private int position;
+        private int limit;
+
+        Input(Reader reader) {
+            this.reader = reader;
+        }
+
+        int next() throws IOException {
+            if (position == limit && !fill()) {
+                return -1;
+            }
+            return buffer[position++];
+        }
+
+        int peek() throws IOException {
+            if (position == limit && !fill()) {
+                return -1;
+            }
+            return buffer[position];
+        }
+
+        /**
+         * Copia el texto hasta el siguiente '<', sin consumirlo; false al final del documento
+         */
+        boolean copyText(Writer sink) throws IOException {
+            while (true) {
+                if (position == limit && !fill()) {
+                    return false;
+                }
+                int start = position;
+                while (position < limit && buffer[position] != '<') {
+                    position++;
+                }
+                sink.write(buffer, start, position - start);
+                if (position < limit) {
+                    return true;
+                }
+            }
+        }
+
+        /**
+         * Copia hasta el terminador incluido (comentarios, CDATA, instrucciones)
+         */
+        void copyThrough(String terminator, Writer sink) throws Exception {
+            int matched = 0;
+            int last = terminator.length() - 1;
+            while (true) {
+                int c = next();
+                if (c < 0) {
+                    throw new Exception("XML incompleto: falta " + terminator);
+                }
+                sink.write(c);
+                if (c == terminator.charAt(matched)) {
+                    if (matched == last) {
+                        return;
+                    }
+                    matched++;
+                } else {
+                    // "-->" y "]]>" repiten su primer carácter: en "--->" el tercer '-' mantiene el "--"
+                    boolean repeats = matched > 0 && terminator.charAt(1) == c;
+                    matched = c == terminator.charAt(0) ? (repeats ? matched : 1) : 0;
+                }
+            }
+        }
+
+        /**
+         * Copia una declaración (DOCTYPE) hasta su '>', saltando el subconjunto interno [...]
+         */
+        void copyDeclaration(Writer sink) throws Exception {
+            int depth = 0;
+            while (true) {
+                int c = next();
+                if (c < 0) {
+                    throw new Exception("XML incompleto: declaración sin cerrar");
+                }
+                sink.write(c);
+                if (c == '[') {
+                    depth++;
+                } else if (c == ']') {
+                    depth--;
+                } else if (c == '>' && depth <= 0) {
+                    return;
+                }
+            }
+        }
+
+        private boolean fill() throws IOException {
+            int read = reader.read(buffer, 0, buffer.length);
+            position = 0;
+            limit = Math.max(read, 0);
+            return read > 0;
+        }
+    }
+}